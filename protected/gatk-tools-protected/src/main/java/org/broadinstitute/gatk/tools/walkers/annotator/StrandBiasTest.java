@@ -172,8 +172,7 @@ public abstract class StrandBiasTest extends InfoFieldAnnotation {
                 continue;
 
             foundData = true;
-            final String sbbsString = (String) g.getAnyAttribute(StrandBiasBySample.STRAND_BIAS_BY_SAMPLE_KEY_NAME);
-            final int[] data = encodeSBBS(sbbsString);
+            final int[] data = encodeSBBS(g.getAnyAttribute(StrandBiasBySample.STRAND_BIAS_BY_SAMPLE_KEY_NAME));
             if ( passesMinimumThreshold(data, minCount) ) {
                 for( int index = 0; index < sbArray.length; index++ ) {
                     sbArray[index] += data[index];
@@ -316,9 +315,18 @@ public abstract class StrandBiasTest extends InfoFieldAnnotation {
      * @param string the string that is returned by genotype.getAnnotation("SB")
      * @return the array used by the per-sample Strand Bias annotation
      */
-    private static int[] encodeSBBS( final String string ) {
+    private static int[] encodeSBBS( final Object value ) {
+        // genotypes decoded from BCF carry the typed list of counts rather than the raw VCF string
+        if ( value instanceof List ) {
+            final List<?> values = (List<?>) value;
+            final int[] array = new int[4];
+            for( int index = 0; index < 4; index++ ) {
+                array[index] = Integer.parseInt(values.get(index).toString());
+            }
+            return array;
+        }
         final int[] array = new int[4];
-        final StringTokenizer tokenizer = new StringTokenizer(string, ",", false);
+        final StringTokenizer tokenizer = new StringTokenizer(value.toString(), ",", false);
         for( int index = 0; index < 4; index++ ) {
             array[index] = Integer.parseInt(tokenizer.nextToken());
         }
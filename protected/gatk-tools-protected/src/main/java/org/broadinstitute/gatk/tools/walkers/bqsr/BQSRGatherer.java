@@ -57,6 +57,7 @@ import org.broadinstitute.gatk.utils.commandline.Gatherer;
 import org.broadinstitute.gatk.engine.report.GATKReport;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.recalibration.FlatRecalibrationTables;
 import org.broadinstitute.gatk.utils.recalibration.RecalibrationReport;
 
 import java.io.File;
@@ -119,19 +120,24 @@ public class BQSRGatherer extends Gatherer  {
             }
         }
 
+        // Accumulate the observations of all inputs in flat tables, and write the totals back into the first report
         RecalibrationReport generalReport = null;
+        FlatRecalibrationTables mergedTables = null;
         for (File input : inputs) {
             final RecalibrationReport inputReport = new RecalibrationReport(input, allReadGroups);
             if( inputReport.isEmpty() ) { continue; }
 
-            if (generalReport == null)
+            if (generalReport == null) {
                 generalReport = inputReport;
-            else
-                generalReport.combine(inputReport);
+                mergedTables = new FlatRecalibrationTables(generalReport.getRecalibrationTables());
+            }
+            mergedTables.addAll(inputReport.getRecalibrationTables());
         }
         if (generalReport == null)
             throw new ReviewedGATKException(EMPTY_INPUT_LIST);
 
+        mergedTables.exportTo(generalReport.getRecalibrationTables());
+
         generalReport.calculateQuantizedQualities();
 
         return generalReport.createGATKReport();
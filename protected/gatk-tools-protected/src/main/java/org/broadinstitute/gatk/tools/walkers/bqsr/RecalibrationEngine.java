@@ -77,6 +77,35 @@ public class RecalibrationEngine {
      */
     private RecalibrationTables finalRecalibrationTables = null;
 
+    /**
+     * The tables updated by updateDataForRead(), unless we are logging the table updates
+     *
+     * The flat tables can be updated concurrently without locking, so in low memory mode all threads share
+     * one set of tables.  Otherwise each thread gets its own, so threads never contend for the same leaves.
+     */
+    private final List<FlatRecalibrationTables> flatTablesList = new LinkedList<FlatRecalibrationTables>();
+
+    private final ThreadLocal<FlatRecalibrationTables> threadLocalFlatTables = new ThreadLocal<FlatRecalibrationTables>() {
+        private synchronized FlatRecalibrationTables makeAndCaptureTable() {
+            final FlatRecalibrationTables newTable = new FlatRecalibrationTables(covariates, numReadGroups);
+            flatTablesList.add(newTable);
+            return newTable;
+        }
+
+        @Override
+        protected synchronized FlatRecalibrationTables initialValue() {
+            if ( lowMemoryMode ) {
+                return flatTablesList.isEmpty() ? makeAndCaptureTable() : flatTablesList.get(0);
+            } else {
+                return makeAndCaptureTable();
+            }
+        }
+    };
+
+    /**
+     * The tables updated by updateDataForRead() when we are logging the table updates, as the log records
+     * the gets and puts of the RecalDatums in the NestedIntegerArrays of RecalibrationTables
+     */
     private final List<RecalibrationTables> recalibrationTablesList = new LinkedList<RecalibrationTables>();
 
     private final ThreadLocal<RecalibrationTables> threadLocalTables = new ThreadLocal<RecalibrationTables>() {
@@ -100,7 +129,7 @@ public class RecalibrationEngine {
      * Get a recalibration table suitable for updating the underlying RecalDatums
      *
      * May return a thread-local version, or a single version, depending on the initialization
-     * arguments of this instance.
+     * arguments of this instance.  Only used when logging the table updates.
      *
      * @return updated tables
      */
@@ -108,6 +137,15 @@ public class RecalibrationEngine {
         return threadLocalTables.get();
     }
 
+    /**
+     * Get the flat tables suitable for updating, either a thread-local version or a single shared version
+     *
+     * @return updated tables
+     */
+    protected FlatRecalibrationTables getUpdatableFlatRecalibrationTables() {
+        return threadLocalFlatTables.get();
+    }
+
     /**
      * Initialize the recalibration engine
      *
@@ -137,6 +175,42 @@ public class RecalibrationEngine {
      */
     @Requires("recalInfo != null")
     public void updateDataForRead( final ReadRecalibrationInfo recalInfo ) {
+        if ( maybeLogStream != null ) {
+            updateLoggedDataForRead(recalInfo);
+            return;
+        }
+
+        final GATKSAMRecord read = recalInfo.getRead();
+        final ReadCovariates readCovariates = recalInfo.getCovariatesValues();
+        final FlatRecalibrationTables tables = getUpdatableFlatRecalibrationTables();
+        final FlatRecalDatumTable qualityScoreTable = tables.getQualityScoreTable();
+
+        for( int offset = 0; offset < read.getReadBases().length; offset++ ) {
+            if( ! recalInfo.skip(offset) ) {
+
+                for (final EventType eventType : EventType.values()) {
+                    final int[] keys = readCovariates.getKeySet(offset, eventType);
+                    final int eventIndex = eventType.ordinal();
+                    final byte qual = recalInfo.getQual(eventType, offset);
+                    final double isError = recalInfo.getErrorFraction(eventType, offset);
+
+                    qualityScoreTable.increment(qual, isError, keys[0], keys[1], eventIndex);
+
+                    for (int i = 2; i < covariates.length; i++) {
+                        if (keys[i] < 0)
+                            continue;
+
+                        tables.getTable(i).increment(qual, isError, keys[0], keys[1], keys[i], eventIndex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as updateDataForRead(), but updating the RecalibrationTables that log their updates to maybeLogStream
+     */
+    private void updateLoggedDataForRead( final ReadRecalibrationInfo recalInfo ) {
         final GATKSAMRecord read = recalInfo.getRead();
         final ReadCovariates readCovariates = recalInfo.getCovariatesValues();
         final RecalibrationTables tables = getUpdatableRecalibrationTables();
@@ -211,6 +285,21 @@ public class RecalibrationEngine {
      */
     @Requires("! finalized")
     private RecalibrationTables mergeThreadLocalRecalibrationTables() {
+        if ( maybeLogStream == null ) {
+            FlatRecalibrationTables merged = null;
+            for ( final FlatRecalibrationTables table : flatTablesList ) {
+                if ( merged == null )
+                    merged = table;
+                else
+                    merged.combine(table);
+            }
+
+            final RecalibrationTables tables = new RecalibrationTables(covariates, numReadGroups, null);
+            if ( merged != null )
+                merged.exportTo(tables);
+            return tables;
+        }
+
         if ( recalibrationTablesList.isEmpty() ) {
             recalibrationTablesList.add( new RecalibrationTables(covariates, numReadGroups, maybeLogStream) );
         }
@@ -198,6 +198,17 @@ public class GenotypeLikelihoodCalculator {
      */
     private double[] readGenotypeLikelihoodComponents;
 
+    /**
+     * Flattened components of every genotype for this calculator ploidy and allele count.
+     *
+     * <p>
+     *     It is shared with other calculators (see {@link GenotypeLikelihoodCalculators#componentTable}) and is
+     *     {@code null} when the number of genotypes is too large for it to be precomputed; then we enumerate
+     *     the genotype-allele-counts as we go instead.
+     * </p>
+     */
+    private final GenotypeComponentTable componentTable;
+
     /**
      * Creates a new calculator providing its ploidy and number of genotyping alleles.
      */
@@ -205,6 +216,24 @@ public class GenotypeLikelihoodCalculator {
                                           final int[][] alleleFirstGenotypeOffsetByPloidy,
                                           final GenotypeAlleleCounts[][] genotypeTableByPloidy,
                                           final double[] ploidyLog10) {
+        this(ploidy, alleleCount, alleleFirstGenotypeOffsetByPloidy, genotypeTableByPloidy, ploidyLog10, null);
+    }
+
+    /**
+     * Creates a new calculator providing its ploidy, number of genotyping alleles and a precomputed genotype
+     * component table.
+     *
+     * @param componentTable the genotype component table for {@code ploidy} and {@code alleleCount}, or {@code null}
+     *                       to enumerate genotypes on the fly.
+     */
+    protected GenotypeLikelihoodCalculator(final int ploidy, final int alleleCount,
+                                          final int[][] alleleFirstGenotypeOffsetByPloidy,
+                                          final GenotypeAlleleCounts[][] genotypeTableByPloidy,
+                                          final double[] ploidyLog10,
+                                          final GenotypeComponentTable componentTable) {
+        if (componentTable != null && (componentTable.ploidy != ploidy || componentTable.alleleCount != alleleCount))
+            throw new IllegalArgumentException("the genotype component table does not match the calculator ploidy and allele count");
+        this.componentTable = componentTable;
         this.alleleFirstGenotypeOffsetByPloidy = alleleFirstGenotypeOffsetByPloidy;
         genotypeAlleleCounts = genotypeTableByPloidy[ploidy];
         this.alleleCount = alleleCount;
@@ -370,6 +399,8 @@ public class GenotypeLikelihoodCalculator {
      * @return never {@code null}.
      */
     private double[][] genotypeLikelihoodByRead(final double[] readLikelihoodComponentsByAlleleCount, final int readCount) {
+        if (componentTable != null)
+            return genotypeLikelihoodByRead(componentTable, readLikelihoodComponentsByAlleleCount, readCount);
 
         // Here we don't use the convenience of {@link #genotypeAlleleCountsAt(int)} within the loop to spare instantiations of
         // GenotypeAlleleCounts class when we are dealing with many genotypes.
@@ -394,6 +425,49 @@ public class GenotypeLikelihoodCalculator {
         return readLikelihoodsByGenotypeIndex;
     }
 
+    /**
+     * Calculates the likelihood component of each read on each genotype running through a precomputed
+     * genotype component table.
+     *
+     * @param table the component table for this calculator's ploidy and allele count.
+     * @param readLikelihoodComponentsByAlleleCount [a][f][r] likelihood stratified by allele <i>a</i>, frequency in genotype <i>f</i> and
+     *                                              read <i>r</i>.
+     * @param readCount number of reads in {@code readLikelihoodComponentsByAlleleCount}.
+     * @return never {@code null}.
+     */
+    private double[][] genotypeLikelihoodByRead(final GenotypeComponentTable table,
+                                                final double[] readLikelihoodComponentsByAlleleCount,
+                                                final int readCount) {
+        final int[] componentStart = table.componentStart;
+        final int[] componentSlots = table.componentSlots;
+        for (int genotypeIndex = 0; genotypeIndex < genotypeCount; genotypeIndex++) {
+            final double[] likelihoodByRead = this.readLikelihoodsByGenotypeIndex[genotypeIndex];
+            final int from = componentStart[genotypeIndex];
+            final int componentCount = componentStart[genotypeIndex + 1] - from;
+            switch (componentCount) {
+                case 1:
+                    System.arraycopy(readLikelihoodComponentsByAlleleCount, componentSlots[from] * readCount, likelihoodByRead, 0, readCount);
+                    break;
+                case 2:
+                    int offset0 = componentSlots[from] * readCount;
+                    int offset1 = componentSlots[from + 1] * readCount;
+                    for (int r = 0; r < readCount; r++)
+                        likelihoodByRead[r] = MathUtils.approximateLog10SumLog10(readLikelihoodComponentsByAlleleCount[offset0++],
+                                readLikelihoodComponentsByAlleleCount[offset1++]);
+                    break;
+                default:
+                    for (int c = 0; c < componentCount; c++) {
+                        int alleleDataOffset = componentSlots[from + c] * readCount;
+                        for (int r = 0, readDataOffset = c; r < readCount; r++, readDataOffset += maximumDistinctAllelesInGenotype)
+                            readGenotypeLikelihoodComponents[readDataOffset] = readLikelihoodComponentsByAlleleCount[alleleDataOffset++];
+                    }
+                    for (int r = 0, readDataOffset = 0; r < readCount; r++, readDataOffset += maximumDistinctAllelesInGenotype)
+                        likelihoodByRead[r] = MathUtils.approximateLog10SumLog10(readGenotypeLikelihoodComponents, readDataOffset, readDataOffset + componentCount);
+            }
+        }
+        return readLikelihoodsByGenotypeIndex;
+    }
+
     private GenotypeAlleleCounts nextGenotypeAlleleCounts(final GenotypeAlleleCounts alleleCounts) {
         final int index = alleleCounts.index();
         final GenotypeAlleleCounts result;
@@ -600,6 +674,8 @@ public class GenotypeLikelihoodCalculator {
                 ? genotypeCount : GenotypeLikelihoodCalculators.genotypeCount(ploidy,resultAlleleCount);
 
         final int[] result = new int[resultLength];
+        if (componentTable != null)
+            return genotypeIndexMap(componentTable, oldToNewAlleleIndexMap, result);
         final int[] sortedAlleleCounts = new int[Math.max(ploidy,alleleCount) << 1];
         alleleHeap.clear();
         GenotypeAlleleCounts alleleCounts = genotypeAlleleCounts[0];
@@ -611,6 +687,39 @@ public class GenotypeLikelihoodCalculator {
         return result;
     }
 
+    /**
+     * Composes the genotype index map running through a precomputed genotype component table.
+     *
+     * <p>
+     *     As genotypes are sorted by their largest allele index, the first {@code destination.length} genotypes in
+     *     the table are exactly those composed of the new alleles.
+     * </p>
+     *
+     * @param table the component table for this calculator's ploidy and allele count.
+     * @param oldToNewAlleleIndexMap the allele mapping.
+     * @param destination where to store the new genotype index mapping to old.
+     * @return {@code destination}.
+     */
+    private int[] genotypeIndexMap(final GenotypeComponentTable table, final int[] oldToNewAlleleIndexMap, final int[] destination) {
+        final int[] componentStart = table.componentStart;
+        final int[] componentSlots = table.componentSlots;
+        final int slotsPerAllele = ploidy + 1;
+        alleleHeap.clear();
+        for (int i = 0; i < destination.length; i++) {
+            for (int c = componentStart[i]; c < componentStart[i + 1]; c++) {
+                final int oldIndex = componentSlots[c] / slotsPerAllele;
+                final int repeats = componentSlots[c] % slotsPerAllele;
+                final int newIndex = oldToNewAlleleIndexMap[oldIndex];
+                if (newIndex < 0 || newIndex >= alleleCount)
+                    throw new IllegalArgumentException("found invalid new allele index (" + newIndex + ") for old index (" + oldIndex + ")");
+                for (int k = 0; k < repeats; k++)
+                    alleleHeap.add(newIndex);
+            }
+            destination[i] = alleleHeapToIndex(); // this cleans the heap for the next use.
+        }
+        return destination;
+    }
+
     /**
      * Performs the genotype mapping per new genotype index.
      *
@@ -52,6 +52,8 @@
 package org.broadinstitute.gatk.tools.walkers.genotyper;
 
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Genotype likelihood calculator utility.
@@ -79,6 +81,16 @@ public class GenotypeLikelihoodCalculators {
      */
     protected static final int GENOTYPE_COUNT_OVERFLOW = -1;
 
+    /**
+     * Maximum number of genotype components (allele and count pairs) in a precomputed genotype component table.
+     *
+     * <p>
+     *     Calculators for a ploidy and allele count that would exceed it do without the table and enumerate the
+     *     genotypes as they go.
+     * </p>
+     */
+    protected static final int MAXIMUM_PRECOMPUTED_GENOTYPE_COMPONENTS = 1 << 22;
+
     /**
      * The current maximum allele index supported by the tables.
      * <p>
@@ -303,6 +315,40 @@ public class GenotypeLikelihoodCalculators {
             ploidyLog10[i] = Math.log10(i);
     }
 
+    /**
+     * Shared genotype component tables keyed by ploidy (high 32 bits) and allele count (low 32 bits).
+     */
+    private static final ConcurrentMap<Long,GenotypeComponentTable> componentTables = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the flattened genotype component table for a ploidy and allele count.
+     *
+     * <p>
+     *     Tables are built on first request and shared thereafter.
+     * </p>
+     *
+     * @param ploidy the requested ploidy.
+     * @param alleleCount the requested number of alleles.
+     *
+     * @throws IllegalArgumentException if {@code ploidy} or {@code alleleCount} is negative.
+     *
+     * @return {@code null} if the table would have more than {@link #MAXIMUM_PRECOMPUTED_GENOTYPE_COMPONENTS} components
+     *  or the number of genotypes overflows.
+     */
+    static GenotypeComponentTable componentTable(final int ploidy, final int alleleCount) {
+        final int genotypeCount = genotypeCount(ploidy, alleleCount);
+        if (genotypeCount == GENOTYPE_COUNT_OVERFLOW
+                || GenotypeComponentTable.componentCapacity(ploidy, alleleCount, genotypeCount) > MAXIMUM_PRECOMPUTED_GENOTYPE_COMPONENTS)
+            return null;
+        final Long key = ((long) ploidy << 32) | alleleCount;
+        final GenotypeComponentTable existing = componentTables.get(key);
+        if (existing != null)
+            return existing;
+        final GenotypeComponentTable table = GenotypeComponentTable.build(ploidy, alleleCount, genotypeCount);
+        final GenotypeComponentTable previous = componentTables.putIfAbsent(key, table);
+        return previous != null ? previous : table;
+    }
+
     /**
      * Returns an instance given its ploidy and the number of alleles.
      *
@@ -328,7 +374,8 @@ public class GenotypeLikelihoodCalculators {
             ensureCapacity(alleleCount, ploidy);
 
         // At this point the tables must have at least the requested capacity, likely to be much more.
-        return new GenotypeLikelihoodCalculator(ploidy,alleleCount,alleleFirstGenotypeOffsetByPloidy,genotypeTableByPloidy,ploidyLog10);
+        return new GenotypeLikelihoodCalculator(ploidy,alleleCount,alleleFirstGenotypeOffsetByPloidy,genotypeTableByPloidy,ploidyLog10,
+                componentTable(ploidy,alleleCount));
     }
 
     /**
@@ -0,0 +1,496 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.haplotypecaller;
+
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.TextCigarCodec;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import org.broadinstitute.gatk.tools.walkers.genotyper.IndexedAlleleList;
+import org.broadinstitute.gatk.tools.walkers.genotyper.SampleList;
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs.SeqGraph;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.activeregion.ActiveRegion;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the haplotypes assembled in each active region, and the likelihoods of the reads given those haplotypes,
+ * in a directory so that later runs over the same reads can skip the assembly and the PairHMM.
+ *
+ * <p>
+ *     Entries are looked up by a digest of everything that goes into computing them: for an assembly, the active
+ *     region, its reads, the padded reference, the given alleles and the assembly arguments; for the likelihoods,
+ *     the haplotypes, the reads of each sample and the likelihood engine arguments. A run with different inputs or
+ *     arguments therefore misses the cache rather than reusing results that do not apply to it.
+ * </p>
+ *
+ * <p>
+ *     Each entry goes in its own file, which is written under a temporary name and then renamed, so that threads
+ *     or runs sharing the directory never read an incomplete entry.
+ * </p>
+ */
+public final class AssemblyResultCache {
+
+    private static final int MAGIC = 0x48434143;
+
+    /**
+     * Must be increased whenever the layout of the entries changes, so that old entries are ignored.
+     */
+    private static final int VERSION = 1;
+
+    private static final String ASSEMBLY_EXTENSION = ".assembly";
+    private static final String LIKELIHOODS_EXTENSION = ".likelihoods";
+
+    private final File directory;
+    private final String assemblyArguments;
+    private final String likelihoodArguments;
+
+    private final AtomicLong assemblyLookups = new AtomicLong();
+    private final AtomicLong assemblyHits = new AtomicLong();
+    private final AtomicLong likelihoodLookups = new AtomicLong();
+    private final AtomicLong likelihoodHits = new AtomicLong();
+
+    /**
+     * Creates a cache on a directory, which is created if it does not exist yet.
+     *
+     * @param directory the cache directory.
+     * @param assemblyArguments description of every argument that changes the result of the assembly.
+     * @param likelihoodArguments description of every argument that changes the read likelihoods.
+     *
+     * @throws IllegalArgumentException if any argument is {@code null}.
+     * @throws UserException.CouldNotCreateOutputFile if the directory does not exist and cannot be created.
+     */
+    public AssemblyResultCache(final File directory, final String assemblyArguments, final String likelihoodArguments) {
+        if (directory == null) throw new IllegalArgumentException("the directory cannot be null");
+        if (assemblyArguments == null) throw new IllegalArgumentException("the assembly arguments cannot be null");
+        if (likelihoodArguments == null) throw new IllegalArgumentException("the likelihood arguments cannot be null");
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new UserException.CouldNotCreateOutputFile(directory, "the assembly cache directory could not be created");
+        this.directory = directory;
+        this.assemblyArguments = assemblyArguments;
+        this.likelihoodArguments = likelihoodArguments;
+    }
+
+    /**
+     * Calculates the key of the assembly of an active region.
+     *
+     * @param region the active region, with its reads already finalized.
+     * @param fullReferenceWithPadding the padded reference bases.
+     * @param paddedReferenceLoc the location of the padded reference bases.
+     * @param givenAlleles alleles to be injected into the haplotypes, may be empty.
+     *
+     * @return never {@code null}.
+     */
+    public String assemblyKey(final ActiveRegion region, final byte[] fullReferenceWithPadding,
+                              final GenomeLoc paddedReferenceLoc, final List<VariantContext> givenAlleles) {
+        final Key key = new Key(ASSEMBLY_EXTENSION, assemblyArguments);
+        key.add(region.getLocation()).add(region.getExtendedLoc()).add(paddedReferenceLoc).add(fullReferenceWithPadding);
+        key.add(region.size());
+        for (final GATKSAMRecord read : region.getReads())
+            key.add(read);
+        key.add(givenAlleles.size());
+        for (final VariantContext vc : givenAlleles) {
+            key.add(vc.getChr()).add(vc.getStart()).add(vc.getEnd()).add(vc.getNAlleles());
+            for (final Allele allele : vc.getAlleles())
+                key.add(allele.toString());
+        }
+        return key.hex();
+    }
+
+    /**
+     * Recovers a cached assembly.
+     *
+     * @param key the assembly key as returned by {@link #assemblyKey}.
+     * @param region the active region that was assembled.
+     * @param refHaplotype the reference haplotype of the region; it becomes part of the returned result set.
+     * @param fullReferenceWithPadding the padded reference bases.
+     * @param paddedReferenceLoc the location of the padded reference bases.
+     *
+     * @return {@code null} if the assembly is not in the cache.
+     */
+    public AssemblyResultSet readAssembly(final String key, final ActiveRegion region, final Haplotype refHaplotype,
+                                          final byte[] fullReferenceWithPadding, final GenomeLoc paddedReferenceLoc) {
+        assemblyLookups.incrementAndGet();
+        final File file = new File(directory, key + ASSEMBLY_EXTENSION);
+        final DataInputStream in = open(file);
+        if (in == null)
+            return null;
+        try {
+            final AssemblyResultSet result = new AssemblyResultSet();
+            result.setRegionForGenotyping(region);
+            result.setFullReferenceWithPadding(fullReferenceWithPadding);
+            result.setPaddedReferenceLoc(paddedReferenceLoc);
+
+            // assembly results only matter through their kmer sizes once the haplotypes are known, so an empty
+            // graph of the right size stands in for each of them.
+            final Map<Integer,AssemblyResult> assemblyResultByKmerSize = new HashMap<>();
+            final GenomeLoc haplotypeLocation = region.getExtendedLoc();
+            refHaplotype.setGenomeLocation(haplotypeLocation);
+            refHaplotype.setScore(in.readDouble());
+            result.add(refHaplotype);
+            final int refKmerSize = in.readInt();
+            if (refKmerSize >= 0)
+                result.add(refHaplotype, assemblyResult(assemblyResultByKmerSize, refKmerSize));
+
+            final int haplotypeCount = in.readInt();
+            for (int i = 0; i < haplotypeCount; i++) {
+                final Haplotype haplotype = new Haplotype(readBytes(in), false);
+                haplotype.setCigar(TextCigarCodec.getSingleton().decode(in.readUTF()));
+                haplotype.setAlignmentStartHapwrtRef(refHaplotype.getAlignmentStartHapwrtRef());
+                haplotype.setGenomeLocation(haplotypeLocation);
+                haplotype.setScore(in.readDouble());
+                final int kmerSize = in.readInt();
+                if (kmerSize >= 0)
+                    result.add(haplotype, assemblyResult(assemblyResultByKmerSize, kmerSize));
+                else
+                    result.add(haplotype);
+            }
+            assemblyHits.incrementAndGet();
+            return result;
+        } catch (final IOException e) {
+            throw new UserException.CouldNotReadInputFile(file, "the assembly cache entry is corrupt", e);
+        }
+    }
+
+    private static AssemblyResult assemblyResult(final Map<Integer,AssemblyResult> assemblyResultByKmerSize, final int kmerSize) {
+        AssemblyResult result = assemblyResultByKmerSize.get(kmerSize);
+        if (result == null) {
+            result = new AssemblyResult(AssemblyResult.Status.ASSEMBLED_SOME_VARIATION, new SeqGraph(kmerSize));
+            assemblyResultByKmerSize.put(kmerSize, result);
+        }
+        return result;
+    }
+
+    /**
+     * Stores the assembly of an active region.
+     *
+     * @param key the assembly key as returned by {@link #assemblyKey}.
+     * @param assemblyResultSet the untrimmed result of the assembly.
+     */
+    public void writeAssembly(final String key, final AssemblyResultSet assemblyResultSet) {
+        final Haplotype refHaplotype = assemblyResultSet.getReferenceHaplotype();
+        final List<Haplotype> haplotypes = assemblyResultSet.getHaplotypeList();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream out = header(buffer);
+            out.writeDouble(refHaplotype.getScore());
+            out.writeInt(kmerSize(assemblyResultSet, refHaplotype));
+            out.writeInt(haplotypes.size() - 1);
+            for (final Haplotype haplotype : haplotypes) {
+                if (haplotype.isReference())
+                    continue;
+                writeBytes(out, haplotype.getBases());
+                out.writeUTF(haplotype.getCigar().toString());
+                out.writeDouble(haplotype.getScore());
+                out.writeInt(kmerSize(assemblyResultSet, haplotype));
+            }
+            out.flush();
+        } catch (final IOException e) {
+            throw new IllegalStateException("unexpected error writing into memory", e);
+        }
+        store(new File(directory, key + ASSEMBLY_EXTENSION), buffer.toByteArray());
+    }
+
+    private static int kmerSize(final AssemblyResultSet assemblyResultSet, final Haplotype haplotype) {
+        final AssemblyResult assemblyResult = assemblyResultSet.getAssemblyResult(haplotype);
+        return assemblyResult == null ? -1 : assemblyResult.getKmerSize();
+    }
+
+    /**
+     * Calculates the key of the likelihoods of some reads given some haplotypes.
+     *
+     * @param haplotypes the haplotypes in the order they are going to be the alleles of the likelihoods.
+     * @param samples the samples.
+     * @param reads the reads of each sample.
+     *
+     * @return never {@code null}.
+     */
+    public String likelihoodsKey(final List<Haplotype> haplotypes, final SampleList samples, final Map<String,List<GATKSAMRecord>> reads) {
+        final Key key = new Key(LIKELIHOODS_EXTENSION, likelihoodArguments);
+        key.add(haplotypes.size());
+        for (final Haplotype haplotype : haplotypes)
+            key.add(haplotype.getBases()).add(haplotype.isReference() ? 1 : 0);
+        final int sampleCount = samples.sampleCount();
+        key.add(sampleCount);
+        for (int s = 0; s < sampleCount; s++) {
+            final String sample = samples.sampleAt(s);
+            final List<GATKSAMRecord> sampleReads = sampleReads(reads, sample);
+            key.add(sample).add(sampleReads.size());
+            for (final GATKSAMRecord read : sampleReads)
+                key.add(read);
+        }
+        return key.hex();
+    }
+
+    /**
+     * Recovers cached read likelihoods.
+     *
+     * @param key the likelihoods key as returned by {@link #likelihoodsKey}.
+     * @param haplotypes the haplotypes, in the same order used to calculate the key.
+     * @param samples the samples.
+     * @param reads the reads of each sample, as used to calculate the key.
+     *
+     * @return {@code null} if the likelihoods are not in the cache.
+     */
+    public ReadLikelihoods<Haplotype> readLikelihoods(final String key, final List<Haplotype> haplotypes,
+                                                     final SampleList samples, final Map<String,List<GATKSAMRecord>> reads) {
+        likelihoodLookups.incrementAndGet();
+        final File file = new File(directory, key + LIKELIHOODS_EXTENSION);
+        final DataInputStream in = open(file);
+        if (in == null)
+            return null;
+        try {
+            final int sampleCount = samples.sampleCount();
+            final int alleleCount = haplotypes.size();
+
+            // the likelihood engine may have discarded some of the input reads, so first find the ones to keep.
+            final Map<String,List<GATKSAMRecord>> keptReads = new LinkedHashMap<>(sampleCount);
+            for (int s = 0; s < sampleCount; s++) {
+                final String sample = samples.sampleAt(s);
+                final List<GATKSAMRecord> sampleReads = sampleReads(reads, sample);
+                final int keptCount = in.readInt();
+                final List<GATKSAMRecord> sampleKeptReads = new ArrayList<>(keptCount);
+                for (int r = 0; r < keptCount; r++)
+                    sampleKeptReads.add(sampleReads.get(in.readInt()));
+                keptReads.put(sample, sampleKeptReads);
+            }
+
+            final ReadLikelihoods<Haplotype> result = new ReadLikelihoods<>(samples, new IndexedAlleleList<>(haplotypes), keptReads);
+            for (int s = 0; s < sampleCount; s++) {
+                final ReadLikelihoods.Matrix<Haplotype> matrix = result.sampleMatrix(s);
+                final int readCount = matrix.readCount();
+                for (int a = 0; a < alleleCount; a++)
+                    for (int r = 0; r < readCount; r++)
+                        matrix.set(a, r, in.readDouble());
+            }
+            likelihoodHits.incrementAndGet();
+            return result;
+        } catch (final IOException | IndexOutOfBoundsException e) {
+            throw new UserException.CouldNotReadInputFile(file, "the read likelihoods cache entry is corrupt", e);
+        }
+    }
+
+    /**
+     * Stores read likelihoods.
+     *
+     * @param key the likelihoods key as returned by {@link #likelihoodsKey}.
+     * @param likelihoods the likelihoods to store.
+     * @param reads the reads of each sample, as used to calculate the key.
+     */
+    public void writeLikelihoods(final String key, final ReadLikelihoods<Haplotype> likelihoods, final Map<String,List<GATKSAMRecord>> reads) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream out = header(buffer);
+            final int sampleCount = likelihoods.sampleCount();
+            for (int s = 0; s < sampleCount; s++) {
+                final List<GATKSAMRecord> sampleReads = sampleReads(reads, likelihoods.sampleAt(s));
+                final Map<GATKSAMRecord,Integer> indexByRead = new IdentityHashMap<>(sampleReads.size());
+                for (int r = 0; r < sampleReads.size(); r++)
+                    indexByRead.put(sampleReads.get(r), r);
+                final List<GATKSAMRecord> keptReads = likelihoods.sampleReads(s);
+                out.writeInt(keptReads.size());
+                for (final GATKSAMRecord read : keptReads)
+                    out.writeInt(indexByRead.get(read));
+            }
+            final int alleleCount = likelihoods.alleleCount();
+            for (int s = 0; s < sampleCount; s++) {
+                final ReadLikelihoods.Matrix<Haplotype> matrix = likelihoods.sampleMatrix(s);
+                final int readCount = matrix.readCount();
+                for (int a = 0; a < alleleCount; a++)
+                    for (int r = 0; r < readCount; r++)
+                        out.writeDouble(matrix.get(a, r));
+            }
+            out.flush();
+        } catch (final IOException e) {
+            throw new IllegalStateException("unexpected error writing into memory", e);
+        }
+        store(new File(directory, key + LIKELIHOODS_EXTENSION), buffer.toByteArray());
+    }
+
+    /**
+     * Describes how many assemblies and read likelihood sets were recovered from the cache.
+     *
+     * @return never {@code null}.
+     */
+    public String getStatistics() {
+        return String.format("Reused %d of %d assemblies and %d of %d read likelihood sets from the assembly cache in %s",
+                assemblyHits.get(), assemblyLookups.get(), likelihoodHits.get(), likelihoodLookups.get(), directory);
+    }
+
+    private static List<GATKSAMRecord> sampleReads(final Map<String,List<GATKSAMRecord>> reads, final String sample) {
+        final List<GATKSAMRecord> result = reads.get(sample);
+        return result == null ? Collections.<GATKSAMRecord>emptyList() : result;
+    }
+
+    private static DataOutputStream header(final OutputStream buffer) throws IOException {
+        final DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        return out;
+    }
+
+    /**
+     * Opens an entry and checks its header.
+     *
+     * @return {@code null} if there is no such entry, or it was written by a different version of the cache.
+     */
+    private static DataInputStream open(final File file) {
+        if (!file.exists())
+            return null;
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+            return in;
+        } catch (final IOException e) {
+            throw new UserException.CouldNotReadInputFile(file, e);
+        }
+    }
+
+    private static void store(final File file, final byte[] content) {
+        File temporary = null;
+        try {
+            temporary = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (final OutputStream out = new FileOutputStream(temporary)) {
+                out.write(content);
+            }
+            if (!temporary.renameTo(file))
+                throw new IOException("could not rename " + temporary + " to " + file);
+        } catch (final IOException e) {
+            throw new UserException.CouldNotCreateOutputFile(file, "the assembly cache entry could not be written", e);
+        } finally {
+            if (temporary != null && temporary.exists() && !temporary.delete())
+                temporary.deleteOnExit();
+        }
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final byte[] result = new byte[in.readInt()];
+        in.readFully(result);
+        return result;
+    }
+
+    /**
+     * MD5 digest of the data that an entry depends on.
+     */
+    private static final class Key {
+
+        private final MessageDigest digest;
+
+        private Key(final String kind, final String arguments) {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 digest algorithm not present");
+            }
+            add(kind).add(arguments);
+        }
+
+        private Key add(final int value) {
+            digest.update((byte) (value >>> 24));
+            digest.update((byte) (value >>> 16));
+            digest.update((byte) (value >>> 8));
+            digest.update((byte) value);
+            return this;
+        }
+
+        private Key add(final byte[] bytes) {
+            if (bytes == null)
+                return add(-1);
+            add(bytes.length);
+            digest.update(bytes);
+            return this;
+        }
+
+        private Key add(final String string) {
+            return add(string == null ? null : string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private Key add(final GenomeLoc location) {
+            return add(location.getContig()).add(location.getStart()).add(location.getStop());
+        }
+
+        private Key add(final GATKSAMRecord read) {
+            final SAMReadGroupRecord readGroup = read.getReadGroup();
+            add(read.getReadName()).add(read.getFlags()).add(read.getReferenceIndex()).add(read.getAlignmentStart());
+            add(read.getCigarString()).add(read.getMappingQuality());
+            add(readGroup == null ? null : readGroup.getReadGroupId()).add(readGroup == null ? null : readGroup.getSample());
+            return add(read.getReadBases()).add(read.getBaseQualities())
+                    .add(read.getBaseInsertionQualities()).add(read.getBaseDeletionQualities());
+        }
+
+        private String hex() {
+            final String hex = new BigInteger(1, digest.digest()).toString(16);
+            final StringBuilder result = new StringBuilder(32);
+            for (int i = hex.length(); i < 32; i++)
+                result.append('0');
+            return result.append(hex).toString();
+        }
+    }
+}
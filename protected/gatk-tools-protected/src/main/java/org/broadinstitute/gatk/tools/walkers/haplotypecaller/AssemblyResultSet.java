@@ -322,6 +322,17 @@ public  class AssemblyResultSet {
         }
     }
 
+    /**
+     * Returns the assembly-result that gave rise to a haplotype.
+     *
+     * @param h the query haplotype.
+     *
+     * @return {@code null} if {@code h} is not in the set or was added without an assembly-result.
+     */
+    AssemblyResult getAssemblyResult(final Haplotype h) {
+        return assemblyResultByHaplotype.get(h);
+    }
+
     /**
      * Add a assembly-result object.
      *
@@ -84,6 +84,7 @@ import org.broadinstitute.gatk.utils.activeregion.ActiveRegionReadState;
 import org.broadinstitute.gatk.utils.activeregion.ActivityProfileState;
 import org.broadinstitute.gatk.utils.clipping.ReadClipper;
 import org.broadinstitute.gatk.utils.commandline.*;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
 import org.broadinstitute.gatk.utils.fragments.FragmentCollection;
@@ -97,6 +98,7 @@ import org.broadinstitute.gatk.utils.haplotype.MergeVariantsAcrossHaplotypes;
 import org.broadinstitute.gatk.utils.haplotypeBAMWriter.HaplotypeBAMWriter;
 import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.gatk.utils.help.HelpConstants;
+import org.broadinstitute.gatk.utils.instrumentation.RuntimeMetrics;
 import org.broadinstitute.gatk.utils.pairhmm.PairHMM;
 import org.broadinstitute.gatk.utils.sam.AlignmentUtils;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
@@ -105,6 +107,7 @@ import org.broadinstitute.gatk.utils.variant.GATKVCFIndexType;
 import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
 import org.broadinstitute.gatk.utils.variant.HomoSapiensConstants;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.util.*;
@@ -224,7 +227,7 @@ import java.util.*;
 @ActiveRegionTraversalParameters(extension=100, maxRegion=300)
 @ReadFilters({HCMappingQualityFilter.class})
 @Downsample(by= DownsampleType.BY_SAMPLE, toCoverage=250)
-public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, Integer> implements AnnotatorCompatible, NanoSchedulable {
+public class HaplotypeCaller extends ActiveRegionWalker<HaplotypeCaller.RegionCalls, Integer> implements AnnotatorCompatible, NanoSchedulable, NanoSchedulableIsActive, Checkpointable {
     // -----------------------------------------------------------------------------------------------
     // general haplotype caller arguments
     // -----------------------------------------------------------------------------------------------
@@ -635,6 +638,30 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
     @Argument(fullName = "pcr_indel_model", shortName = "pcrModel", doc = "The PCR indel model to use", required = false)
     public PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL pcrErrorModel = PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.CONSERVATIVE;
 
+    /**
+     * Keeps the haplotypes assembled in each active region, and the likelihoods of the reads given those haplotypes,
+     * in this directory, and reuses them when the HaplotypeCaller is run again on the same reads. Only the arguments
+     * that control the assembly and the read likelihoods must stay the same between runs; those that only affect the
+     * genotyping and the annotations (e.g. -stand_call_conf or -A) can change freely. Changing -ERC still reuses the
+     * assemblies, but not the read likelihoods, as it changes how active regions are trimmed. Entries that do not
+     * apply to a run are simply ignored, so one directory can be shared by different runs.
+     */
+    @Advanced
+    @Argument(fullName="assemblyCacheDir", shortName="assemblyCacheDir", doc="Directory in which to keep the assembly and read likelihoods of each active region to reuse them in later runs", required = false)
+    protected File assemblyCacheDir = null;
+
+    /**
+     * By default the read likelihoods of each active region are computed as soon as the region is assembled. With a
+     * positive value, each thread instead queues the read x haplotype pairs of the active regions it assembles until
+     * at least this many of them are waiting, and then evaluates them with the PairHMM in a single submission and
+     * genotypes those regions. This mostly helps the vectorized PairHMM on inputs with many small active regions. The
+     * calls of a region are written once its batch is done, so more regions are held in memory. It does not change
+     * the calls.
+     */
+    @Advanced
+    @Argument(fullName="pairHMMBatchSize", shortName="pairHMMBatchSize", doc="Number of read x haplotype pairs to accumulate across active regions before running the PairHMM (0 to run it on each region)", required = false, minValue = 0)
+    protected int pairHMMBatchSize = 0;
+
     // -----------------------------------------------------------------------------------------------
     // done with Haplotype caller parameters
     // -----------------------------------------------------------------------------------------------
@@ -651,6 +678,23 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
     // the genotyping engine
     private HaplotypeCallerGenotypingEngine genotypingEngine = null;
 
+    // the cache of assemblies and read likelihoods, if requested
+    private AssemblyResultCache assemblyCache = null;
+
+    // the regions each map thread is batching read likelihoods for, when -pairHMMBatchSize is given
+    private final ThreadLocal<LikelihoodsBatch> likelihoodsBatch = new ThreadLocal<LikelihoodsBatch>() {
+        @Override
+        protected LikelihoodsBatch initialValue() {
+            return new LikelihoodsBatch();
+        }
+    };
+
+    // the regions reduced but not yet written, in order, as the first of them is still waiting for its batch
+    private final Deque<RegionCalls> regionsAwaitingLikelihoods = new ArrayDeque<>();
+
+    // the called regions written outside of reduce, when the batched regions are flushed for a checkpoint
+    private int numCalledRegionsFlushedForCheckpoint = 0;
+
     // fasta reference reader to supplement the edges of the reference sequence
     protected CachingIndexedFastaSequenceFile referenceReader;
 
@@ -805,6 +849,8 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         try {
             // fasta reference reader to supplement the edges of the reference sequence
             referenceReader = new CachingIndexedFastaSequenceFile(getToolkit().getArguments().referenceFile);
+            if ( getToolkit().getArguments().memoryMappedReference )
+                referenceReader.enableNormalizedReference();
         } catch( FileNotFoundException e ) {
             throw new UserException.CouldNotReadInputFile(getToolkit().getArguments().referenceFile, e);
         }
@@ -856,6 +902,34 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
 
         trimmer.initialize(getToolkit().getGenomeLocParser(), SCAC.DEBUG,
                 SCAC.genotypingOutputMode == GenotypingOutputMode.GENOTYPE_GIVEN_ALLELES,emitReferenceConfidence());
+
+        if ( assemblyCacheDir != null )
+            assemblyCache = createAssemblyCache();
+
+        if ( pairHMMBatchSize > 0 && likelihoodEngineImplementation != ReadLikelihoodCalculationEngine.Implementation.PairHMM )
+            throw new UserException.BadArgumentValue("pairHMMBatchSize", "can only be used with the PairHMM likelihood engine");
+    }
+
+    /**
+     * Creates the assembly cache, describing every argument that changes the assembled haplotypes or the read
+     * likelihoods so that cache entries are never reused by runs that would have computed them differently.
+     *
+     * @return never {@code null}.
+     */
+    private AssemblyResultCache createAssemblyCache() {
+        if ( likelihoodEngineImplementation == ReadLikelihoodCalculationEngine.Implementation.GraphBased )
+            throw new UserException.BadArgumentValue("assemblyCacheDir", "cannot be used with the GraphBased likelihood engine, as it needs the assembly graphs which are not cached");
+        final String assemblyArguments = String.format("kmerSizes=%s dontIncreaseKmerSizesForCycles=%b allowNonUniqueKmersInRef=%b numPruningSamples=%d" +
+                        " maxNumHaplotypesInPopulation=%d errorCorrectKmers=%b minPruning=%d allowCycles=%b recoverDanglingBranches=%b" +
+                        " minDanglingBranchLength=%d minBaseQuality=%d errorCorrectReads=%b kmerLengthForReadErrorCorrection=%d" +
+                        " minObservationsForKmerToBeSolid=%d genotypingMode=%s",
+                kmerSizes, dontIncreaseKmerSizesForCycles, allowNonUniqueKmersInRef, numPruningSamples,
+                maxNumHaplotypesInPopulation, errorCorrectKmers, MIN_PRUNE_FACTOR, allowCyclesInKmerGraphToGeneratePaths, !doNotRecoverDanglingBranches,
+                minDanglingBranchLength, MIN_BASE_QUALTY_SCORE, errorCorrectReads, kmerLengthForReadErrorCorrection,
+                minObservationsForKmerToBeSolid, SCAC.genotypingOutputMode);
+        final String likelihoodArguments = String.format("engine=%s pairHMM=%s noFpga=%b gcp=%d globalMismappingRate=%d pcrModel=%s",
+                likelihoodEngineImplementation, pairHMM, noFpga, gcpHMM, phredScaledGlobalReadMismappingRate, pcrErrorModel);
+        return new AssemblyResultCache(assemblyCacheDir, assemblyArguments, likelihoodArguments);
     }
 
     private void initializeReferenceConfidenceModel(final SampleList samples, final Set<VCFHeaderLine> headerInfo) {
@@ -969,18 +1043,166 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
     //---------------------------------------------------------------------------------------------------------------
 
     private final static List<VariantContext> NO_CALLS = Collections.emptyList();
+
+    /**
+     * What map produces for an active region: either its calls, or, when its read likelihoods are batched with those
+     * of other regions, the region whose calls its batch will fill in.
+     */
+    public static final class RegionCalls {
+        private final List<VariantContext> calls;
+        private final PendingRegion pending;
+
+        private RegionCalls(final List<VariantContext> calls, final PendingRegion pending) {
+            this.calls = calls;
+            this.pending = pending;
+        }
+
+        private static RegionCalls of(final List<VariantContext> calls) {
+            return new RegionCalls(calls, null);
+        }
+
+        private boolean isPending() {
+            return pending != null;
+        }
+
+        private boolean isReady() {
+            return pending == null || pending.batch.isDone();
+        }
+
+        private List<VariantContext> getCalls() {
+            return pending == null ? calls : pending.calls;
+        }
+    }
+
+    /**
+     * An assembled active region whose read likelihoods have not been computed yet.
+     */
+    private final class PendingRegion {
+        private LikelihoodsBatch batch = null;
+        private final ActiveRegion originalActiveRegion;
+        private final RefMetaDataTracker metaDataTracker;
+        private final List<VariantContext> givenAlleles;
+        private final ActiveRegionTrimmer.Result trimmingResult;
+        private final AssemblyResultSet assemblyResult;
+        private final Map<String, List<GATKSAMRecord>> perSampleFilteredReadList;
+        private final Map<String, List<GATKSAMRecord>> reads;
+        private final String likelihoodsCacheKey;
+        private final PairHMMLikelihoodCalculationEngine.PendingReadLikelihoods likelihoods;
+        private List<VariantContext> calls = null;
+
+        private PendingRegion(final ActiveRegion originalActiveRegion, final RefMetaDataTracker metaDataTracker,
+                              final List<VariantContext> givenAlleles, final ActiveRegionTrimmer.Result trimmingResult,
+                              final AssemblyResultSet assemblyResult, final Map<String, List<GATKSAMRecord>> perSampleFilteredReadList,
+                              final Map<String, List<GATKSAMRecord>> reads, final String likelihoodsCacheKey) {
+            this.originalActiveRegion = originalActiveRegion;
+            this.metaDataTracker = metaDataTracker;
+            this.givenAlleles = givenAlleles;
+            this.trimmingResult = trimmingResult;
+            this.assemblyResult = assemblyResult;
+            this.perSampleFilteredReadList = perSampleFilteredReadList;
+            this.reads = reads;
+            this.likelihoodsCacheKey = likelihoodsCacheKey;
+            this.likelihoods = ((PairHMMLikelihoodCalculationEngine)likelihoodCalculationEngine).prepareReadLikelihoods(assemblyResult, samplesList, reads);
+        }
+
+        /**
+         * Genotypes the region, once its likelihoods have been computed.
+         */
+        private void call() {
+            final ReadLikelihoods<Haplotype> readLikelihoods = likelihoods.getReadLikelihoods();
+            if ( likelihoodsCacheKey != null )
+                assemblyCache.writeLikelihoods(likelihoodsCacheKey, readLikelihoods, reads);
+            calls = genotypeActiveRegion(originalActiveRegion, metaDataTracker, givenAlleles, trimmingResult, assemblyResult,
+                    perSampleFilteredReadList, readLikelihoods);
+        }
+    }
+
+    /**
+     * The regions assembled by one map thread whose read likelihoods are computed together.
+     *
+     * The thread that filled the batch normally completes it.  A batch that is still open when its regions must be
+     * written (at a checkpoint or at the end of the traversal) is completed by the thread writing them instead, and
+     * its map thread then starts a new one.
+     */
+    private final class LikelihoodsBatch {
+        private final List<PendingRegion> regions = new ArrayList<>();
+        private long pairCount = 0;
+        private boolean started = false;
+        private volatile boolean done = false;
+
+        /**
+         * Adds a region to the batch, unless the batch has already been started.
+         *
+         * @return true if the region was added.
+         */
+        private synchronized boolean add(final PendingRegion region) {
+            if ( started )
+                return false;
+            regions.add(region);
+            region.batch = this;
+            pairCount += region.likelihoods.getPairCount();
+            return true;
+        }
+
+        private synchronized boolean isFull() {
+            return pairCount >= pairHMMBatchSize;
+        }
+
+        private boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Computes the read likelihoods of all the regions in the batch and genotypes them, or waits for the thread
+         * already doing so.
+         */
+        private void complete() {
+            synchronized (this) {
+                while ( started && ! done ) {
+                    try {
+                        wait();
+                    } catch ( final InterruptedException e ) {
+                        throw new ReviewedGATKException("Interrupted while waiting for the read likelihoods of a batch of active regions", e);
+                    }
+                }
+                if ( started )
+                    return;
+                started = true;
+            }
+
+            try {
+                final List<PairHMMLikelihoodCalculationEngine.PendingReadLikelihoods> jobs = new ArrayList<>(regions.size());
+                for ( final PendingRegion region : regions )
+                    jobs.add(region.likelihoods);
+                RuntimeMetrics.PAIRHMM.start();
+                try {
+                    ((PairHMMLikelihoodCalculationEngine)likelihoodCalculationEngine).computeReadLikelihoods(jobs);
+                } finally {
+                    RuntimeMetrics.PAIRHMM.stop();
+                }
+                for ( final PendingRegion region : regions )
+                    region.call();
+            } finally {
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
     @Override
-    public List<VariantContext> map( final ActiveRegion originalActiveRegion, final RefMetaDataTracker metaDataTracker ) {
+    public RegionCalls map( final ActiveRegion originalActiveRegion, final RefMetaDataTracker metaDataTracker ) {
         if ( justDetermineActiveRegions )
             // we're benchmarking ART and/or the active region determination code in the HC, just leave without doing any work
-            return NO_CALLS;
+            return RegionCalls.of(NO_CALLS);
 
         if (sampleNameToUse != null)
             removeReadsFromAllSamplesExcept(sampleNameToUse, originalActiveRegion);
 
         if( !originalActiveRegion.isActive() )
             // Not active so nothing to do!
-            return referenceModelForNoVariation(originalActiveRegion, true);
+            return RegionCalls.of(referenceModelForNoVariation(originalActiveRegion, true));
 
         final List<VariantContext> givenAlleles = new ArrayList<>();
         if( SCAC.genotypingOutputMode == GenotypingOutputMode.GENOTYPE_GIVEN_ALLELES ) {
@@ -990,10 +1212,10 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
                 }
             }
             // No alleles found in this region so nothing to do!
-            if ( givenAlleles.isEmpty() ) { return referenceModelForNoVariation(originalActiveRegion, true); }
+            if ( givenAlleles.isEmpty() ) { return RegionCalls.of(referenceModelForNoVariation(originalActiveRegion, true)); }
         } else {
             // No reads here so nothing to do!
-            if( originalActiveRegion.size() == 0 ) { return referenceModelForNoVariation(originalActiveRegion, true); }
+            if( originalActiveRegion.size() == 0 ) { return RegionCalls.of(referenceModelForNoVariation(originalActiveRegion, true)); }
         }
 
         // run the local assembler, getting back a collection of information on how we should proceed
@@ -1007,7 +1229,7 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         final ActiveRegionTrimmer.Result trimmingResult = trimmer.trim(originalActiveRegion,allVariationEvents);
 
         if (!trimmingResult.isVariationPresent() && !disableOptimizations)
-            return referenceModelForNoVariation(originalActiveRegion,false);
+            return RegionCalls.of(referenceModelForNoVariation(originalActiveRegion,false));
 
         final AssemblyResultSet assemblyResult =
                 trimmingResult.needsTrimming() ? untrimmedAssemblyResult.trimTo(trimmingResult.getCallableRegion()) : untrimmedAssemblyResult;
@@ -1025,16 +1247,16 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         // abort early if something is out of the acceptable range
         // TODO is this ever true at this point??? perhaps GGA. Need to check.
         if( ! assemblyResult.isVariationPresent() && ! disableOptimizations)
-            return referenceModelForNoVariation(originalActiveRegion, false);
+            return RegionCalls.of(referenceModelForNoVariation(originalActiveRegion, false));
 
         // For sure this is not true if gVCF is on.
-        if (dontGenotype) return NO_CALLS; // user requested we not proceed
+        if (dontGenotype) return RegionCalls.of(NO_CALLS); // user requested we not proceed
 
 
         // TODO is this ever true at this point??? perhaps GGA. Need to check.
         if( regionForGenotyping.size() == 0 && ! disableOptimizations) {
             // no reads remain after filtering so nothing else to do!
-            return referenceModelForNoVariation(originalActiveRegion, false);
+            return RegionCalls.of(referenceModelForNoVariation(originalActiveRegion, false));
         }
 
         // evaluate each sample's reads against all haplotypes
@@ -1043,8 +1265,74 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         final Map<String,List<GATKSAMRecord>> reads = splitReadsBySample( regionForGenotyping.getReads() );
 
         // Calculate the likelihoods: CPU intensive part.
-        final ReadLikelihoods<Haplotype> readLikelihoods =
-                likelihoodCalculationEngine.computeReadLikelihoods(assemblyResult,samplesList,reads);
+        RuntimeMetrics.HAPLOTYPES_PER_REGION.record(haplotypes.size());
+        final ReadLikelihoods<Haplotype> readLikelihoods;
+        RuntimeMetrics.PAIRHMM.start();
+        try {
+            final String likelihoodsCacheKey = assemblyCache == null ? null : assemblyCache.likelihoodsKey(haplotypes, samplesList, reads);
+            final ReadLikelihoods<Haplotype> cachedLikelihoods = likelihoodsCacheKey == null ? null : assemblyCache.readLikelihoods(likelihoodsCacheKey, haplotypes, samplesList, reads);
+            if ( cachedLikelihoods != null )
+                readLikelihoods = cachedLikelihoods;
+            else if ( pairHMMBatchSize > 0 )
+                // compute the likelihoods together with those of the next regions this thread assembles
+                return new RegionCalls(null, addToLikelihoodsBatch(originalActiveRegion, metaDataTracker, givenAlleles, trimmingResult,
+                        assemblyResult, perSampleFilteredReadList, reads, likelihoodsCacheKey));
+            else {
+                readLikelihoods = likelihoodCalculationEngine.computeReadLikelihoods(assemblyResult, samplesList, reads);
+                if ( likelihoodsCacheKey != null )
+                    assemblyCache.writeLikelihoods(likelihoodsCacheKey, readLikelihoods, reads);
+            }
+        } finally {
+            RuntimeMetrics.PAIRHMM.stop();
+        }
+
+        return RegionCalls.of(genotypeActiveRegion(originalActiveRegion, metaDataTracker, givenAlleles, trimmingResult, assemblyResult,
+                perSampleFilteredReadList, readLikelihoods));
+    }
+
+    /**
+     * Adds an assembled active region to this thread's batch of read likelihoods, and completes the batch once it
+     * holds enough pairs.
+     *
+     * @return the region as added to the batch, never {@code null}.
+     */
+    private PendingRegion addToLikelihoodsBatch(final ActiveRegion originalActiveRegion, final RefMetaDataTracker metaDataTracker,
+                                                final List<VariantContext> givenAlleles, final ActiveRegionTrimmer.Result trimmingResult,
+                                                final AssemblyResultSet assemblyResult, final Map<String, List<GATKSAMRecord>> perSampleFilteredReadList,
+                                                final Map<String, List<GATKSAMRecord>> reads, final String likelihoodsCacheKey) {
+        final PendingRegion region = new PendingRegion(originalActiveRegion, metaDataTracker, givenAlleles, trimmingResult,
+                assemblyResult, perSampleFilteredReadList, reads, likelihoodsCacheKey);
+        LikelihoodsBatch batch = likelihoodsBatch.get();
+        while ( ! batch.add(region) ) {
+            // the batch was completed to write its regions out, so start a new one
+            batch = new LikelihoodsBatch();
+            likelihoodsBatch.set(batch);
+        }
+        if ( batch.isFull() ) {
+            likelihoodsBatch.set(new LikelihoodsBatch());
+            batch.complete();
+        }
+        return region;
+    }
+
+    /**
+     * Genotypes an assembled active region given the likelihoods of its reads.
+     *
+     * @param originalActiveRegion the active region as given to map.
+     * @param metaDataTracker the reference ordered data over the active region.
+     * @param givenAlleles the alleles to genotype in GGA mode.
+     * @param trimmingResult how the active region was trimmed for genotyping.
+     * @param assemblyResult the haplotypes of the trimmed active region.
+     * @param perSampleFilteredReadList the reads filtered out from genotyping, per sample.
+     * @param readLikelihoods the likelihoods of the reads of the trimmed active region, which are released on return.
+     * @return never {@code null}.
+     */
+    private List<VariantContext> genotypeActiveRegion(final ActiveRegion originalActiveRegion, final RefMetaDataTracker metaDataTracker,
+                                                      final List<VariantContext> givenAlleles, final ActiveRegionTrimmer.Result trimmingResult,
+                                                      final AssemblyResultSet assemblyResult, final Map<String, List<GATKSAMRecord>> perSampleFilteredReadList,
+                                                      final ReadLikelihoods<Haplotype> readLikelihoods) {
+        final ActiveRegion regionForGenotyping = assemblyResult.getRegionForGenotyping();
+        final List<Haplotype> haplotypes = assemblyResult.getHaplotypeList();
 
         // Realign reads to their best haplotype.
         final Map<GATKSAMRecord,GATKSAMRecord> readRealignments = realignReadsToTheirBestHaplotype(readLikelihoods, assemblyResult.getPaddedReferenceLoc());
@@ -1056,17 +1344,23 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         //  haplotype containing C as reference (and vice versa).  Now this is fine if all possible haplotypes are included
         //  in the genotyping, but we lose information if we select down to a few haplotypes.  [EB]
 
-        final HaplotypeCallerGenotypingEngine.CalledHaplotypes calledHaplotypes = genotypingEngine.assignGenotypeLikelihoods(
-                haplotypes,
-                readLikelihoods,
-                perSampleFilteredReadList,
-                assemblyResult.getFullReferenceWithPadding(),
-                assemblyResult.getPaddedReferenceLoc(),
-                regionForGenotyping.getLocation(),
-                getToolkit().getGenomeLocParser(),
-                metaDataTracker,
-                (consensusMode ? Collections.<VariantContext>emptyList() : givenAlleles),
-                emitReferenceConfidence());
+        final HaplotypeCallerGenotypingEngine.CalledHaplotypes calledHaplotypes;
+        RuntimeMetrics.GENOTYPING.start();
+        try {
+            calledHaplotypes = genotypingEngine.assignGenotypeLikelihoods(
+                    haplotypes,
+                    readLikelihoods,
+                    perSampleFilteredReadList,
+                    assemblyResult.getFullReferenceWithPadding(),
+                    assemblyResult.getPaddedReferenceLoc(),
+                    regionForGenotyping.getLocation(),
+                    getToolkit().getGenomeLocParser(),
+                    metaDataTracker,
+                    (consensusMode ? Collections.<VariantContext>emptyList() : givenAlleles),
+                    emitReferenceConfidence());
+        } finally {
+            RuntimeMetrics.GENOTYPING.stop();
+        }
 
         if ( bamWriter != null ) {
             final Set<Haplotype> calledHaplotypeSet = new HashSet<>(calledHaplotypes.getCalledHaplotypes());
@@ -1083,12 +1377,13 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         if( SCAC.DEBUG ) { logger.info("----------------------------------------------------------------------------------"); }
 
 
+        final List<VariantContext> result;
         if ( emitReferenceConfidence() ) {
             if ( !containsCalls(calledHaplotypes) ) {
                 // no called all of the potential haplotypes
-                return referenceModelForNoVariation(originalActiveRegion, false);
+                result = referenceModelForNoVariation(originalActiveRegion, false);
             } else {
-                final List<VariantContext> result = new LinkedList<>();
+                result = new LinkedList<>();
                 // output left-flanking non-variant section:
                 if (trimmingResult.hasLeftFlankingRegion())
                     result.addAll(referenceModelForNoVariation(trimmingResult.nonVariantLeftFlankRegion(),false));
@@ -1099,10 +1394,13 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
                 // output right-flanking non-variant section:
                 if (trimmingResult.hasRightFlankingRegion())
                     result.addAll(referenceModelForNoVariation(trimmingResult.nonVariantRightFlankRegion(),false));
-                return result;
             }
         } else
-            return calledHaplotypes.getCalls();
+            result = calledHaplotypes.getCalls();
+
+        // recycle the likelihood storage for the next active region.
+        readLikelihoods.release();
+        return result;
     }
 
     /**
@@ -1154,14 +1452,24 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         final GenomeLoc paddedReferenceLoc = getPaddedLoc(activeRegion);
         final Haplotype referenceHaplotype = createReferenceHaplotype(activeRegion, paddedReferenceLoc);
 
+        final String assemblyCacheKey = assemblyCache == null ? null : assemblyCache.assemblyKey(activeRegion, fullReferenceWithPadding, paddedReferenceLoc, giveAlleles);
+        if ( assemblyCacheKey != null ) {
+            final AssemblyResultSet cachedAssemblyResultSet = assemblyCache.readAssembly(assemblyCacheKey, activeRegion, referenceHaplotype, fullReferenceWithPadding, paddedReferenceLoc);
+            if ( cachedAssemblyResultSet != null )
+                return cachedAssemblyResultSet;
+        }
+
         // Create ReadErrorCorrector object if requested - will be used within assembly engine.
         ReadErrorCorrector readErrorCorrector = null;
         if (errorCorrectReads)
             readErrorCorrector = new ReadErrorCorrector(kmerLengthForReadErrorCorrection, MIN_TAIL_QUALITY_WITH_ERROR_CORRECTION, minObservationsForKmerToBeSolid, SCAC.DEBUG, fullReferenceWithPadding);
 
+        RuntimeMetrics.ASSEMBLY.start();
         try {
             final AssemblyResultSet assemblyResultSet = assemblyEngine.runLocalAssembly( activeRegion, referenceHaplotype, fullReferenceWithPadding, paddedReferenceLoc, giveAlleles,readErrorCorrector );
             assemblyResultSet.debugDump(logger);
+            if ( assemblyCacheKey != null )
+                assemblyCache.writeAssembly(assemblyCacheKey, assemblyResultSet);
             return assemblyResultSet;
 
         } catch ( final Exception e ) {
@@ -1174,6 +1482,8 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
                 writer.close();
             }
             throw e;
+        } finally {
+            RuntimeMetrics.ASSEMBLY.stop();
         }
     }
 
@@ -1240,21 +1550,69 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
     }
 
     @Override
-    public Integer reduce(List<VariantContext> callsInRegion, Integer numCalledRegions) {
+    public Integer reduce(final RegionCalls regionCalls, final Integer numCalledRegions) {
+        if ( regionsAwaitingLikelihoods.isEmpty() && regionCalls.isReady() )
+            return writeCalls(regionCalls.getCalls()) + numCalledRegions;
+
+        // keep the regions in order behind the first one whose batch is still being computed
+        regionsAwaitingLikelihoods.add(regionCalls);
+        int numWritten = 0;
+        while ( ! regionsAwaitingLikelihoods.isEmpty() && regionsAwaitingLikelihoods.peek().isReady() )
+            numWritten += writeCalls(regionsAwaitingLikelihoods.poll().getCalls());
+        return numWritten + numCalledRegions;
+    }
+
+    private int writeCalls(final List<VariantContext> callsInRegion) {
         for( final VariantContext call : callsInRegion ) {
             vcfWriter.add( call );
         }
-        return (callsInRegion.isEmpty() ? 0 : 1) + numCalledRegions;
+        return callsInRegion.isEmpty() ? 0 : 1;
+    }
+
+    /**
+     * Writes out all the regions still waiting for their read likelihoods, completing their batches if need be.
+     *
+     * @return the number of regions with calls.
+     */
+    private int flushRegionsAwaitingLikelihoods() {
+        int numCalledRegions = 0;
+        while ( ! regionsAwaitingLikelihoods.isEmpty() ) {
+            final RegionCalls regionCalls = regionsAwaitingLikelihoods.poll();
+            if ( regionCalls.isPending() )
+                regionCalls.pending.batch.complete();
+            numCalledRegions += writeCalls(regionCalls.getCalls());
+        }
+        return numCalledRegions;
+    }
+
+    /**
+     * The only state we carry from one region to the next is the pending hom-ref block of the GVCF writer.  Regions
+     * whose read likelihoods are still being batched are written out first, as they are already counted as done.
+     */
+    @Override
+    public void saveCheckpointState(final Properties state) {
+        if ( ! regionsAwaitingLikelihoods.isEmpty() )
+            numCalledRegionsFlushedForCheckpoint += flushRegionsAwaitingLikelihoods();
+        if ( SCAC.emitReferenceConfidence == ReferenceConfidenceMode.GVCF ) ((GVCFWriter)vcfWriter).saveState(state);
+    }
+
+    @Override
+    public void restoreCheckpointState(final Properties state) {
+        if ( SCAC.emitReferenceConfidence == ReferenceConfidenceMode.GVCF ) ((GVCFWriter)vcfWriter).restoreState(state);
     }
 
     @Override
     public void onTraversalDone(Integer result) {
+        if ( ! regionsAwaitingLikelihoods.isEmpty() )
+            result += flushRegionsAwaitingLikelihoods();
+        result += numCalledRegionsFlushedForCheckpoint;
         if ( SCAC.emitReferenceConfidence == ReferenceConfidenceMode.GVCF ) ((GVCFWriter)vcfWriter).close(false); // GROSS -- engine forces us to close our own VCF writer since we wrapped it
         referenceConfidenceModel.close();
         //TODO remove the need to call close here for debugging, the likelihood output stream should be managed
         //TODO (open & close) at the walker, not the engine.
         likelihoodCalculationEngine.close();
         logger.info("Ran local assembly on " + result + " active regions");
+        if ( assemblyCache != null ) logger.info(assemblyCache.getStatistics());
     }
 
     //---------------------------------------------------------------------------------------------------------------
@@ -266,8 +266,11 @@ public class HaplotypeCallerGenotypingEngine extends GenotypingEngine<HaplotypeC
                 final VariantContext call = calculateGenotypes(new VariantContextBuilder(mergedVC).genotypes(genotypes).make(), calculationModel);
                 if( call != null ) {
 
+                    final ReadLikelihoods<Allele> readAlleleLikelihoodsForGenotyping = readAlleleLikelihoods;
                     readAlleleLikelihoods = prepareReadAlleleLikelihoodsForAnnotation(readLikelihoods, perSampleFilteredReadList,
                             genomeLocParser, emitReferenceConfidence, alleleMapper, readAlleleLikelihoods, call);
+                    if (readAlleleLikelihoods != readAlleleLikelihoodsForGenotyping)
+                        readAlleleLikelihoodsForGenotyping.release();
 
                     VariantContext annotatedCall = annotationEngine.annotateContextForActiveRegion(tracker,readAlleleLikelihoods, call);
 
@@ -283,6 +286,9 @@ public class HaplotypeCallerGenotypingEngine extends GenotypingEngine<HaplotypeC
 
                     returnCalls.add( annotatedCall );
                 }
+
+                // the marginal likelihoods are not needed beyond this event, so their storage is recycled.
+                readAlleleLikelihoods.release();
             }
         }
 
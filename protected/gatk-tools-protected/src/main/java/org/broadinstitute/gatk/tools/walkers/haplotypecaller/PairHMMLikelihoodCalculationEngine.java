@@ -115,8 +115,10 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
                         return new ArrayLoglessPairHMM();
                     else
                         return new CnyPairHMM();
+                case PARALLEL_LOGLESS:
+                    return new ParallelLoglessPairHMM();
                 default:
-                    throw new UserException.BadArgumentValue("pairHMM", "Specified pairHMM implementation is unrecognized or incompatible with the HaplotypeCaller. Acceptable options are ORIGINAL, EXACT, CACHING, LOGLESS_CACHING, and ARRAY_LOGLESS.");
+                    throw new UserException.BadArgumentValue("pairHMM", "Specified pairHMM implementation is unrecognized or incompatible with the HaplotypeCaller. Acceptable options are ORIGINAL, EXACT, CACHING, LOGLESS_CACHING, ARRAY_LOGLESS, and PARALLEL_LOGLESS.");
             }
         }
     };
@@ -224,82 +226,98 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
         return result;
     }
 
+    @Override
+    public ReadLikelihoods<Haplotype> computeReadLikelihoods( final AssemblyResultSet assemblyResultSet, final SampleList samples, final Map<String, List<GATKSAMRecord>> perSampleReadList ) {
+        final PendingReadLikelihoods pending = prepareReadLikelihoods(assemblyResultSet, samples, perSampleReadList);
+        computeReadLikelihoods(Collections.singletonList(pending));
+        return pending.getReadLikelihoods();
+    }
+
     /**
-     * Initialize our pairHMM with parameters appropriate to the haplotypes and reads we're going to evaluate
-     *
-     * After calling this routine the PairHMM will be configured to best evaluate all reads in the samples
-     * against the set of haplotypes
-     *
-     * @param haplotypes a non-null list of haplotypes
-     * @param perSampleReadList a mapping from sample -> reads
+     * Read likelihoods of an active region whose read x haplotype jobs have been set up but not evaluated yet.
      */
-    private void initializePairHMM(final List<Haplotype> haplotypes, final Map<String, List<GATKSAMRecord>> perSampleReadList) {
-        int X_METRIC_LENGTH = 0;
-        for( final Map.Entry<String, List<GATKSAMRecord>> sample : perSampleReadList.entrySet() ) {
-            for( final GATKSAMRecord read : sample.getValue() ) {
-                final int readLength = read.getReadLength();
-                if( readLength > X_METRIC_LENGTH ) { X_METRIC_LENGTH = readLength; }
-            }
-        }
-        int Y_METRIC_LENGTH = 0;
-        for( final Haplotype h : haplotypes ) {
-            final int haplotypeLength = h.getBases().length;
-            if( haplotypeLength > Y_METRIC_LENGTH ) { Y_METRIC_LENGTH = haplotypeLength; }
+    public static final class PendingReadLikelihoods {
+        private final ReadLikelihoods<Haplotype> readLikelihoods;
+        private final PairHMMRegion jobs;
+
+        private PendingReadLikelihoods(final ReadLikelihoods<Haplotype> readLikelihoods, final PairHMMRegion jobs) {
+            this.readLikelihoods = readLikelihoods;
+            this.jobs = jobs;
         }
 
-        // initialize arrays to hold the probabilities of being in the match, insertion and deletion cases
-        pairHMMThreadLocal.get().initialize(haplotypes, perSampleReadList, X_METRIC_LENGTH, Y_METRIC_LENGTH);
-    }
+        /**
+         * @return the likelihoods of the region, which are undefined until they have been passed to
+         *   {@link #computeReadLikelihoods(List)}.
+         */
+        public ReadLikelihoods<Haplotype> getReadLikelihoods() { return readLikelihoods; }
 
-    private void finalizePairHMM()
-    {
-        pairHMMThreadLocal.get().finalizeRegion();
+        /**
+         * @return the number of read x haplotype pairs the PairHMM has to evaluate for the region.
+         */
+        public long getPairCount() { return jobs.getPairCount(); }
     }
 
-    @Override
-    public ReadLikelihoods<Haplotype> computeReadLikelihoods( final AssemblyResultSet assemblyResultSet, final SampleList samples, final Map<String, List<GATKSAMRecord>> perSampleReadList ) {
-
+    /**
+     * Sets up the likelihoods of the reads of a region, without evaluating them yet.
+     *
+     * <p>This lets the caller gather several consecutive regions and evaluate all of them at once with
+     * {@link #computeReadLikelihoods(List)}.</p>
+     *
+     * @param assemblyResultSet the input assembly results.
+     * @param samples the list of targeted samples.
+     * @param perSampleReadList the input read sets stratified per sample.
+     * @return never {@code null}.
+     */
+    public PendingReadLikelihoods prepareReadLikelihoods( final AssemblyResultSet assemblyResultSet, final SampleList samples, final Map<String, List<GATKSAMRecord>> perSampleReadList ) {
         final List<Haplotype> haplotypeList = assemblyResultSet.getHaplotypeList();
         final AlleleList<Haplotype> haplotypes = new IndexedAlleleList<>(haplotypeList);
 
-        // configure the HMM
-        initializePairHMM(haplotypeList, perSampleReadList);
-
-        // Add likelihoods for each sample's reads to our result
         final ReadLikelihoods<Haplotype> result = new ReadLikelihoods<>(samples, haplotypes, perSampleReadList);
         final int sampleCount = result.sampleCount();
+        final List<ReadLikelihoods.Matrix<Haplotype>> sampleLikelihoods = new ArrayList<>(sampleCount);
+
+        // Modify the read qualities by applying the PCR error model and capping the minimum base,insertion,deletion qualities
+        final List<List<GATKSAMRecord>> processedReads = new ArrayList<>(sampleCount);
+        final Map<GATKSAMRecord,byte[]> gapContinuationPenalties = new HashMap<>();
         for (int s = 0; s < sampleCount; s++) {
-            final ReadLikelihoods.Matrix<Haplotype> sampleLikelihoods = result.sampleMatrix(s);
-            computeReadLikelihoods(sampleLikelihoods);
+            final ReadLikelihoods.Matrix<Haplotype> matrix = result.sampleMatrix(s);
+            final List<GATKSAMRecord> sampleProcessedReads = modifyReadQualities(matrix.reads());
+            addGapContinuationPenalties(sampleProcessedReads, constantGCP, gapContinuationPenalties);
+            sampleLikelihoods.add(matrix);
+            processedReads.add(sampleProcessedReads);
         }
 
-        result.normalizeLikelihoods(false, log10globalReadMismappingRate);
-        result.filterPoorlyModeledReads(EXPECTED_ERROR_RATE_PER_BASE);
-        finalizePairHMM();
-        return result;
+        return new PendingReadLikelihoods(result, new PairHMMRegion(haplotypeList, perSampleReadList, sampleLikelihoods, processedReads, gapContinuationPenalties));
     }
 
-    private void computeReadLikelihoods( final ReadLikelihoods.Matrix<Haplotype> likelihoods) {
-
-        // Modify the read qualities by applying the PCR error model and capping the minimum base,insertion,deletion qualities
-        final List<GATKSAMRecord> processedReads = modifyReadQualities(likelihoods.reads());
+    /**
+     * Evaluates the read likelihoods of several regions, submitting all of them to the PairHMM at once
+     *
+     * @param regions the regions as returned by {@link #prepareReadLikelihoods}, in any order.
+     */
+    public void computeReadLikelihoods( final List<PendingReadLikelihoods> regions ) {
+        final List<PairHMMRegion> jobs = new ArrayList<>(regions.size());
+        for (final PendingReadLikelihoods region : regions)
+            jobs.add(region.jobs);
 
-        final Map<GATKSAMRecord,byte[]> gapContinuationPenalties = buildGapContinuationPenalties(processedReads,constantGCP);
         // Run the PairHMM to calculate the log10 likelihood of each (processed) reads' arising from each haplotype
-        pairHMMThreadLocal.get().computeLikelihoods(likelihoods,processedReads,gapContinuationPenalties);
-
-        if (WRITE_LIKELIHOODS_TO_FILE)
-            writeDebugLikelihoods(likelihoods);
+        pairHMMThreadLocal.get().computeLikelihoodsAcrossRegions(jobs);
+
+        for (final PendingReadLikelihoods region : regions) {
+            if (WRITE_LIKELIHOODS_TO_FILE)
+                for (final ReadLikelihoods.Matrix<Haplotype> sampleLikelihoods : region.jobs.getLikelihoods())
+                    writeDebugLikelihoods(sampleLikelihoods);
+            region.readLikelihoods.normalizeLikelihoods(false, log10globalReadMismappingRate);
+            region.readLikelihoods.filterPoorlyModeledReads(EXPECTED_ERROR_RATE_PER_BASE);
+        }
     }
 
-    private Map<GATKSAMRecord, byte[]> buildGapContinuationPenalties(final List<GATKSAMRecord> processedReads, final byte gcp) {
-        final Map<GATKSAMRecord,byte[]> result = new HashMap<>(processedReads.size());
+    private void addGapContinuationPenalties(final List<GATKSAMRecord> processedReads, final byte gcp, final Map<GATKSAMRecord, byte[]> result) {
         for (final GATKSAMRecord read : processedReads) {
             final byte[] readGcpArray = new byte[read.getReadLength()];
             Arrays.fill(readGcpArray,gcp);
             result.put(read,readGcpArray);
         }
-        return result;
     }
 
     private void writeDebugLikelihoods(final ReadLikelihoods.Matrix<Haplotype> likelihoods) {
@@ -54,6 +54,8 @@ package org.broadinstitute.gatk.tools.walkers.haplotypecaller.readthreading;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.HaplotypeRoute;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.Kmer;
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.KmerMap;
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.KmerSet;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs.*;
 import org.broadinstitute.gatk.utils.SequenceComplexity;
 import org.broadinstitute.gatk.utils.Utils;
@@ -283,8 +285,8 @@ public class HaplotypeGraph extends ReadThreadingGraph {
         referenceHaplotype = findReferenceHaplotypeOrFail(haplotypes);
         this.haplotypes = new HashSet<>(haplotypes);
         template.buildGraphIfNecessary();
-        uniqueKmers = new HashMap<>();
-        nonUniqueKmers = new HashSet<>();
+        uniqueKmers = new KmerMap<>();
+        nonUniqueKmers = new KmerSet();
         // Copy vertices over.
         addVertices(template.vertexSet());
         // Copy edges over.
@@ -51,9 +51,12 @@
 
 package org.broadinstitute.gatk.tools.walkers.haplotypecaller.readthreading;
 
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import org.apache.log4j.Logger;
-import org.broadinstitute.gatk.tools.walkers.haplotypecaller.KMerCounter;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.Kmer;
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.KmerMap;
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.KmerSet;
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.PackedKmer;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs.*;
 import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
@@ -84,12 +87,12 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
     /**
      * A set of non-unique kmers that cannot be used as merge points in the graph
      */
-    protected Set<Kmer> nonUniqueKmers;
+    protected KmerSet nonUniqueKmers;
 
     /**
      * A map from kmers -> their corresponding vertex in the graph
      */
-    protected Map<Kmer, MultiDeBruijnVertex> uniqueKmers = new LinkedHashMap<>();
+    protected KmerMap<MultiDeBruijnVertex> uniqueKmers = new KmerMap<>();
 
     /**
      *
@@ -258,8 +261,7 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
             return 0;
 
         for ( int i = seqForKmers.start; i < seqForKmers.stop - kmerSize; i++ ) {
-            final Kmer kmer1 = new Kmer(seqForKmers.sequence, i, kmerSize);
-            if ( isThreadingStart(kmer1) )
+            if ( isThreadingStart(seqForKmers.sequence, i) )
                 return i;
         }
 
@@ -281,6 +283,18 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
         return startThreadingOnlyAtExistingVertex ? uniqueKmers.containsKey(kmer) : !nonUniqueKmers.contains(kmer);
     }
 
+    /**
+     * Checks whether the kmer at a given position of a sequence can be the threading start, without creating a
+     * {@link Kmer} for it.
+     *
+     * @param sequence the sequence.
+     * @param start the first base of the kmer in {@code sequence}.
+     * @return {@code true} if we can start thread the sequence at this kmer, {@code false} otherwise.
+     */
+    private boolean isThreadingStart(final byte[] sequence, final int start) {
+        return startThreadingOnlyAtExistingVertex ? uniqueKmers.containsKey(sequence, start, kmerSize) : !nonUniqueKmers.contains(sequence, start, kmerSize);
+    }
+
     /**
      * Changes the threading start location policy.
      *
@@ -340,8 +354,7 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
         final boolean result = super.removeVertex(V);
         if (result) {
             final byte[] sequence = V.getSequence();
-            final Kmer kmer = new Kmer(sequence);
-            uniqueKmers.remove(kmer);
+            uniqueKmers.remove(new Kmer(sequence));
         }
         return result;
     }
@@ -371,10 +384,10 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
 
     /** structure that keeps track of the non-unique kmers for a given kmer size */
     private static class NonUniqueResult {
-        final Set<Kmer> nonUniques;
+        final KmerSet nonUniques;
         final int kmerSize;
 
-        private NonUniqueResult(Set<Kmer> nonUniques, int kmerSize) {
+        private NonUniqueResult(KmerSet nonUniques, int kmerSize) {
             this.nonUniques = nonUniques;
             this.kmerSize = kmerSize;
         }
@@ -391,7 +404,7 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
      */
     protected NonUniqueResult determineKmerSizeAndNonUniques(final int minKmerSize, final int maxKmerSize) {
         final Collection<SequenceForKmers> withNonUniques = getAllPendingSequences();
-        final Set<Kmer> nonUniqueKmers = new HashSet<>();
+        final KmerSet nonUniqueKmers = new KmerSet();
 
         // go through the sequences and determine which kmers aren't unique within each read
         int kmerSize = minKmerSize;
@@ -405,7 +418,7 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
                 final SequenceForKmers sequenceForKmers = it.next();
 
                 // determine the non-unique kmers for this sequence
-                final Collection<Kmer> nonUniquesFromSeq = determineNonUniqueKmers(sequenceForKmers, kmerSize);
+                final KmerSet nonUniquesFromSeq = determineNonUniqueKmers(sequenceForKmers, kmerSize);
                 if ( nonUniquesFromSeq.isEmpty() ) {
                     // remove this sequence from future consideration
                     it.remove();
@@ -438,18 +451,51 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
      * Get the collection of non-unique kmers from sequence for kmer size kmerSize
      * @param seqForKmers a sequence to get kmers from
      * @param kmerSize the size of the kmers
-     * @return a non-null collection of non-unique kmers in sequence
+     * @return a non-null set of non-unique kmers in sequence
      */
-    static protected Collection<Kmer> determineNonUniqueKmers(final SequenceForKmers seqForKmers, final int kmerSize) {
-        // count up occurrences of kmers within each read
-        final KMerCounter counter = new KMerCounter(kmerSize);
+    static protected KmerSet determineNonUniqueKmers(final SequenceForKmers seqForKmers, final int kmerSize) {
+        final KmerSet result = new KmerSet();
+        final byte[] sequence = seqForKmers.sequence;
         final int stopPosition = seqForKmers.stop - kmerSize;
-        for ( int i = 0; i <= stopPosition; i++ ) {
-            final Kmer kmer = new Kmer(seqForKmers.sequence, i, kmerSize);
-            counter.addKmer(kmer, 1);
+
+        if ( kmerSize > PackedKmer.MAX_LENGTH ) {
+            final Set<Kmer> seen = new HashSet<>();
+            for ( int i = 0; i <= stopPosition; i++ ) {
+                final Kmer kmer = new Kmer(sequence, i, kmerSize);
+                if ( ! seen.add(kmer) ) result.add(kmer);
+            }
+            return result;
+        }
+
+        // roll the packed kmer along the sequence one base at a time; only kmers that contain a base other
+        // than A, C, G or T need to be created as objects
+        final LongOpenHashSet seen = new LongOpenHashSet();
+        final Set<Kmer> seenUnpacked = new HashSet<>();
+        final long lengthBit = PackedKmer.lengthBit(kmerSize);
+        final long mask = lengthBit - 1;
+        long rollingCode = 0;
+        int packableRun = 0;
+        for ( int end = 0; end < stopPosition + kmerSize; end++ ) {
+            final int baseCode = PackedKmer.baseCode(sequence[end]);
+            if ( baseCode < 0 ) {
+                packableRun = 0;
+                rollingCode = (rollingCode << 2) & mask;
+            } else {
+                packableRun++;
+                rollingCode = ((rollingCode << 2) | baseCode) & mask;
+            }
+            final int start = end - kmerSize + 1;
+            if ( start < 0 ) continue;
+            if ( packableRun >= kmerSize ) {
+                final long packedKmer = lengthBit | rollingCode;
+                if ( ! seen.add(packedKmer) ) result.addPacked(packedKmer);
+            } else {
+                final Kmer kmer = new Kmer(sequence, start, kmerSize);
+                if ( ! seenUnpacked.add(kmer) ) result.add(kmer);
+            }
         }
 
-        return counter.getKmersWithCountsAtLeast(2);
+        return result;
     }
 
     @Override
@@ -484,21 +530,36 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
      * @return a non-null vertex
      */
     private MultiDeBruijnVertex getOrCreateKmerVertex(final byte[] sequence, final int start) {
-        final Kmer kmer = new Kmer(sequence, start, kmerSize);
-        final MultiDeBruijnVertex vertex = getUniqueKmerVertex(kmer, true);
-        return ( vertex != null ) ? vertex : createVertex(kmer);
+        final MultiDeBruijnVertex vertex = getUniqueKmerVertex(sequence, start, true);
+        return ( vertex != null ) ? vertex : createVertex(new Kmer(sequence, start, kmerSize));
     }
 
     /**
-     * Get the unique vertex for kmer, or null if not possible.
+     * Get the unique vertex for the kmer in sequence starting at start, or null if not possible.
      *
+     * @param sequence the sequence
+     * @param start the position of the kmer start
      * @param allowRefSource if true, we will allow kmer to match the reference source vertex
      * @return a vertex for kmer, or null if it's not unique
      */
-    private MultiDeBruijnVertex getUniqueKmerVertex(final Kmer kmer, final boolean allowRefSource) {
-        if ( ! allowRefSource && kmer.equals(refSource) ) return null;
+    private MultiDeBruijnVertex getUniqueKmerVertex(final byte[] sequence, final int start, final boolean allowRefSource) {
+        if ( ! allowRefSource && isRefSource(sequence, start) ) return null;
+
+        return uniqueKmers.get(sequence, start, kmerSize);
+    }
 
-        return uniqueKmers.get(kmer);
+    /**
+     * Is the kmer in sequence starting at start the reference source kmer?
+     *
+     * @param sequence the sequence
+     * @param start the position of the kmer start
+     * @return true if there is a reference source and the kmer has the same bases
+     */
+    private boolean isRefSource(final byte[] sequence, final int start) {
+        if ( refSource == null ) return false;
+        for ( int i = 0; i < kmerSize; i++ )
+            if ( refSource.base(i) != sequence[start + i] ) return false;
+        return true;
     }
 
 
@@ -550,14 +611,13 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
         }
 
         // none of our outgoing edges had our unique suffix base, so we check for an opportunity to merge back in
-        final Kmer kmer = new Kmer(sequence, kmerStart, kmerSize);
-        final MultiDeBruijnVertex uniqueMergeVertex = getUniqueKmerVertex(kmer, false);
+        final MultiDeBruijnVertex uniqueMergeVertex = getUniqueKmerVertex(sequence, kmerStart, false);
 
         if ( isRef && uniqueMergeVertex != null )
             throw new IllegalStateException("Found a unique vertex to merge into the reference graph " + prevVertex + " -> " + uniqueMergeVertex);
 
         // either use our unique merge vertex, or create a new one in the chain
-        final MultiDeBruijnVertex nextVertex = uniqueMergeVertex == null ? createVertex(kmer) : uniqueMergeVertex;
+        final MultiDeBruijnVertex nextVertex = uniqueMergeVertex == null ? createVertex(new Kmer(sequence, kmerStart, kmerSize)) : uniqueMergeVertex;
         addEdge(prevVertex, nextVertex, ((MyEdgeFactory)getEdgeFactory()).createEdge(isRef, count));
         return nextVertex;
     }
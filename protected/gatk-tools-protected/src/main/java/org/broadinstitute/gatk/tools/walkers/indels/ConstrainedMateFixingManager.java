@@ -51,17 +51,24 @@
 
 package org.broadinstitute.gatk.tools.walkers.indels;
 
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.PicardNamespaceUtils;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileSource;
 import htsjdk.samtools.SamPairUtil;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordComparator;
 import htsjdk.samtools.SAMRecordCoordinateComparator;
+import htsjdk.samtools.SamReader;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.broadinstitute.gatk.utils.sam.GATKSamRecordFactory;
 
+import java.io.*;
 import java.util.*;
 
 /*
@@ -114,6 +121,12 @@ import java.util.*;
  * So the worst-case memory consumption here is proportional to the number of reads
  * occurring between R and M + 2 Y, and so is proportional to the depth of the data and X and Y.
  *
+ * Once more than the maximum number of records are held in memory, the queue is flushed to the writer, and reads
+ * near the flush can no longer be moved.  When given a spill directory, the manager instead moves the queued reads
+ * whose mates are no longer awaited into a sorted run on disk.  Those reads will not be modified again, so they are
+ * simply merged back with the reads in memory as they are emitted.  Only when most of the queue is still waiting
+ * for mates does the manager fall back to flushing.
+ *
  * This leads to the following simple algorithm:
  *
  * addAlignment(newRead):
@@ -165,6 +178,15 @@ public class ConstrainedMateFixingManager {
 
     int counter = 0;
 
+    /** where reads are spilled when there are too many in memory, or null to flush them to the writer instead */
+    private final File spillDirectory;
+
+    /** the sorted runs of spilled reads that have not yet been written */
+    private final List<SpilledRun> spilledRuns = new LinkedList<SpilledRun>();
+
+    /** the readers the spilled reads came from, so that they can be given back their file sources */
+    private final List<SamReader> spilledReadSources = new ArrayList<SamReader>();
+
     /** read.name -> records */
     HashMap<String, SAMRecordHashObject> forMateMatching = new HashMap<String, SAMRecordHashObject>();
     PriorityQueue<SAMRecord> waitingReads = new PriorityQueue<SAMRecord>(initialCapacity, comparer);
@@ -205,7 +227,27 @@ public class ConstrainedMateFixingManager {
                                         final int maxInsertSizeForMovingReadPairs,
                                         final int maxMoveAllowed,
                                         final int maxRecordsInMemory) {
+        this(writer, genomeLocParser, maxInsertSizeForMovingReadPairs, maxMoveAllowed, maxRecordsInMemory, null);
+    }
+
+    /**
+     *
+     * @param writer                                 actual writer
+     * @param genomeLocParser                        the GenomeLocParser object
+     * @param maxInsertSizeForMovingReadPairs        max insert size allowed for moving pairs
+     * @param maxMoveAllowed                         max positional move allowed for any read
+     * @param maxRecordsInMemory                     max records to keep in memory
+     * @param spillDirectory                         directory to spill reads to when there are too many in memory,
+     *                                               or null to flush them to the writer instead
+     */
+    public ConstrainedMateFixingManager(final SAMFileWriter writer,
+                                        final GenomeLocParser genomeLocParser,
+                                        final int maxInsertSizeForMovingReadPairs,
+                                        final int maxMoveAllowed,
+                                        final int maxRecordsInMemory,
+                                        final File spillDirectory) {
         this.writer = writer;
+        this.spillDirectory = spillDirectory;
         this.genomeLocParser = genomeLocParser;
         this.maxInsertSizeForMovingReadPairs = maxInsertSizeForMovingReadPairs;
         this.MAX_POS_MOVE_ALLOWED = maxMoveAllowed;
@@ -217,6 +259,28 @@ public class ConstrainedMateFixingManager {
 
     public int getNReadsInQueue() { return waitingReads.size(); }
 
+    /**
+     * The queue is flushed whenever a read from another contig arrives, so all of the waiting reads share one contig
+     *
+     * @return the reference index of the reads waiting in the queue, or null if the queue is empty
+     */
+    public Integer getReferenceIndexOfReadsInQueue() {
+        final SAMRecord firstRead = peekNextRead();
+        return firstRead == null ? null : firstRead.getReferenceIndex();
+    }
+
+    /**
+     * For testing purposes only
+     *
+     * @return the number of reads spilled to disk that have not been written yet
+     */
+    protected int getNReadsSpilledForTesting() {
+        int nReads = 0;
+        for ( final SpilledRun run : spilledRuns )
+            nReads += run.size();
+        return nReads;
+    }
+
     /**
      * For testing purposes only
      *
@@ -256,19 +320,24 @@ public class ConstrainedMateFixingManager {
         //    System.out.println("WaitingReads.size = " + waitingReads.size() + ", forMateMatching.size = " + forMateMatching.size());
         //}
 
-        // if the new read is on a different contig or we have too many reads, then we need to flush the queue and clear the map
+        // if we have too many reads, try to make room by spilling the ones that won't change anymore
         boolean tooManyReads = getNReadsInQueue() >= MAX_RECORDS_IN_MEMORY;
-        if ( (canFlush && tooManyReads) || (getNReadsInQueue() > 0 && !waitingReads.peek().getReferenceIndex().equals(newRead.getReferenceIndex())) ) {
-            if ( DEBUG ) logger.warn("Flushing queue on " + (tooManyReads ? "too many reads" : ("move to new contig: " + newRead.getReferenceName() + " from " + waitingReads.peek().getReferenceName())) + " at " + newRead.getAlignmentStart());
+        if ( canFlush && tooManyReads && spillDirectory != null && spillReads() )
+            tooManyReads = false;
+
+        // if the new read is on a different contig or we still have too many reads, then we need to flush the queue and clear the map
+        final SAMRecord firstQueuedRead = peekNextRead();
+        if ( (canFlush && tooManyReads) || (firstQueuedRead != null && !firstQueuedRead.getReferenceIndex().equals(newRead.getReferenceIndex())) ) {
+            if ( DEBUG ) logger.warn("Flushing queue on " + (tooManyReads ? "too many reads" : ("move to new contig: " + newRead.getReferenceName() + " from " + firstQueuedRead.getReferenceName())) + " at " + newRead.getAlignmentStart());
 
-            while ( getNReadsInQueue() > 1 ) {
+            SAMRecord lastRead = null;
+            while ( peekNextRead() != null ) {
                 // emit to disk
-                writeRead(remove(waitingReads));
+                lastRead = removeNextRead();
+                writeRead(lastRead);
             }
 
-            SAMRecord lastRead = remove(waitingReads);
             lastLocFlushed = (lastRead.getReferenceIndex() == -1) ? null : genomeLocParser.createGenomeLoc(lastRead);
-            writeRead(lastRead);
 
             if ( !tooManyReads )
                 forMateMatching.clear();
@@ -326,8 +395,8 @@ public class ConstrainedMateFixingManager {
         waitingReads.add(newRead);
 
         if ( ++counter % EMIT_FREQUENCY == 0 ) {
-            while ( ! waitingReads.isEmpty() ) { // there's something in the queue
-                SAMRecord read = waitingReads.peek();
+            while ( peekNextRead() != null ) { // there's something in the queue
+                SAMRecord read = peekNextRead();
 
                 if ( noReadCanMoveBefore(read.getAlignmentStart(), newRead) &&
                         (!pairedReadIsMovable(read)                               // we won't try to move such a read
@@ -342,7 +411,7 @@ public class ConstrainedMateFixingManager {
                                 newRead.getAlignmentStart(), read.getReadName(), read.getAlignmentStart(),
                                 read.getInferredInsertSize(), read.getMateAlignmentStart(), read.getAttribute("OP")));
                     // emit to disk
-                    writeRead(remove(waitingReads));
+                    writeRead(removeNextRead());
                 } else {
                     if ( DEBUG )
                         logger.warn(String.format("At %d: read %s at %d with isize %d couldn't be emited, mate start %d",
@@ -355,6 +424,86 @@ public class ConstrainedMateFixingManager {
         }
     }
 
+    /**
+     * @return the first of the queued reads, whether in memory or spilled to disk, or null if there are none
+     */
+    private SAMRecord peekNextRead() {
+        final SpilledRun run = getFirstSpilledRun();
+        final SAMRecord firstReadInMemory = waitingReads.peek();
+        if ( run == null || (firstReadInMemory != null && comparer.compare(firstReadInMemory, run.peek()) < 0) )
+            return firstReadInMemory;
+        return run.peek();
+    }
+
+    /**
+     * @return the first of the queued reads, whether in memory or spilled to disk, after removing it from the queue
+     */
+    private SAMRecord removeNextRead() {
+        final SpilledRun run = getFirstSpilledRun();
+        if ( run == null || (!waitingReads.isEmpty() && comparer.compare(waitingReads.peek(), run.peek()) < 0) )
+            return remove(waitingReads);
+
+        final SAMRecord read = run.poll();
+        if ( run.peek() == null )
+            spilledRuns.remove(run);
+        return read;
+    }
+
+    /**
+     * @return the spilled run starting with the earliest read, or null if no reads are spilled
+     */
+    private SpilledRun getFirstSpilledRun() {
+        SpilledRun firstRun = null;
+        for ( final SpilledRun run : spilledRuns ) {
+            if ( firstRun == null || comparer.compare(run.peek(), firstRun.peek()) < 0 )
+                firstRun = run;
+        }
+        return firstRun;
+    }
+
+    /**
+     * Moves the reads in memory that are not waiting for their mates into a new sorted run on disk.  Such reads are
+     * never modified again, so they only need to be merged back in order as they are emitted.
+     *
+     * @return true if the reads were spilled, false if too many of them are waiting for their mates to make it worthwhile
+     */
+    private boolean spillReads() {
+        int nReadsWaitingForMates = 0;
+        for ( final SAMRecord read : waitingReads ) {
+            if ( isWaitingForMate(read) )
+                nReadsWaitingForMates++;
+        }
+        if ( nReadsWaitingForMates > MAX_RECORDS_IN_MEMORY / 2 )
+            return false;
+
+        if ( DEBUG ) logger.warn("Spilling " + (getNReadsInQueue() - nReadsWaitingForMates) + " reads at " + waitingReads.peek().getAlignmentStart());
+
+        final PriorityQueue<SAMRecord> readsWaitingForMates = new PriorityQueue<SAMRecord>(initialCapacity, comparer);
+        final SpilledRun run = new SpilledRun(spillDirectory, waitingReads.peek().getHeader(), spilledReadSources);
+        while ( ! waitingReads.isEmpty() ) {
+            final SAMRecord read = waitingReads.poll();
+            if ( isWaitingForMate(read) )
+                readsWaitingForMates.add(read);
+            else
+                run.add(read);
+        }
+        run.doneAdding();
+
+        waitingReads = readsWaitingForMates;
+        if ( run.peek() != null )
+            spilledRuns.add(run);
+        return true;
+    }
+
+    /**
+     * @param read  the read
+     * @return true if the read may still get its mate info updated when its mate arrives
+     */
+    private boolean isWaitingForMate(final SAMRecord read) {
+        final SAMRecordHashObject entry = forMateMatching.get(read.getReadName());
+        return entry != null && entry.record == read;
+    }
+
     private void writeRead(SAMRecord read) {
         try {
             if ( writer != null )
@@ -397,8 +546,107 @@ public class ConstrainedMateFixingManager {
 
     public void close() {
         // write out all of the remaining reads
-        while ( ! waitingReads.isEmpty() ) { // there's something in the queue
-            writeRead(remove(waitingReads));
+        while ( peekNextRead() != null ) { // there's something in the queue
+            writeRead(removeNextRead());
+        }
+    }
+
+    /**
+     * A sorted run of reads spilled to disk, which is read back one read at a time and deleted once exhausted.
+     *
+     * The reads are stored in BAM record encoding, each preceded by the index of the reader it came from (or -1), since
+     * the file source of a read is needed to write it to the right output with -nWayOut.
+     */
+    private static class SpilledRun {
+        private final File file;
+        private final BAMRecordCodec codec;
+        private final List<SamReader> readSources;
+        private DataOutputStream output;
+        private DataInputStream input = null;
+        private int nReadsLeft = 0;
+        private SAMRecord next = null;
+
+        public SpilledRun(final File directory, final SAMFileHeader header, final List<SamReader> readSources) {
+            this.codec = new BAMRecordCodec(header, new GATKSamRecordFactory());
+            this.readSources = readSources;
+            try {
+                file = File.createTempFile("spilledReads.", ".tmp", directory);
+                file.deleteOnExit();
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            } catch (IOException e) {
+                throw new UserException.BadTmpDir("Could not create a file to spill reads to: " + e.getMessage());
+            }
+            codec.setOutputStream(output, file.getPath());
+        }
+
+        public void add(final SAMRecord read) {
+            try {
+                output.writeInt(getSourceIndex(read.getFileSource()));
+            } catch (IOException e) {
+                throw new UserException.CouldNotCreateOutputFile(file, "Could not spill reads", e);
+            }
+            codec.encode(read);
+            nReadsLeft++;
+        }
+
+        public void doneAdding() {
+            try {
+                output.close();
+                output = null;
+                input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new UserException.CouldNotReadInputFile(file, "Could not read spilled reads back", e);
+            }
+            codec.setInputStream(input, file.getPath());
+            advance();
+        }
+
+        public int size() {
+            return nReadsLeft + (next == null ? 0 : 1);
+        }
+
+        /**
+         * @return the next read of the run, or null once it is exhausted
+         */
+        public SAMRecord peek() {
+            return next;
+        }
+
+        public SAMRecord poll() {
+            final SAMRecord read = next;
+            advance();
+            return read;
+        }
+
+        private void advance() {
+            try {
+                if ( nReadsLeft == 0 ) {
+                    next = null;
+                    input.close();
+                    if ( !file.delete() )
+                        logger.warn("Could not delete spilled reads file " + file);
+                    return;
+                }
+
+                final int sourceIndex = input.readInt();
+                next = codec.decode();
+                if ( sourceIndex >= 0 )
+                    PicardNamespaceUtils.setFileSource(next, new SAMFileSource(readSources.get(sourceIndex), null));
+                nReadsLeft--;
+            } catch (IOException e) {
+                throw new UserException.CouldNotReadInputFile(file, "Could not read spilled reads back", e);
+            }
+        }
+
+        private int getSourceIndex(final SAMFileSource source) {
+            if ( source == null || source.getReader() == null )
+                return -1;
+            for ( int i = 0; i < readSources.size(); i++ ) {
+                if ( readSources.get(i) == source.getReader() )
+                    return i;
+            }
+            readSources.add(source.getReader());
+            return readSources.size() - 1;
         }
     }
 }
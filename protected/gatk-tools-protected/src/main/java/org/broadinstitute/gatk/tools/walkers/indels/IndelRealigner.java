@@ -64,6 +64,7 @@ import org.broadinstitute.gatk.engine.io.GATKSAMFileWriter;
 import org.broadinstitute.gatk.engine.iterators.ReadTransformer;
 import org.broadinstitute.gatk.engine.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.engine.walkers.BAQMode;
+import org.broadinstitute.gatk.engine.walkers.ManagesOwnThreads;
 import org.broadinstitute.gatk.engine.walkers.ReadWalker;
 import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.GenomeLoc;
@@ -84,6 +85,7 @@ import org.broadinstitute.gatk.utils.sam.NWaySAMFileWriter;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
 import org.broadinstitute.gatk.utils.text.TextFormattingUtils;
 import org.broadinstitute.gatk.utils.text.XReadLines;
+import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 import htsjdk.variant.variantcontext.VariantContext;
 
 import java.io.File;
@@ -91,6 +93,11 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Performs local realignment of reads to correct misalignments due to the presence of indels.
@@ -144,13 +151,17 @@ import java.util.*;
  * </li><li>
  * Another important note: because reads produced from the 454 technology inherently contain false indels, the realigner will not currently work with them
  * (or with reads from similar technologies).
+ * </li><li>
+ * With multiple CPU threads (-nct) the targets are realigned concurrently, but their reads are still handed to the mate fixing
+ * writer in order, so the output is the same as that of a single threaded run.  The one exception is the USE_SW model at targets
+ * with more candidate reads than -greedy, where each target samples its reads with its own random generator.
  * </li></ul>
  *
  * @author ebanks
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_DATA, extraDocs = {CommandLineGATK.class} )
 @BAQMode(QualityMode = BAQ.QualityMode.ADD_TAG, ApplicationTime = ReadTransformer.ApplicationTime.ON_OUTPUT)
-public class IndelRealigner extends ReadWalker<Integer, Integer> {
+public class IndelRealigner extends ReadWalker<Integer, Integer> implements ManagesOwnThreads {
 
     public static final String ORIGINAL_CIGAR_TAG = "OC";
     public static final String ORIGINAL_POSITION_TAG = "OP";
@@ -227,6 +238,16 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     @Argument(fullName="maxReadsInMemory", shortName="maxInMemory", doc="max reads allowed to be kept in memory at a time by the SAMFileWriter", required=false)
     protected int MAX_RECORDS_IN_MEMORY = 150000;
 
+    /**
+     * For expert users only!  When the SAMFileWriter holds --maxReadsInMemory reads, it normally writes them all out, and
+     * realignment is then skipped near the last read written.  With this argument it instead spills the reads that can
+     * no longer change to temporary files in the java.io.tmpdir directory, keeping only the reads waiting for their mates
+     * in memory, so high coverage regions are realigned without raising --maxReadsInMemory.
+     */
+    @Advanced
+    @Argument(fullName="spillReadsToDisk", shortName="spillReads", doc="Spill reads to temporary files instead of writing them out early when there are too many in memory", required=false)
+    protected boolean SPILL_READS_TO_DISK = false;
+
     /**
      * For expert users only!
      */
@@ -324,10 +345,14 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
 
     // the reads and known indels that fall into the current interval
     private ReadBin readsToClean;
-    private final ArrayList<GATKSAMRecord> readsNotToClean = new ArrayList<GATKSAMRecord>();
+    private ArrayList<GATKSAMRecord> readsNotToClean = new ArrayList<GATKSAMRecord>();
     private final ArrayList<VariantContext> knownIndelsToTry = new ArrayList<VariantContext>();
     private final HashSet<Object> indelRodsSeen = new HashSet<Object>();
-    private final HashSet<GATKSAMRecord> readsActuallyCleaned = new HashSet<GATKSAMRecord>();
+
+    // with -nct, the targets being realigned and the reads that have to wait behind them before going to the manager
+    private ExecutorService realignmentExecutor = null;
+    private final ArrayDeque<PendingReads> pendingReads = new ArrayDeque<PendingReads>();
+    private int nPendingReads = 0;
 
     private static final int MAX_QUAL = 99;
 
@@ -403,6 +428,12 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
             throw new UserException.CouldNotReadInputFile(getToolkit().getArguments().referenceFile,ex);
         }
 
+        final int nThreads = getToolkit().getArguments().numberOfCPUThreadsPerDataThread;
+        if ( nThreads > 1 ) {
+            logger.info(String.format("Realigning targets with %d threads", nThreads));
+            realignmentExecutor = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("IndelRealigner-thread-%d"));
+        }
+
         intervals = intervalsFile.getIntervals(getToolkit()).iterator();
 
         currentInterval = intervals.hasNext() ? intervals.next() : null;
@@ -422,7 +453,8 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
             setupWriter(getToolkit().getSAMFileHeader());
             writerToUse = writer;
         }
-        manager = new ConstrainedMateFixingManager(writerToUse, getToolkit().getGenomeLocParser(), MAX_ISIZE_FOR_MOVEMENT, MAX_POS_MOVE_ALLOWED, MAX_RECORDS_IN_MEMORY);
+        manager = new ConstrainedMateFixingManager(writerToUse, getToolkit().getGenomeLocParser(), MAX_ISIZE_FOR_MOVEMENT, MAX_POS_MOVE_ALLOWED, MAX_RECORDS_IN_MEMORY,
+                SPILL_READS_TO_DISK ? getToolkit().getTempDirectory() : null);
 
         if ( OUT_INDELS != null ) {
             try {
@@ -489,28 +521,130 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     }
 
     private void emit(final GATKSAMRecord read) {
+        // a read emitted on its own was never part of a cleaned target, so it can't have been modified
+        if ( pendingReads.isEmpty() )
+            addToManager(read);
+        else
+            enqueue(new PendingReads(read));
+    }
 
-        // check to see whether the read was modified by looking at the temporary tag
-        boolean wasModified = readsActuallyCleaned.contains(read);
-
+    private void addToManager(final GATKSAMRecord read) {
         try {
-            manager.addRead(read, wasModified);
+            manager.addRead(read, false);
         } catch (RuntimeIOException e) {
             throw new UserException.ErrorWritingBamFile(e.getMessage());
         }
     }
 
-    private void emitReadLists() {
-        // pre-merge lists to sort them in preparation for constrained SAMFileWriter
-        readsNotToClean.addAll(readsToClean.getReads());
-        ReadUtils.sortReadsByCoordinate(readsNotToClean);
-        manager.addReads(readsNotToClean, readsActuallyCleaned);
-        readsToClean.clear();
-        readsNotToClean.clear();
-        readsActuallyCleaned.clear();
+    private void emitReadLists(final boolean clean) {
+        final RealignmentTarget target = new RealignmentTarget(currentInterval, readsToClean, readsNotToClean, clean);
+        readsToClean = new ReadBin(getToolkit().getGenomeLocParser(), REFERENCE_PADDING);
+        readsNotToClean = new ArrayList<GATKSAMRecord>();
+
+        if ( realignmentExecutor == null )
+            commit(target.call());
+        else
+            enqueue(new PendingReads(target, realignmentExecutor.submit(target)));
+    }
+
+    /**
+     * Hands the realigned reads of a target over to the manager, along with its debugging output
+     *
+     * @param target a target whose call() has completed
+     */
+    private void commit(final RealignmentTarget target) {
+        writeDebugOutput(indelOutput, target.indelOutput, "indelOutput", "Failed to write indel output file");
+        writeDebugOutput(statsOutput, target.statsOutput, "statsOutput", "Failed to write stats output file");
+        writeDebugOutput(snpsOutput, target.snpsOutput, "snpsOutput", "Failed to write SNPs output file");
+        exactMatchesFound += target.exactMatchesFound;
+        SWalignmentRuns += target.SWalignmentRuns;
+        SWalignmentSuccess += target.SWalignmentSuccess;
+
+        manager.addReads(target.reads, target.readsActuallyCleaned);
+    }
+
+    private static void writeDebugOutput(final FileWriter output, final StringBuilder text, final String name, final String message) {
+        if ( output == null || text.length() == 0 )
+            return;
+        try {
+            output.write(text.toString());
+            output.flush();
+        } catch (Exception e) {
+            throw new UserException.CouldNotCreateOutputFile(name, message, e);
+        }
+    }
+
+    private void enqueue(final PendingReads reads) {
+        pendingReads.add(reads);
+        nPendingReads += reads.size();
+
+        // don't let the reads waiting behind a slow target grow past what the manager itself may hold
+        if ( nPendingReads >= MAX_RECORDS_IN_MEMORY )
+            commitPendingReads(true);
+    }
+
+    /**
+     * Hands the pending reads over to the manager in the order they were emitted
+     *
+     * @param waitForAll if true, wait for all of the targets to be realigned; otherwise stop at the first unfinished one
+     */
+    private void commitPendingReads(final boolean waitForAll) {
+        while ( ! pendingReads.isEmpty() ) {
+            final PendingReads next = pendingReads.peek();
+            if ( next.read != null )
+                addToManager(next.read);
+            else if ( waitForAll || next.realignment.isDone() )
+                commit(getRealignedTarget(next.realignment));
+            else
+                break;
+
+            pendingReads.poll();
+            nPendingReads -= next.size();
+        }
+    }
+
+    private RealignmentTarget getRealignedTarget(final Future<RealignmentTarget> realignment) {
+        try {
+            return realignment.get();
+        } catch ( InterruptedException e ) {
+            throw new ReviewedGATKException("Interrupted while realigning a target", e);
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            throw new ReviewedGATKException("Failed to realign a target", e.getCause());
+        }
+    }
+
+    /**
+     * Can the reads in this bin be moved?  The manager refuses when it recently had to flush reads nearby, so if the
+     * reads still pending could make it flush, they have to reach it before we can ask.
+     *
+     * @param bin the reads to clean at the current interval
+     * @return true if the reads can be realigned
+     */
+    private boolean canMoveReads(final ReadBin bin) {
+        final GenomeLoc earliestPossibleMove = getToolkit().getGenomeLocParser().createGenomeLoc(bin.getReads().get(0));
+        if ( ! pendingReads.isEmpty() && pendingReadsCouldFlushManager(earliestPossibleMove) )
+            commitPendingReads(true);
+        return manager.canMoveReads(earliestPossibleMove);
+    }
+
+    /**
+     * The manager only flushes its queue when it gets too many reads or a read from another contig.  Since the pending
+     * reads are in coordinate order, they are all on the contig of the location if the first of them is.
+     */
+    private boolean pendingReadsCouldFlushManager(final GenomeLoc earliestPossibleMove) {
+        final int contigIndex = earliestPossibleMove.getContigIndex();
+        final Integer contigIndexInQueue = manager.getReferenceIndexOfReadsInQueue();
+        return manager.getNReadsInQueue() + nPendingReads >= MAX_RECORDS_IN_MEMORY ||
+                pendingReads.peek().referenceIndex != contigIndex ||
+                (contigIndexInQueue != null && contigIndexInQueue != contigIndex);
     }
 
     public Integer map(ReferenceContext ref, GATKSAMRecord read, RefMetaDataTracker metaDataTracker) {
+        if ( ! pendingReads.isEmpty() )
+            commitPendingReads(false);
+
         if ( currentInterval == null ) {
             emit(read);
             return 0;
@@ -561,7 +695,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     }
 
     private void abortCleanForCurrentInterval() {
-        emitReadLists();
+        emitReadLists(false);
         currentInterval = intervals.hasNext() ? intervals.next() : null;
         sawReadInCurrentInterval = false;
     }
@@ -579,15 +713,10 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     }
 
     private void cleanAndCallMap(ReferenceContext ref, GATKSAMRecord read, RefMetaDataTracker metaDataTracker, GenomeLoc readLoc) {
-        if ( readsToClean.size() > 0 ) {
-            GenomeLoc earliestPossibleMove = getToolkit().getGenomeLocParser().createGenomeLoc(readsToClean.getReads().get(0));
-            if ( manager.canMoveReads(earliestPossibleMove) )
-                clean(readsToClean);
-        }
+        emitReadLists(readsToClean.size() > 0 && canMoveReads(readsToClean));
         knownIndelsToTry.clear();
         indelRodsSeen.clear();
 
-        emitReadLists();
         try {
             do {
                 currentInterval = intervals.hasNext() ? intervals.next() : null;
@@ -612,17 +741,20 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
 
     public void onTraversalDone(Integer result) {
         if ( readsToClean.size() > 0 ) {
-            GenomeLoc earliestPossibleMove = getToolkit().getGenomeLocParser().createGenomeLoc(readsToClean.getReads().get(0));
-            if ( manager.canMoveReads(earliestPossibleMove) )
-                clean(readsToClean);
-            emitReadLists();
+            emitReadLists(canMoveReads(readsToClean));
         } else if ( readsNotToClean.size() > 0 ) {
-            emitReadLists();                            
+            emitReadLists(false);
         }
 
         knownIndelsToTry.clear();
         indelRodsSeen.clear();
 
+        commitPendingReads(true);
+        if ( realignmentExecutor != null ) {
+            realignmentExecutor.shutdown();
+            realignmentExecutor = null;
+        }
+
         if ( OUT_INDELS != null ) {
             try {
                 indelOutput.close();
@@ -692,8 +824,9 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         return sum;
     }
 
-    private void clean(ReadBin readsToClean) {
+    private void clean(final RealignmentTarget target) {
 
+        final ReadBin readsToClean = target.readsToClean;
         final List<GATKSAMRecord> reads = readsToClean.getReads();
         if ( reads.size() == 0 )
             return;
@@ -707,7 +840,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         final Set<Consensus> altConsenses = new LinkedHashSet<Consensus>();               // list of alt consenses
 
         // if there are any known indels for this region, get them and create alternate consenses
-        generateAlternateConsensesFromKnownIndels(altConsenses, leftmostIndex, reference);
+        generateAlternateConsensesFromKnownIndels(target.knownIndelsToTry, altConsenses, leftmostIndex, reference);
 
         // decide which reads potentially need to be cleaned;
         // if there are reads with a single indel in them, add that indel to the list of alternate consenses
@@ -715,7 +848,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
 
         // use 'Smith-Waterman' to create alternate consenses from reads that mismatch the reference, using totalRawMismatchSum as the random seed
         if ( consensusModel == ConsensusDeterminationModel.USE_SW )
-            generateAlternateConsensesFromReads(altAlignmentsToTest, altConsenses, reference, leftmostIndex);
+            generateAlternateConsensesFromReads(target, altAlignmentsToTest, altConsenses, reference, leftmostIndex);
 
         // if ( debugOn ) System.out.println("------\nChecking consenses...\n--------\n");
 
@@ -789,17 +922,12 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
                 if ( !updateRead(bestConsensus.cigar, bestConsensus.positionOnReference, indexPair.second, aRead, leftmostIndex) )
                     return;
             }
-            if ( consensusModel != ConsensusDeterminationModel.KNOWNS_ONLY && !alternateReducesEntropy(altReads, reference, leftmostIndex) ) {
+            if ( consensusModel != ConsensusDeterminationModel.KNOWNS_ONLY && !alternateReducesEntropy(altReads, reference, leftmostIndex, target.snpsOutput) ) {
                 if ( statsOutput != null ) {
-                    try {
-                        statsOutput.write(currentInterval.toString());
-                        statsOutput.write("\tFAIL (bad indel)\t"); // if improvement > LOD_THRESHOLD *BUT* entropy is not reduced (SNPs still exist)
-                        statsOutput.write(Double.toString(improvement));
-                        statsOutput.write("\n");
-                        statsOutput.flush();
-                    } catch (Exception e) {
-                        throw new UserException.CouldNotCreateOutputFile("statsOutput", "Failed to write stats output file", e);
-                    }
+                    target.statsOutput.append(target.interval.toString());
+                    target.statsOutput.append("\tFAIL (bad indel)\t"); // if improvement > LOD_THRESHOLD *BUT* entropy is not reduced (SNPs still exist)
+                    target.statsOutput.append(Double.toString(improvement));
+                    target.statsOutput.append("\n");
                 }
             } else {
                 //logger.debug("CLEAN: " + bestConsensus.cigar + " " + bestConsensus.str.toString() + " " + bestConsensus.cigar.numCigarElements() );
@@ -821,26 +949,16 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
                             str.append((char)bestConsensus.str[position+i]);
                     }
                     str.append("\t").append((((double) (totalRawMismatchSum - bestConsensus.mismatchSum)) / 10.0)).append("\n");
-                    try {
-                        indelOutput.write(str.toString());
-                        indelOutput.flush();
-                    } catch (Exception e) {
-                        throw new UserException.CouldNotCreateOutputFile("indelOutput", "Failed to write indel output file", e);
-                    }
+                    target.indelOutput.append(str);
                 }
                 if ( statsOutput != null ) {
-                    try {
-                        statsOutput.write(currentInterval.toString());
-                        statsOutput.write("\tCLEAN"); // if improvement > LOD_THRESHOLD *AND* entropy is reduced
-                        if ( bestConsensus.cigar.numCigarElements() > 1 )
-                            statsOutput.write(" (found indel)");
-                        statsOutput.write("\t");
-                        statsOutput.write(Double.toString(improvement));
-                        statsOutput.write("\n");
-                        statsOutput.flush();
-                    } catch (Exception e) {
-                        throw new UserException.CouldNotCreateOutputFile("statsOutput", "Failed to write stats output file", e);
-                    }
+                    target.statsOutput.append(target.interval.toString());
+                    target.statsOutput.append("\tCLEAN"); // if improvement > LOD_THRESHOLD *AND* entropy is reduced
+                    if ( bestConsensus.cigar.numCigarElements() > 1 )
+                        target.statsOutput.append(" (found indel)");
+                    target.statsOutput.append("\t");
+                    target.statsOutput.append(Double.toString(improvement));
+                    target.statsOutput.append("\n");
                 }
 
                 // finish cleaning the appropriate reads
@@ -861,8 +979,8 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
                         int neededBases = Math.max(neededBasesToLeft, neededBasesToRight);
                         if ( neededBases > 0 ) {
                             int padLeft = Math.max(leftmostIndex-neededBases, 1);
-                            int padRight = Math.min(leftmostIndex+reference.length+neededBases, referenceReader.getSequenceDictionary().getSequence(currentInterval.getContig()).getSequenceLength());
-                            reference = referenceReader.getSubsequenceAt(currentInterval.getContig(), padLeft, padRight).getBases();
+                            int padRight = Math.min(leftmostIndex+reference.length+neededBases, referenceReader.getSequenceDictionary().getSequence(target.interval.getContig()).getSequenceLength());
+                            reference = referenceReader.getSubsequenceAt(target.interval.getContig(), padLeft, padRight).getBases();
                             leftmostIndex = padLeft;
                         }
 
@@ -881,7 +999,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
                             read.setAttribute(SAMTag.MD.name(), null);
 
                         // mark that it was actually cleaned
-                        readsActuallyCleaned.add(read);
+                        target.readsActuallyCleaned.add(read);
                     }
                 }
             }
@@ -889,17 +1007,12 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
             // END IF ( improvement >= LOD_THRESHOLD )
 
         } else if ( statsOutput != null ) {
-            try {
-                statsOutput.write(String.format("%s\tFAIL\t%.1f%n",
-                        currentInterval.toString(), improvement));
-                statsOutput.flush();
-            } catch (Exception e) {
-                throw new UserException.CouldNotCreateOutputFile("statsOutput", "Failed to write stats output file", e);
-            }
+            target.statsOutput.append(String.format("%s\tFAIL\t%.1f%n",
+                    target.interval.toString(), improvement));
         }
     }
 
-    private void generateAlternateConsensesFromKnownIndels(final Set<Consensus> altConsensesToPopulate, final int leftmostIndex, final byte[] reference) {
+    private void generateAlternateConsensesFromKnownIndels(final List<VariantContext> knownIndelsToTry, final Set<Consensus> altConsensesToPopulate, final int leftmostIndex, final byte[] reference) {
         for ( VariantContext knownIndel : knownIndelsToTry ) {
             if ( knownIndel == null || !knownIndel.isIndel() || knownIndel.isComplexIndel() )
                 continue;
@@ -975,7 +1088,8 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         return totalRawMismatchSum;
     }
 
-    private void generateAlternateConsensesFromReads(final LinkedList<AlignedRead> altAlignmentsToTest,
+    private void generateAlternateConsensesFromReads(final RealignmentTarget target,
+                                                     final LinkedList<AlignedRead> altAlignmentsToTest,
                                                      final Set<Consensus> altConsensesToPopulate,
                                                      final byte[] reference,
                                                      final int leftmostIndex) {
@@ -983,7 +1097,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         // if we are under the limit, use all reads to generate alternate consenses
         if ( altAlignmentsToTest.size() <= MAX_READS_FOR_CONSENSUSES ) {
             for ( AlignedRead aRead : altAlignmentsToTest ) {
-                if ( CHECKEARLY ) createAndAddAlternateConsensus1(aRead, altConsensesToPopulate, reference,leftmostIndex);
+                if ( CHECKEARLY ) createAndAddAlternateConsensus1(target, aRead, altConsensesToPopulate, reference,leftmostIndex);
                 else createAndAddAlternateConsensus(aRead.getReadBases(), altConsensesToPopulate, reference);
             }
         }
@@ -991,9 +1105,9 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         else {
             int readsSeen = 0;
             while ( readsSeen++ < MAX_READS_FOR_CONSENSUSES && altConsensesToPopulate.size() <= MAX_CONSENSUSES) {
-                int index = GenomeAnalysisEngine.getRandomGenerator().nextInt(altAlignmentsToTest.size());
+                int index = target.random.nextInt(altAlignmentsToTest.size());
                 AlignedRead aRead = altAlignmentsToTest.remove(index);
-                if ( CHECKEARLY ) createAndAddAlternateConsensus1(aRead, altConsensesToPopulate, reference,leftmostIndex);
+                if ( CHECKEARLY ) createAndAddAlternateConsensus1(target, aRead, altConsensesToPopulate, reference,leftmostIndex);
                 else createAndAddAlternateConsensus(aRead.getReadBases(), altConsensesToPopulate, reference);
             }
         }
@@ -1008,22 +1122,22 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
              altConsensesToPopulate.add(c);
     }
 
-    private void createAndAddAlternateConsensus1(AlignedRead read, final Set<Consensus> altConsensesToPopulate,
+    private void createAndAddAlternateConsensus1(final RealignmentTarget target, AlignedRead read, final Set<Consensus> altConsensesToPopulate,
                                                  final byte[] reference, final int leftmostIndex) {
 
          for ( Consensus known : altConsensesToPopulate ) {
               Pair<Integer, Integer> altAlignment = findBestOffset(known.str, read, leftmostIndex);
               // the mismatch score is the min of its alignment vs. the reference and vs. the alternate
               int myScore = altAlignment.second;
-              if ( myScore == 0 ) {exactMatchesFound++; return; }// read matches perfectly to a known alt consensus - no need to run SW, we already know the answer
+              if ( myScore == 0 ) {target.exactMatchesFound++; return; }// read matches perfectly to a known alt consensus - no need to run SW, we already know the answer
          }
          // do a pairwise alignment against the reference
-         SWalignmentRuns++;
+         target.SWalignmentRuns++;
          SWPairwiseAlignment swConsensus = new SWPairwiseAlignment(reference, read.getReadBases(), swParameters);
          Consensus c = createAlternateConsensus(swConsensus.getAlignmentStart2wrt1(), swConsensus.getCigar(), reference, read.getReadBases());
          if ( c != null ) {
              altConsensesToPopulate.add(c);
-             SWalignmentSuccess++;
+             target.SWalignmentSuccess++;
          }
     }
 
@@ -1280,7 +1394,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         return true;
     }
 
-    private boolean alternateReducesEntropy(final List<AlignedRead> reads, final byte[] reference, final int leftmostIndex) {
+    private boolean alternateReducesEntropy(final List<AlignedRead> reads, final byte[] reference, final int leftmostIndex, final StringBuilder snpsText) {
         final int[] originalMismatchBases = new int[reference.length];
         final int[] cleanedMismatchBases = new int[reference.length];
         final int[] totalOriginalBases = new int[reference.length];
@@ -1371,14 +1485,8 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         //logger.debug("Original mismatch columns = " + originalMismatchColumns + "; cleaned mismatch columns = " + cleanedMismatchColumns);
 
         final boolean reduces = (originalMismatchColumns == 0 || cleanedMismatchColumns < originalMismatchColumns);
-        if ( reduces && snpsOutput != null ) {
-            try {
-                snpsOutput.write(sb.toString());
-                snpsOutput.flush();
-            } catch (Exception e) {
-                throw new UserException.CouldNotCreateOutputFile("snpsOutput", "Failed to write SNPs output file", e);
-            }
-        }
+        if ( reduces && snpsOutput != null )
+            snpsText.append(sb);
         return reduces;
     }
 
@@ -1415,6 +1523,109 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         return new Cigar(elements);
     }
 
+    /**
+     * The reads of one target interval, together with everything needed to realign them independently of the
+     * walker's state, so that targets can be realigned concurrently and handed to the manager afterwards
+     */
+    private final class RealignmentTarget implements Callable<RealignmentTarget> {
+        private final GenomeLoc interval;
+        private final ReadBin readsToClean;
+        private final List<GATKSAMRecord> reads;
+        private final boolean attemptClean;
+        private final List<VariantContext> knownIndelsToTry;
+        private final Random random;
+        private final int size;
+        private final int referenceIndex;
+
+        private final Set<GATKSAMRecord> readsActuallyCleaned = new HashSet<GATKSAMRecord>();
+        private final StringBuilder indelOutput = new StringBuilder();
+        private final StringBuilder statsOutput = new StringBuilder();
+        private final StringBuilder snpsOutput = new StringBuilder();
+        private long exactMatchesFound = 0;
+        private long SWalignmentRuns = 0;
+        private long SWalignmentSuccess = 0;
+
+        /**
+         * @param interval        the target interval
+         * @param readsToClean    the reads to realign; the target takes ownership of the bin
+         * @param readsNotToClean the other reads to emit along with them; the target takes ownership of the list
+         * @param clean           should we try to realign the reads at all?
+         */
+        public RealignmentTarget(final GenomeLoc interval, final ReadBin readsToClean, final ArrayList<GATKSAMRecord> readsNotToClean, final boolean clean) {
+            this.interval = interval;
+            this.readsToClean = readsToClean;
+            this.reads = readsNotToClean;
+            this.attemptClean = clean;
+            this.knownIndelsToTry = clean ? new ArrayList<VariantContext>(IndelRealigner.this.knownIndelsToTry) : Collections.<VariantContext>emptyList();
+
+            // targets realigned concurrently can't share the engine's generator without depending on the order they run in
+            if ( clean && consensusModel == ConsensusDeterminationModel.USE_SW && realignmentExecutor != null )
+                random = new Random(GenomeAnalysisEngine.getRandomGenerator().nextLong());
+            else
+                random = GenomeAnalysisEngine.getRandomGenerator();
+
+            size = readsNotToClean.size() + readsToClean.size();
+            referenceIndex = referenceIndexOf(readsNotToClean, referenceIndexOf(readsToClean.getReads(), NO_REFERENCE_INDEX));
+        }
+
+        @Override
+        public RealignmentTarget call() {
+            if ( attemptClean )
+                clean(this);
+
+            // pre-merge lists to sort them in preparation for constrained SAMFileWriter
+            reads.addAll(readsToClean.getReads());
+            ReadUtils.sortReadsByCoordinate(reads);
+            return this;
+        }
+    }
+
+    private static final int NO_REFERENCE_INDEX = Integer.MIN_VALUE;
+    private static final int MIXED_REFERENCE_INDEX = Integer.MIN_VALUE + 1;
+
+    /**
+     * @param reads          the reads to look at
+     * @param referenceIndex the reference index of the reads seen so far
+     * @return the reference index all of the reads share, or MIXED_REFERENCE_INDEX if they don't
+     */
+    private static int referenceIndexOf(final List<GATKSAMRecord> reads, int referenceIndex) {
+        for ( final GATKSAMRecord read : reads ) {
+            if ( referenceIndex == NO_REFERENCE_INDEX )
+                referenceIndex = read.getReferenceIndex();
+            else if ( referenceIndex != read.getReferenceIndex() )
+                return MIXED_REFERENCE_INDEX;
+        }
+        return referenceIndex;
+    }
+
+    /**
+     * Reads waiting to be handed to the manager: either a single read or the reads of a target being realigned
+     */
+    private static final class PendingReads {
+        private final GATKSAMRecord read;
+        private final Future<RealignmentTarget> realignment;
+        private final int size;
+        private final int referenceIndex;
+
+        public PendingReads(final GATKSAMRecord read) {
+            this.read = read;
+            this.realignment = null;
+            this.size = 1;
+            this.referenceIndex = read.getReferenceIndex();
+        }
+
+        public PendingReads(final RealignmentTarget target, final Future<RealignmentTarget> realignment) {
+            this.read = null;
+            this.realignment = realignment;
+            this.size = target.size;
+            this.referenceIndex = target.referenceIndex;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
     private class AlignedRead {
         private final GATKSAMRecord read;
         private byte[] readBases = null;
@@ -1604,7 +1815,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
      * @return true if it aligns off the end
      */
     private boolean realignmentProducesBadAlignment(final GATKSAMRecord read) {
-        final int contigLength = referenceReader.getSequenceDictionary().getSequence(currentInterval.getContig()).getSequenceLength();
+        final int contigLength = referenceReader.getSequenceDictionary().getSequence(read.getReferenceIndex()).getSequenceLength();
         return realignmentProducesBadAlignment(read, contigLength);
     }
 
@@ -87,7 +87,8 @@ import java.util.*;
  * <p>
  * The input raw variants to be recalibrated.
  * <p>
- * The recalibration table file in VCF format that was generated by the VariantRecalibrator walker.
+ * The recalibration table file in VCF format that was generated by the VariantRecalibrator walker, or the same table in the
+ * binary format written by its -binaryRecalFile argument.
  * <p>
  * The tranches file that was generated by the VariantRecalibrator walker.
  *
@@ -108,6 +109,32 @@ import java.util.*;
  *   -o path/to/output.recalibrated.filtered.vcf
  * </pre>
  *
+ * <p>
+ * If VariantRecalibrator was also given -binaryRecalFile path/to/output.recal.bin, that file can be passed with
+ * -binaryRecalFile in place of -recalFile.
+ * </p>
+ *
+ * <p>
+ * SNPs and indels recalibrated by separate SNP and INDEL models can be filtered in a single pass: run with -mode SNP
+ * and the SNP model's files as usual, and add the INDEL model's binary recal and tranches files with
+ * -indelBinaryRecalFile and -indelTranchesFile. Each variant is then filtered by the model of its own type.
+ * Note that -mode BOTH is different: it applies a single model that was trained on SNPs and indels together.
+ * </p>
+ * <pre>
+ * java -Xmx3g -jar GenomeAnalysisTK.jar \
+ *   -T ApplyRecalibration \
+ *   -R reference/human_g1k_v37.fasta \
+ *   -input NA12878.HiSeq.WGS.bwa.cleaned.raw.subset.b37.vcf \
+ *   --ts_filter_level 99.5 \
+ *   -mode SNP \
+ *   -binaryRecalFile path/to/snp.recal.bin \
+ *   -tranchesFile path/to/snp.tranches \
+ *   -indelBinaryRecalFile path/to/indel.recal.bin \
+ *   -indelTranchesFile path/to/indel.tranches \
+ *   -indelTSFilterLevel 99.0 \
+ *   -o path/to/output.recalibrated.filtered.vcf
+ * </pre>
+ *
  */
 
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VARDISC, extraDocs = {CommandLineGATK.class} )
@@ -125,10 +152,24 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
      */
     @Input(fullName="input", shortName = "input", doc="The raw input variants to be recalibrated", required=true)
     public List<RodBinding<VariantContext>> input;
-    @Input(fullName="recal_file", shortName="recalFile", doc="The input recal file used by ApplyRecalibration", required=true)
+    @Input(fullName="recal_file", shortName="recalFile", doc="The input recal file used by ApplyRecalibration", required=false)
     protected RodBinding<VariantContext> recal;
+    /**
+     * The recalibration table written by VariantRecalibrator -binaryRecalFile, which can be used in place of the recal file.
+     * Variants are looked up in the memory-mapped table directly, so the recal file does not have to be parsed alongside the input.
+     */
+    @Input(fullName="binary_recal_file", shortName="binaryRecalFile", doc="The input binary recal file, used in place of the recal file", required=false)
+    protected File BINARY_RECAL_FILE = null;
     @Input(fullName="tranches_file", shortName="tranchesFile", doc="The input tranches file describing where to cut the data", required=false)
     protected File TRANCHES_FILE;
+    /**
+     * The binary recalibration table of an INDEL model, applied to the indels of the input while the SNP model given by
+     * --recal_file or --binary_recal_file is applied to its SNPs. Only valid with -mode SNP.
+     */
+    @Input(fullName="indel_binary_recal_file", shortName="indelBinaryRecalFile", doc="The binary recal file of the INDEL model to apply to indels alongside the SNP model", required=false)
+    protected File INDEL_BINARY_RECAL_FILE = null;
+    @Input(fullName="indel_tranches_file", shortName="indelTranchesFile", doc="The tranches file of the INDEL model given by --indel_binary_recal_file", required=false)
+    protected File INDEL_TRANCHES_FILE = null;
 
     /////////////////////////////
     // Outputs
@@ -143,6 +184,9 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
     @Argument(fullName="ts_filter_level", shortName="ts_filter_level", doc="The truth sensitivity level at which to start filtering", required=false)
     protected Double TS_FILTER_LEVEL = null;
     @Advanced
+    @Argument(fullName="indel_ts_filter_level", shortName="indelTSFilterLevel", doc="The truth sensitivity level at which to start filtering indels with the INDEL model; defaults to --ts_filter_level", required=false)
+    protected Double INDEL_TS_FILTER_LEVEL = null;
+    @Advanced
     @Argument(fullName="lodCutoff", shortName="lodCutoff", doc="The VQSLOD score below which to start filtering", required=false)
     protected Double VQSLOD_CUTOFF = null;
 
@@ -164,6 +208,9 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
     final private List<Tranche> tranches = new ArrayList<>();
     final private Set<String> inputNames = new HashSet<>();
     final private Set<String> ignoreInputFilterSet = new TreeSet<>();
+    final private List<Tranche> indelTranches = new ArrayList<>();
+    private BinaryRecalFile binaryRecal = null;
+    private BinaryRecalFile indelBinaryRecal = null;
 
     //---------------------------------------------------------------------------------------------------------------
     //
@@ -172,14 +219,32 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
     //---------------------------------------------------------------------------------------------------------------
 
     public void initialize() {
+        if( recal.isBound() == (BINARY_RECAL_FILE != null) ) {
+            throw new UserException("Exactly one of the arguments --recal_file and --binary_recal_file must be provided.");
+        }
+        if( BINARY_RECAL_FILE != null ) {
+            binaryRecal = new BinaryRecalFile(BINARY_RECAL_FILE);
+        }
+        if( INDEL_BINARY_RECAL_FILE != null ) {
+            if( MODE != VariantRecalibratorArgumentCollection.Mode.SNP ) {
+                throw new UserException("Argument --indel_binary_recal_file applies the INDEL model alongside the SNP model and is only valid with -mode SNP.");
+            }
+            indelBinaryRecal = new BinaryRecalFile(INDEL_BINARY_RECAL_FILE);
+        } else if( INDEL_TRANCHES_FILE != null || INDEL_TS_FILTER_LEVEL != null ) {
+            throw new UserException("Arguments --indel_tranches_file and --indel_ts_filter_level require --indel_binary_recal_file.");
+        }
+
         if( TS_FILTER_LEVEL != null ) {
-            for ( final Tranche t : Tranche.readTranches(TRANCHES_FILE) ) {
-                if ( t.ts >= TS_FILTER_LEVEL ) {
-                    tranches.add(t);
+            readTranches(TRANCHES_FILE, TS_FILTER_LEVEL, tranches);
+            if( indelBinaryRecal != null ) {
+                if( INDEL_TRANCHES_FILE == null ) {
+                    throw new UserException("Argument --indel_tranches_file is required to filter by truth sensitivity with --indel_binary_recal_file.");
+                }
+                if( INDEL_TS_FILTER_LEVEL == null ) {
+                    INDEL_TS_FILTER_LEVEL = TS_FILTER_LEVEL;
                 }
-                logger.info(String.format("Read tranche " + t));
+                readTranches(INDEL_TRANCHES_FILE, INDEL_TS_FILTER_LEVEL, indelTranches);
             }
-            Collections.reverse(tranches); // this algorithm wants the tranches ordered from best (lowest truth sensitivity) to worst (highest truth sensitivity)
         }
 
         for( final RodBinding rod : input ) {
@@ -203,19 +268,10 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
                 throw new UserException("Arguments --ts_filter_level and --lodCutoff are mutually exclusive. Please only specify one option.");
             }
 
-            if( tranches.size() >= 2 ) {
-                for( int iii = 0; iii < tranches.size() - 1; iii++ ) {
-                    final Tranche t = tranches.get(iii);
-                    hInfo.add(new VCFFilterHeaderLine(t.name, String.format("Truth sensitivity tranche level for " + t.model.toString() + " model at VQS Lod: " + t.minVQSLod + " <= x < " + tranches.get(iii+1).minVQSLod)));
-                }
-            }
-            if( tranches.size() >= 1 ) {
-                hInfo.add(new VCFFilterHeaderLine(tranches.get(0).name + "+", String.format("Truth sensitivity tranche level for " + tranches.get(0).model.toString() + " model at VQS Lod < " + tranches.get(0).minVQSLod)));
-            } else {
-                throw new UserException("No tranches were found in the file or were above the truth sensitivity filter level " + TS_FILTER_LEVEL);
+            addTrancheFilterHeaderLines(hInfo, tranches, TS_FILTER_LEVEL);
+            if( indelBinaryRecal != null ) {
+                addTrancheFilterHeaderLines(hInfo, indelTranches, INDEL_TS_FILTER_LEVEL);
             }
-
-            logger.info("Keeping all variants in tranche " + tranches.get(tranches.size()-1));
         } else {
             if( VQSLOD_CUTOFF == null ) {
                 VQSLOD_CUTOFF = DEFAULT_VQSLOD_CUTOFF;
@@ -228,6 +284,35 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
         vcfWriter.writeHeader(vcfHeader);
     }
 
+    /**
+     * Read the tranches at or above the given truth sensitivity level, ordered from best (lowest truth sensitivity) to worst (highest truth sensitivity)
+     */
+    private void readTranches( final File tranchesFile, final double tsFilterLevel, final List<Tranche> keptTranches ) {
+        for ( final Tranche t : Tranche.readTranches(tranchesFile) ) {
+            if ( t.ts >= tsFilterLevel ) {
+                keptTranches.add(t);
+            }
+            logger.info(String.format("Read tranche " + t));
+        }
+        Collections.reverse(keptTranches); // this algorithm wants the tranches ordered from best (lowest truth sensitivity) to worst (highest truth sensitivity)
+    }
+
+    private void addTrancheFilterHeaderLines( final Set<VCFHeaderLine> hInfo, final List<Tranche> modelTranches, final double tsFilterLevel ) {
+        if( modelTranches.size() >= 2 ) {
+            for( int iii = 0; iii < modelTranches.size() - 1; iii++ ) {
+                final Tranche t = modelTranches.get(iii);
+                hInfo.add(new VCFFilterHeaderLine(t.name, String.format("Truth sensitivity tranche level for " + t.model.toString() + " model at VQS Lod: " + t.minVQSLod + " <= x < " + modelTranches.get(iii+1).minVQSLod)));
+            }
+        }
+        if( modelTranches.size() >= 1 ) {
+            hInfo.add(new VCFFilterHeaderLine(modelTranches.get(0).name + "+", String.format("Truth sensitivity tranche level for " + modelTranches.get(0).model.toString() + " model at VQS Lod < " + modelTranches.get(0).minVQSLod)));
+        } else {
+            throw new UserException("No tranches were found in the file or were above the truth sensitivity filter level " + tsFilterLevel);
+        }
+
+        logger.info("Keeping all variants in tranche " + modelTranches.get(modelTranches.size()-1));
+    }
+
     public static void addVQSRStandardHeaderLines(final Set<VCFHeaderLine> hInfo) {
         hInfo.add(VCFStandardHeaderLines.getInfoLine(VCFConstants.END_KEY));
         hInfo.add(new VCFInfoHeaderLine(VariantRecalibrator.VQS_LOD_KEY, 1, VCFHeaderLineType.Float, "Log odds ratio of being a true variant versus being false under the trained gaussian mixture model"));
@@ -249,39 +334,37 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
         }
 
         final List<VariantContext> VCs =  tracker.getValues(input, context.getLocation());
-        final List<VariantContext> recals =  tracker.getValues(recal, context.getLocation());
+        final List<VariantContext> recals =  binaryRecal == null ? tracker.getValues(recal, context.getLocation()) : Collections.<VariantContext>emptyList();
 
         for( final VariantContext vc : VCs ) {
 
-            if( VariantDataManager.checkVariationClass( vc, MODE ) && (IGNORE_ALL_FILTERS || vc.isNotFiltered() || ignoreInputFilterSet.containsAll(vc.getFilters())) ) {
+            // with an INDEL model alongside the SNP model, indels are looked up in and filtered by the INDEL model
+            final boolean useIndelModel = indelBinaryRecal != null && VariantDataManager.checkVariationClass( vc, VariantRecalibratorArgumentCollection.Mode.INDEL );
 
-                final VariantContext recalDatum = getMatchingRecalVC(vc, recals);
-                if( recalDatum == null ) {
-                    throw new UserException("Encountered input variant which isn't found in the input recal file. Please make sure VariantRecalibrator and ApplyRecalibration were run on the same set of input variants. First seen at: " + vc );
-                }
+            if( (useIndelModel || VariantDataManager.checkVariationClass( vc, MODE )) && (IGNORE_ALL_FILTERS || vc.isNotFiltered() || ignoreInputFilterSet.containsAll(vc.getFilters())) ) {
 
-                final String lodString = recalDatum.getAttributeAsString(VariantRecalibrator.VQS_LOD_KEY, null);
-                if( lodString == null ) {
-                    throw new UserException("Encountered a malformed record in the input recal file. There is no lod for the record at: " + vc );
+                final BinaryRecalFile.Record recalDatum;
+                if( useIndelModel ) {
+                    recalDatum = indelBinaryRecal.find(vc.getChr(), vc.getStart(), vc.getEnd());
+                } else {
+                    recalDatum = binaryRecal == null ? getMatchingRecalRecord(vc, recals) : binaryRecal.find(vc.getChr(), vc.getStart(), vc.getEnd());
                 }
-                final double lod;
-                try {
-                    lod = Double.valueOf(lodString);
-                } catch (NumberFormatException e) {
-                    throw new UserException("Encountered a malformed record in the input recal file. The lod is unreadable for the record at: " + vc );
+                if( recalDatum == null ) {
+                    throw new UserException("Encountered input variant which isn't found in the input recal file" + (useIndelModel ? " of the INDEL model" : "") + ". Please make sure VariantRecalibrator and ApplyRecalibration were run on the same set of input variants. First seen at: " + vc );
                 }
+                final double lod = recalDatum.lod;
 
                 VariantContextBuilder builder = new VariantContextBuilder(vc);
 
                 // Annotate the new record with its VQSLOD and the worst performing annotation
                 builder.attribute(VariantRecalibrator.VQS_LOD_KEY, lod);
-                builder.attribute(VariantRecalibrator.CULPRIT_KEY, recalDatum.getAttribute(VariantRecalibrator.CULPRIT_KEY));
-                if ( recalDatum.hasAttribute(VariantRecalibrator.POSITIVE_LABEL_KEY))
+                builder.attribute(VariantRecalibrator.CULPRIT_KEY, recalDatum.culprit);
+                if ( recalDatum.atTrainingSite )
                     builder.attribute(VariantRecalibrator.POSITIVE_LABEL_KEY, true);
-                if ( recalDatum.hasAttribute(VariantRecalibrator.NEGATIVE_LABEL_KEY))
+                if ( recalDatum.atAntiTrainingSite )
                     builder.attribute(VariantRecalibrator.NEGATIVE_LABEL_KEY, true);
 
-                final String filterString = generateFilterString(lod);
+                final String filterString = useIndelModel ? generateFilterString(lod, indelTranches) : generateFilterString(lod);
 
                 if( filterString.equals(VCFConstants.PASSES_FILTERS_v4) ) {
                     builder.passFilters();
@@ -307,12 +390,22 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
      * @return the String to use as the VCF filter field
      */
     protected String generateFilterString( final double lod ) {
+        return generateFilterString(lod, tranches);
+    }
+
+    /**
+     * Generate the VCF filter string for this record based on the provided lod score and the tranches of the model that scored it
+     * @param lod non-null double
+     * @param modelTranches the tranches of the model, ordered as read in initialize(); unused when filtering by --lodCutoff
+     * @return the String to use as the VCF filter field
+     */
+    protected String generateFilterString( final double lod, final List<Tranche> modelTranches ) {
         String filterString = null;
         if( TS_FILTER_LEVEL != null ) {
-            for( int i = tranches.size() - 1; i >= 0; i-- ) {
-                final Tranche tranche = tranches.get(i);
+            for( int i = modelTranches.size() - 1; i >= 0; i-- ) {
+                final Tranche tranche = modelTranches.get(i);
                 if( lod >= tranche.minVQSLod ) {
-                    if( i == tranches.size() - 1 ) {
+                    if( i == modelTranches.size() - 1 ) {
                         filterString = VCFConstants.PASSES_FILTERS_v4;
                     } else {
                         filterString = tranche.name;
@@ -322,7 +415,7 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
             }
 
             if( filterString == null ) {
-                filterString = tranches.get(0).name+"+";
+                filterString = modelTranches.get(0).name+"+";
             }
         } else {
             filterString = ( lod < VQSLOD_CUTOFF ? LOW_VQSLOD_FILTER_NAME : VCFConstants.PASSES_FILTERS_v4 );
@@ -331,6 +424,27 @@ public class ApplyRecalibration extends RodWalker<Integer, Integer> implements T
         return filterString;
     }
 
+    private static BinaryRecalFile.Record getMatchingRecalRecord(final VariantContext target, final List<VariantContext> recalVCs) {
+        final VariantContext recalDatum = getMatchingRecalVC(target, recalVCs);
+        if( recalDatum == null ) {
+            return null;
+        }
+
+        final String lodString = recalDatum.getAttributeAsString(VariantRecalibrator.VQS_LOD_KEY, null);
+        if( lodString == null ) {
+            throw new UserException("Encountered a malformed record in the input recal file. There is no lod for the record at: " + target );
+        }
+        final double lod;
+        try {
+            lod = Double.valueOf(lodString);
+        } catch (NumberFormatException e) {
+            throw new UserException("Encountered a malformed record in the input recal file. The lod is unreadable for the record at: " + target );
+        }
+
+        return new BinaryRecalFile.Record(lod, recalDatum.getAttributeAsString(VariantRecalibrator.CULPRIT_KEY, null),
+                recalDatum.hasAttribute(VariantRecalibrator.POSITIVE_LABEL_KEY), recalDatum.hasAttribute(VariantRecalibrator.NEGATIVE_LABEL_KEY));
+    }
+
     private static VariantContext getMatchingRecalVC(final VariantContext target, final List<VariantContext> recalVCs) {
         for( final VariantContext recalVC : recalVCs ) {
             if ( target.getEnd() == recalVC.getEnd() ) {
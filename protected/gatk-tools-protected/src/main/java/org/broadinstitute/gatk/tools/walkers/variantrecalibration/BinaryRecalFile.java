@@ -0,0 +1,254 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.variantrecalibration;
+
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Compact binary alternative to the VCF recal file passed from {@link VariantRecalibrator} to {@link ApplyRecalibration}.
+ *
+ * <p>
+ *     The file starts with a header that lists the culprit annotation names and, in coordinate order, the contigs with
+ *     the number of records on each. It is followed by fixed size records sorted by contig, start and end, each with
+ *     the start, end, VQSLOD, culprit and training flags of one variant. Records are looked up in place with a binary
+ *     search over the memory-mapped record area, so no parsing is needed. Lookups only read the mapped buffers and
+ *     thus one instance can be shared by all the threads of a -nt run.
+ * </p>
+ *
+ * <p>
+ *     The VQSLOD is stored rounded to the same four decimals as in the VCF recal file, so that
+ *     {@link ApplyRecalibration} produces the same output with either.
+ * </p>
+ */
+public class BinaryRecalFile {
+
+    private static final byte[] MAGIC = "GATKVQSR".getBytes();
+    private static final int CURRENT_VERSION = 1;
+
+    /**
+     * Bytes taken by each record: start (int), end (int), lod (double), culprit (short), flags (byte) and one padding byte.
+     */
+    protected static final int RECORD_SIZE = 20;
+
+    private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / RECORD_SIZE;
+    private static final short NO_CULPRIT = -1;
+    private static final String NO_CULPRIT_NAME = "NULL";
+    private static final byte POSITIVE_FLAG = 1;
+    private static final byte NEGATIVE_FLAG = 2;
+
+    /**
+     * The recalibration of a variant.
+     */
+    public static final class Record {
+        public final double lod;
+        public final String culprit;
+        public final boolean atTrainingSite;
+        public final boolean atAntiTrainingSite;
+
+        Record( final double lod, final String culprit, final boolean atTrainingSite, final boolean atAntiTrainingSite ) {
+            this.lod = lod;
+            this.culprit = culprit;
+            this.atTrainingSite = atTrainingSite;
+            this.atAntiTrainingSite = atAntiTrainingSite;
+        }
+    }
+
+    private final File file;
+    private final String[] culprits;
+    private final Map<String,long[]> contigRecordRanges; // contig -> { first record, end record (exclusive) }
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Opens a binary recal file for reading.
+     *
+     * @param file the file to read.
+     * @throws UserException.CouldNotReadInputFile if the file cannot be read.
+     * @throws UserException.MalformedFile if it is not a binary recal file.
+     */
+    public BinaryRecalFile( final File file ) {
+        if( file == null ) { throw new IllegalArgumentException("the file cannot be null"); }
+        this.file = file;
+        try ( final RandomAccessFile raf = new RandomAccessFile(file, "r") ) {
+            final byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            if( !Arrays.equals(magic, MAGIC) ) { throw new UserException.MalformedFile(file, "it is not a binary recal file"); }
+            final int version = raf.readInt();
+            if( version != CURRENT_VERSION ) { throw new UserException.MalformedFile(file, "unsupported binary recal file version " + version); }
+
+            culprits = new String[raf.readInt()];
+            for( int iii = 0; iii < culprits.length; iii++ ) {
+                culprits[iii] = raf.readUTF();
+            }
+
+            final int contigCount = raf.readInt();
+            contigRecordRanges = new HashMap<>(contigCount * 2);
+            long recordCount = 0;
+            for( int iii = 0; iii < contigCount; iii++ ) {
+                final String contig = raf.readUTF();
+                final int contigRecordCount = raf.readInt();
+                contigRecordRanges.put(contig, new long[] { recordCount, recordCount + contigRecordCount });
+                recordCount += contigRecordCount;
+            }
+
+            final long recordsOffset = raf.getFilePointer();
+            if( raf.length() != recordsOffset + recordCount * RECORD_SIZE ) {
+                throw new UserException.MalformedFile(file, "it is truncated or has trailing data");
+            }
+            final FileChannel channel = raf.getChannel();
+            segments = new MappedByteBuffer[(int) ((recordCount + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT)];
+            for( int iii = 0; iii < segments.length; iii++ ) {
+                final long firstRecord = (long) iii * RECORDS_PER_SEGMENT;
+                final long segmentRecords = Math.min(RECORDS_PER_SEGMENT, recordCount - firstRecord);
+                segments[iii] = channel.map(FileChannel.MapMode.READ_ONLY, recordsOffset + firstRecord * RECORD_SIZE, segmentRecords * RECORD_SIZE);
+            }
+        } catch ( final EOFException e ) {
+            throw new UserException.MalformedFile(file, "it is truncated", e);
+        } catch ( final IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, e);
+        }
+    }
+
+    /**
+     * Returns the recalibration of the variant at a given location.
+     *
+     * @param contig the contig of the variant.
+     * @param start the start position of the variant.
+     * @param end the end position of the variant.
+     * @return {@code null} if there is no record for that location.
+     */
+    public Record find( final String contig, final int start, final int end ) {
+        final long[] range = contigRecordRanges.get(contig);
+        if( range == null ) { return null; }
+
+        // find the first record starting at or after start.
+        long low = range[0];
+        long high = range[1];
+        while( low < high ) {
+            final long middle = (low + high) >>> 1;
+            if( recordStart(middle) < start ) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        for( long record = low; record < range[1] && recordStart(record) == start; record++ ) {
+            final ByteBuffer segment = segments[(int) (record / RECORDS_PER_SEGMENT)];
+            final int offset = (int) (record % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+            if( segment.getInt(offset + 4) == end ) {
+                final short culprit = segment.getShort(offset + 16);
+                final byte flags = segment.get(offset + 18);
+                return new Record(segment.getDouble(offset + 8), culprit == NO_CULPRIT ? NO_CULPRIT_NAME : culprits[culprit],
+                        (flags & POSITIVE_FLAG) != 0, (flags & NEGATIVE_FLAG) != 0);
+            }
+        }
+        return null;
+    }
+
+    private int recordStart( final long record ) {
+        return segments[(int) (record / RECORDS_PER_SEGMENT)].getInt((int) (record % RECORDS_PER_SEGMENT) * RECORD_SIZE);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes a binary recal file.
+     *
+     * @param file the file to write.
+     * @param data the recalibrated variants sorted by location.
+     * @param annotationKeys the annotations the worst annotation index of each datum refers to.
+     * @throws UserException.CouldNotCreateOutputFile if the file cannot be written.
+     */
+    public static void write( final File file, final List<VariantDatum> data, final List<String> annotationKeys ) {
+        if( file == null ) { throw new IllegalArgumentException("the file cannot be null"); }
+        if( data == null ) { throw new IllegalArgumentException("the data cannot be null"); }
+        if( annotationKeys == null ) { throw new IllegalArgumentException("the annotation keys cannot be null"); }
+
+        final Map<String,Integer> contigRecordCounts = new LinkedHashMap<>();
+        for( final VariantDatum datum : data ) {
+            final Integer count = contigRecordCounts.get(datum.loc.getContig());
+            contigRecordCounts.put(datum.loc.getContig(), count == null ? 1 : count + 1);
+        }
+
+        try ( final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))) ) {
+            out.write(MAGIC);
+            out.writeInt(CURRENT_VERSION);
+            out.writeInt(annotationKeys.size());
+            for( final String key : annotationKeys ) {
+                out.writeUTF(key);
+            }
+            out.writeInt(contigRecordCounts.size());
+            for( final Map.Entry<String,Integer> entry : contigRecordCounts.entrySet() ) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            for( final VariantDatum datum : data ) {
+                out.writeInt(datum.loc.getStart());
+                out.writeInt(datum.loc.getStop());
+                out.writeDouble(Double.valueOf(String.format("%.4f", datum.lod))); // as in the VCF recal file
+                out.writeShort(datum.worstAnnotation == -1 ? NO_CULPRIT : datum.worstAnnotation);
+                out.writeByte((datum.atTrainingSite ? POSITIVE_FLAG : 0) | (datum.atAntiTrainingSite ? NEGATIVE_FLAG : 0));
+                out.writeByte(0);
+            }
+        } catch ( final IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(file, e);
+        }
+    }
+}
@@ -59,6 +59,8 @@ import org.broadinstitute.gatk.utils.MathUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Created by IntelliJ IDEA.
@@ -70,6 +72,16 @@ public class GaussianMixtureModel {
 
     protected final static Logger logger = Logger.getLogger(GaussianMixtureModel.class);
 
+    /**
+     * Number of consecutive variants in each of the data blocks the EM steps are split into.
+     *
+     * <p>
+     *     The blocks, and the order in which their sufficient statistics are added up, only depend on the size of the data
+     *     so that the model is the same whatever the number of threads used to build it.
+     * </p>
+     */
+    protected final static int DATA_BLOCK_SIZE = 1 << 14;
+
     private final ArrayList<MultivariateGaussian> gaussians;
     private final double shrinkage;
     private final double dirichletParameter;
@@ -78,9 +90,21 @@ public class GaussianMixtureModel {
     private final Matrix empiricalSigma;
     public boolean isModelReadyForEvaluation;
     public boolean failedToConverge = false;
+    private final ForkJoinPool pool; // null to run the EM steps in the calling thread
+    private double[][] pVarInGaussian; // [gaussian][datum] responsibilities from the last expectation step
 
     public GaussianMixtureModel( final int numGaussians, final int numAnnotations,
                                  final double shrinkage, final double dirichletParameter, final double priorCounts ) {
+        this( numGaussians, numAnnotations, shrinkage, dirichletParameter, priorCounts, null );
+    }
+
+    /**
+     * @param pool the pool where to run the expectation and maximization steps, {@code null} to run them in the calling thread.
+     */
+    public GaussianMixtureModel( final int numGaussians, final int numAnnotations,
+                                 final double shrinkage, final double dirichletParameter, final double priorCounts,
+                                 final ForkJoinPool pool ) {
+        this.pool = pool;
 
         gaussians = new ArrayList<>( numGaussians );
         for( int iii = 0; iii < numGaussians; iii++ ) {
@@ -158,33 +182,71 @@ public class GaussianMixtureModel {
         }
     }
 
-    public void expectationStep( final List<VariantDatum> data ) {
+    /**
+     * Computes the responsibility of each Gaussian for each datum.
+     *
+     * @param data the annotations of the data as returned by {@link VariantDataManager#annotationMatrix}.
+     */
+    public void expectationStep( final double[] data ) {
 
         for( final MultivariateGaussian gaussian : gaussians ) {
             gaussian.precomputeDenominatorForVariationalBayes( getSumHyperParameterLambda() );
         }
 
-        for( final VariantDatum datum : data ) {
-            final double[] pVarInGaussianLog10 = new double[gaussians.size()];
-            int gaussianIndex = 0;
-            for( final MultivariateGaussian gaussian : gaussians ) {
-                final double pVarLog10 = gaussian.evaluateDatumLog10( datum );
-                pVarInGaussianLog10[gaussianIndex++] = pVarLog10;
-            }
-            final double[] pVarInGaussianNormalized = MathUtils.normalizeFromLog10( pVarInGaussianLog10, false );
-            gaussianIndex = 0;
-            for( final MultivariateGaussian gaussian : gaussians ) {
-                gaussian.assignPVarInGaussian( pVarInGaussianNormalized[gaussianIndex++] );
-            }
+        final int numData = data.length / empiricalMu.length;
+        if( pVarInGaussian == null || pVarInGaussian[0].length != numData ) {
+            pVarInGaussian = new double[gaussians.size()][numData];
         }
+        new ExpectationTask( data, 0, numBlocks(numData) ).invokeIn( pool );
     }
 
-    public void maximizationStep( final List<VariantDatum> data ) {
+    /**
+     * Updates the Gaussians out of the responsibilities from the last {@link #expectationStep}.
+     *
+     * @param data the annotations of the data as returned by {@link VariantDataManager#annotationMatrix}.
+     */
+    public void maximizationStep( final double[] data ) {
+        updateMeans( data, 1E-10 );
+        final double[] scatter = scatterAroundMeans( data );
+        final int matrixSize = empiricalMu.length * empiricalMu.length;
+        int gaussianIndex = 0;
         for( final MultivariateGaussian gaussian : gaussians ) {
-            gaussian.maximizeGaussian( data, empiricalMu, empiricalSigma, shrinkage, dirichletParameter, priorCounts);
+            gaussian.maximizeGaussian( scatter, matrixSize * gaussianIndex++, empiricalMu, empiricalSigma, shrinkage, dirichletParameter, priorCounts);
         }
     }
 
+    /**
+     * Sets the mean of each Gaussian to the responsibility weighted mean of the data.
+     *
+     * @param data the annotations of the data.
+     * @param initialSumProb value the sum of the responsibilities of each Gaussian starts from.
+     */
+    private void updateMeans( final double[] data, final double initialSumProb ) {
+        final int numGaussians = gaussians.size();
+        final int numData = data.length / empiricalMu.length;
+        final double[] sums = new MeanStatisticsTask( data, 0, numBlocks(numData), initialSumProb ).invokeIn( pool );
+        int gaussianIndex = 0;
+        for( final MultivariateGaussian gaussian : gaussians ) {
+            gaussian.setMuFromWeightedSums( sums[gaussianIndex], sums, numGaussians + empiricalMu.length * gaussianIndex );
+            gaussianIndex++;
+        }
+    }
+
+    /**
+     * Returns the responsibility weighted scatter matrix of the data around the mean of each Gaussian.
+     *
+     * @param data the annotations of the data.
+     * @return never {@code null}, the row-major matrices of all the Gaussians one after another.
+     */
+    private double[] scatterAroundMeans( final double[] data ) {
+        final int numData = data.length / empiricalMu.length;
+        return new ScatterStatisticsTask( data, 0, numBlocks(numData) ).invokeIn( pool );
+    }
+
+    private static int numBlocks( final int numData ) {
+        return Math.max(1, (numData + DATA_BLOCK_SIZE - 1) / DATA_BLOCK_SIZE);
+    }
+
     private double getSumHyperParameterLambda() {
         double sum = 0.0;
         for( final MultivariateGaussian gaussian : gaussians ) {
@@ -193,10 +255,15 @@ public class GaussianMixtureModel {
         return sum;
     }
 
-    public void evaluateFinalModelParameters( final List<VariantDatum> data ) {
+    public void evaluateFinalModelParameters( final double[] data ) {
+        updateMeans( data, 0.0 );
+        final double[] scatter = scatterAroundMeans( data );
+        final int matrixSize = empiricalMu.length * empiricalMu.length;
+        int gaussianIndex = 0;
         for( final MultivariateGaussian gaussian : gaussians ) {
-            gaussian.evaluateFinalModelParameters(data);
+            gaussian.evaluateFinalModelParameters( scatter, matrixSize * gaussianIndex++ );
         }
+        pVarInGaussian = null; // clean up some memory
         normalizePMixtureLog10();
     }
 
@@ -295,4 +362,174 @@ public class GaussianMixtureModel {
         }
         return Math.log10( sumPVarInGaussian / ((double) numRandomDraws) );
     }
+
+    /**
+     * Computation over a range of data blocks that returns the sum of the statistics of each block.
+     *
+     * <p>
+     *     Ranges are halved until single blocks are left. The two halves are always added up in the same order so that
+     *     the result does not depend on whether or how the work is spread across threads.
+     * </p>
+     */
+    private abstract class BlockTask extends RecursiveTask<double[]> {
+        protected final double[] data;
+        protected final int fromBlock;
+        protected final int toBlock;
+
+        protected BlockTask( final double[] data, final int fromBlock, final int toBlock ) {
+            this.data = data;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        /**
+         * Computes the statistics of the data in [fromDatum, toDatum) that make up block {@code block}.
+         * @return {@code null} if there are no statistics to return.
+         */
+        protected abstract double[] computeBlock( final int block, final int fromDatum, final int toDatum );
+
+        protected abstract BlockTask subTask( final int fromBlock, final int toBlock );
+
+        public double[] invokeIn( final ForkJoinPool pool ) {
+            return pool == null ? compute() : pool.invoke(this);
+        }
+
+        @Override
+        protected double[] compute() {
+            if( toBlock - fromBlock == 1 ) {
+                final int numData = data.length / empiricalMu.length;
+                return computeBlock( fromBlock, fromBlock * DATA_BLOCK_SIZE, Math.min(numData, (fromBlock + 1) * DATA_BLOCK_SIZE) );
+            }
+            final int middle = (fromBlock + toBlock) >>> 1;
+            final BlockTask left = subTask( fromBlock, middle );
+            final BlockTask right = subTask( middle, toBlock );
+            final double[] leftResult, rightResult;
+            if( pool == null ) {
+                leftResult = left.compute();
+                rightResult = right.compute();
+            } else {
+                invokeAll( left, right );
+                leftResult = left.join();
+                rightResult = right.join();
+            }
+            if( leftResult == null ) { return rightResult; }
+            for( int iii = 0; iii < leftResult.length; iii++ ) {
+                leftResult[iii] += rightResult[iii];
+            }
+            return leftResult;
+        }
+    }
+
+    /**
+     * Fills {@link #pVarInGaussian} for the data in a range of blocks.
+     */
+    private final class ExpectationTask extends BlockTask {
+
+        private ExpectationTask( final double[] data, final int fromBlock, final int toBlock ) {
+            super( data, fromBlock, toBlock );
+        }
+
+        @Override
+        protected double[] computeBlock( final int block, final int fromDatum, final int toDatum ) {
+            final int numAnnotations = empiricalMu.length;
+            final double[] pVarInGaussianLog10 = new double[gaussians.size()];
+            for( int datumIndex = fromDatum, offset = fromDatum * numAnnotations; datumIndex < toDatum; datumIndex++, offset += numAnnotations ) {
+                int gaussianIndex = 0;
+                for( final MultivariateGaussian gaussian : gaussians ) {
+                    pVarInGaussianLog10[gaussianIndex++] = gaussian.evaluateDatumLog10( data, offset );
+                }
+                final double[] pVarInGaussianNormalized = MathUtils.normalizeFromLog10( pVarInGaussianLog10, false );
+                for( gaussianIndex = 0; gaussianIndex < pVarInGaussianNormalized.length; gaussianIndex++ ) {
+                    pVarInGaussian[gaussianIndex][datumIndex] = pVarInGaussianNormalized[gaussianIndex];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected BlockTask subTask( final int fromBlock, final int toBlock ) {
+            return new ExpectationTask( data, fromBlock, toBlock );
+        }
+    }
+
+    /**
+     * Sums the responsibilities of each Gaussian, followed by the responsibility weighted sums of the annotations for
+     * each Gaussian.
+     */
+    private final class MeanStatisticsTask extends BlockTask {
+        private final double initialSumProb;
+
+        private MeanStatisticsTask( final double[] data, final int fromBlock, final int toBlock, final double initialSumProb ) {
+            super( data, fromBlock, toBlock );
+            this.initialSumProb = initialSumProb;
+        }
+
+        @Override
+        protected double[] computeBlock( final int block, final int fromDatum, final int toDatum ) {
+            final int numGaussians = gaussians.size();
+            final int numAnnotations = empiricalMu.length;
+            final double[] result = new double[numGaussians * (1 + numAnnotations)];
+            for( int gaussianIndex = 0; gaussianIndex < numGaussians; gaussianIndex++ ) {
+                final double[] pVar = pVarInGaussian[gaussianIndex];
+                final int sumsOffset = numGaussians + gaussianIndex * numAnnotations;
+                double sumProb = block == 0 ? initialSumProb : 0.0;
+                for( int datumIndex = fromDatum, offset = fromDatum * numAnnotations; datumIndex < toDatum; datumIndex++, offset += numAnnotations ) {
+                    final double prob = pVar[datumIndex];
+                    sumProb += prob;
+                    for( int jjj = 0; jjj < numAnnotations; jjj++ ) {
+                        result[sumsOffset + jjj] += prob * data[offset + jjj];
+                    }
+                }
+                result[gaussianIndex] = sumProb;
+            }
+            return result;
+        }
+
+        @Override
+        protected BlockTask subTask( final int fromBlock, final int toBlock ) {
+            return new MeanStatisticsTask( data, fromBlock, toBlock, initialSumProb );
+        }
+    }
+
+    /**
+     * Sums the responsibility weighted cross products of the annotations around the mean of each Gaussian.
+     */
+    private final class ScatterStatisticsTask extends BlockTask {
+
+        private ScatterStatisticsTask( final double[] data, final int fromBlock, final int toBlock ) {
+            super( data, fromBlock, toBlock );
+        }
+
+        @Override
+        protected double[] computeBlock( final int block, final int fromDatum, final int toDatum ) {
+            final int numAnnotations = empiricalMu.length;
+            final int matrixSize = numAnnotations * numAnnotations;
+            final double[] result = new double[gaussians.size() * matrixSize];
+            final double[] centered = new double[numAnnotations];
+            int gaussianIndex = 0;
+            for( final MultivariateGaussian gaussian : gaussians ) {
+                final double[] pVar = pVarInGaussian[gaussianIndex];
+                final double[] mu = gaussian.mu;
+                final int matrixOffset = matrixSize * gaussianIndex++;
+                for( int datumIndex = fromDatum, offset = fromDatum * numAnnotations; datumIndex < toDatum; datumIndex++, offset += numAnnotations ) {
+                    final double prob = pVar[datumIndex];
+                    for( int iii = 0; iii < numAnnotations; iii++ ) {
+                        centered[iii] = data[offset + iii] - mu[iii];
+                    }
+                    for( int iii = 0, cell = matrixOffset; iii < numAnnotations; iii++ ) {
+                        final double weighted = prob * centered[iii];
+                        for( int jjj = 0; jjj < numAnnotations; jjj++ ) {
+                            result[cell++] += weighted * centered[jjj];
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected BlockTask subTask( final int fromBlock, final int toBlock ) {
+            return new ScatterStatisticsTask( data, fromBlock, toBlock );
+        }
+    }
 }
\ No newline at end of file
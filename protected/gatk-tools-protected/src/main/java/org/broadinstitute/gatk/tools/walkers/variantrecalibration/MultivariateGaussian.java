@@ -54,11 +54,9 @@ package org.broadinstitute.gatk.tools.walkers.variantrecalibration;
 import Jama.Matrix;
 import org.apache.commons.math.special.Gamma;
 import org.broadinstitute.gatk.utils.MathUtils;
-import org.broadinstitute.gatk.utils.collections.ExpandingArrayList;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 
 import java.util.Arrays;
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -77,12 +75,11 @@ public class MultivariateGaussian {
     public double hyperParameter_lambda;
     private double cachedDenomLog10;
     private Matrix cachedSigmaInverse;
-    final private ExpandingArrayList<Double> pVarInGaussian;
+    private double[] cachedSigmaInverseArray; // row-major copy of cachedSigmaInverse for the evaluation loops
 
     public MultivariateGaussian( final int numAnnotations ) {
         mu = new double[numAnnotations];
         sigma = new Matrix(numAnnotations, numAnnotations);
-        pVarInGaussian = new ExpandingArrayList<>();
     }
 
     public void zeroOutMu() {
@@ -149,8 +146,13 @@ public class MultivariateGaussian {
     }
 
 
+    private void cacheInverseArray() {
+        cachedSigmaInverseArray = cachedSigmaInverse.getRowPackedCopy();
+    }
+
     public void precomputeDenominatorForEvaluation() {
         precomputeInverse();
+        cacheInverseArray();
         cachedDenomLog10 = Math.log10(Math.pow(2.0 * Math.PI, -1.0 * ((double) mu.length) / 2.0)) + Math.log10(Math.pow(sigma.det(), -0.5)) ;
     }
 
@@ -159,6 +161,7 @@ public class MultivariateGaussian {
         // Variational Bayes calculations from Bishop
         precomputeInverse();
         cachedSigmaInverse.timesEquals( hyperParameter_a );
+        cacheInverseArray();
         double sum = 0.0;
         for(int jjj = 1; jjj <= mu.length; jjj++) {
             sum += Gamma.digamma( (hyperParameter_a + 1.0 - jjj) / 2.0 );
@@ -172,43 +175,65 @@ public class MultivariateGaussian {
     }
 
     public double evaluateDatumLog10( final VariantDatum datum ) {
+        return evaluateDatumLog10( datum.annotations, 0 );
+    }
+
+    /**
+     * Evaluates the log10 density of a datum given its annotations in a flat array.
+     *
+     * @param annotations array containing the annotations of the datum.
+     * @param offset position of the first annotation of the datum in {@code annotations}.
+     * @return the log10 density.
+     */
+    public double evaluateDatumLog10( final double[] annotations, final int offset ) {
+        final int numAnnotations = mu.length;
+        final double[] sigmaInverse = cachedSigmaInverseArray;
         double sumKernel = 0.0;
-        final double[] crossProdTmp = new double[mu.length];
-        Arrays.fill(crossProdTmp, 0.0);
-        for( int iii = 0; iii < mu.length; iii++ ) {
-            for( int jjj = 0; jjj < mu.length; jjj++ ) {
-                crossProdTmp[iii] += (datum.annotations[jjj] - mu[jjj]) * cachedSigmaInverse.get(jjj, iii);
+        for( int iii = 0; iii < numAnnotations; iii++ ) {
+            double crossProd = 0.0;
+            for( int jjj = 0; jjj < numAnnotations; jjj++ ) {
+                crossProd += (annotations[offset + jjj] - mu[jjj]) * sigmaInverse[jjj * numAnnotations + iii];
             }
+            sumKernel += crossProd * (annotations[offset + iii] - mu[iii]);
         }
-        for( int iii = 0; iii < mu.length; iii++ ) {
-            sumKernel += crossProdTmp[iii] * (datum.annotations[iii] - mu[iii]);
-        }
-        
+
         return (( -0.5 * sumKernel ) / Math.log(10.0)) + cachedDenomLog10; // This is the definition of a Gaussian PDF Log10
     }
 
-    public void assignPVarInGaussian( final double pVar ) {
-        pVarInGaussian.add( pVar );
+    /**
+     * Sets the mean out of the responsibility weighted sums of the data.
+     *
+     * @param sumProb the sum of the responsibilities of this Gaussian over all the data.
+     * @param weightedSums sums of the annotations weighted by the responsibilities.
+     * @param offset position of the first annotation sum in {@code weightedSums}.
+     */
+    public void setMuFromWeightedSums( final double sumProb, final double[] weightedSums, final int offset ) {
+        this.sumProb = sumProb;
+        System.arraycopy(weightedSums, offset, mu, 0, mu.length);
+        divideEqualsMu( sumProb );
     }
 
-    public void resetPVarInGaussian() {
-        pVarInGaussian.clear();
+    /**
+     * Copies a scatter matrix into {@link #sigma}.
+     *
+     * @param scatter responsibility weighted sums of the annotation cross products around {@link #mu}, row-major.
+     * @param offset position of the first element of the matrix in {@code scatter}.
+     */
+    private void setSigmaFromScatter( final double[] scatter, final int offset ) {
+        final double[][] sigmaArray = sigma.getArray();
+        for( int iii = 0; iii < mu.length; iii++ ) {
+            System.arraycopy(scatter, offset + iii * mu.length, sigmaArray[iii], 0, mu.length);
+        }
     }
 
-    public void maximizeGaussian( final List<VariantDatum> data, final double[] empiricalMu, final Matrix empiricalSigma,
+    /**
+     * Variational Bayes M step for this Gaussian given the sufficient statistics of the data.
+     *
+     * <p>It must be preceded by {@link #setMuFromWeightedSums} and {@code scatter} must be computed around the resulting mean.</p>
+     */
+    public void maximizeGaussian( final double[] scatter, final int offset, final double[] empiricalMu, final Matrix empiricalSigma,
                                   final double SHRINKAGE, final double DIRICHLET_PARAMETER, final double DEGREES_OF_FREEDOM ) {
-        sumProb = 1E-10;
         final Matrix wishart = new Matrix(mu.length, mu.length);
-        zeroOutMu();
-        zeroOutSigma();
-        
-        int datumIndex = 0;
-        for( final VariantDatum datum : data ) {
-            final double prob = pVarInGaussian.get(datumIndex++);
-            sumProb += prob;
-            incrementMu( datum, prob );
-        }
-        divideEqualsMu( sumProb );
 
         final double shrinkageFactor = (SHRINKAGE * sumProb) / (SHRINKAGE + sumProb);
         for( int iii = 0; iii < mu.length; iii++ ) {
@@ -217,18 +242,7 @@ public class MultivariateGaussian {
             }
         }
 
-        datumIndex = 0;
-        final Matrix pVarSigma = new Matrix(mu.length, mu.length);
-        for( final VariantDatum datum : data ) {
-            final double prob = pVarInGaussian.get(datumIndex++);
-            for( int iii = 0; iii < mu.length; iii++ ) {
-                for( int jjj = 0; jjj < mu.length; jjj++ ) {
-                    pVarSigma.set(iii, jjj, prob * (datum.annotations[iii]-mu[iii]) * (datum.annotations[jjj]-mu[jjj]));
-                }
-            }
-            sigma.plusEquals( pVarSigma );
-        }
-
+        setSigmaFromScatter( scatter, offset );
         sigma.plusEquals( empiricalSigma );
         sigma.plusEquals( wishart );
 
@@ -239,36 +253,15 @@ public class MultivariateGaussian {
         hyperParameter_a = sumProb + DEGREES_OF_FREEDOM;
         hyperParameter_b = sumProb + SHRINKAGE;
         hyperParameter_lambda = sumProb + DIRICHLET_PARAMETER;
-
-        resetPVarInGaussian(); // clean up some memory
     }
 
-    public void evaluateFinalModelParameters( final List<VariantDatum> data ) {
-        sumProb = 0.0;
-        zeroOutMu();
-        zeroOutSigma();
-
-        int datumIndex = 0;
-        for( final VariantDatum datum : data ) {
-            final double prob = pVarInGaussian.get(datumIndex++);
-            sumProb += prob;
-            incrementMu( datum, prob );
-        }
-        divideEqualsMu( sumProb );
-
-        datumIndex = 0;
-        final Matrix pVarSigma = new Matrix(mu.length, mu.length);
-        for( final VariantDatum datum : data ) {
-            final double prob = pVarInGaussian.get(datumIndex++);
-            for( int iii = 0; iii < mu.length; iii++ ) {
-                for( int jjj = 0; jjj < mu.length; jjj++ ) {
-                    pVarSigma.set(iii, jjj, prob * (datum.annotations[iii]-mu[iii]) * (datum.annotations[jjj]-mu[jjj]));
-                }
-            }
-            sigma.plusEquals( pVarSigma );
-        }
+    /**
+     * Sets the final maximum likelihood covariance given the sufficient statistics of the data.
+     *
+     * <p>It must be preceded by {@link #setMuFromWeightedSums} and {@code scatter} must be computed around the resulting mean.</p>
+     */
+    public void evaluateFinalModelParameters( final double[] scatter, final int offset ) {
+        setSigmaFromScatter( scatter, offset );
         sigma.timesEquals( 1.0 / sumProb );
-
-        resetPVarInGaussian(); // clean up some memory
     }
 }
\ No newline at end of file
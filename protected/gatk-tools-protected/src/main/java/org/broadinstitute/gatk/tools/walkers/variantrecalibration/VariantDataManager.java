@@ -67,6 +67,7 @@ import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 
+import java.io.File;
 import java.util.*;
 
 /**
@@ -257,6 +258,26 @@ public class VariantDataManager {
         return trainingData;
     }
 
+    /**
+     * Copies the annotations of the given data into a single flat array, one datum after another, so that the
+     * model building loops run over contiguous primitive values rather than over one object per variant.
+     *
+     * @param data the variants, all with the same number of annotations.
+     * @return never {@code null}, <code>result[i * numAnnotations + j]</code> is the jth annotation of the ith datum.
+     */
+    public static double[] annotationMatrix( final List<VariantDatum> data ) {
+        if( data == null ) { throw new IllegalArgumentException("data cannot be null."); }
+        if( data.isEmpty() ) { return new double[0]; }
+        final int numAnnotations = data.get(0).annotations.length;
+        final double[] result = new double[data.size() * numAnnotations];
+        int offset = 0;
+        for( final VariantDatum datum : data ) {
+            System.arraycopy(datum.annotations, 0, result, offset, numAnnotations);
+            offset += numAnnotations;
+        }
+        return result;
+    }
+
     public List<VariantDatum> selectWorstVariants() {
         final List<VariantDatum> trainingData = new ExpandingArrayList<>();
 
@@ -417,10 +438,7 @@ public class VariantDataManager {
 
     public void writeOutRecalibrationTable( final VariantContextWriter recalWriter ) {
         // we need to sort in coordinate order in order to produce a valid VCF
-        Collections.sort( data, new Comparator<VariantDatum>() {
-            public int compare(VariantDatum vd1, VariantDatum vd2) {
-                return vd1.loc.compareTo(vd2.loc);
-            }} );
+        sortDataByLocation();
 
         // create dummy alleles to be used
         final List<Allele> alleles = Arrays.asList(Allele.create("N", true), Allele.create("<VQSR>", false));
@@ -437,4 +455,21 @@ public class VariantDataManager {
             recalWriter.add(builder.make());
         }
     }
+
+    /**
+     * Writes the recalibration table in the binary format read by {@link BinaryRecalFile}.
+     *
+     * @param file the file to write.
+     */
+    public void writeOutBinaryRecalibrationTable( final File file ) {
+        sortDataByLocation();
+        BinaryRecalFile.write(file, data, annotationKeys);
+    }
+
+    private void sortDataByLocation() {
+        Collections.sort( data, new Comparator<VariantDatum>() {
+            public int compare(VariantDatum vd1, VariantDatum vd2) {
+                return vd1.loc.compareTo(vd2.loc);
+            }} );
+    }
 }
@@ -187,6 +187,13 @@ public class VariantRecalibrator extends RodWalker<ExpandingArrayList<VariantDat
     @Output(fullName="tranches_file", shortName="tranchesFile", doc="The output tranches file used by ApplyRecalibration", required=true)
     protected File TRANCHES_FILE;
 
+    /**
+     * The same recalibration table as the recal file, in a compact indexed binary format that ApplyRecalibration can
+     * look variants up in without parsing it (see its -binaryRecalFile argument).
+     */
+    @Output(fullName="binary_recal_file", shortName="binaryRecalFile", doc="Also write the recalibration table in the binary format read by ApplyRecalibration -binaryRecalFile", required=false, defaultToStdout=false)
+    protected File BINARY_RECAL_FILE = null;
+
     /////////////////////////////
     // Additional Command Line Arguments
     /////////////////////////////
@@ -252,6 +259,7 @@ public class VariantRecalibrator extends RodWalker<ExpandingArrayList<VariantDat
     @Override
     public void initialize() {
         dataManager = new VariantDataManager( new ArrayList<>(Arrays.asList(USE_ANNOTATIONS)), VRAC );
+        engine.setNumberOfThreads( getToolkit().getArguments().numberOfDataThreads );
 
         if (RSCRIPT_FILE != null && !RScriptExecutor.RSCRIPT_EXISTS)
             Utils.warnUser(logger, String.format(
@@ -414,6 +422,10 @@ public class VariantRecalibrator extends RodWalker<ExpandingArrayList<VariantDat
 
         logger.info( "Writing out recalibration table..." );
         dataManager.writeOutRecalibrationTable( recalWriter );
+        if( BINARY_RECAL_FILE != null ) {
+            logger.info( "Writing out binary recalibration table..." );
+            dataManager.writeOutBinaryRecalibrationTable( BINARY_RECAL_FILE );
+        }
         if( RSCRIPT_FILE != null ) {
             logger.info( "Writing out visualization Rscript file...");
             createVisualizationScript( dataManager.getRandomDataForPlotting( 1000, positiveTrainingData, negativeTrainingData, dataManager.getEvaluationData() ), goodModel, badModel, 0.0, dataManager.getAnnotationKeys().toArray(new String[USE_ANNOTATIONS.length]) );
@@ -55,6 +55,7 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by IntelliJ IDEA.
@@ -76,6 +77,9 @@ public class VariantRecalibratorEngine {
 
     private final static double MIN_PROB_CONVERGENCE = 2E-3;
 
+    // number of threads used to build the models
+    private int numThreads = 1;
+
     /////////////////////////////
     // Public Methods to interface with the Engine
     /////////////////////////////
@@ -84,13 +88,28 @@ public class VariantRecalibratorEngine {
         this.VRAC = VRAC;
     }
 
+    /**
+     * Sets the number of threads used to run the expectation-maximization steps when building models.
+     *
+     * @param numThreads 1 or more.
+     */
+    public void setNumberOfThreads( final int numThreads ) {
+        if( numThreads < 1 ) { throw new IllegalArgumentException("the number of threads must be at least 1 but found: " + numThreads); }
+        this.numThreads = numThreads;
+    }
+
     public GaussianMixtureModel generateModel( final List<VariantDatum> data, final int maxGaussians ) {
         if( data == null || data.isEmpty() ) { throw new IllegalArgumentException("No data found."); }
         if( maxGaussians <= 0 ) { throw new IllegalArgumentException("maxGaussians must be a positive integer but found: " + maxGaussians); }
 
-        final GaussianMixtureModel model = new GaussianMixtureModel( maxGaussians, data.get(0).annotations.length, VRAC.SHRINKAGE, VRAC.DIRICHLET_PARAMETER, VRAC.PRIOR_COUNTS );
-        variationalBayesExpectationMaximization( model, data );
-        return model;
+        final ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool( numThreads ) : null;
+        try {
+            final GaussianMixtureModel model = new GaussianMixtureModel( maxGaussians, data.get(0).annotations.length, VRAC.SHRINKAGE, VRAC.DIRICHLET_PARAMETER, VRAC.PRIOR_COUNTS, pool );
+            variationalBayesExpectationMaximization( model, data );
+            return model;
+        } finally {
+            if( pool != null ) { pool.shutdown(); }
+        }
     }
 
     public void evaluateData( final List<VariantDatum> data, final GaussianMixtureModel model, final boolean evaluateContrastively ) {
@@ -143,18 +162,19 @@ public class VariantRecalibratorEngine {
     private void variationalBayesExpectationMaximization( final GaussianMixtureModel model, final List<VariantDatum> data ) {
 
         model.initializeRandomModel( data, VRAC.NUM_KMEANS_ITERATIONS );
+        final double[] annotations = VariantDataManager.annotationMatrix( data );
 
         // The VBEM loop
         model.normalizePMixtureLog10();
-        model.expectationStep( data );
+        model.expectationStep( annotations );
         double currentChangeInMixtureCoefficients;
         int iteration = 0;
         logger.info("Finished iteration " + iteration + ".");
         while( iteration < VRAC.MAX_ITERATIONS ) {
             iteration++;
-            model.maximizationStep( data );
+            model.maximizationStep( annotations );
             currentChangeInMixtureCoefficients = model.normalizePMixtureLog10();
-            model.expectationStep( data );
+            model.expectationStep( annotations );
             if( iteration % 5 == 0 ) { // cut down on the number of output lines so that users can read the warning messages
                 logger.info("Finished iteration " + iteration + ". \tCurrent change in mixture coefficients = " + String.format("%.5f", currentChangeInMixtureCoefficients));
             }
@@ -164,7 +184,7 @@ public class VariantRecalibratorEngine {
             }
         }
 
-        model.evaluateFinalModelParameters( data );
+        model.evaluateFinalModelParameters( annotations );
     }
 
     /////////////////////////////
@@ -51,27 +51,39 @@
 
 package org.broadinstitute.gatk.tools.walkers.variantutils;
 
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.PeekableIterator;
+import htsjdk.tribble.AbstractFeatureReader;
+import org.broadinstitute.gatk.engine.datasources.rmd.ReferenceOrderedDataSource;
+import org.broadinstitute.gatk.engine.refdata.tracks.RMDTrack;
+import org.broadinstitute.gatk.engine.refdata.utils.GATKFeature;
 import org.broadinstitute.gatk.utils.commandline.*;
 import org.broadinstitute.gatk.engine.CommandLineGATK;
 import org.broadinstitute.gatk.engine.contexts.AlignmentContext;
 import org.broadinstitute.gatk.engine.contexts.ReferenceContext;
 import org.broadinstitute.gatk.engine.refdata.RefMetaDataTracker;
-import org.broadinstitute.gatk.engine.walkers.Reference;
 import org.broadinstitute.gatk.engine.walkers.RodWalker;
-import org.broadinstitute.gatk.engine.walkers.Window;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.SampleUtils;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.gatk.utils.help.HelpConstants;
+import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 import org.broadinstitute.gatk.utils.variant.GATKVCFUtils;
 import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
+import htsjdk.variant.bcf2.BCF2Codec;
 import htsjdk.variant.variantcontext.*;
+import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
 import htsjdk.variant.vcf.*;
-import org.broadinstitute.gatk.utils.variant.ReferenceConfidenceVariantContextMerger;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Combines any number of gVCF files that were produced by the Haplotype Caller into a single joint gVCF file.
@@ -86,6 +98,15 @@ import java.util.*;
  * as part of the "single sample discovery" pipeline using the '-ERC GVCF' mode, which uses a sophisticated reference
  * model to produce accurate genotype likelihoods for every position in the target.
  *
+ * <h3>Performance</h3>
+ * <p>
+ * Rather than walking the genome position by position, the tool streams the records of all the inputs through a
+ * k-way merge and only does work where a record starts or ends, so long reference blocks cost nothing but their
+ * own records.  With -rangeThreads, the contigs being combined are split into that many ranges which are combined
+ * in parallel, and with -mergeBatchSize the inputs are merged in batches, each in its own thread, which helps when
+ * combining many gVCFs.  The output is the same however the work is split.
+ * </p>
+ *
  * <h3>Input</h3>
  * <p>
  * One or more Haplotype Caller gVCFs to combine.
@@ -108,27 +129,7 @@ import java.util.*;
  *
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VARMANIP, extraDocs = {CommandLineGATK.class} )
-@Reference(window=@Window(start=0,stop=1))
-public class CombineGVCFs extends RodWalker<CombineGVCFs.PositionalState, CombineGVCFs.OverallState> {
-
-    protected final class PositionalState {
-        final List<VariantContext> VCs;
-        final byte[] refBases;
-        final GenomeLoc loc;
-        public PositionalState(final List<VariantContext> VCs, final byte[] refBases, final GenomeLoc loc) {
-            this.VCs = VCs;
-            this.refBases = refBases;
-            this.loc = loc;
-        }
-    }
-
-    protected final class OverallState {
-        final LinkedList<VariantContext> VCs = new LinkedList<>();
-        GenomeLoc prevPos = null;
-        byte refAfterPrevPos;
-
-        public OverallState() {}
-    }
+public class CombineGVCFs extends RodWalker<Integer, Integer> {
 
     /**
      * The gVCF files to merge together
@@ -143,7 +144,29 @@ public class CombineGVCFs extends RodWalker<CombineGVCFs.PositionalState, Combin
     @Argument(fullName="convertToBasePairResolution", shortName="bpResolution", doc = "If specified, convert banded gVCFs to all-sites gVCFs", required=false)
     protected boolean USE_BP_RESOLUTION = false;
 
+    /**
+     * Each batch is merged in its own thread, which reads and decodes its inputs, before the batches are merged
+     * together (in further levels of batches if there are more batches than the batch size).
+     */
+    @Advanced
+    @Argument(fullName="mergeBatchSize", shortName="mergeBatchSize", doc="Merge the inputs in batches of this many, each in its own thread; 0 merges all the inputs at once", required=false, minValue=0)
+    protected int mergeBatchSize = 0;
+
+    /**
+     * The contigs being combined are split into this many ranges of about the same size, each combined in its own
+     * thread.  All but the first range are written to temporary BCF files in the java.io.tmpdir directory, which are
+     * appended to the output in order.
+     */
+    @Advanced
+    @Argument(fullName="rangeThreads", shortName="rangeThreads", doc="Combine this many ranges of contigs in parallel", required=false, minValue=1)
+    protected int rangeThreads = 1;
+
     private GenomeLocParser genomeLocParser;
+    private VCFHeader vcfHeader;
+    private final List<ReferenceOrderedDataSource> dataSources = new ArrayList<>();
+
+    // the temporary files of the ranges that ended with blocks cut by the intervals
+    private final Set<File> cutBlockRanges = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
 
     public void initialize() {
         // take care of the VCF headers
@@ -151,186 +174,245 @@ public class CombineGVCFs extends RodWalker<CombineGVCFs.PositionalState, Combin
         final Set<VCFHeaderLine> headerLines = VCFUtils.smartMergeHeaders(vcfRods.values(), true);
 
         final Set<String> samples = SampleUtils.getSampleList(vcfRods, GATKVariantContextUtils.GenotypeMergeType.REQUIRE_UNIQUE);
-        final VCFHeader vcfHeader = new VCFHeader(headerLines, samples);
+        vcfHeader = new VCFHeader(headerLines, samples);
         vcfWriter.writeHeader(vcfHeader);
 
         // collect the actual rod bindings into a list for use later
         for ( final RodBindingCollection<VariantContext> variantCollection : variantCollections )
             variants.addAll(variantCollection.getRodBindings());
 
-        genomeLocParser = getToolkit().getGenomeLocParser();
-    }
-
-    public PositionalState map(final RefMetaDataTracker tracker, final ReferenceContext ref, final AlignmentContext context) {
-        if ( tracker == null ) // RodWalkers can make funky map calls
-            return null;
-
-        final GenomeLoc loc = ref.getLocus();
-        return new PositionalState(tracker.getValues(variants, loc), ref.getBases(), loc);
-    }
-
-    public OverallState reduceInit() {
-        return new OverallState();
-    }
-
-    public OverallState reduce(final PositionalState startingStates, final OverallState previousState) {
-        if ( startingStates == null )
-            return previousState;
-
-        final int currentPos = startingStates.loc.getStart();
-
-        if ( !startingStates.VCs.isEmpty() ) {
-            if ( ! okayToSkipThisSite(currentPos, previousState.prevPos) )
-                endPreviousStates(previousState, currentPos - 1, startingStates.refBases[0]);
-            previousState.VCs.addAll(startingStates.VCs);
-        }
-
-        if ( USE_BP_RESOLUTION || containsEndingContext(previousState.VCs, currentPos) ) {
-            endPreviousStates(previousState, currentPos, startingStates.refBases.length > 1 ? startingStates.refBases[1] : (byte)'N');
+        // and find the data behind them, in the same order
+        for ( final RodBinding<VariantContext> variant : variants ) {
+            for ( final ReferenceOrderedDataSource dataSource : getToolkit().getRodDataSources() ) {
+                if ( dataSource.getName().equals(variant.getName()) )
+                    dataSources.add(dataSource);
+            }
         }
+        if ( dataSources.size() != variants.size() )
+            throw new ReviewedGATKException("Could not find the data for all the input gVCFs");
+        if ( mergeBatchSize == 1 )
+            throw new UserException.BadArgumentValue("mergeBatchSize", "batches must have at least 2 inputs");
 
-        return previousState;
+        genomeLocParser = getToolkit().getGenomeLocParser();
     }
 
     /**
-     * Is it okay to skip the given position?
+     * The records are merged in onTraversalDone rather than position by position, so there is no traversal at all.
      *
-     * @param thisPos      this position
-     * @param lastPosRun   the last position for which we created a VariantContext
-     * @return true if it is okay to skip this position, false otherwise
+     * @return true
      */
-    private boolean okayToSkipThisSite(final int thisPos, final GenomeLoc lastPosRun) {
-        return lastPosRun != null && thisPos == lastPosRun.getStart() + 1;
+    @Override
+    public boolean isDone() {
+        return true;
     }
 
     /**
-     * Does the given list of VariantContexts contain any whose context ends at the given position?
+     * Is not supposed to ever be called, thus it always results in an exception.
      *
-     * @param VCs  list of VariantContexts
-     * @param pos  the position to check against
-     * @return true if there are one or more VCs that end at pos, false otherwise
+     * @throws IllegalStateException always.
      */
-    private boolean containsEndingContext(final List<VariantContext> VCs, final int pos) {
-        if ( VCs == null ) throw new IllegalArgumentException("The list of VariantContexts cannot be null");
+    public Integer map(final RefMetaDataTracker tracker, final ReferenceContext ref, final AlignmentContext context) {
+        throw new IllegalStateException("CombineGVCFs map method is not supposed to be invoked ever");
+    }
 
-        for ( final VariantContext vc : VCs ) {
-            if ( isEndingContext(vc, pos) )
-                return true;
-        }
-        return false;
+    public Integer reduceInit() {
+        return 0;
     }
 
     /**
-     * Does the given variant context end (in terms of reference blocks, not necessarily formally) at the given position.
-     * Note that for the purposes of this method/tool, deletions are considered to be single base events (as opposed to
-     * reference blocks), hence the check for the number of alleles (because we know there will always be a <NON_REF> allele).
+     * Is not supposed to ever be called, thus it always results in an exception.
      *
-     * @param vc   the variant context
-     * @param pos  the position to query against
-     * @return true if this variant context "ends" at this position, false otherwise
+     * @throws IllegalStateException always.
      */
-    private boolean isEndingContext(final VariantContext vc, final int pos) {
-        return vc.getNAlleles() > 2 || vc.getEnd() == pos;
+    public Integer reduce(final Integer value, final Integer sum) {
+        throw new IllegalStateException("CombineGVCFs reduce method is not supposed to be invoked ever");
+    }
+
+    @Override
+    public void onTraversalDone(final Integer result) {
+        final List<List<GenomeLoc>> ranges = splitIntoContigRanges(getToolkit().getRegionsOfGenomeBeingProcessed().toList(),
+                rangeThreads);
+        final ExecutorService executor = Executors.newCachedThreadPool(new NamedThreadFactory("CombineGVCFs-thread-%d"));
+        try {
+            // the first range goes straight to the output while the others are combined into temporary files
+            final List<Future<File>> spilledRanges = new ArrayList<>();
+            for ( final List<GenomeLoc> range : ranges.subList(1, ranges.size()) )
+                spilledRanges.add(executor.submit(new SpilledRangeCombiner(range, executor)));
+
+            boolean cutBlocks = combineRange(ranges.get(0), vcfWriter, executor);
+            for ( final Future<File> spilledRange : spilledRanges )
+                cutBlocks |= appendSpilledRange(getResult(spilledRange));
+
+            // there shouldn't be any state left unless the user cut in the middle of a gVCF block
+            if ( cutBlocks )
+                logger.warn("You have asked for an interval that cuts in the middle of one or more gVCF blocks. Please note that this will cause you to lose records that don't end within your interval.");
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     /**
-     * Disrupt the VariantContexts so that they all stop at the given pos, write them out, and put the remainder back in the list.
+     * Split the intervals into at most nRanges ranges of whole contigs, of about the same size, in order
      *
-     * @param state   the state with list of VariantContexts
-     * @param pos     the target ending position
-     * @param refBase the reference base to use at the position AFTER pos
+     * @param intervals the sorted intervals to combine
+     * @param nRanges   the largest number of ranges to make
+     * @return a non-empty list of the ranges, each a non-empty list of the intervals of one or more contigs
      */
-    private void endPreviousStates(final OverallState state, final int pos, final byte refBase) {
-
-        final List<VariantContext> stoppedVCs = new ArrayList<>(state.VCs.size());
+    protected static List<List<GenomeLoc>> splitIntoContigRanges(final List<GenomeLoc> intervals, final int nRanges) {
+        long total = 0;
+        for ( final GenomeLoc interval : intervals )
+            total += interval.size();
+
+        final List<List<GenomeLoc>> ranges = new ArrayList<>();
+        List<GenomeLoc> range = new ArrayList<>();
+        long rangeSize = 0;
+        for ( final GenomeLoc interval : intervals ) {
+            final boolean newContig = ! range.isEmpty() && ! range.get(range.size() - 1).getContig().equals(interval.getContig());
+            if ( newContig && ranges.size() < nRanges - 1 && rangeSize * nRanges >= total ) {
+                ranges.add(range);
+                range = new ArrayList<>();
+                rangeSize = 0;
+            }
+            range.add(interval);
+            rangeSize += interval.size();
+        }
+        ranges.add(range);
+        return ranges;
+    }
 
-        for ( int i = state.VCs.size() - 1; i >= 0; i-- ) {
-            final VariantContext vc = state.VCs.get(i);
-            if ( vc.getStart() <= pos ) {
+    /**
+     * Combines a range of contigs into a temporary BCF file
+     */
+    private final class SpilledRangeCombiner implements Callable<File> {
+        private final List<GenomeLoc> range;
+        private final ExecutorService executor;
 
-                stoppedVCs.add(vc);
+        private SpilledRangeCombiner(final List<GenomeLoc> range, final ExecutorService executor) {
+            this.range = range;
+            this.executor = executor;
+        }
 
-                // if it was ending anyways, then remove it from the future state
-                if ( isEndingContext(vc, pos) )
-                    state.VCs.remove(i);
+        @Override
+        public File call() throws IOException {
+            final File file = File.createTempFile("CombineGVCFs.", ".bcf", getToolkit().getTempDirectory());
+            file.deleteOnExit();
+            final VariantContextWriter writer = VariantContextWriterFactory.create(file, getToolkit().getMasterSequenceDictionary(), EnumSet.of(Options.ALLOW_MISSING_FIELDS_IN_HEADER));
+            writer.writeHeader(GATKVCFUtils.withUpdatedContigs(new VCFHeader(vcfHeader.getMetaDataInInputOrder(), vcfHeader.getGenotypeSamples()), getToolkit()));
+            try {
+                if ( combineRange(range, writer, executor) )
+                    cutBlockRanges.add(file);
+            } finally {
+                writer.close();
             }
+            return file;
         }
+    }
 
-        if ( !stoppedVCs.isEmpty() ) {
-            final GenomeLoc gLoc = genomeLocParser.createGenomeLoc(stoppedVCs.get(0).getChr(), pos);
-
-            // we need the specialized merge if the site contains anything other than ref blocks
-            final VariantContext mergedVC;
-            if ( containsTrueAltAllele(stoppedVCs) )
-                mergedVC = ReferenceConfidenceVariantContextMerger.merge(stoppedVCs, gLoc, refBase, false);
-            else
-                mergedVC = referenceBlockMerge(stoppedVCs, state, pos);
-
-            vcfWriter.add(mergedVC);
-            state.prevPos = gLoc;
-            state.refAfterPrevPos = refBase;
+    private static File getResult(final Future<File> future) {
+        try {
+            return future.get();
+        } catch ( InterruptedException e ) {
+            throw new ReviewedGATKException("Interrupted while combining gVCFs", e);
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException) e.getCause();
+            throw new ReviewedGATKException("Failed to combine gVCFs", e.getCause());
         }
     }
 
     /**
-     * Combine a list of reference block VariantContexts.
-     * We can't use GATKVariantContextUtils.simpleMerge() because it is just too slow for this sort of thing.
+     * Copy the records of a range combined into a temporary file to the output
      *
-     * @param VCs   the variant contexts to merge
-     * @param state the state object
-     * @param end   the end of this block (inclusive)
-     * @return a new merged VariantContext
+     * @return true if the range ended with blocks cut by the intervals
      */
-    private VariantContext referenceBlockMerge(final List<VariantContext> VCs, final OverallState state, final int end) {
-
-        final VariantContext first = VCs.get(0);
-
-        // ref allele and start
-        final Allele refAllele;
-        final int start;
-        if ( state.prevPos == null || !state.prevPos.getContig().equals(first.getChr()) || first.getStart() >= state.prevPos.getStart() + 1) {
-            start = first.getStart();
-            refAllele = first.getReference();
-        } else {
-            start = state.prevPos.getStart() + 1;
-            refAllele = Allele.create(state.refAfterPrevPos, true);
+    private boolean appendSpilledRange(final File file) {
+        try ( final AbstractFeatureReader<VariantContext, ?> reader = AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), new BCF2Codec(), false) ) {
+            for ( final VariantContext vc : reader.iterator() )
+                vcfWriter.add(vc);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, e);
         }
+        final boolean cutBlocks = cutBlockRanges.contains(file);
+        if ( ! file.delete() )
+            logger.warn("Could not delete temporary file " + file);
+        return cutBlocks;
+    }
 
-        // attributes
-        final Map<String, Object> attrs = new HashMap<>(1);
-        if ( !USE_BP_RESOLUTION && end != start )
-            attrs.put(VCFConstants.END_KEY, Integer.toString(end));
-
-        // genotypes
-        final GenotypesContext genotypes = GenotypesContext.create();
-        for ( final VariantContext vc : VCs ) {
-            for ( final Genotype g : vc.getGenotypes() )
-                genotypes.add(new GenotypeBuilder(g).alleles(GATKVariantContextUtils.noCallAlleles(g.getPloidy())).make());
+    /**
+     * Combine the records of all the inputs within a range of contigs
+     *
+     * @param range    the intervals to combine, all the intervals of each of its contigs
+     * @param writer   where the combined records go
+     * @param executor runs the merges of batches of inputs
+     * @return true if the range ended with blocks cut by the intervals
+     */
+    private boolean combineRange(final List<GenomeLoc> range, final VariantContextWriter writer, final ExecutorService executor) {
+        final GVCFBlockCombiner combiner = new GVCFBlockCombiner(writer, genomeLocParser, getToolkit().getReferenceDataSource().getReference(), USE_BP_RESOLUTION);
+
+        final List<RMDTrack> tracks = new ArrayList<>(dataSources.size());
+        try {
+            for ( final ReferenceOrderedDataSource dataSource : dataSources )
+                tracks.add(dataSource.createTrack());
+
+            int contigStart = 0;
+            for ( int i = 1; i <= range.size(); i++ ) {
+                if ( i == range.size() || ! range.get(i).getContig().equals(range.get(contigStart).getContig()) ) {
+                    combineContig(range.subList(contigStart, i), tracks, combiner, executor);
+                    contigStart = i;
+                }
+            }
+        } finally {
+            for ( final RMDTrack track : tracks )
+                track.close();
         }
+        return combiner.hasOpenRecords();
+    }
 
-        return new VariantContextBuilder("", first.getChr(), start, end, Arrays.asList(refAllele, GATKVariantContextUtils.NON_REF_SYMBOLIC_ALLELE)).attributes(attrs).genotypes(genotypes).make();
+    private void combineContig(final List<GenomeLoc> intervals, final List<RMDTrack> tracks, final GVCFBlockCombiner combiner, final ExecutorService executor) {
+        final GenomeLoc span = intervals.get(0).endpointSpan(intervals.get(intervals.size() - 1));
+        final List<VariantContextIterator> inputs = new ArrayList<>(tracks.size());
+        try {
+            for ( final RMDTrack track : tracks )
+                inputs.add(new VariantContextIterator(track.query(span)));
+
+            final PeekableIterator<VariantContext> records = new PeekableIterator<>(GVCFMergingIterator.create(inputs, mergeBatchSize, executor));
+            for ( final GenomeLoc interval : intervals )
+                combiner.combineInterval(records, interval);
+        } catch ( IOException e ) {
+            throw new ReviewedGATKException("Unable to query the input gVCFs over " + span, e);
+        } finally {
+            for ( final VariantContextIterator input : inputs )
+                input.close();
+        }
     }
 
     /**
-     * Does the given list of VariantContexts contain any with an alternate allele other than <NON_REF>?
-     *
-     * @param VCs  list of VariantContexts
-     * @return true if there are one or more VCs that contain a true alternate allele, false otherwise
+     * The variant contexts of the features returned by a track
      */
-    private boolean containsTrueAltAllele(final List<VariantContext> VCs) {
-        if ( VCs == null ) throw new IllegalArgumentException("The list of VariantContexts cannot be null");
+    private static final class VariantContextIterator implements Iterator<VariantContext> {
+        private final CloseableIterator<GATKFeature> features;
 
-        for ( final VariantContext vc : VCs ) {
-            if ( vc.getNAlleles() > 2 )
-                return true;
+        private VariantContextIterator(final CloseableIterator<GATKFeature> features) {
+            this.features = features;
         }
-        return false;
-    }
 
-    @Override
-    public void onTraversalDone(final OverallState state) {
-        // there shouldn't be any state left unless the user cut in the middle of a gVCF block
-        if ( !state.VCs.isEmpty() )
-            logger.warn("You have asked for an interval that cuts in the middle of one or more gVCF blocks. Please note that this will cause you to lose records that don't end within your interval.");
+        @Override
+        public boolean hasNext() {
+            return features.hasNext();
+        }
+
+        @Override
+        public VariantContext next() {
+            return (VariantContext) features.next().getUnderlyingObject();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            features.close();
+        }
     }
 }
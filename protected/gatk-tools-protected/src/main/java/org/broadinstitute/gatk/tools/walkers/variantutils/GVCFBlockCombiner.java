@@ -0,0 +1,347 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.variantutils;
+
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.util.PeekableIterator;
+import htsjdk.variant.variantcontext.*;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFConstants;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
+import org.broadinstitute.gatk.utils.variant.ReferenceConfidenceVariantContextMerger;
+
+import java.util.*;
+
+/**
+ * Combines the records of several gVCFs into joint gVCF records, as CombineGVCFs does.
+ *
+ * <p>
+ * The combiner holds the records that are still open (reference blocks that have not reached their end yet) and
+ * writes a combined record whenever one of them ends or a new record starts.  It can be fed position by position,
+ * as a locus traversal would, with {@link #addPosition}, or it can be driven by a stream of records sorted by start
+ * with {@link #combineInterval}, which only stops at the positions where records start or end and so does no work
+ * for the positions inside reference blocks.  Both produce the same records.
+ * </p>
+ */
+final class GVCFBlockCombiner {
+    private static final int REFERENCE_WINDOW_SIZE = 65536;
+
+    private final VariantContextWriter writer;
+    private final GenomeLocParser genomeLocParser;
+    private final ReferenceSequenceFile reference;
+    private final boolean useBPResolution;
+
+    // the records started but not ended yet, in the order they started
+    private final ArrayList<VariantContext> VCs = new ArrayList<>();
+    private GenomeLoc prevPos = null;
+    private byte refAfterPrevPos;
+
+    // scratch space for combineInterval
+    private final List<VariantContext> startingVCs = new ArrayList<>();
+    private String currentContig = null;
+    private int coveredUntil = 0;
+
+    // a window of the reference around the current position
+    private byte[] referenceBases = null;
+    private int referenceStart = 0;
+    private int contigLength = 0;
+
+    /**
+     * @param writer          where the combined records go
+     * @param genomeLocParser the parser for the reference
+     * @param reference       the reference, only needed to use {@link #combineInterval}
+     * @param useBPResolution if true, write one record per position instead of reference blocks
+     */
+    GVCFBlockCombiner(final VariantContextWriter writer, final GenomeLocParser genomeLocParser, final ReferenceSequenceFile reference, final boolean useBPResolution) {
+        this.writer = writer;
+        this.genomeLocParser = genomeLocParser;
+        this.reference = reference;
+        this.useBPResolution = useBPResolution;
+    }
+
+    /**
+     * @return true if some records were started but never ended, because an interval cut them
+     */
+    boolean hasOpenRecords() {
+        return ! VCs.isEmpty();
+    }
+
+    /**
+     * Combine the records starting within an interval.
+     *
+     * Behaves exactly like calling {@link #addPosition} at every position of the interval covered by a record, but
+     * only stops at the positions where a record starts or ends (or at every covered position with bp resolution).
+     * Records starting before the interval only count as covering it, as they would for a locus traversal.
+     *
+     * @param records  the records of the interval's contig, sorted by start, positioned before the first record
+     *                 overlapping the interval; on return it is positioned after the records starting within it
+     * @param interval the interval, after any previous interval given to this combiner
+     */
+    void combineInterval(final PeekableIterator<VariantContext> records, final GenomeLoc interval) {
+        final int stop = interval.getStop();
+        if ( ! interval.getContig().equals(currentContig) ) {
+            currentContig = interval.getContig();
+            coveredUntil = 0;
+            referenceBases = null;
+            contigLength = genomeLocParser.getContigInfo(currentContig).getSequenceLength();
+        }
+
+        while ( records.hasNext() && records.peek().getStart() < interval.getStart() )
+            coveredUntil = Math.max(coveredUntil, records.next().getEnd());
+
+        int pos = interval.getStart();
+        while ( true ) {
+            int next = Integer.MAX_VALUE;
+            if ( useBPResolution && pos <= coveredUntil )
+                next = pos;
+            else {
+                if ( records.hasNext() )
+                    next = records.peek().getStart();
+                for ( final VariantContext vc : VCs ) {
+                    if ( vc.getEnd() >= pos && vc.getEnd() < next )
+                        next = vc.getEnd();
+                }
+            }
+            if ( next > stop )
+                break;
+
+            startingVCs.clear();
+            while ( records.hasNext() && records.peek().getStart() == next ) {
+                final VariantContext vc = records.next();
+                startingVCs.add(vc);
+                coveredUntil = Math.max(coveredUntil, vc.getEnd());
+            }
+            addPosition(startingVCs, next, getReferenceBase(next), next < contigLength ? getReferenceBase(next + 1) : (byte)'N');
+            pos = next + 1;
+        }
+    }
+
+    private byte getReferenceBase(final int pos) {
+        if ( referenceBases == null || pos < referenceStart || pos >= referenceStart + referenceBases.length ) {
+            referenceStart = pos;
+            referenceBases = reference.getSubsequenceAt(currentContig, pos, Math.min(contigLength, pos + REFERENCE_WINDOW_SIZE - 1)).getBases();
+        }
+        return referenceBases[pos - referenceStart];
+    }
+
+    /**
+     * Process one covered position of the traversal.
+     *
+     * @param startingVCs the records starting at pos
+     * @param currentPos  the position
+     * @param refBase     the reference base at pos
+     * @param nextRefBase the reference base after pos, or N at the end of the contig
+     */
+    void addPosition(final List<VariantContext> startingVCs, final int currentPos, final byte refBase, final byte nextRefBase) {
+        if ( !startingVCs.isEmpty() ) {
+            if ( ! okayToSkipThisSite(currentPos, prevPos) )
+                endPreviousStates(currentPos - 1, refBase);
+            VCs.addAll(startingVCs);
+        }
+
+        if ( useBPResolution || containsEndingContext(VCs, currentPos) ) {
+            endPreviousStates(currentPos, nextRefBase);
+        }
+    }
+
+    /**
+     * Is it okay to skip the given position?
+     *
+     * @param thisPos      this position
+     * @param lastPosRun   the last position for which we created a VariantContext
+     * @return true if it is okay to skip this position, false otherwise
+     */
+    private boolean okayToSkipThisSite(final int thisPos, final GenomeLoc lastPosRun) {
+        return lastPosRun != null && thisPos == lastPosRun.getStart() + 1;
+    }
+
+    /**
+     * Does the given list of VariantContexts contain any whose context ends at the given position?
+     *
+     * @param VCs  list of VariantContexts
+     * @param pos  the position to check against
+     * @return true if there are one or more VCs that end at pos, false otherwise
+     */
+    private boolean containsEndingContext(final List<VariantContext> VCs, final int pos) {
+        if ( VCs == null ) throw new IllegalArgumentException("The list of VariantContexts cannot be null");
+
+        for ( final VariantContext vc : VCs ) {
+            if ( isEndingContext(vc, pos) )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Does the given variant context end (in terms of reference blocks, not necessarily formally) at the given position.
+     * Note that for the purposes of this method/tool, deletions are considered to be single base events (as opposed to
+     * reference blocks), hence the check for the number of alleles (because we know there will always be a <NON_REF> allele).
+     *
+     * @param vc   the variant context
+     * @param pos  the position to query against
+     * @return true if this variant context "ends" at this position, false otherwise
+     */
+    private boolean isEndingContext(final VariantContext vc, final int pos) {
+        return vc.getNAlleles() > 2 || vc.getEnd() == pos;
+    }
+
+    /**
+     * Disrupt the VariantContexts so that they all stop at the given pos, write them out, and keep the remainder.
+     *
+     * @param pos     the target ending position
+     * @param refBase the reference base to use at the position AFTER pos
+     */
+    private void endPreviousStates(final int pos, final byte refBase) {
+
+        final List<VariantContext> stoppedVCs = new ArrayList<>(VCs.size());
+
+        // the stopped records are collected from the most recently started one backwards
+        int kept = VCs.size();
+        for ( int i = VCs.size() - 1; i >= 0; i-- ) {
+            final VariantContext vc = VCs.get(i);
+            if ( vc.getStart() <= pos ) {
+
+                stoppedVCs.add(vc);
+
+                // if it was ending anyways, then remove it from the future state
+                if ( isEndingContext(vc, pos) ) {
+                    VCs.set(i, null);
+                    kept--;
+                }
+            }
+        }
+        if ( kept < VCs.size() )
+            removeEndedRecords();
+
+        if ( !stoppedVCs.isEmpty() ) {
+            final GenomeLoc gLoc = genomeLocParser.createGenomeLoc(stoppedVCs.get(0).getChr(), pos);
+
+            // we need the specialized merge if the site contains anything other than ref blocks
+            final VariantContext mergedVC;
+            if ( containsTrueAltAllele(stoppedVCs) )
+                mergedVC = ReferenceConfidenceVariantContextMerger.merge(stoppedVCs, gLoc, refBase, false);
+            else
+                mergedVC = referenceBlockMerge(stoppedVCs, pos);
+
+            writer.add(mergedVC);
+            prevPos = gLoc;
+            refAfterPrevPos = refBase;
+        }
+    }
+
+    // compact away the records endPreviousStates nulled out, keeping the others in order
+    private void removeEndedRecords() {
+        int j = 0;
+        for ( int i = 0; i < VCs.size(); i++ ) {
+            final VariantContext vc = VCs.get(i);
+            if ( vc != null )
+                VCs.set(j++, vc);
+        }
+        VCs.subList(j, VCs.size()).clear();
+    }
+
+    /**
+     * Combine a list of reference block VariantContexts.
+     * We can't use GATKVariantContextUtils.simpleMerge() because it is just too slow for this sort of thing.
+     *
+     * @param VCs   the variant contexts to merge
+     * @param end   the end of this block (inclusive)
+     * @return a new merged VariantContext
+     */
+    private VariantContext referenceBlockMerge(final List<VariantContext> VCs, final int end) {
+
+        final VariantContext first = VCs.get(0);
+
+        // ref allele and start
+        final Allele refAllele;
+        final int start;
+        if ( prevPos == null || !prevPos.getContig().equals(first.getChr()) || first.getStart() >= prevPos.getStart() + 1) {
+            start = first.getStart();
+            refAllele = first.getReference();
+        } else {
+            start = prevPos.getStart() + 1;
+            refAllele = Allele.create(refAfterPrevPos, true);
+        }
+
+        // attributes
+        final Map<String, Object> attrs = new HashMap<>(1);
+        if ( !useBPResolution && end != start )
+            attrs.put(VCFConstants.END_KEY, Integer.toString(end));
+
+        // genotypes
+        final GenotypesContext genotypes = GenotypesContext.create();
+        for ( final VariantContext vc : VCs ) {
+            for ( final Genotype g : vc.getGenotypes() )
+                genotypes.add(new GenotypeBuilder(g).alleles(GATKVariantContextUtils.noCallAlleles(g.getPloidy())).make());
+        }
+
+        return new VariantContextBuilder("", first.getChr(), start, end, Arrays.asList(refAllele, GATKVariantContextUtils.NON_REF_SYMBOLIC_ALLELE)).attributes(attrs).genotypes(genotypes).make();
+    }
+
+    /**
+     * Does the given list of VariantContexts contain any with an alternate allele other than <NON_REF>?
+     *
+     * @param VCs  list of VariantContexts
+     * @return true if there are one or more VCs that contain a true alternate allele, false otherwise
+     */
+    private boolean containsTrueAltAllele(final List<VariantContext> VCs) {
+        if ( VCs == null ) throw new IllegalArgumentException("The list of VariantContexts cannot be null");
+
+        for ( final VariantContext vc : VCs ) {
+            if ( vc.getNAlleles() > 2 )
+                return true;
+        }
+        return false;
+    }
+}
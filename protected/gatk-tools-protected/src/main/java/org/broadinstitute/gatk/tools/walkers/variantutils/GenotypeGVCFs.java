@@ -72,6 +72,7 @@ import org.broadinstitute.gatk.tools.walkers.genotyper.afcalc.GeneralPloidyFailO
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.HaplotypeCaller;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.SampleUtils;
+import org.broadinstitute.gatk.utils.codecs.gvcfstore.GVCFStoreCodec;
 import org.broadinstitute.gatk.utils.commandline.*;
 import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.gatk.utils.help.HelpConstants;
@@ -122,12 +123,16 @@ import java.util.*;
 public class GenotypeGVCFs extends RodWalker<VariantContext, VariantContextWriter> implements AnnotatorCompatible, TreeReducible<VariantContextWriter> {
 
     /**
-     * The gVCF files to merge together
+     * The gVCF files to merge together.  GVCF stores created by ImportGVCFs can be given here as well.
      */
-    @Input(fullName="variant", shortName = "V", doc="One or more input gVCF files", required=true)
+    @Input(fullName="variant", shortName = "V", doc="One or more input gVCF files or GVCF stores", required=true)
     public List<RodBindingCollection<VariantContext>> variantCollections;
     final private List<RodBinding<VariantContext>> variants = new ArrayList<>();
 
+    // the subsets of variants that are gVCF files and GVCF stores
+    final private List<RodBinding<VariantContext>> fileVariants = new ArrayList<>();
+    final private List<RodBinding<VariantContext>> storeVariants = new ArrayList<>();
+
     @Output(doc="File to which variants should be written")
     protected VariantContextWriter vcfWriter = null;
 
@@ -166,6 +171,8 @@ public class GenotypeGVCFs extends RodWalker<VariantContext, VariantContextWrite
         // collect the actual rod bindings into a list for use later
         for ( final RodBindingCollection<VariantContext> variantCollection : variantCollections )
             variants.addAll(variantCollection.getRodBindings());
+        for ( final RodBinding<VariantContext> variant : variants )
+            (GVCFStoreCodec.isStoreBinding(variant) ? storeVariants : fileVariants).add(variant);
 
         final GenomeAnalysisEngine toolkit = getToolkit();
         final Map<String, VCFHeader> vcfRods = GATKVCFUtils.getVCFHeadersFromRods(toolkit, variants);
@@ -197,12 +204,37 @@ public class GenotypeGVCFs extends RodWalker<VariantContext, VariantContextWrite
             return null;
 
         final GenomeLoc loc = ref.getLocus();
-        final VariantContext combinedVC = ReferenceConfidenceVariantContextMerger.merge(tracker.getPrioritizedValue(variants, loc), loc, INCLUDE_NON_VARIANTS ? ref.getBase() : null, true);
+        final VariantContext combinedVC = ReferenceConfidenceVariantContextMerger.merge(getVCsAtThisLocus(tracker, loc), loc, INCLUDE_NON_VARIANTS ? ref.getBase() : null, true);
         if ( combinedVC == null )
             return null;
         return regenotypeVC(tracker, ref, combinedVC);
     }
 
+    /**
+     * Get the VCs to merge at this locus: one per gVCF file, and one per sample block of each GVCF store
+     *
+     * @param tracker the ref tracker
+     * @param loc     the current location
+     * @return a non-null list of VCs, preferring in each source the one starting at loc
+     */
+    private List<VariantContext> getVCsAtThisLocus(final RefMetaDataTracker tracker, final GenomeLoc loc) {
+        if ( storeVariants.isEmpty() )
+            return tracker.getPrioritizedValue(variants, loc);
+
+        final List<VariantContext> VCs = tracker.getPrioritizedValue(fileVariants, loc);
+        for ( final RodBinding<VariantContext> storeVariant : storeVariants ) {
+            // the records of a store come from many sample blocks, each with its own source
+            final Map<String, VariantContext> bySampleBlock = new LinkedHashMap<>();
+            for ( final VariantContext vc : tracker.getValues(storeVariant) ) {
+                final VariantContext previous = bySampleBlock.get(vc.getSource());
+                if ( previous == null || (previous.getStart() != loc.getStart() && vc.getStart() == loc.getStart()) )
+                    bySampleBlock.put(vc.getSource(), vc);
+            }
+            VCs.addAll(bySampleBlock.values());
+        }
+        return VCs;
+    }
+
     /**
      * Re-genotype (and re-annotate) a combined genomic VC
      *
@@ -294,7 +326,7 @@ public class GenotypeGVCFs extends RodWalker<VariantContext, VariantContextWrite
 
             // move the MIN_DP to DP
             if ( oldGT.hasExtendedAttribute("MIN_DP") ) {
-                depth = Integer.parseInt((String)oldGT.getAnyAttribute("MIN_DP"));
+                depth = Integer.parseInt(oldGT.getAnyAttribute("MIN_DP").toString());
                 builder.DP(depth);
                 attrs.remove("MIN_DP");
             }
@@ -62,6 +62,7 @@ import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Properties;
 
 /**
  * Genome-wide VCF writer
@@ -76,6 +77,9 @@ public class GVCFWriter implements VariantContextWriter {
     //
     protected final static String MIN_DP_FORMAT_FIELD = "MIN_DP";
 
+    /** prefix of the keys under which we save our state */
+    private final static String STATE_PREFIX = "gvcf.";
+
     //
     // Final fields initialized in constructor
     //
@@ -160,6 +164,39 @@ public class GVCFWriter implements VariantContextWriter {
         underlyingWriter.writeHeader(header);
     }
 
+    /**
+     * Save the state carried over between calls to add, so that a later writer can pick up
+     * exactly where this one left off with restoreState
+     *
+     * @param state the properties into which to save our state
+     */
+    public void saveState(final Properties state) {
+        if ( state == null ) throw new IllegalArgumentException("state cannot be null");
+
+        if ( sampleName != null )
+            state.setProperty(STATE_PREFIX + "sampleName", sampleName);
+        if ( contigOfNextAvailableStart != null ) {
+            state.setProperty(STATE_PREFIX + "contigOfNextAvailableStart", contigOfNextAvailableStart);
+            state.setProperty(STATE_PREFIX + "nextAvailableStart", Integer.toString(nextAvailableStart));
+        }
+        if ( currentBlock != null )
+            currentBlock.saveState(state, STATE_PREFIX + "block.");
+    }
+
+    /**
+     * Restore the state saved by saveState, replacing any state of this writer
+     *
+     * @param state the properties holding the saved state
+     */
+    public void restoreState(final Properties state) {
+        if ( state == null ) throw new IllegalArgumentException("state cannot be null");
+
+        sampleName = state.getProperty(STATE_PREFIX + "sampleName");
+        contigOfNextAvailableStart = state.getProperty(STATE_PREFIX + "contigOfNextAvailableStart");
+        nextAvailableStart = contigOfNextAvailableStart == null ? -1 : Integer.parseInt(state.getProperty(STATE_PREFIX + "nextAvailableStart"));
+        currentBlock = state.getProperty(STATE_PREFIX + "block.contig") == null ? null : HomRefBlock.restoreState(state, STATE_PREFIX + "block.");
+    }
+
     /**
      * Close this GVCF writer.  Finalizes any pending hom-ref blocks and emits those to the underlyingWriter as well
      */
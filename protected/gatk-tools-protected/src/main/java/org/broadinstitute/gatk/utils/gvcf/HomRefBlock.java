@@ -54,11 +54,16 @@ package org.broadinstitute.gatk.utils.gvcf;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.vcf.VCFHeaderLine;
 import org.broadinstitute.gatk.utils.MathUtils;
+import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Properties;
 
 /**
  * Helper class for calculating a GQ band in the GVCF writer
@@ -118,6 +123,60 @@ final class HomRefBlock {
         this.ploidy = ploidy;
     }
 
+    /**
+     * Save the contents of this block so that it can be recreated with restoreState
+     *
+     * @param state the properties into which to save this block
+     * @param prefix prefix for the keys of this block in state
+     */
+    public void saveState(final Properties state, final String prefix) {
+        if ( startingVC == null ) throw new IllegalStateException("Cannot save the state of a block used only for bounds checking");
+
+        state.setProperty(prefix + "source", startingVC.getSource());
+        state.setProperty(prefix + "contig", startingVC.getChr());
+        state.setProperty(prefix + "start", Integer.toString(getStart()));
+        state.setProperty(prefix + "stop", Integer.toString(stop));
+        state.setProperty(prefix + "ref", ref.getBaseString());
+        state.setProperty(prefix + "minGQ", Integer.toString(minGQ));
+        state.setProperty(prefix + "maxGQ", Integer.toString(maxGQ));
+        state.setProperty(prefix + "ploidy", Integer.toString(ploidy));
+        if ( minPLs != null ) state.setProperty(prefix + "minPLs", Utils.join(",", minPLs));
+        state.setProperty(prefix + "GQs", Utils.join(",", GQs));
+        state.setProperty(prefix + "DPs", Utils.join(",", DPs));
+    }
+
+    /**
+     * Recreate a block previously saved with saveState
+     *
+     * @param state the properties holding the saved block
+     * @param prefix prefix for the keys of the block in state
+     * @return a non-null HomRefBlock with the same contents as the saved block
+     */
+    public static HomRefBlock restoreState(final Properties state, final String prefix) {
+        final Allele ref = Allele.create(state.getProperty(prefix + "ref"), true);
+        final int start = Integer.parseInt(state.getProperty(prefix + "start"));
+        final VariantContext startingVC = new VariantContextBuilder(state.getProperty(prefix + "source"), state.getProperty(prefix + "contig"),
+                start, start + ref.length() - 1, Arrays.asList(ref, GATKVariantContextUtils.NON_REF_SYMBOLIC_ALLELE)).make();
+
+        final HomRefBlock block = new HomRefBlock(startingVC, Integer.parseInt(state.getProperty(prefix + "minGQ")),
+                Integer.parseInt(state.getProperty(prefix + "maxGQ")), Integer.parseInt(state.getProperty(prefix + "ploidy")));
+        block.stop = Integer.parseInt(state.getProperty(prefix + "stop"));
+        final String minPLs = state.getProperty(prefix + "minPLs");
+        if ( minPLs != null ) block.minPLs = parseInts(minPLs);
+        for ( final int GQ : parseInts(state.getProperty(prefix + "GQs")) ) block.GQs.add(GQ);
+        for ( final int DP : parseInts(state.getProperty(prefix + "DPs")) ) block.DPs.add(DP);
+        return block;
+    }
+
+    private static int[] parseInts(final String joined) {
+        if ( joined.isEmpty() ) return new int[0];
+        final String[] parts = joined.split(",");
+        final int[] values = new int[parts.length];
+        for ( int i = 0; i < parts.length; i++ )
+            values[i] = Integer.parseInt(parts[i]);
+        return values;
+    }
+
     /**
      * Add information from this Genotype to this band
      * @param g a non-null Genotype with GQ and DP attributes
@@ -213,6 +213,63 @@ public final class CnyPairHMM extends PairHMM implements BatchPairHMM {
         collectLikelihoodResults(likelihoods);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Enqueues the reads of all the matrices before collecting any result, so that the FPGA queue is kept full.
+     */
+    @Override
+    public void batchComputeLikelihoods(final List<? extends ReadLikelihoods.Matrix<Haplotype>> likelihoods, final List<List<GATKSAMRecord>> processedReads, final Map<GATKSAMRecord,byte[]> gcp) {
+        if (likelihoods.size() != processedReads.size())
+            throw new IllegalArgumentException("there must be one list of processed reads per likelihood matrix");
+
+        // initialize the pairHMM if necessary
+        if (! initialized) {
+            int readMaxLength = 0;
+            for (final List<GATKSAMRecord> reads : processedReads)
+                readMaxLength = Math.max(readMaxLength, findMaxReadLength(reads));
+            int haplotypeMaxLength = 0;
+            for (final ReadLikelihoods.Matrix<Haplotype> matrix : likelihoods)
+                haplotypeMaxLength = Math.max(haplotypeMaxLength, findMaxHaplotypeLength(matrix.alleles()));
+            initialize(readMaxLength, haplotypeMaxLength);
+        }
+
+        for (int m = 0; m < likelihoods.size(); m++)
+            performBatchAdditions(processedReads.get(m), likelihoods.get(m).alleles(), gcp);
+
+        // results come out of the queue in the order the reads went in
+        for (final ReadLikelihoods.Matrix<Haplotype> matrix : likelihoods)
+            collectLikelihoodResults(matrix);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Enqueues the reads of all the regions before collecting any result, so that the FPGA queue is kept full.
+     */
+    @Override
+    public void computeLikelihoodsAcrossRegions(final List<PairHMMRegion> regions) {
+        // initialize the pairHMM if necessary
+        if (! initialized) {
+            int readMaxLength = 0;
+            int haplotypeMaxLength = 0;
+            for (final PairHMMRegion region : regions) {
+                readMaxLength = Math.max(readMaxLength, region.getReadMaxLength());
+                haplotypeMaxLength = Math.max(haplotypeMaxLength, region.getHaplotypeMaxLength());
+            }
+            initialize(readMaxLength, haplotypeMaxLength);
+        }
+
+        for (final PairHMMRegion region : regions)
+            for (int m = 0; m < region.getLikelihoods().size(); m++)
+                performBatchAdditions(region.getProcessedReads().get(m), region.getLikelihoods().get(m).alleles(), region.getGapContinuationPenalties());
+
+        // results come out of the queue in the order the reads went in
+        for (final PairHMMRegion region : regions)
+            for (final ReadLikelihoods.Matrix<Haplotype> matrix : region.getLikelihoods())
+                collectLikelihoodResults(matrix);
+    }
+
     private void collectLikelihoodResults(ReadLikelihoods.Matrix<Haplotype> likelihoods) {
         final int numHaplotypes = likelihoods.alleleCount();
         final int numReads = likelihoods.readCount();
@@ -56,6 +56,7 @@ import org.broadinstitute.gatk.utils.haplotype.Haplotype;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
 import java.io.*;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -200,23 +201,41 @@ public class VectorLoglessPairHMM extends JNILoglessPairHMM {
      */
     @Override
     public void computeLikelihoods( final ReadLikelihoods.Matrix<Haplotype> likelihoods, final List<GATKSAMRecord> processedReads, final Map<GATKSAMRecord,byte[]> gcp ) {
-        if (processedReads.isEmpty())
+        batchComputeLikelihoods(Collections.singletonList(likelihoods), Collections.singletonList(processedReads), gcp);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * All the reads of all the matrices are sent to the native code in a single call, so that regions with many
+     * samples but few reads per sample still fill the SIMD lanes and pay the JNI setup cost only once.
+     */
+    @Override
+    public void batchComputeLikelihoods( final List<? extends ReadLikelihoods.Matrix<Haplotype>> likelihoods, final List<List<GATKSAMRecord>> processedReads, final Map<GATKSAMRecord,byte[]> gcp ) {
+        if (likelihoods.size() != processedReads.size())
+            throw new IllegalArgumentException("there must be one list of processed reads per likelihood matrix");
+        int readListSize = 0;
+        for (final List<GATKSAMRecord> reads : processedReads)
+            readListSize += reads.size();
+        if (readListSize == 0)
             return;
         if(doProfiling)
             startTime = System.nanoTime();
-        int readListSize = processedReads.size();
-        int numHaplotypes = likelihoods.alleleCount();
+        int numHaplotypes = mHaplotypeDataArray.length;
         JNIReadDataHolderClass[] readDataArray = new JNIReadDataHolderClass[readListSize];
         int idx = 0;
-        for(GATKSAMRecord read : processedReads)
+        for(final List<GATKSAMRecord> reads : processedReads)
         {
-            readDataArray[idx] = new JNIReadDataHolderClass();
-            readDataArray[idx].readBases = read.getReadBases();
-            readDataArray[idx].readQuals = read.getBaseQualities();
-            readDataArray[idx].insertionGOP = read.getBaseInsertionQualities();
-            readDataArray[idx].deletionGOP = read.getBaseDeletionQualities();
-            readDataArray[idx].overallGCP = gcp.get(read);
-            ++idx;
+            for(GATKSAMRecord read : reads)
+            {
+                readDataArray[idx] = new JNIReadDataHolderClass();
+                readDataArray[idx].readBases = read.getReadBases();
+                readDataArray[idx].readQuals = read.getBaseQualities();
+                readDataArray[idx].insertionGOP = read.getBaseInsertionQualities();
+                readDataArray[idx].deletionGOP = read.getBaseDeletionQualities();
+                readDataArray[idx].overallGCP = gcp.get(read);
+                ++idx;
+            }
         }
 
         mLikelihoodArray = new double[readListSize*numHaplotypes];      //to store results
@@ -228,18 +247,23 @@ public class VectorLoglessPairHMM extends JNILoglessPairHMM {
         jniComputeLikelihoods(readListSize, numHaplotypes, readDataArray, mHaplotypeDataArray, mLikelihoodArray, 12);
 
         int readIdx = 0;
-        for(int r = 0; r < readListSize; r++)
+        for(int m = 0; m < likelihoods.size(); m++)
         {
-            int hapIdx = 0;
-            for (final Haplotype haplotype : likelihoods.alleles()) {
-
-                //Since the order of haplotypes in the List<Haplotype> and alleleHaplotypeMap is different,
-                //get idx of current haplotype in the list and use this idx to get the right likelihoodValue
-                final int idxInsideHaplotypeList = haplotypeToHaplotypeListIdxMap.get(haplotype);
-                likelihoods.set(hapIdx,r,mLikelihoodArray[readIdx + idxInsideHaplotypeList]);
-                ++hapIdx;
+            final ReadLikelihoods.Matrix<Haplotype> matrix = likelihoods.get(m);
+            final int matrixReadCount = processedReads.get(m).size();
+            for(int r = 0; r < matrixReadCount; r++)
+            {
+                int hapIdx = 0;
+                for (final Haplotype haplotype : matrix.alleles()) {
+
+                    //Since the order of haplotypes in the List<Haplotype> and alleleHaplotypeMap is different,
+                    //get idx of current haplotype in the list and use this idx to get the right likelihoodValue
+                    final int idxInsideHaplotypeList = haplotypeToHaplotypeListIdxMap.get(haplotype);
+                    matrix.set(hapIdx,r,mLikelihoodArray[readIdx + idxInsideHaplotypeList]);
+                    ++hapIdx;
+                }
+                readIdx += numHaplotypes;
             }
-            readIdx += numHaplotypes;
         }
         if(doProfiling)
         {
@@ -251,7 +275,160 @@ public class VectorLoglessPairHMM extends JNILoglessPairHMM {
             }
         }
     }
-    
+
+    /**
+     * Compute kernel for several regions: the reads of each region are evaluated against the haplotypes of that same
+     * region only.  Reads and haplotypes are the concatenation of those of each region, and the likelihoods are laid
+     * out region by region, read by read.
+     */
+    private native void jniComputeLikelihoodsAcrossRegions(int numRegions, int[] numReadsPerRegion, int[] numHaplotypesPerRegion,
+            JNIReadDataHolderClass[] readDataArray, JNIHaplotypeDataHolderClass[] haplotypeDataArray, double[] likelihoodArray,
+            int maxNumThreadsToUse);
+
+    //Libraries built before jniComputeLikelihoodsAcrossRegions was added are still usable one region at a time
+    private static volatile boolean isAcrossRegionsKernelAvailable = true;
+
+    //The most likelihoods a single jniComputeLikelihoodsAcrossRegions call may return
+    private static final long MAX_LIKELIHOODS_PER_CALL = Integer.MAX_VALUE;
+
+    /**
+     * {@inheritDoc}
+     *
+     * The reads of all the regions are sent to the native code in a single call.
+     */
+    @Override
+    public void computeLikelihoodsAcrossRegions(final List<PairHMMRegion> regions) {
+        if (regions.size() < 2 || !isAcrossRegionsKernelAvailable) {
+            super.computeLikelihoodsAcrossRegions(regions);
+            return;
+        }
+        long totalLikelihoods = 0;
+        for(final PairHMMRegion region : regions)
+            totalLikelihoods += region.getPairCount();
+        if (totalLikelihoods == 0)
+            return;
+        if (totalLikelihoods > MAX_LIKELIHOODS_PER_CALL) {
+            //The results of a single call must fit in one Java array, so split the regions into calls that do
+            computeLikelihoodsInChunks(regions);
+            return;
+        }
+
+        if(doProfiling)
+            startTime = System.nanoTime();
+        int numReads = 0;
+        int numHaplotypes = 0;
+        final int numLikelihoods = (int) totalLikelihoods;
+        for(final PairHMMRegion region : regions)
+        {
+            numReads += region.getReadCount();
+            numHaplotypes += region.getHaplotypes().size();
+        }
+
+        final int[] numReadsPerRegion = new int[regions.size()];
+        final int[] numHaplotypesPerRegion = new int[regions.size()];
+        final JNIReadDataHolderClass[] readDataArray = new JNIReadDataHolderClass[numReads];
+        final JNIHaplotypeDataHolderClass[] haplotypeDataArray = new JNIHaplotypeDataHolderClass[numHaplotypes];
+        int readIdx = 0;
+        int haplotypeIdx = 0;
+        for(int g = 0; g < regions.size(); g++)
+        {
+            final PairHMMRegion region = regions.get(g);
+            numReadsPerRegion[g] = region.getReadCount();
+            numHaplotypesPerRegion[g] = region.getHaplotypes().size();
+            for(final Haplotype haplotype : region.getHaplotypes())
+            {
+                haplotypeDataArray[haplotypeIdx] = new JNIHaplotypeDataHolderClass();
+                haplotypeDataArray[haplotypeIdx].haplotypeBases = haplotype.getBases();
+                ++haplotypeIdx;
+            }
+            for(final List<GATKSAMRecord> reads : region.getProcessedReads())
+            {
+                for(final GATKSAMRecord read : reads)
+                {
+                    readDataArray[readIdx] = new JNIReadDataHolderClass();
+                    readDataArray[readIdx].readBases = read.getReadBases();
+                    readDataArray[readIdx].readQuals = read.getBaseQualities();
+                    readDataArray[readIdx].insertionGOP = read.getBaseInsertionQualities();
+                    readDataArray[readIdx].deletionGOP = read.getBaseDeletionQualities();
+                    readDataArray[readIdx].overallGCP = region.getGapContinuationPenalties().get(read);
+                    ++readIdx;
+                }
+            }
+        }
+
+        mLikelihoodArray = new double[numLikelihoods];      //to store results
+        if(doProfiling)
+            threadLocalSetupTimeDiff = (System.nanoTime() - startTime);
+        try
+        {
+            jniComputeLikelihoodsAcrossRegions(regions.size(), numReadsPerRegion, numHaplotypesPerRegion, readDataArray,
+                    haplotypeDataArray, mLikelihoodArray, 12);
+        }
+        catch(UnsatisfiedLinkError ule)
+        {
+            logger.warn("libVectorLoglessPairHMM does not support evaluating several regions in one call - evaluating them one at a time");
+            isAcrossRegionsKernelAvailable = false;
+            super.computeLikelihoodsAcrossRegions(regions);
+            return;
+        }
+
+        int likelihoodIdx = 0;
+        final HashMap<Haplotype,Integer> haplotypeToRegionIdxMap = new HashMap<>();
+        for(final PairHMMRegion region : regions)
+        {
+            //As in batchComputeLikelihoods, the matrices may list the haplotypes in a different order than the region
+            haplotypeToRegionIdxMap.clear();
+            final List<Haplotype> regionHaplotypes = region.getHaplotypes();
+            for(int h = 0; h < regionHaplotypes.size(); h++)
+                haplotypeToRegionIdxMap.put(regionHaplotypes.get(h), h);
+            for(int m = 0; m < region.getLikelihoods().size(); m++)
+            {
+                final ReadLikelihoods.Matrix<Haplotype> matrix = region.getLikelihoods().get(m);
+                final int matrixReadCount = region.getProcessedReads().get(m).size();
+                for(int r = 0; r < matrixReadCount; r++)
+                {
+                    int hapIdx = 0;
+                    for (final Haplotype haplotype : matrix.alleles()) {
+                        matrix.set(hapIdx,r,mLikelihoodArray[likelihoodIdx + haplotypeToRegionIdxMap.get(haplotype)]);
+                        ++hapIdx;
+                    }
+                    likelihoodIdx += regionHaplotypes.size();
+                }
+            }
+        }
+        if(doProfiling)
+        {
+            threadLocalPairHMMComputeTimeDiff = (System.nanoTime() - startTime);
+            //synchronized(doProfiling)
+            {
+                pairHMMComputeTime += threadLocalPairHMMComputeTimeDiff;
+                pairHMMSetupTime += threadLocalSetupTimeDiff;
+            }
+        }
+    }
+
+    /**
+     * Evaluates consecutive runs of regions whose likelihoods fit in a single native call, one call per run
+     *
+     * @param regions the regions to evaluate, together holding more than MAX_LIKELIHOODS_PER_CALL pairs
+     */
+    private void computeLikelihoodsInChunks(final List<PairHMMRegion> regions) {
+        int chunkStart = 0;
+        long chunkLikelihoods = 0;
+        for(int g = 0; g < regions.size(); g++)
+        {
+            final long regionLikelihoods = regions.get(g).getPairCount();
+            if(g > chunkStart && chunkLikelihoods + regionLikelihoods > MAX_LIKELIHOODS_PER_CALL)
+            {
+                computeLikelihoodsAcrossRegions(regions.subList(chunkStart, g));
+                chunkStart = g;
+                chunkLikelihoods = 0;
+            }
+            chunkLikelihoods += regionLikelihoods;
+        }
+        computeLikelihoodsAcrossRegions(regions.subList(chunkStart, regions.size()));
+    }
+
     /**
      * Print final profiling information from native code
      */
@@ -62,7 +62,6 @@ import org.broadinstitute.gatk.utils.recalibration.covariates.Covariate;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -79,6 +78,8 @@ public class BaseRecalibration {
     private final QuantizationInfo quantizationInfo; // histogram containing the map for qual quantization (calculated after recalibration is done)
     private final RecalibrationTables recalibrationTables;
     private final Covariate[] requestedCovariates; // list of all covariates to be used in this calculation
+    private final FlatRecalibrationLookup recalibrationLookup; // the recalibration tables, precomputed for recalibrating reads
+    private final byte[] quantizedQuals;
 
     private final boolean disableIndelQuals;
     private final int preserveQLessThan;
@@ -108,6 +109,12 @@ public class BaseRecalibration {
         this.preserveQLessThan = preserveQLessThan;
         this.globalQScorePrior = globalQScorePrior;
         this.emitOriginalQuals = emitOriginalQuals;
+
+        recalibrationLookup = new FlatRecalibrationLookup(recalibrationTables, globalQScorePrior);
+        final List<Byte> quantizedQualList = quantizationInfo.getQuantizedQuals();
+        quantizedQuals = new byte[quantizedQualList.size()];
+        for (int i = 0; i < quantizedQuals.length; i++)
+            quantizedQuals[i] = quantizedQualList.get(i);
     }
 
     /**
@@ -127,6 +134,9 @@ public class BaseRecalibration {
      *
      * Qrecal = Qreported + DeltaQ + DeltaQ(pos) + DeltaQ(dinuc) + DeltaQ( ... any other covariate ... )
      *
+     * The shifts are precomputed for all the keys in the recalibration tables (see FlatRecalibrationLookup), so
+     * this only looks them up and adds them together.
+     *
      * @param read the read to recalibrate
      */
     public void recalibrateRead(final GATKSAMRecord read) {
@@ -152,38 +162,21 @@ public class BaseRecalibration {
             // get the keyset for this base using the error model
             final int[][] fullReadKeySet = readCovariates.getKeySet(errorModel);
 
-            // the rg key is constant over the whole read, the global deltaQ is too
+            // the rg key is constant over the whole read, and so is whether it has any data to recalibrate with
             final int rgKey = fullReadKeySet[0][0];
-            final RecalDatum empiricalQualRG = recalibrationTables.getReadGroupTable().get(rgKey, errorModel.ordinal());
-
-            if( empiricalQualRG != null ) {
-                final double epsilon = ( globalQScorePrior > 0.0 && errorModel.equals(EventType.BASE_SUBSTITUTION) ? globalQScorePrior : empiricalQualRG.getEstimatedQReported() );
+            final int event = errorModel.ordinal();
 
+            if( recalibrationLookup.isRecalibrated(rgKey, event) ) {
                 for (int offset = 0; offset < readLength; offset++) { // recalibrate all bases in the read
-                    final byte origQual = quals[offset];
-
                     // only recalibrate usable qualities (the original quality will come from the instrument -- reported quality)
-                    if ( origQual >= preserveQLessThan ) {
-                        // get the keyset for this base using the error model
-                        final int[] keySet = fullReadKeySet[offset];
-                        final RecalDatum empiricalQualQS = recalibrationTables.getQualityScoreTable().get(keySet[0], keySet[1], errorModel.ordinal());
-                        final List<RecalDatum> empiricalQualCovs = new ArrayList<RecalDatum>();
-                        for (int i = 2; i < requestedCovariates.length; i++) {
-                            if (keySet[i] < 0) {
-                                continue;
-                            }
-                            empiricalQualCovs.add(recalibrationTables.getTable(i).get(keySet[0], keySet[1], keySet[i], errorModel.ordinal()));
-                        }
-
-                        double recalibratedQualDouble = hierarchicalBayesianQualityEstimate( epsilon, empiricalQualRG, empiricalQualQS, empiricalQualCovs );
+                    if ( quals[offset] >= preserveQLessThan ) {
+                        final double recalibratedQualDouble = recalibrationLookup.recalibratedQuality(fullReadKeySet[offset], event);
 
                         // recalibrated quality is bound between 1 and MAX_QUAL
                         final byte recalibratedQual = QualityUtils.boundQual(MathUtils.fastRound(recalibratedQualDouble), RecalDatum.MAX_RECALIBRATED_Q_SCORE);
 
                         // return the quantized version of the recalibrated quality
-                        final byte recalibratedQualityScore = quantizationInfo.getQuantizedQuals().get(recalibratedQual);
-
-                        quals[offset] = recalibratedQualityScore;
+                        quals[offset] = quantizedQuals[recalibratedQual];
                     }
                 }
             }
@@ -0,0 +1,395 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.utils.recalibration;
+
+import org.broadinstitute.gatk.utils.QualityUtils;
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A flat, primitive equivalent of NestedIntegerArray&lt;RecalDatum&gt; for accumulating BQSR observations
+ *
+ * Instead of one RecalDatum object per leaf of a tree of Object[]s, the table stores the number of
+ * observations, the number of mismatches and the estimated reported quality of each leaf in parallel
+ * primitive columns.  The leaves are grouped into blocks holding all the values of the last two
+ * dimensions (for the covariate tables, all covariate values and event types of one read group and
+ * quality score), and blocks are only allocated when first touched, so sparse tables stay small while
+ * the leaves updated together sit next to each other in memory.
+ *
+ * increment() is thread safe and lock free: observation counts are updated with atomic adds and
+ * mismatches with compare-and-set on the bits of the double.  Adding whole RecalDatums and combining
+ * tables are meant for merging after the updates are done, and are not safe against concurrent updates
+ * of the same leaves.  Both follow the semantics of RecalDatum.combine(), so a table accumulated here
+ * and converted with exportTo() holds exactly the data the equivalent RecalDatum table would.
+ */
+public final class FlatRecalDatumTable {
+    private final int[] dimensions;
+
+    /**
+     * The number of leading dimensions that select a block; the remaining (at most two) select a leaf in it
+     */
+    private final int numBlockDimensions;
+    private final int blockSize;
+
+    private final AtomicReferenceArray<Block> blocks;
+
+    private static final class Block {
+        private final AtomicLongArray observations;
+        private final AtomicLongArray mismatches;   // the raw long bits of a double
+        private final double[] reportedQualities;
+
+        private Block(final int size) {
+            observations = new AtomicLongArray(size);
+            mismatches = new AtomicLongArray(size);
+            reportedQualities = new double[size];
+        }
+    }
+
+    public FlatRecalDatumTable(final int... dimensions) {
+        if ( dimensions.length == 0 )
+            throw new ReviewedGATKException("There must be at least one dimension to a FlatRecalDatumTable");
+        for ( final int dimension : dimensions )
+            if ( dimension <= 0 )
+                throw new ReviewedGATKException("Dimensions of a FlatRecalDatumTable must be positive but got " + Arrays.toString(dimensions));
+
+        this.dimensions = dimensions.clone();
+        numBlockDimensions = Math.max(0, dimensions.length - 2);
+
+        long numBlocks = 1;
+        for ( int i = 0; i < numBlockDimensions; i++ )
+            numBlocks *= dimensions[i];
+        long size = 1;
+        for ( int i = numBlockDimensions; i < dimensions.length; i++ )
+            size *= dimensions[i];
+        if ( numBlocks > Integer.MAX_VALUE || size > Integer.MAX_VALUE )
+            throw new ReviewedGATKException("FlatRecalDatumTable dimensions " + Arrays.toString(dimensions) + " are too large");
+
+        blockSize = (int)size;
+        blocks = new AtomicReferenceArray<>((int)numBlocks);
+    }
+
+    /**
+     * Create an empty table with the same dimensions as table
+     */
+    public FlatRecalDatumTable(final NestedIntegerArray<RecalDatum> table) {
+        this(table.getDimensions());
+    }
+
+    /**
+     * @return the dimensions of this table.  DO NOT MODIFY
+     */
+    public int[] getDimensions() {
+        return dimensions;
+    }
+
+    // --------------------------------------------------------------------------------------------------------------
+    //
+    // updates
+    //
+    // --------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Add one observation with the given error to the leaf at keys
+     *
+     * The first observation of a leaf sets its estimated reported quality, and later ones leave it alone,
+     * just as incrementing an existing RecalDatum does.  Thread safe.
+     *
+     * @param reportedQual the quality reported by the instrument for the observed base
+     * @param isError the error value of the observation, between 0 and 1
+     * @param keys one key per dimension
+     */
+    public void increment(final byte reportedQual, final double isError, final int... keys) {
+        checkKeys(keys);
+        incrementLeaf(getOrCreateBlock(blockIndex(keys)), leafIndex(keys), reportedQual, isError);
+    }
+
+    /**
+     * Specialization of increment() for three dimensional tables, which avoids allocating the keys
+     */
+    public void increment(final byte reportedQual, final double isError, final int key0, final int key1, final int key2) {
+        checkNumKeys(3);
+        checkKey(0, key0); checkKey(1, key1); checkKey(2, key2);
+        incrementLeaf(getOrCreateBlock(key0), key1 * dimensions[2] + key2, reportedQual, isError);
+    }
+
+    /**
+     * Specialization of increment() for four dimensional tables, which avoids allocating the keys
+     */
+    public void increment(final byte reportedQual, final double isError, final int key0, final int key1, final int key2, final int key3) {
+        checkNumKeys(4);
+        checkKey(0, key0); checkKey(1, key1); checkKey(2, key2); checkKey(3, key3);
+        incrementLeaf(getOrCreateBlock(key0 * dimensions[1] + key1), key2 * dimensions[3] + key3, reportedQual, isError);
+    }
+
+    private static void incrementLeaf(final Block block, final int leaf, final byte reportedQual, final double isError) {
+        // every observation of a leaf in a BQSR table has the same reported quality, so racing writes here are benign,
+        // and the atomic increment below publishes the write to whoever later sees a non-zero count
+        if ( block.observations.get(leaf) == 0 )
+            block.reportedQualities[leaf] = reportedQual;
+        if ( isError != 0.0 )
+            addDouble(block.mismatches, leaf, isError);
+        block.observations.incrementAndGet(leaf);
+    }
+
+    private static void addDouble(final AtomicLongArray array, final int i, final double delta) {
+        while ( true ) {
+            final long current = array.get(i);
+            final long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+            if ( array.compareAndSet(i, current, updated) )
+                return;
+        }
+    }
+
+    /**
+     * Add the observations of datum to the leaf at keys, as RecalDatum.combine() would
+     *
+     * Not safe against concurrent updates to the same leaf.
+     *
+     * @param datum the data to add
+     * @param keys one key per dimension
+     */
+    public void add(final RecalDatum datum, final int... keys) {
+        checkKeys(keys);
+        addToLeaf(getOrCreateBlock(blockIndex(keys)), leafIndex(keys), datum.getNumObservations(), datum.getNumMismatches(), datum.getEstimatedQReported());
+    }
+
+    /**
+     * Add all of the data in table to this one
+     *
+     * @param table a table with the same dimensions as this one
+     */
+    public void addAll(final NestedIntegerArray<RecalDatum> table) {
+        checkSameDimensions(table.getDimensions());
+        for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : table.getAllLeaves() )
+            add(leaf.value, leaf.keys);
+    }
+
+    /**
+     * Add all of the data in other to this table
+     *
+     * Not safe against concurrent updates to either table.
+     *
+     * @param other a table with the same dimensions as this one
+     */
+    public void combine(final FlatRecalDatumTable other) {
+        checkSameDimensions(other.dimensions);
+        for ( int b = 0; b < other.blocks.length(); b++ ) {
+            final Block otherBlock = other.blocks.get(b);
+            if ( otherBlock == null )
+                continue;
+            final Block block = getOrCreateBlock(b);
+            for ( int leaf = 0; leaf < blockSize; leaf++ ) {
+                final long otherObservations = otherBlock.observations.get(leaf);
+                if ( otherObservations > 0 )
+                    addToLeaf(block, leaf, otherObservations, Double.longBitsToDouble(otherBlock.mismatches.get(leaf)), otherBlock.reportedQualities[leaf]);
+            }
+        }
+    }
+
+    private static void addToLeaf(final Block block, final int leaf, final long observations, final double mismatches, final double reportedQuality) {
+        final long currentObservations = block.observations.get(leaf);
+        if ( currentObservations == 0 ) {
+            block.reportedQualities[leaf] = reportedQuality;
+        } else {
+            // the reported quality of the merged data is the one matching the total expected number of errors
+            final double sumErrors = currentObservations * QualityUtils.qualToErrorProb(block.reportedQualities[leaf])
+                    + observations * QualityUtils.qualToErrorProb(reportedQuality);
+            block.reportedQualities[leaf] = -10 * Math.log10(sumErrors / (currentObservations + observations));
+        }
+        block.mismatches.set(leaf, Double.doubleToRawLongBits(Double.longBitsToDouble(block.mismatches.get(leaf)) + mismatches));
+        block.observations.set(leaf, currentObservations + observations);
+    }
+
+    // --------------------------------------------------------------------------------------------------------------
+    //
+    // queries and conversion
+    //
+    // --------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Get a copy of the data at keys
+     *
+     * @return a new RecalDatum with the data at keys, or null if there are no observations there
+     */
+    public RecalDatum get(final int... keys) {
+        checkKeys(keys);
+        final Block block = blocks.get(blockIndex(keys));
+        return block == null ? null : makeDatum(block, leafIndex(keys));
+    }
+
+    private static RecalDatum makeDatum(final Block block, final int leaf) {
+        final long observations = block.observations.get(leaf);
+        if ( observations == 0 )
+            return null;
+
+        final double reportedQuality = block.reportedQualities[leaf];
+        final double mismatches = Double.longBitsToDouble(block.mismatches.get(leaf));
+        final byte qualAsByte = (byte)reportedQuality;
+        final RecalDatum datum = new RecalDatum(observations, mismatches, qualAsByte);
+        if ( qualAsByte != reportedQuality )
+            datum.setEstimatedQReported(reportedQuality);
+        return datum;
+    }
+
+    /**
+     * @return true if no observations have been added to this table
+     */
+    public boolean isEmpty() {
+        for ( int b = 0; b < blocks.length(); b++ ) {
+            final Block block = blocks.get(b);
+            if ( block == null )
+                continue;
+            for ( int leaf = 0; leaf < blockSize; leaf++ )
+                if ( block.observations.get(leaf) > 0 )
+                    return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the data in this table into table, which must contain a subset of this table's data
+     *
+     * Each leaf of table with observations here is set to (or, if absent, created with) the data in this table.
+     * Typically table is either empty or is one of the tables whose data were added to this one.
+     *
+     * @param table a table with the same dimensions as this one
+     */
+    public void exportTo(final NestedIntegerArray<RecalDatum> table) {
+        checkSameDimensions(table.getDimensions());
+        for ( int b = 0; b < blocks.length(); b++ ) {
+            final Block block = blocks.get(b);
+            if ( block == null )
+                continue;
+            for ( int leaf = 0; leaf < blockSize; leaf++ ) {
+                final RecalDatum datum = makeDatum(block, leaf);
+                if ( datum == null )
+                    continue;
+
+                final int[] keys = keysOf(b, leaf);
+                final RecalDatum existing = table.get(keys);
+                if ( existing == null ) {
+                    table.put(datum, keys);
+                } else {
+                    existing.setNumObservations(datum.getNumObservations());
+                    existing.setNumMismatches(datum.getNumMismatches());
+                    existing.setEstimatedQReported(datum.getEstimatedQReported());
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------------------------
+    //
+    // indexing
+    //
+    // --------------------------------------------------------------------------------------------------------------
+
+    private Block getOrCreateBlock(final int index) {
+        final Block block = blocks.get(index);
+        if ( block != null )
+            return block;
+        blocks.compareAndSet(index, null, new Block(blockSize));
+        return blocks.get(index);
+    }
+
+    private int blockIndex(final int[] keys) {
+        int index = 0;
+        for ( int i = 0; i < numBlockDimensions; i++ )
+            index = index * dimensions[i] + keys[i];
+        return index;
+    }
+
+    private int leafIndex(final int[] keys) {
+        int index = 0;
+        for ( int i = numBlockDimensions; i < dimensions.length; i++ )
+            index = index * dimensions[i] + keys[i];
+        return index;
+    }
+
+    private int[] keysOf(int blockIndex, int leafIndex) {
+        final int[] keys = new int[dimensions.length];
+        for ( int i = dimensions.length - 1; i >= numBlockDimensions; i-- ) {
+            keys[i] = leafIndex % dimensions[i];
+            leafIndex /= dimensions[i];
+        }
+        for ( int i = numBlockDimensions - 1; i >= 0; i-- ) {
+            keys[i] = blockIndex % dimensions[i];
+            blockIndex /= dimensions[i];
+        }
+        return keys;
+    }
+
+    private void checkNumKeys(final int numKeys) {
+        if ( numKeys != dimensions.length )
+            throw new ReviewedGATKException("Exactly " + dimensions.length + " keys should be passed to this FlatRecalDatumTable but " + numKeys + " were provided");
+    }
+
+    private void checkKey(final int dimension, final int key) {
+        if ( key < 0 || key >= dimensions[dimension] )
+            throw new ReviewedGATKException("Key " + key + " is out of range for dimension " + dimension + " (max is " + (dimensions[dimension]-1) + ")");
+    }
+
+    private void checkKeys(final int[] keys) {
+        checkNumKeys(keys.length);
+        for ( int i = 0; i < keys.length; i++ )
+            checkKey(i, keys[i]);
+    }
+
+    private void checkSameDimensions(final int[] otherDimensions) {
+        if ( ! Arrays.equals(dimensions, otherDimensions) )
+            throw new IllegalArgumentException("Table dimensions " + Arrays.toString(dimensions) + " not equal to " + Arrays.toString(otherDimensions));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.utils.recalibration;
+
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
+
+import java.util.Arrays;
+
+/**
+ * Flat, precomputed form of the recalibration tables, for recalibrating the qualities of reads
+ *
+ * BaseRecalibration.hierarchicalBayesianQualityEstimate() adds up, for a base, the shift of the read group, the
+ * shift of the reported quality and the shifts of each optional covariate.  Each shift depends only on the keys
+ * of its RecalDatum and on the shifts before it, that is on the read group, quality and event type, so all of
+ * them can be worked out up front: per read group, quality and event the sum up to the optional covariates, and
+ * per optional covariate key its shift.  The covariate shifts are kept in blocks of all the covariate values and
+ * event types of one read group and quality, allocated only for read groups and qualities in the table.
+ *
+ * Recalibrating a base then takes one array lookup per covariate and no RecalDatum at all; the sums are done
+ * in the same order as hierarchicalBayesianQualityEstimate(), so the qualities are exactly the same.  The lookup
+ * is read-only once built and so can be shared by threads.
+ */
+final class FlatRecalibrationLookup {
+    private final static int NUM_EVENTS = EventType.values().length;
+
+    private final int numReadGroups;
+    private final int qualDimension;
+
+    /**
+     * For each read group and event, epsilon plus the global shift, or NaN if the read group has no data
+     */
+    private final double[] readGroupQualities;
+
+    /**
+     * For each read group, quality and event, epsilon plus the global and reported quality shifts
+     */
+    private final double[] reportedQualities;
+
+    /**
+     * For each optional covariate table, the covariate dimension and the blocks of shifts by read group and quality
+     */
+    private final int[] covariateDimensions;
+    private final double[][][] covariateShifts;
+
+    /**
+     * @param tables the recalibration tables to precompute
+     * @param globalQScorePrior the prior to use for substitutions instead of the reported quality of the read group, if positive
+     */
+    FlatRecalibrationLookup(final RecalibrationTables tables, final double globalQScorePrior) {
+        final NestedIntegerArray<RecalDatum> readGroupTable = tables.getReadGroupTable();
+        final NestedIntegerArray<RecalDatum> qualityScoreTable = tables.getQualityScoreTable();
+        numReadGroups = readGroupTable.getDimensions()[0];
+        qualDimension = qualityScoreTable.getDimensions()[1];
+
+        readGroupQualities = new double[numReadGroups * NUM_EVENTS];
+        Arrays.fill(readGroupQualities, Double.NaN);
+        reportedQualities = new double[numReadGroups * qualDimension * NUM_EVENTS];
+        final double[] covariatePriors = new double[reportedQualities.length];
+
+        for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : readGroupTable.getAllLeaves() ) {
+            final int rg = leaf.keys[0];
+            final int event = leaf.keys[1];
+            final double epsilon = ( globalQScorePrior > 0.0 && event == EventType.BASE_SUBSTITUTION.ordinal() ? globalQScorePrior : leaf.value.getEstimatedQReported() );
+            final double globalDeltaQ = leaf.value.getEmpiricalQuality(epsilon) - epsilon;
+            readGroupQualities[rg * NUM_EVENTS + event] = epsilon + globalDeltaQ;
+
+            for ( int qual = 0; qual < qualDimension; qual++ ) {
+                final RecalDatum empiricalQualQS = qualityScoreTable.get(rg, qual, event);
+                final double deltaQReported = ( empiricalQualQS == null ? 0.0 : empiricalQualQS.getEmpiricalQuality(globalDeltaQ + epsilon) - (globalDeltaQ + epsilon) );
+                final int index = (rg * qualDimension + qual) * NUM_EVENTS + event;
+                reportedQualities[index] = epsilon + globalDeltaQ + deltaQReported;
+                covariatePriors[index] = deltaQReported + globalDeltaQ + epsilon;
+            }
+        }
+
+        final int firstCovariateTable = RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal();
+        covariateDimensions = new int[tables.numTables()];
+        covariateShifts = new double[tables.numTables()][][];
+        for ( int i = firstCovariateTable; i < tables.numTables(); i++ ) {
+            final NestedIntegerArray<RecalDatum> table = tables.getTable(i);
+            covariateDimensions[i] = table.getDimensions()[2];
+            covariateShifts[i] = new double[numReadGroups * qualDimension][];
+            for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : table.getAllLeaves() ) {
+                final int rg = leaf.keys[0];
+                final int qual = leaf.keys[1];
+                final int event = leaf.keys[3];
+                if ( Double.isNaN(readGroupQualities[rg * NUM_EVENTS + event]) )
+                    continue; // never used: bases of read groups without data aren't recalibrated
+
+                final int block = rg * qualDimension + qual;
+                if ( covariateShifts[i][block] == null )
+                    covariateShifts[i][block] = new double[covariateDimensions[i] * NUM_EVENTS];
+                final double prior = covariatePriors[block * NUM_EVENTS + event];
+                covariateShifts[i][block][leaf.keys[2] * NUM_EVENTS + event] = leaf.value.getEmpiricalQuality(prior) - prior;
+            }
+        }
+    }
+
+    /**
+     * @return true if the event qualities of reads from this read group are recalibrated at all
+     */
+    boolean isRecalibrated(final int readGroupKey, final int event) {
+        return readGroupKey < numReadGroups && ! Double.isNaN(readGroupQualities[readGroupKey * NUM_EVENTS + event]);
+    }
+
+    /**
+     * Get the recalibrated quality of a base, before rounding
+     *
+     * @param keySet the covariate keys of the base, as in ReadCovariates
+     * @param event the ordinal of the event type
+     * @return the same value hierarchicalBayesianQualityEstimate() gives for the RecalDatums of these keys
+     */
+    double recalibratedQuality(final int[] keySet, final int event) {
+        final int rg = keySet[0];
+        final int qual = keySet[1];
+        if ( qual >= qualDimension ) // no RecalDatum for this quality or its covariates
+            return readGroupQualities[rg * NUM_EVENTS + event];
+
+        final int block = rg * qualDimension + qual;
+        double deltaQCovariates = 0.0;
+        for ( int i = RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal(); i < covariateShifts.length; i++ ) {
+            final int key = keySet[i];
+            if ( key < 0 || key >= covariateDimensions[i] )
+                continue;
+            final double[] shifts = covariateShifts[i][block];
+            if ( shifts != null )
+                deltaQCovariates += shifts[key * NUM_EVENTS + event];
+        }
+
+        return reportedQualities[block * NUM_EVENTS + event] + deltaQCovariates;
+    }
+}
@@ -138,7 +138,7 @@ public class ReferenceConfidenceVariantContextMerger {
                 depth += vc.getAttributeAsInt(VCFConstants.DEPTH_KEY, 0);
             } else { // handle the gVCF case from the HaplotypeCaller
                 for( final Genotype gt : vc.getGenotypes() ) {
-                    depth += (gt.hasExtendedAttribute("MIN_DP") ? Integer.parseInt((String)gt.getAnyAttribute("MIN_DP")) : (gt.hasDP() ? gt.getDP() : 0));
+                    depth += (gt.hasExtendedAttribute("MIN_DP") ? Integer.parseInt(gt.getAnyAttribute("MIN_DP").toString()) : (gt.hasDP() ? gt.getDP() : 0));
                 }
             }
 
@@ -102,7 +102,7 @@ public class InbreedingCoeffUnitTest {
     private VariantContext makeVC(String source, List<Allele> alleles, Genotype... genotypes) {
         int start = 10;
         int stop = start; // alleles.contains(ATC) ? start + 3 : start;
-        return new VariantContextBuilder(source, "1", start, stop, alleles).genotypes(Arrays.asList(genotypes)).filters(null).make();
+        return new VariantContextBuilder(source, "1", start, stop, alleles).genotypes(Arrays.asList(genotypes)).filters((java.util.Set<String>) null).make();
     }
 
     @Test
@@ -95,6 +95,25 @@ public class GenotypeLikelihoodCalculatorUnitTest {
         }
     }
 
+    @Test(dataProvider = "ploidyAndMaximumAlleleData")
+    public void testComponentTable(final int ploidy, final int alleleCount) {
+        final GenotypeComponentTable table = GenotypeLikelihoodCalculators.componentTable(ploidy, alleleCount);
+        Assert.assertNotNull(table);
+        Assert.assertSame(GenotypeLikelihoodCalculators.componentTable(ploidy, alleleCount), table);
+        final GenotypeLikelihoodCalculator calculator = GenotypeLikelihoodCalculators.getInstance(ploidy, alleleCount);
+        Assert.assertEquals(table.genotypeCount, calculator.genotypeCount());
+        for (int i = 0; i < table.genotypeCount; i++) {
+            final GenotypeAlleleCounts alleleCounts = calculator.genotypeAlleleCountsAt(i);
+            final int componentCount = alleleCounts.distinctAlleleCount();
+            Assert.assertEquals(table.componentStart[i + 1] - table.componentStart[i], componentCount);
+            for (int c = 0; c < componentCount; c++) {
+                final int slot = table.componentSlots[table.componentStart[i] + c];
+                Assert.assertEquals(slot / (ploidy + 1), alleleCounts.alleleIndexAt(c));
+                Assert.assertEquals(slot % (ploidy + 1), alleleCounts.alleleCountAt(c));
+            }
+        }
+    }
+
     @Test(dataProvider = "ploidyAndMaximumAlleleAndReadCountsData", dependsOnMethods = "testPloidyAndMaximumAllele")
     public void testLikelihoodCalculation(final int ploidy, final int alleleCount, final int[] readCount) {
         final ReadLikelihoods<Allele> readLikelihoods = ReadLikelihoodsUnitTester.readLikelihoods(alleleCount,readCount);
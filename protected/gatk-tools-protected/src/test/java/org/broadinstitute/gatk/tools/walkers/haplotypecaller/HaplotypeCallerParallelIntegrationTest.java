@@ -55,6 +55,7 @@ import org.broadinstitute.gatk.engine.walkers.WalkerTest;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -80,4 +81,17 @@ public class HaplotypeCallerParallelIntegrationTest extends WalkerTest {
                 Arrays.asList(md5));
         executeTest("HC test parallel HC with NCT with nct " + nct, spec);
     }
+
+    @Test(dataProvider = "NCTDataProvider")
+    public void testHCNCTBatchedWithCheckpoints(final int nct, final String md5) {
+        // checkpoints taken while batched regions are still waiting for their likelihoods must not drop or repeat them
+        final File checkpoint = createTempFile("testHCNCTBatchedWithCheckpoints", ".properties");
+        WalkerTestSpec spec = new WalkerTestSpec(
+                "-T HaplotypeCaller --pcr_indel_model NONE -R " + b37KGReference + " --no_cmdline_in_header -I "
+                        + privateTestDir + "PCRFree.2x250.Illumina.20_10_11.bam -o %s " +
+                        " -L 20:10,000,000-10,100,000 -G none -A none -contamination 0.0 -nct " + nct +
+                        " -pairHMMBatchSize 2000 -checkpoint " + checkpoint.getAbsolutePath() + " -checkpointInterval 1", 1,
+                Arrays.asList(md5));
+        executeTest("HC test parallel HC with batched likelihoods and checkpoints with nct " + nct, spec);
+    }
 }
@@ -53,14 +53,18 @@ package org.broadinstitute.gatk.tools.walkers.indels;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
 import org.broadinstitute.gatk.utils.BaseTest;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.io.IOUtils;
+import org.broadinstitute.gatk.utils.sam.ArtificialGATKSAMFileWriter;
 import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 
 
@@ -136,4 +140,61 @@ public class ConstrainedMateFixingManagerUnitTest extends BaseTest {
 
         Assert.assertTrue(manager.forMateMatching.containsKey("foo"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReferenceIndexOfReadsInQueue() {
+        final ConstrainedMateFixingManager manager = new ConstrainedMateFixingManager(null, genomeLocParser, 1000, 200, 1000);
+        Assert.assertNull(manager.getReferenceIndexOfReadsInQueue());
+
+        manager.addRead(ArtificialSAMUtils.createArtificialRead(header, "read1", 0, 100, 10), false, false);
+        manager.addRead(ArtificialSAMUtils.createArtificialRead(header, "read2", 0, 200, 10), false, false);
+        Assert.assertEquals(manager.getReferenceIndexOfReadsInQueue(), Integer.valueOf(0));
+
+        // a read on the next contig flushes the queue
+        manager.addRead(ArtificialSAMUtils.createArtificialRead(header, "read3", 1, 50, 10), false, false);
+        Assert.assertEquals(manager.getNReadsInQueue(), 1);
+        Assert.assertEquals(manager.getReferenceIndexOfReadsInQueue(), Integer.valueOf(1));
+    }
+
+    @Test
+    public void testSpillingKeepsReadsWaitingForMatesInMemory() {
+        final List<GATKSAMRecord> pair = ArtificialSAMUtils.createPair(header, "pair", 10, 500, 1500, true, false);
+        final GATKSAMRecord read1 = pair.get(0);
+        final GATKSAMRecord read2 = pair.get(1);
+        read2.setAlignmentStart(1510); // move the read
+
+        final File spillDirectory = IOUtils.tempDir("spill.", "");
+        spillDirectory.deleteOnExit();
+        final ArtificialGATKSAMFileWriter writer = new ArtificialGATKSAMFileWriter();
+        final ConstrainedMateFixingManager manager = new ConstrainedMateFixingManager(writer, genomeLocParser, 3000, 200, 100, spillDirectory);
+
+        boolean spilled = false;
+        for ( int start = 10; start <= 6000; start += 10 ) {
+            if ( start == 500 )
+                manager.addRead(read1, true);
+            if ( start == 1520 )
+                manager.addRead(read2, true);
+            manager.addRead(ArtificialSAMUtils.createArtificialRead(header, "read" + start, 0, start, 10), false);
+
+            if ( ! spilled && manager.getNReadsSpilledForTesting() > 0 ) {
+                spilled = true;
+                Assert.assertTrue(manager.getReadsInQueueForTesting().contains(read1), "the read waiting for its mate was spilled");
+            }
+        }
+        Assert.assertTrue(spilled);
+
+        // nothing was flushed, so reads can still be moved anywhere
+        Assert.assertTrue(manager.canMoveReads(genomeLocParser.createGenomeLoc(header.getSequence(0).getSequenceName(), 1000)));
+
+        manager.close();
+        Assert.assertEquals(manager.getNReadsSpilledForTesting(), 0);
+        Assert.assertEquals(spillDirectory.list().length, 0);
+
+        final List<SAMRecord> written = writer.getRecords();
+        Assert.assertEquals(written.size(), 602);
+        final SAMRecordCoordinateComparator comparator = new SAMRecordCoordinateComparator();
+        for ( int i = 1; i < written.size(); i++ )
+            Assert.assertTrue(comparator.compare(written.get(i - 1), written.get(i)) <= 0, "reads written out of order at " + written.get(i));
+        Assert.assertEquals(read1.getMateAlignmentStart(), 1510);
+    }
+}
@@ -53,10 +53,14 @@ package org.broadinstitute.gatk.tools.walkers.indels;
 
 import org.broadinstitute.gatk.engine.walkers.WalkerTest;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class IndelRealignerIntegrationTest extends WalkerTest {
@@ -156,6 +160,9 @@ public class IndelRealignerIntegrationTest extends WalkerTest {
         HashMap<String, String> e = new HashMap<String, String>();
         e.put("--maxReadsInMemory 10000", "0108cd5950f1a4eb90209c3dca8f9e11");
         e.put( "--maxReadsInMemory 40000", base_md5 );
+        // spilling to disk instead of flushing early keeps the output of the unbounded run
+        e.put("--maxReadsInMemory 10000 --spillReadsToDisk", base_md5);
+        e.put("--maxReadsInMemory 10000 --spillReadsToDisk -nct 4", base_md5);
 
         for ( Map.Entry<String, String> entry : e.entrySet() ) {
             WalkerTest.WalkerTestSpec spec = new WalkerTest.WalkerTestSpec(
@@ -166,6 +173,44 @@ public class IndelRealignerIntegrationTest extends WalkerTest {
         }
     }
 
+    @Test
+    public void testMultipleThreads() {
+        // all models but USE_SW give the output of a single threaded run
+        HashMap<String, String> e = new HashMap<String, String>();
+        e.put("-nct 4", base_md5);
+        e.put("-nct 4 -known " + knownIndels, base_md5_with_SW_or_VCF);
+        e.put("-nct 4 --maxReadsInMemory 10000", "0108cd5950f1a4eb90209c3dca8f9e11");
+
+        for ( Map.Entry<String, String> entry : e.entrySet() ) {
+            WalkerTest.WalkerTestSpec spec = new WalkerTest.WalkerTestSpec(
+                    baseCommand + entry.getKey(),
+                    1,
+                    Arrays.asList(entry.getValue()));
+            executeTest(String.format("realigner [%s]", entry.getKey()), spec);
+        }
+
+        WalkerTestSpec stats = new WalkerTestSpec(
+                baseCommandPrefix + "-nct 4 -stats %s -o /dev/null",
+                1,
+                Arrays.asList("7ed8d4eed635613fd031598a5c9ef5a3"));
+        executeTest("realigner stats with multiple threads", stats);
+    }
+
+    @Test
+    public void testMultipleThreadsUseSW() {
+        // with -nct each USE_SW target samples its reads with its own generator, seeded in target order, so the
+        // output may differ from a single threaded run but doesn't depend on the number of threads
+        final List<File> outputs = new ArrayList<File>();
+        for ( final int nct : Arrays.asList(2, 4) ) {
+            WalkerTestSpec spec = new WalkerTestSpec(
+                    baseCommand + "--consensusDeterminationModel USE_SW -known " + knownIndels + " -nct " + nct,
+                    1,
+                    Arrays.asList(""));
+            outputs.add(executeTest("realigner use SW with nct " + nct, spec).first.get(0));
+        }
+        Assert.assertEquals(getMd5DB().calculateFileMD5(outputs.get(1)), getMd5DB().calculateFileMD5(outputs.get(0)));
+    }
+
     @Test
     public void testNWayOut() {
         WalkerTestSpec spec1 = new WalkerTestSpec(
@@ -56,6 +56,9 @@ import htsjdk.variant.vcf.VCFConstants;
 import org.testng.annotations.Test;
 import org.testng.Assert;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Created with IntelliJ IDEA.
  * User: rpoplin
@@ -70,4 +73,17 @@ public class ApplyRecalibrationUnitTest extends BaseTest {
         Assert.assertTrue(ar.generateFilterString(5.0).equals(VCFConstants.PASSES_FILTERS_v4));
         Assert.assertTrue(ar.generateFilterString(-5.0).equals(ApplyRecalibration.LOW_VQSLOD_FILTER_NAME));
     }
+
+    @Test
+    public final void testGenerateFilterStringForIndelModel() {
+        final ApplyRecalibration ar = new ApplyRecalibration();
+        ar.TS_FILTER_LEVEL = 99.0;
+        // ordered as initialize() leaves them: the highest truth sensitivity first
+        final List<Tranche> indelTranches = Arrays.asList(
+                new Tranche(99.9, -2.0, 0, 0.0, 0, 0.0, 0, 0, VariantRecalibratorArgumentCollection.Mode.INDEL, "VQSRTrancheINDEL99.00to99.90"),
+                new Tranche(99.0, 1.0, 0, 0.0, 0, 0.0, 0, 0, VariantRecalibratorArgumentCollection.Mode.INDEL, "VQSRTrancheINDEL90.00to99.00"));
+        Assert.assertEquals(ar.generateFilterString(2.0, indelTranches), VCFConstants.PASSES_FILTERS_v4);
+        Assert.assertEquals(ar.generateFilterString(-1.0, indelTranches), "VQSRTrancheINDEL99.00to99.90");
+        Assert.assertEquals(ar.generateFilterString(-3.0, indelTranches), "VQSRTrancheINDEL99.00to99.90+");
+    }
 }
@@ -51,6 +51,7 @@
 
 package org.broadinstitute.gatk.tools.walkers.variantrecalibration;
 
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.exceptions.GATKException;
 import org.broadinstitute.gatk.utils.text.XReadLines;
@@ -150,6 +151,45 @@ public final class VariantGaussianMixtureModelUnitTest extends BaseTest {
         assertTranchesAreTheSame(read(EXPECTED_TRANCHES_NEW), tranches, true, false);
     }
 
+    private static List<VariantDatum> randomTrainingData(final int size, final int numAnnotations) {
+        final Random rnd = new Random(13);
+        final List<VariantDatum> data = new ArrayList<>(size);
+        for ( int i = 0; i < size; i++ ) {
+            final VariantDatum datum = new VariantDatum();
+            final double center = rnd.nextBoolean() ? -1.0 : 1.5;
+            datum.annotations = new double[numAnnotations];
+            datum.isNull = new boolean[numAnnotations];
+            for ( int j = 0; j < numAnnotations; j++ )
+                datum.annotations[j] = center + rnd.nextGaussian();
+            data.add(datum);
+        }
+        return data;
+    }
+
+    private static double[] generateModelAndEvaluate(final List<VariantDatum> data, final int numThreads) {
+        final VariantRecalibratorArgumentCollection VRAC = new VariantRecalibratorArgumentCollection();
+        VRAC.MAX_ITERATIONS = 10;
+        VRAC.NUM_KMEANS_ITERATIONS = 5;
+        final VariantRecalibratorEngine engine = new VariantRecalibratorEngine(VRAC);
+        engine.setNumberOfThreads(numThreads);
+        GenomeAnalysisEngine.resetRandomGenerator();
+        final GaussianMixtureModel model = engine.generateModel(data, 3);
+        model.precomputeDenominatorForEvaluation();
+        final double[] result = new double[data.size()];
+        for ( int i = 0; i < result.length; i++ )
+            result[i] = model.evaluateDatum(data.get(i));
+        return result;
+    }
+
+    @Test
+    public final void testModelDoesNotDependOnNumberOfThreads() {
+        // several data blocks so that the EM steps are actually split across threads.
+        final List<VariantDatum> data = randomTrainingData(GaussianMixtureModel.DATA_BLOCK_SIZE * 3 + 17, 3);
+        final double[] singleThreaded = generateModelAndEvaluate(data, 1);
+        Assert.assertEquals(generateModelAndEvaluate(data, 1), singleThreaded);
+        Assert.assertEquals(generateModelAndEvaluate(data, 4), singleThreaded);
+    }
+
     @Test(expectedExceptions = {UserException.class})
     public final void testBadFDR() {
         ArrayList<VariantDatum> vd = readData();
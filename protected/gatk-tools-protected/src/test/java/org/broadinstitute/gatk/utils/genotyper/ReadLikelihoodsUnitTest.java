@@ -479,6 +479,77 @@ public class ReadLikelihoodsUnitTest
         testLikelihoodMatrixQueries(samples,result,newLikelihoods);
     }
 
+    @Test(dataProvider = "dataSets")
+    public void testReleaseAndReuse(final String[] samples, final Allele[] alleles, final Map<String,List<GATKSAMRecord>> reads) {
+        final ReadLikelihoods<Allele> released = new ReadLikelihoods<>(new IndexedSampleList(samples), new IndexedAlleleList<>(alleles), reads);
+        fillWithRandomLikelihoods(samples, alleles, released);
+        released.release();
+        released.release(); // releasing twice is harmless.
+
+        // a collection created after the release may reuse its storage but must still start with zero likelihoods.
+        final ReadLikelihoods<Allele> result = new ReadLikelihoods<>(new IndexedSampleList(samples), new IndexedAlleleList<>(alleles), reads);
+        testLikelihoodMatrixQueries(samples, result, null);
+        final double[][][] likelihoods = fillWithRandomLikelihoods(samples, alleles, result);
+        testLikelihoodMatrixQueries(samples, result, likelihoods);
+    }
+
+    @Test(dataProvider = "dataSets")
+    public void testMatrixIndicesBeyondReadCount(final String[] samples, final Allele[] alleles, final Map<String,List<GATKSAMRecord>> reads) {
+        final ReadLikelihoods<Allele> result = new ReadLikelihoods<>(new IndexedSampleList(samples), new IndexedAlleleList<>(alleles), reads);
+        final GenomeLoc evenReadOverlap = locParser.createGenomeLoc(SAM_HEADER.getSequenceDictionary().getSequences().get(0).getSequenceName(), EVEN_READ_START, EVEN_READ_START);
+        // removing reads in place leaves spare capacity in each allele row.
+        result.filterToOnlyOverlappingUnclippedReads(evenReadOverlap);
+        for (int s = 0; s < samples.length; s++) {
+            final ReadLikelihoods.Matrix<Allele> matrix = result.sampleMatrix(s);
+            for (final int[] indices : new int[][] { {0, matrix.readCount()}, {0, -1}, {matrix.alleleCount(), 0}, {-1, 0} }) {
+                try {
+                    matrix.set(indices[0], indices[1], -1.0);
+                    Assert.fail("set accepted allele " + indices[0] + " and read " + indices[1]);
+                } catch (final ArrayIndexOutOfBoundsException expected) {
+                    // ok.
+                }
+                try {
+                    matrix.get(indices[0], indices[1]);
+                    Assert.fail("get accepted allele " + indices[0] + " and read " + indices[1]);
+                } catch (final ArrayIndexOutOfBoundsException expected) {
+                    // ok.
+                }
+            }
+        }
+    }
+
+    @Test(dataProvider = "dataSets")
+    public void testAddReadsAfterRemovingReads(final String[] samples, final Allele[] alleles, final Map<String,List<GATKSAMRecord>> reads) {
+        final ReadLikelihoods<Allele> original = new ReadLikelihoods<>(new IndexedSampleList(samples), new IndexedAlleleList<>(alleles), reads);
+        final double[][][] originalLikelihoods = fillWithRandomLikelihoods(samples, alleles, original);
+        final ReadLikelihoods<Allele> result = original.clone();
+        final GenomeLoc evenReadOverlap = locParser.createGenomeLoc(SAM_HEADER.getSequenceDictionary().getSequences().get(0).getSequenceName(), EVEN_READ_START, EVEN_READ_START);
+        result.filterToOnlyOverlappingUnclippedReads(evenReadOverlap);
+
+        // reads removed in place leave room to add them back without changing the likelihoods of the remaining ones.
+        final Map<String,List<GATKSAMRecord>> removedReads = new HashMap<>(samples.length);
+        final double[][][] expectedLikelihoods = new double[samples.length][alleles.length][];
+        for (int s = 0; s < samples.length; s++) {
+            final List<GATKSAMRecord> sampleRemovedReads = new ArrayList<>();
+            final List<Integer> keptReadIndices = new ArrayList<>();
+            for (int r = 0; r < original.sampleReadCount(s); r++)
+                if (result.readIndex(s, original.sampleReads(s).get(r)) == -1)
+                    sampleRemovedReads.add(original.sampleReads(s).get(r));
+                else
+                    keptReadIndices.add(r);
+            removedReads.put(samples[s], sampleRemovedReads);
+            Assert.assertEquals(result.sampleReadCount(s), keptReadIndices.size());
+            for (int a = 0; a < alleles.length; a++) {
+                expectedLikelihoods[s][a] = new double[original.sampleReadCount(s)];
+                for (int i = 0; i < keptReadIndices.size(); i++)
+                    expectedLikelihoods[s][a][i] = originalLikelihoods[s][a][keptReadIndices.get(i)];
+                Arrays.fill(expectedLikelihoods[s][a], keptReadIndices.size(), expectedLikelihoods[s][a].length, -1.5);
+            }
+        }
+        result.addReads(removedReads, -1.5);
+        testLikelihoodMatrixQueries(samples, result, expectedLikelihoods);
+    }
+
     private void testLikelihoodMatrixQueries(String[] samples, ReadLikelihoods<Allele> result, final double[][][] likelihoods) {
         for (final String sample : samples) {
             final int sampleIndex = result.sampleIndex(sample);
@@ -68,6 +68,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
 
 public class GVCFWriterUnitTest extends BaseTest {
     private static class MockWriter implements VariantContextWriter {
@@ -369,6 +370,54 @@ public class GVCFWriterUnitTest extends BaseTest {
         assertGoodVC(mockWriter.emitted.get(2), "20", 4, 7, false);
     }
 
+    @DataProvider(name = "SaveAndRestoreStateData")
+    public Object[][] makeSaveAndRestoreStateData() {
+        List<Object[]> tests = new ArrayList<>();
+
+        // split the same stream of records at every possible point
+        for ( int split = 0; split <= 7; split++ )
+            tests.add(new Object[]{split});
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    private List<VariantContext> makeSaveAndRestoreStateRecords() {
+        return Arrays.asList(makeHomRef("20", 1, 30), makeHomRef("20", 2, 31), makeDeletion("20", 3, 3),
+                makeHomRef("20", 4, 30), makeHomRef("20", 6, 5), makeHomRef("20", 7, 6), makeHomRef("21", 1, 30));
+    }
+
+    @Test(dataProvider = "SaveAndRestoreStateData")
+    public void testSaveAndRestoreState(final int split) {
+        final List<VariantContext> records = makeSaveAndRestoreStateRecords();
+
+        final MockWriter uninterrupted = new MockWriter();
+        final GVCFWriter expectedWriter = new GVCFWriter(uninterrupted, standardPartition, HomoSapiensConstants.DEFAULT_PLOIDY);
+        for ( final VariantContext vc : records ) expectedWriter.add(vc);
+        expectedWriter.close();
+
+        final GVCFWriter first = new GVCFWriter(mockWriter, standardPartition, HomoSapiensConstants.DEFAULT_PLOIDY);
+        for ( final VariantContext vc : records.subList(0, split) ) first.add(vc);
+        final Properties state = new Properties();
+        first.saveState(state);
+
+        final GVCFWriter resumed = new GVCFWriter(mockWriter, standardPartition, HomoSapiensConstants.DEFAULT_PLOIDY);
+        resumed.restoreState(state);
+        for ( final VariantContext vc : records.subList(split, records.size()) ) resumed.add(vc);
+        resumed.close();
+
+        Assert.assertEquals(mockWriter.emitted.size(), uninterrupted.emitted.size());
+        for ( int i = 0; i < uninterrupted.emitted.size(); i++ ) {
+            final VariantContext expected = uninterrupted.emitted.get(i);
+            final VariantContext actual = mockWriter.emitted.get(i);
+            Assert.assertEquals(actual.getChr(), expected.getChr());
+            Assert.assertEquals(actual.getStart(), expected.getStart());
+            Assert.assertEquals(actual.getEnd(), expected.getEnd());
+            Assert.assertEquals(actual.getAlleles(), expected.getAlleles());
+            Assert.assertEquals(actual.getAttributes(), expected.getAttributes());
+            Assert.assertEquals(actual.getGenotype(0).toString(), expected.getGenotype(0).toString());
+        }
+    }
+
     @DataProvider(name = "BandPartitionData")
     public Object[][] makeBandPartitionData() {
         List<Object[]> tests = new ArrayList<>();
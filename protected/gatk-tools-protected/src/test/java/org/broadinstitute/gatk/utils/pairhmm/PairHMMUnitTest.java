@@ -60,15 +60,19 @@ import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.MathUtils;
 import org.broadinstitute.gatk.utils.QualityUtils;
 import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.tools.walkers.genotyper.IndexedAlleleList;
+import org.broadinstitute.gatk.tools.walkers.genotyper.IndexedSampleList;
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Random;
+import java.util.*;
 
 public class PairHMMUnitTest extends BaseTest {
     private final static boolean ALLOW_READS_LONGER_THAN_HAPLOTYPE = true;
@@ -632,6 +636,175 @@ public class PairHMMUnitTest extends BaseTest {
             return minSize;
     }
 
+    private ReadLikelihoods<Haplotype> makeBatchTestLikelihoods(final List<Haplotype> haplotypes, final int sampleCount) {
+        final List<String> sampleNames = new ArrayList<>(sampleCount);
+        final Map<String, List<GATKSAMRecord>> readsBySample = new LinkedHashMap<>(sampleCount);
+        final Random random = new Random(13);
+        for ( int s = 0; s < sampleCount; s++ ) {
+            final String sample = "sample" + s;
+            final List<GATKSAMRecord> reads = new ArrayList<>();
+            for ( int r = 0; r <= s; r++ ) {
+                final byte[] bases = Arrays.copyOfRange(haplotypes.get(r % haplotypes.size()).getBases(), r, r + 10);
+                final byte[] quals = new byte[bases.length];
+                for ( int i = 0; i < quals.length; i++ )
+                    quals[i] = (byte) (20 + random.nextInt(20));
+                reads.add(ArtificialSAMUtils.createArtificialRead(bases, quals, bases.length + "M"));
+            }
+            sampleNames.add(sample);
+            readsBySample.put(sample, reads);
+        }
+        return new ReadLikelihoods<>(new IndexedSampleList(sampleNames), new IndexedAlleleList<>(haplotypes), readsBySample);
+    }
+
+    @Test(enabled = !DEBUG, dataProvider = "JustHMMProvider")
+    void testBatchComputeLikelihoodsMatchesPerMatrix(final PairHMM hmm) {
+        final List<Haplotype> haplotypes = Arrays.asList(
+                new Haplotype("ACGTTAGCATCGATCGATCGTACCAGT".getBytes(), true),
+                new Haplotype("ACGTTAGCATCGTTCGATCGTACCAGT".getBytes(), false),
+                new Haplotype("ACGTTAGCATCGATCGATTCGTACCAGT".getBytes(), false));
+        final ReadLikelihoods<Haplotype> batched = makeBatchTestLikelihoods(haplotypes, 3);
+        final ReadLikelihoods<Haplotype> single = makeBatchTestLikelihoods(haplotypes, 3);
+
+        final Map<GATKSAMRecord, byte[]> gcp = new HashMap<>();
+        final List<ReadLikelihoods.Matrix<Haplotype>> matrices = new ArrayList<>();
+        final List<List<GATKSAMRecord>> reads = new ArrayList<>();
+        for ( int s = 0; s < batched.sampleCount(); s++ ) {
+            matrices.add(batched.sampleMatrix(s));
+            reads.add(batched.sampleReads(s));
+            for ( final GATKSAMRecord read : batched.sampleReads(s) )
+                gcp.put(read, Utils.dupBytes((byte) 10, read.getReadLength()));
+        }
+
+        hmm.batchComputeLikelihoods(matrices, reads, gcp);
+        for ( int s = 0; s < single.sampleCount(); s++ )
+            hmm.computeLikelihoods(single.sampleMatrix(s), single.sampleReads(s), gcp);
+
+        for ( int s = 0; s < single.sampleCount(); s++ )
+            for ( int a = 0; a < single.alleleCount(); a++ )
+                for ( int r = 0; r < single.sampleReadCount(s); r++ )
+                    Assert.assertEquals(batched.sampleMatrix(s).get(a, r), single.sampleMatrix(s).get(a, r), 1e-9);
+    }
+
+    private PairHMMRegion makeBatchTestRegion(final ReadLikelihoods<Haplotype> likelihoods) {
+        final Map<GATKSAMRecord, byte[]> gcp = new HashMap<>();
+        final Map<String, List<GATKSAMRecord>> readsBySample = new LinkedHashMap<>();
+        final List<ReadLikelihoods.Matrix<Haplotype>> matrices = new ArrayList<>();
+        final List<List<GATKSAMRecord>> reads = new ArrayList<>();
+        for ( int s = 0; s < likelihoods.sampleCount(); s++ ) {
+            readsBySample.put(likelihoods.sampleAt(s), likelihoods.sampleReads(s));
+            matrices.add(likelihoods.sampleMatrix(s));
+            reads.add(likelihoods.sampleReads(s));
+            for ( final GATKSAMRecord read : likelihoods.sampleReads(s) )
+                gcp.put(read, Utils.dupBytes((byte) 10, read.getReadLength()));
+        }
+        return new PairHMMRegion(likelihoods.alleles(), readsBySample, matrices, reads, gcp);
+    }
+
+    private void testComputeLikelihoodsAcrossRegionsMatchesPerRegion(final PairHMM hmm) {
+        final List<List<Haplotype>> regionHaplotypes = Arrays.asList(
+                Arrays.asList(
+                        new Haplotype("ACGTTAGCATCGATCGATCGTACCAGT".getBytes(), true),
+                        new Haplotype("ACGTTAGCATCGTTCGATCGTACCAGT".getBytes(), false),
+                        new Haplotype("ACGTTAGCATCGATCGATTCGTACCAGT".getBytes(), false)),
+                Arrays.asList(
+                        new Haplotype("TTGACCAGTAGGCATTACGGATCAGGCATTA".getBytes(), true),
+                        new Haplotype("TTGACCAGTAGGCTTTACGGATCAGGCATTA".getBytes(), false)),
+                Arrays.asList(
+                        new Haplotype("GGCATCAGTTACAGGATTACCAGTTAGC".getBytes(), true)));
+
+        final List<PairHMMRegion> batched = new ArrayList<>();
+        final List<ReadLikelihoods<Haplotype>> batchedLikelihoods = new ArrayList<>();
+        final List<ReadLikelihoods<Haplotype>> singleLikelihoods = new ArrayList<>();
+        for ( int g = 0; g < regionHaplotypes.size(); g++ ) {
+            final ReadLikelihoods<Haplotype> likelihoods = makeBatchTestLikelihoods(regionHaplotypes.get(g), g + 2);
+            batchedLikelihoods.add(likelihoods);
+            batched.add(makeBatchTestRegion(likelihoods));
+            singleLikelihoods.add(makeBatchTestLikelihoods(regionHaplotypes.get(g), g + 2));
+        }
+
+        hmm.computeLikelihoodsAcrossRegions(batched);
+        for ( final ReadLikelihoods<Haplotype> likelihoods : singleLikelihoods )
+            hmm.computeLikelihoodsAcrossRegions(Collections.singletonList(makeBatchTestRegion(likelihoods)));
+
+        for ( int g = 0; g < regionHaplotypes.size(); g++ ) {
+            final ReadLikelihoods<Haplotype> single = singleLikelihoods.get(g);
+            for ( int s = 0; s < single.sampleCount(); s++ )
+                for ( int a = 0; a < single.alleleCount(); a++ )
+                    for ( int r = 0; r < single.sampleReadCount(s); r++ )
+                        Assert.assertEquals(batchedLikelihoods.get(g).sampleMatrix(s).get(a, r), single.sampleMatrix(s).get(a, r), 1e-9);
+        }
+    }
+
+    @Test(enabled = !DEBUG, dataProvider = "JustHMMProvider")
+    void testComputeLikelihoodsAcrossRegions(final PairHMM hmm) {
+        testComputeLikelihoodsAcrossRegionsMatchesPerRegion(hmm);
+    }
+
+    @Test(enabled = !DEBUG)
+    void testVectorComputeLikelihoodsAcrossRegions() {
+        final PairHMM hmm;
+        try {
+            hmm = new VectorLoglessPairHMM();
+        } catch ( UnsatisfiedLinkError e ) {
+            throw new SkipException("the native PairHMM library is not available on this machine");
+        }
+        testComputeLikelihoodsAcrossRegionsMatchesPerRegion(hmm);
+    }
+
+    @Test(enabled = true, expectedExceptions = IllegalArgumentException.class, dataProvider = "JustHMMProvider")
+    void testBatchComputeLikelihoodsRequiresReadsPerMatrix(final PairHMM hmm) {
+        final ReadLikelihoods<Haplotype> likelihoods = makeBatchTestLikelihoods(Arrays.asList(new Haplotype("ACGTTAGCATCGATCGATCGTACCAGT".getBytes(), true)), 2);
+        hmm.batchComputeLikelihoods(Arrays.asList(likelihoods.sampleMatrix(0), likelihoods.sampleMatrix(1)),
+                Collections.singletonList(likelihoods.sampleReads(0)), new HashMap<GATKSAMRecord, byte[]>());
+    }
+
+    @Test(enabled = !DEBUG)
+    void testParallelLoglessMatchesLogless() {
+        final List<Haplotype> haplotypes = new ArrayList<>();
+        final Random random = new Random(17);
+        final byte[] reference = new byte[60];
+        for ( int i = 0; i < reference.length; i++ )
+            reference[i] = BaseUtils.BASES[random.nextInt(4)];
+        haplotypes.add(new Haplotype(reference, true));
+        for ( int h = 1; h < 8; h++ ) {
+            final byte[] alternative = reference.clone();
+            alternative[random.nextInt(alternative.length)] = BaseUtils.BASES[random.nextInt(4)];
+            haplotypes.add(new Haplotype(h % 2 == 0 ? alternative : Arrays.copyOf(alternative, alternative.length - h), false));
+        }
+
+        final List<GATKSAMRecord> reads = new ArrayList<>();
+        final Map<GATKSAMRecord, byte[]> gcp = new HashMap<>();
+        for ( int r = 0; r < 500; r++ ) {
+            final int length = 20 + random.nextInt(25);
+            final int start = random.nextInt(reference.length - length - 8);
+            final byte[] bases = Arrays.copyOfRange(haplotypes.get(random.nextInt(haplotypes.size())).getBases(), start, start + length);
+            final byte[] quals = new byte[length];
+            for ( int i = 0; i < length; i++ )
+                quals[i] = (byte) (10 + random.nextInt(30));
+            final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(bases, quals, length + "M");
+            read.setReadName("read" + r);
+            reads.add(read);
+            gcp.put(read, Utils.dupBytes((byte) 10, length));
+        }
+
+        final Map<String, List<GATKSAMRecord>> readsBySample = Collections.singletonMap("sample", reads);
+        final ReadLikelihoods<Haplotype> expected = new ReadLikelihoods<>(new IndexedSampleList("sample"), new IndexedAlleleList<>(haplotypes), readsBySample);
+        final ReadLikelihoods<Haplotype> actual = new ReadLikelihoods<>(new IndexedSampleList("sample"), new IndexedAlleleList<>(haplotypes), readsBySample);
+
+        new LoglessPairHMM().computeLikelihoods(expected.sampleMatrix(0), reads, gcp);
+        final ParallelLoglessPairHMM parallelHMM = new ParallelLoglessPairHMM(4);
+        try {
+            parallelHMM.computeLikelihoods(actual.sampleMatrix(0), reads, gcp);
+        } finally {
+            parallelHMM.close();
+        }
+
+        Assert.assertTrue(expected.alleleCount() > 1);
+        for ( int a = 0; a < expected.alleleCount(); a++ )
+            for ( int r = 0; r < reads.size(); r++ )
+                Assert.assertEquals(actual.sampleMatrix(0).get(a, r), expected.sampleMatrix(0).get(a, r), 0.0);
+    }
+
     @DataProvider(name = "UninitializedHMMs")
     public Object[][] makeUninitializedHMMs() {
         List<Object[]> tests = new ArrayList<Object[]>();
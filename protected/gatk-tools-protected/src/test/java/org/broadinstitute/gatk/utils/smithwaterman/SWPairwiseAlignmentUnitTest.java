@@ -56,6 +56,7 @@ import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
 import org.broadinstitute.gatk.utils.sam.CigarUtils;
 import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.Utils;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -127,6 +128,27 @@ public class SWPairwiseAlignmentUnitTest extends BaseTest {
         Assert.assertEquals(sw.getCigar().toString(), expectedCigar);
     }
 
+    @Test(enabled = true)
+    public void testAlignmentAfterLargerAlignment() {
+        // the matrices are reused from one alignment to the next, so leftovers of a bigger alignment must not matter
+        final String ref = "TGTGTGTGTGTGTGACAGAGAGAGAGAGAGAGAGAGAGAGAGAGA";
+        final String alt =               "ACAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGAGA";
+        final String bigRef = Utils.dupString("ACGTTGCA", 100);
+        final String bigAlt = Utils.dupString("ACGTAGCA", 80);
+
+        for ( final SWPairwiseAlignment.OVERHANG_STRATEGY strategy : SWPairwiseAlignment.OVERHANG_STRATEGY.values() ) {
+            new SWPairwiseAlignment(bigRef.getBytes(), bigAlt.getBytes(), SWParameterSet.STANDARD_NGS, strategy);
+            final SWPairwiseAlignment sw = new SWPairwiseAlignment(ref.getBytes(), alt.getBytes(), SWParameterSet.STANDARD_NGS);
+            Assert.assertEquals(sw.getAlignmentStart2wrt1(), 14);
+            Assert.assertEquals(sw.getCigar().toString(), "31M20S");
+
+            new SWPairwiseAlignment(bigAlt.getBytes(), bigRef.getBytes(), SWParameterSet.STANDARD_NGS, strategy);
+            final SWPairwiseAlignment odd = new SWPairwiseAlignment("AAAGACTACTG".getBytes(), "AACGGACACTG".getBytes(), 50, -100, -220, -12);
+            Assert.assertEquals(odd.getAlignmentStart2wrt1(), 1);
+            Assert.assertEquals(odd.getCigar().toString(), "2M2I3M1D4M");
+        }
+    }
+
     @Test(enabled = true)
     public void  testForIdenticalAlignmentsWithDifferingFlankLengths() {
         //This test is designed to ensure that the indels are correctly placed
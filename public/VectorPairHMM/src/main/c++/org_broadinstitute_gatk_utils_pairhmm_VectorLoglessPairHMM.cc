@@ -150,15 +150,16 @@ JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessP
 
 //Create a vector of testcases for computation - copy the references to bytearrays read/readQuals etc into the appropriate
 //testcase struct
+//firstRead, firstHaplotype and firstTestcase select the slice of the arrays used, when several regions share them
 inline JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM_jniInitializeTestcasesVector
   (JNIEnv* env, jint numReads, jint numHaplotypes, jobjectArray& readDataArray,
    vector<vector<pair<jbyteArray,jbyte*> > >& readBasesArrayVector,
    vector<pair<jbyteArray, jbyte*> >& haplotypeBasesArrayVector, vector<unsigned>& haplotypeBasesLengths,
-   vector<testcase>& tc_array)
+   vector<testcase>& tc_array, unsigned firstRead=0, unsigned firstHaplotype=0, unsigned firstTestcase=0)
 {
   jboolean is_copy = JNI_FALSE;
-  unsigned tc_idx = 0;
-  for(unsigned i=0;i<numReads;++i)
+  unsigned tc_idx = firstTestcase;
+  for(unsigned i=firstRead;i<firstRead+numReads;++i)
   {
     //Get bytearray fields from read
     jobject readObject = env->GetObjectArrayElement(readDataArray, i);
@@ -213,8 +214,8 @@ inline JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorL
 #endif
     for(unsigned j=0;j<numHaplotypes;++j)
     {
-      jsize haplotypeLength = (jsize)haplotypeBasesLengths[j];
-      jbyte* haplotypeBasesArray = haplotypeBasesArrayVector[j].second;
+      jsize haplotypeLength = (jsize)haplotypeBasesLengths[firstHaplotype+j];
+      jbyte* haplotypeBasesArray = haplotypeBasesArrayVector[firstHaplotype+j].second;
       tc_array[tc_idx].rslen = (int)readLength;
       tc_array[tc_idx].haplen = (int)haplotypeLength;
       tc_array[tc_idx].hap = (char*)haplotypeBasesArray;
@@ -393,6 +394,83 @@ JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessP
 #endif
 }
 
+//JNI function to evaluate the reads of several regions in one call, each region against its own haplotypes
+//numReadsPerRegion, numHaplotypesPerRegion - how many of the entries of readDataArray and haplotypeDataArray belong
+//to each region, in order
+//likelihoodArray - results, region by region, each region laid out as in jniComputeLikelihoods
+//Haplotypes are always passed with the call, so this works in the single threaded build too
+JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM_jniComputeLikelihoodsAcrossRegions
+  (JNIEnv* env, jobject thisObject, jint numRegions, jintArray numReadsPerRegion, jintArray numHaplotypesPerRegion,
+   jobjectArray readDataArray, jobjectArray haplotypeDataArray, jdoubleArray likelihoodArray, jint maxNumThreadsToUse)
+{
+  jboolean is_copy = JNI_FALSE;
+  struct timespec start_time;
+#ifdef DO_PROFILING
+  get_time(&start_time);
+#endif
+  vector<jint> regionNumReads(numRegions);
+  vector<jint> regionNumHaplotypes(numRegions);
+  env->GetIntArrayRegion(numReadsPerRegion, 0, numRegions, &(regionNumReads[0]));
+  env->GetIntArrayRegion(numHaplotypesPerRegion, 0, numRegions, &(regionNumHaplotypes[0]));
+  unsigned numReads = 0;
+  unsigned numHaplotypes = 0;
+  unsigned numTestCases = 0;
+  for(unsigned g=0;g<numRegions;++g)
+  {
+    numReads += regionNumReads[g];
+    numHaplotypes += regionNumHaplotypes[g];
+    numTestCases += regionNumReads[g]*regionNumHaplotypes[g];
+  }
+  vector<testcase> tc_array;
+  tc_array.resize(numTestCases);
+  vector<vector<pair<jbyteArray,jbyte*> > > readBasesArrayVector;
+  readBasesArrayVector.resize(numReads);
+  vector<pair<jbyteArray, jbyte*> > haplotypeBasesArrayVector;
+  vector<unsigned> haplotypeBasesLengths;
+  initializeHaplotypes(env, thisObject, numHaplotypes, haplotypeDataArray, haplotypeBasesArrayVector, haplotypeBasesLengths);
+  unsigned firstRead = 0;
+  unsigned firstHaplotype = 0;
+  unsigned firstTestcase = 0;
+  for(unsigned g=0;g<numRegions;++g)
+  {
+    Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM_jniInitializeTestcasesVector(env,
+        regionNumReads[g], regionNumHaplotypes[g], readDataArray, readBasesArrayVector, haplotypeBasesArrayVector,
+        haplotypeBasesLengths, tc_array, firstRead, firstHaplotype, firstTestcase);
+    firstRead += regionNumReads[g];
+    firstHaplotype += regionNumHaplotypes[g];
+    firstTestcase += regionNumReads[g]*regionNumHaplotypes[g];
+  }
+#ifdef DO_PROFILING
+  g_load_time_initializer.m_data_transfer_time += diff_time(start_time);
+#endif
+
+  jdouble* likelihoodDoubleArray = (jdouble*)GET_DOUBLE_ARRAY_ELEMENTS(likelihoodArray, &is_copy);
+#ifdef ENABLE_ASSERTIONS
+  assert(likelihoodDoubleArray && "likelihoodArray is NULL");
+  assert(env->GetArrayLength(likelihoodArray) == numTestCases);
+#endif
+#ifdef DO_PROFILING
+  g_load_time_initializer.m_bytes_copied += (is_copy ? numTestCases*sizeof(double) : 0);
+  get_time(&start_time);
+#endif
+  compute_testcases(tc_array, numTestCases, likelihoodDoubleArray, maxNumThreadsToUse); //actual computation
+#ifdef DO_PROFILING
+  g_load_time_initializer.m_compute_time += diff_time(start_time);
+  get_time(&start_time);
+#endif
+  RELEASE_DOUBLE_ARRAY_ELEMENTS(likelihoodArray, likelihoodDoubleArray, 0); //release mode 0, copy back results to Java memory (if copy made)
+  Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM_jniReleaseReadArrays(env, readBasesArrayVector);
+  releaseHaplotypes(env, thisObject, haplotypeBasesArrayVector, haplotypeBasesLengths);
+#ifdef DO_PROFILING
+  g_load_time_initializer.m_data_transfer_time += diff_time(start_time);
+  g_load_time_initializer.update_stat(NUM_REGIONS_IDX, numRegions);
+  g_load_time_initializer.update_stat(NUM_READS_IDX, numReads);
+  g_load_time_initializer.update_stat(NUM_HAPLOTYPES_IDX, numHaplotypes);
+  g_load_time_initializer.update_stat(NUM_TESTCASES_IDX, numTestCases);
+#endif
+  tc_array.clear();
+}
+
 //If single threaded, release haplotypes at the end of a region
 JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM_jniFinalizeRegion
   (JNIEnv * env, jobject thisObject)
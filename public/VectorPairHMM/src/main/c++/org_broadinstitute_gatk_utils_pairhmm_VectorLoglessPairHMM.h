@@ -82,6 +82,14 @@ JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessP
 JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM_jniComputeLikelihoods
   (JNIEnv *, jobject, jint, jint, jobjectArray, jobjectArray, jdoubleArray, jint);
 
+/*
+ * Class:     org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM
+ * Method:    jniComputeLikelihoodsAcrossRegions
+ * Signature: (I[I[I[Lorg/broadinstitute/gatk/utils/pairhmm/VectorLoglessPairHMM/JNIReadDataHolderClass;[Lorg/broadinstitute/gatk/utils/pairhmm/VectorLoglessPairHMM/JNIHaplotypeDataHolderClass;[DI)V
+ */
+JNIEXPORT void JNICALL Java_org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM_jniComputeLikelihoodsAcrossRegions
+  (JNIEnv *, jobject, jint, jintArray, jintArray, jobjectArray, jobjectArray, jdoubleArray, jint);
+
 /*
  * Class:     org_broadinstitute_gatk_utils_pairhmm_VectorLoglessPairHMM
  * Method:    jniClose
@@ -35,6 +35,7 @@ import htsjdk.variant.vcf.VCFConstants;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.arguments.GATKArgumentCollection;
 import org.broadinstitute.gatk.engine.arguments.ValidationExclusion;
+import org.broadinstitute.gatk.engine.checkpoint.CheckpointManager;
 import org.broadinstitute.gatk.engine.datasources.reads.*;
 import org.broadinstitute.gatk.engine.datasources.reference.ReferenceDataSource;
 import org.broadinstitute.gatk.engine.datasources.rmd.ReferenceOrderedDataSource;
@@ -145,6 +146,11 @@ public class GenomeAnalysisEngine {
      */
     private Collection<Stub<?>> outputs = new ArrayList<Stub<?>>();
 
+    /**
+     * Manages checkpoints of the traversal, or null if checkpointing isn't enabled
+     */
+    private CheckpointManager checkpointManager = null;
+
     /**
      * Collection of the filters applied to the input data.
      */
@@ -293,6 +299,9 @@ public class GenomeAnalysisEngine {
         initializeIntervals();
         validateSuppliedIntervals();
 
+        // set up checkpointing, narrowing the intervals down to what's left if we are resuming
+        initializeCheckpointing();
+
         // check to make sure that all sequence dictionaries are compatible with the reference's sequence dictionary
         validateDataSourcesAgainstReference(readsDataSource, referenceDataSource.getReference(), rodDataSources);
 
@@ -316,7 +325,13 @@ public class GenomeAnalysisEngine {
         logger.info("Done preparing for traversal");
 
         // execute the microscheduler, storing the results
-        return microScheduler.execute(this.walker, shardStrategy);
+        final Object result = microScheduler.execute(this.walker, shardStrategy);
+
+        // we made it all the way through, so the checkpoint is no longer needed
+        if ( checkpointManager != null && ! exceedsRuntimeLimit() )
+            checkpointManager.traversalComplete();
+
+        return result;
 
         //monitor.stop();
         //logger.info(String.format("Maximum heap size consumed: %d",monitor.getMaxMemoryUsed()));
@@ -447,10 +462,13 @@ public class GenomeAnalysisEngine {
         if ( argCollection.numberOfDataThreads < 1 ) throw new UserException.BadArgumentValue("num_threads", "cannot be less than 1, but saw " + argCollection.numberOfDataThreads);
         if ( argCollection.numberOfCPUThreadsPerDataThread < 1 ) throw new UserException.BadArgumentValue("num_cpu_threads", "cannot be less than 1, but saw " + argCollection.numberOfCPUThreadsPerDataThread);
         if ( argCollection.numberOfIOThreads < 0 ) throw new UserException.BadArgumentValue("num_io_threads", "cannot be less than 0, but saw " + argCollection.numberOfIOThreads);
+        if ( argCollection.numberOfReadAheadThreads < 0 ) throw new UserException.BadArgumentValue("num_read_ahead_threads", "cannot be less than 0, but saw " + argCollection.numberOfReadAheadThreads);
+        if ( argCollection.numberOfReadAheadThreads > 0 && argCollection.numberOfIOThreads == 0 ) throw new UserException.BadArgumentValue("num_read_ahead_threads", "requires asynchronous IO; specify -nit as well");
 
         this.threadAllocation = new ThreadAllocation(argCollection.numberOfDataThreads,
                 argCollection.numberOfCPUThreadsPerDataThread,
                 argCollection.numberOfIOThreads,
+                argCollection.numberOfReadAheadThreads,
                 argCollection.monitorThreadEfficiency);
     }
 
@@ -659,11 +677,19 @@ public class GenomeAnalysisEngine {
      * Create the temp directory if it doesn't exist.
      */
     private void initializeTempDirectory() {
-        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        File tempDir = getTempDirectory();
         if (!tempDir.exists() && !tempDir.mkdirs())
             throw new UserException.BadTmpDir("Unable to create directory");
     }
 
+    /**
+     * Gets the directory in which walkers should create their temporary files, as set with -Djava.io.tmpdir.
+     * @return the temp directory, which exists once the engine has been initialized.
+     */
+    public File getTempDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
     /**
      * Initialize the output streams as specified by the user.
      *
@@ -729,6 +755,47 @@ public class GenomeAnalysisEngine {
         intervals = IntervalUtils.parseIntervalArguments(this.referenceDataSource, argCollection.intervalArguments);
     }
 
+    /**
+     * Set up periodic checkpointing of the traversal if requested, and if we are resuming
+     * from a checkpoint restrict the intervals to the part of the genome not yet processed.
+     */
+    protected void initializeCheckpointing() {
+        if ( argCollection.checkpointFile == null ) {
+            if ( argCollection.resume )
+                throw new UserException.BadArgumentValue("resume", "--resume requires a --checkpoint file to resume from");
+            return;
+        }
+
+        if ( ! (walker instanceof ActiveRegionWalker) || ! (walker instanceof Checkpointable) )
+            throw new UserException.BadArgumentValue("checkpoint", "Walker " + getWalkerName(walker.getClass()) + " does not support checkpointing");
+        if ( argCollection.numberOfDataThreads > 1 )
+            throw new UserException.BadArgumentValue("checkpoint", "Checkpointing is not supported with -nt; use -nct instead");
+
+        for ( final Stub<?> stub : getOutputs() ) {
+            final boolean supported = stub instanceof VariantContextWriterStub
+                    ? stub.getOutputFile() != null && ((VariantContextWriterStub)stub).isCheckpointable()
+                    : stub.getOutputFile() == null;
+            if ( ! supported )
+                throw new UserException.BadArgumentValue("checkpoint", "Checkpointing is only supported when writing uncompressed VCF files, but "
+                        + (stub.getOutputFile() == null ? "an output is written to a stream" : stub.getOutputFile() + " is not one"));
+        }
+
+        checkpointManager = new CheckpointManager(argCollection.checkpointFile, argCollection.checkpointInterval, argCollection.resume);
+        if ( checkpointManager.isResuming() ) {
+            intervals = checkpointManager.trimIntervals(intervals, getGenomeLocParser());
+            if ( intervals.isEmpty() )
+                logger.warn("The checkpoint is at the end of the intervals to process, so there is nothing left to do");
+        }
+    }
+
+    /**
+     * Get the checkpoint manager for this traversal
+     * @return the CheckpointManager, or null if checkpointing wasn't requested
+     */
+    public CheckpointManager getCheckpointManager() {
+        return checkpointManager;
+    }
+
     /**
      * Add additional, externally managed IO streams for inputs.
      *
@@ -879,6 +946,14 @@ public class GenomeAnalysisEngine {
 
         final boolean keepReadsInLIBS = walker instanceof ActiveRegionWalker;
 
+        // pooled pileups go stale as soon as LIBS moves on, so only walkers that consume each pileup in turn may use them
+        if ( argCollection.reusePileupElements ) {
+            if ( ! (walker instanceof LocusWalker) )
+                throw new UserException.BadArgumentValue("reuse_pileup_elements", "Walker " + getWalkerName(walker.getClass()) + " is not a LocusWalker");
+            if ( argCollection.numberOfCPUThreadsPerDataThread > 1 )
+                throw new UserException.BadArgumentValue("reuse_pileup_elements", "Reusing pileup elements is not supported with -nct, which buffers pileups; use -nt instead");
+        }
+
         return new SAMDataSource(
                 samReaderIDs,
                 threadAllocation,
@@ -896,7 +971,8 @@ public class GenomeAnalysisEngine {
                 removeProgramRecords,
                 keepReadsInLIBS,
                 sampleRenameMap,
-                argCollection.intervalArguments.intervalMerging);
+                argCollection.intervalArguments.intervalMerging,
+                argCollection.reusePileupElements);
     }
 
     /**
@@ -968,7 +1044,7 @@ public class GenomeAnalysisEngine {
      * @param refFile Handle to a reference sequence file.  Non-null.
      */
     public void setReferenceDataSource(File refFile) {
-        this.referenceDataSource = new ReferenceDataSource(refFile);
+        this.referenceDataSource = new ReferenceDataSource(refFile, argCollection != null && argCollection.memoryMappedReference);
         genomeLocParser = new GenomeLocParser(referenceDataSource.getReference());
     }
 
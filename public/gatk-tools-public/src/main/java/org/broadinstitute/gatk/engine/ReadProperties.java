@@ -63,6 +63,7 @@ public class ReadProperties {
     private final Collection<ReadFilter> supplementalFilters;
     private final List<ReadTransformer> readTransformers;
     private final boolean keepUniqueReadListInLIBS;
+    private final boolean reusePileupElements;
     private final boolean includeReadsWithDeletionAtLoci;
     private final boolean useOriginalBaseQualities;
     private final byte defaultBaseQualities;
@@ -80,6 +81,15 @@ public class ReadProperties {
         return keepUniqueReadListInLIBS;
     }
 
+    /**
+     * Should LocusIteratorByState recycle the pileup elements of each locus into the next one?
+     *
+     * @return true if each pileup is only valid until the iterator moves on
+     */
+    public boolean reusePileupElements() {
+        return reusePileupElements;
+    }
+
     /**
      * Gets a list of the files acting as sources of reads.
      * @return A list of files storing reads data.
@@ -182,6 +192,29 @@ public class ReadProperties {
            boolean includeReadsWithDeletionAtLoci,
            byte defaultBaseQualities,
            final boolean keepUniqueReadListInLIBS) {
+        this(samFiles, header, sortOrder, useOriginalBaseQualities, strictness, downsamplingMethod, exclusionList,
+                supplementalFilters, readTransformers, includeReadsWithDeletionAtLoci, defaultBaseQualities,
+                keepUniqueReadListInLIBS, false);
+    }
+
+    /**
+     * As above, but also
+     * @param reusePileupElements If true, we will tell LocusIteratorByState to recycle the pileup elements of
+     *                            each locus into the next one.  Only safe if no pileup outlives its locus.
+     */
+    public ReadProperties( Collection<SAMReaderID> samFiles,
+           SAMFileHeader header,
+           SAMFileHeader.SortOrder sortOrder,
+           boolean useOriginalBaseQualities,
+           ValidationStringency strictness,
+           DownsamplingMethod downsamplingMethod,
+           ValidationExclusion exclusionList,
+           Collection<ReadFilter> supplementalFilters,
+           List<ReadTransformer> readTransformers,
+           boolean includeReadsWithDeletionAtLoci,
+           byte defaultBaseQualities,
+           final boolean keepUniqueReadListInLIBS,
+           final boolean reusePileupElements) {
         this.readers = samFiles;
         this.header = header;
         this.sortOrder = sortOrder;
@@ -194,5 +227,6 @@ public class ReadProperties {
         this.useOriginalBaseQualities = useOriginalBaseQualities;
         this.defaultBaseQualities = defaultBaseQualities;
         this.keepUniqueReadListInLIBS = keepUniqueReadListInLIBS;
+        this.reusePileupElements = reusePileupElements;
     }
 }
@@ -134,6 +134,15 @@ public class GATKArgumentCollection {
      */
     @Input(fullName = "reference_sequence", shortName = "R", doc = "Reference sequence file", required = false)
     public File referenceFile = null;
+    /**
+     * Serve reference bases from a memory-mapped copy of the reference, with the bases already upper cased and IUPAC
+     * codes converted to Ns, shared by all threads.  The copy is created next to the FASTA (with a .normalized
+     * extension) the first time it's needed, and recreated if the FASTA changes.  If it cannot be created, for example
+     * because the directory isn't writable, the GATK falls back to reading the FASTA directly.
+     */
+    @Advanced
+    @Argument(fullName = "memory_mapped_reference", shortName = "mmapRef", doc = "Read the reference from a memory-mapped, pre-normalized copy of the FASTA", required = false)
+    public boolean memoryMappedReference = false;
     /**
      * If this flag is enabled, the random numbers generated will be different in every run, causing GATK to behave non-deterministically.
      */
@@ -300,6 +309,16 @@ public class GATKArgumentCollection {
     @Argument(fullName = "performanceLog", shortName="PF", doc="Write GATK runtime performance log to this file", required = false)
     public File performanceLog = null;
 
+    /**
+     * Enables the engine's per-stage runtime metrics (BAM decoding, read filtering, read transformers, LIBS,
+     * the activity profile, assembly, the PairHMM, genotyping and VCF writing) and writes them to this file
+     * as a GATKReport at the end of the run.  Each stage reports its invocations, the time spent in it summed
+     * over all threads, both including and excluding nested stages, and the heap allocated while in it.
+     * The same metrics are available over JMX while the GATK runs.
+     */
+    @Argument(fullName = "runtimeMetricsLog", shortName="RML", doc="Collect per-stage runtime metrics and write them as a GATKReport to this file", required = false)
+    public File runtimeMetricsLog = null;
+
     // --------------------------------------------------------------------------------------------------------------
     //
     // BQSR arguments
@@ -470,6 +489,9 @@ public class GATKArgumentCollection {
      * Each CPU thread operates the map cycle independently, but may run into earlier scaling problems with IO than
      * data threads. Has the benefit of not requiring X times as much memory per thread as data threads do, but rather
      * only a constant overhead. See online documentation FAQs for more information.
+     *
+     * Active region walkers whose isActive function is thread-safe (such as HaplotypeCaller) also evaluate isActive
+     * on these threads: the isActive and map calls share the budget, so that no more than this many of them run at once.
      */
     @Argument(fullName="num_cpu_threads_per_data_thread", shortName = "nct", doc="Number of CPU threads to allocate per data thread", required = false, minValue = 1)
     public int numberOfCPUThreadsPerDataThread = 1;
@@ -478,6 +500,14 @@ public class GATKArgumentCollection {
     @Hidden
     public int numberOfIOThreads = 0;
 
+    /**
+     * Threads that read and decompress the BGZF blocks following each block requested by the IO threads, so that
+     * sequential reads usually find their next block already decompressed.  Requires -nit.
+     */
+    @Argument(fullName="num_read_ahead_threads", shortName = "nrat", doc="Number of threads to allocate to reading BAM blocks ahead of demand", required = false, minValue = 0)
+    @Hidden
+    public int numberOfReadAheadThreads = 0;
+
     /**
      * Enable GATK to monitor its own threading efficiency, at an itsy-bitsy tiny
      * cost (< 0.1%) in runtime because of turning on the JavaBean.  This is largely for
@@ -488,6 +518,16 @@ public class GATKArgumentCollection {
 
     @Argument(fullName = "num_bam_file_handles", shortName = "bfh", doc="Total number of BAM file handles to keep open simultaneously", required=false, minValue = 1)
     public Integer numberOfBAMFileHandles = null;
+
+    /**
+     * Recycle the pileup elements of each locus into the next one instead of allocating new ones, which takes a
+     * lot of load off the garbage collector at high depth.  A pileup is then only valid until the walker's map()
+     * returns, so this may only be used with locus walkers that keep no pileup beyond that (or that keep a
+     * ReadBackedPileup.copy() of it), and not with -nct.
+     */
+    @Advanced
+    @Argument(fullName = "reuse_pileup_elements", shortName = "reusePileups", doc = "Reuse pileup elements from one locus to the next", required = false)
+    public boolean reusePileupElements = false;
     /**
      * This will filter out read groups matching <TAG>:<STRING> (e.g. SM:sample1) or a .txt file containing the filter strings one per line.
      */
@@ -624,5 +664,36 @@ public class GATKArgumentCollection {
     @Argument(fullName="variant_index_parameter",shortName = "variant_index_parameter",doc="Parameter to pass to the VCF/BCF IndexCreator",required=false)
     @Advanced
     public int variant_index_parameter = GATKVCFUtils.DEFAULT_INDEX_PARAMETER;
+
+    // --------------------------------------------------------------------------------------------------------------
+    //
+    // Checkpointing
+    //
+    // --------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Periodically record in this file how far the traversal has progressed, along with the size of each output
+     * and any state the walker needs to continue from there.  If the run is interrupted, rerunning the exact same
+     * command with --resume picks up right after the last checkpoint, appending to the existing outputs.
+     *
+     * Only available for active region walkers that support it (e.g. the HaplotypeCaller), writing uncompressed
+     * VCF files, without -nt.  Note that active region boundaries just after the resume point may differ from an
+     * uninterrupted run, as the activity profile starts afresh there.
+     */
+    @Advanced
+    @Argument(fullName = "checkpoint", shortName = "checkpoint", doc = "File in which to periodically record the progress of the traversal", required = false)
+    public File checkpointFile = null;
+
+    @Advanced
+    @Argument(fullName = "checkpoint_interval", shortName = "checkpointInterval", doc = "Minimum number of seconds between checkpoints", required = false, minValue = 1)
+    public int checkpointInterval = 300;
+
+    /**
+     * Resume the traversal from the checkpoint stored in the --checkpoint file.  If there is no checkpoint yet,
+     * the traversal starts from the beginning, so the same command line can safely be used to restart a job.
+     */
+    @Advanced
+    @Argument(fullName = "resume", shortName = "resume", doc = "Resume an interrupted run from its last checkpoint", required = false)
+    public boolean resume = false;
 }
 
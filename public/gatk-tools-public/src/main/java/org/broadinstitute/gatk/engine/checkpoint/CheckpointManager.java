@@ -0,0 +1,214 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.checkpoint;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.engine.walkers.Checkpointable;
+import org.broadinstitute.gatk.engine.walkers.Walker;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Coordinates periodic checkpoints of a traversal and resuming from them
+ *
+ * Outputs that support checkpointing register themselves here as they are opened.  The traversal
+ * engine calls checkpointIfDue between reduce calls, at which point the walker is asked for its
+ * state and all registered outputs are then flushed and their sizes recorded.  When resuming, the intervals
+ * to process are trimmed to start right after the checkpointed position, outputs are truncated back
+ * to their recorded sizes and appended to, and the walker state is handed back after initialize().
+ */
+public class CheckpointManager {
+    private final static Logger logger = Logger.getLogger(CheckpointManager.class);
+
+    private final File checkpointFile;
+    private final long checkpointIntervalMillis;
+    private final TraversalCheckpoint resumePoint;
+    private final Map<String, CheckpointedOutput> outputs = new LinkedHashMap<>();
+    private long lastCheckpointTime;
+
+    /**
+     * Create a new CheckpointManager
+     *
+     * @param checkpointFile the file in which to store checkpoints
+     * @param checkpointIntervalSeconds the minimum number of seconds between checkpoints
+     * @param resume if true, resume from the checkpoint in checkpointFile, if there is one
+     */
+    public CheckpointManager(final File checkpointFile, final int checkpointIntervalSeconds, final boolean resume) {
+        if ( checkpointFile == null ) throw new IllegalArgumentException("checkpointFile cannot be null");
+        if ( checkpointIntervalSeconds < 1 ) throw new IllegalArgumentException("checkpointIntervalSeconds must be >= 1 but got " + checkpointIntervalSeconds);
+
+        this.checkpointFile = checkpointFile;
+        this.checkpointIntervalMillis = checkpointIntervalSeconds * 1000L;
+        this.lastCheckpointTime = System.currentTimeMillis();
+
+        if ( resume && checkpointFile.exists() ) {
+            resumePoint = TraversalCheckpoint.read(checkpointFile);
+            logger.info("Resuming traversal after " + resumePoint + " from checkpoint " + checkpointFile);
+        } else {
+            if ( resume )
+                logger.warn("No checkpoint found at " + checkpointFile + ", so the traversal will start from the beginning");
+            resumePoint = null;
+        }
+    }
+
+    /**
+     * @return true if we are picking up an earlier run from its checkpoint
+     */
+    public boolean isResuming() {
+        return resumePoint != null;
+    }
+
+    /**
+     * Register an output file to be flushed and measured at each checkpoint
+     *
+     * @param file the file being written
+     * @param output the output writing to file
+     */
+    public synchronized void registerOutput(final File file, final CheckpointedOutput output) {
+        if ( file == null ) throw new IllegalArgumentException("file cannot be null");
+        if ( output == null ) throw new IllegalArgumentException("output cannot be null");
+        outputs.put(file.getAbsolutePath(), output);
+    }
+
+    /**
+     * Get the size to which file should be truncated before appending to it when resuming
+     *
+     * @param file an output file
+     * @return the size of file at the time of the checkpoint we are resuming from
+     * @throws IllegalStateException if we are not resuming
+     */
+    public long getResumeSize(final File file) {
+        if ( ! isResuming() ) throw new IllegalStateException("Not resuming from a checkpoint");
+
+        final Long size = resumePoint.getOutputSizes().get(file.getAbsolutePath());
+        if ( size == null )
+            throw new UserException.BadArgumentValue("resume", "output " + file + " was not written by the run that created checkpoint " + checkpointFile);
+        if ( file.length() < size )
+            throw new UserException.CouldNotReadInputFile(file, "it is shorter than the " + size + " bytes recorded in checkpoint " + checkpointFile);
+        return size;
+    }
+
+    /**
+     * Restrict intervals to the part of the genome after the position we are resuming from
+     *
+     * @param intervals the intervals requested on the command line, or null if the whole genome is to be processed
+     * @param parser the GenomeLocParser to use
+     * @return intervals itself if we are not resuming, or the subset of intervals that remains to be processed
+     */
+    public GenomeLocSortedSet trimIntervals(final GenomeLocSortedSet intervals, final GenomeLocParser parser) {
+        if ( ! isResuming() )
+            return intervals;
+
+        final GenomeLoc lastCompleted = parser.createGenomeLoc(resumePoint.getContig(), resumePoint.getPosition());
+        final List<GenomeLoc> toProcess = new ArrayList<>();
+        if ( intervals == null ) {
+            for ( final SAMSequenceRecord contig : parser.getContigs().getSequences() )
+                toProcess.add(parser.createOverEntireContig(contig.getSequenceName()));
+        } else {
+            toProcess.addAll(intervals);
+        }
+
+        final List<GenomeLoc> remaining = new ArrayList<>(toProcess.size());
+        for ( final GenomeLoc loc : toProcess ) {
+            if ( loc.getContigIndex() < lastCompleted.getContigIndex() )
+                continue;
+            if ( loc.getContigIndex() == lastCompleted.getContigIndex() ) {
+                if ( loc.getStop() <= lastCompleted.getStart() )
+                    continue;
+                if ( loc.getStart() <= lastCompleted.getStart() ) {
+                    remaining.add(parser.createGenomeLoc(loc.getContig(), loc.getContigIndex(), lastCompleted.getStart() + 1, loc.getStop(), true));
+                    continue;
+                }
+            }
+            remaining.add(loc);
+        }
+
+        return new GenomeLocSortedSet(parser, remaining);
+    }
+
+    /**
+     * Give the walker back the state it saved in the checkpoint we are resuming from, if any
+     *
+     * @param walker the walker, which must already have been initialized
+     */
+    public void restoreWalkerState(final Walker walker) {
+        if ( isResuming() && walker instanceof Checkpointable )
+            ((Checkpointable)walker).restoreCheckpointState(resumePoint.getWalkerState());
+    }
+
+    /**
+     * Write a new checkpoint if at least the checkpoint interval has passed since the last one
+     *
+     * Must only be called when all results up to and including lastCompleted have been passed to the
+     * walker's reduce, and nothing beyond it has.
+     *
+     * @param lastCompleted the last genomic position whose results have been reduced
+     * @param walker the walker being run
+     * @return true if a checkpoint was written
+     */
+    public synchronized boolean checkpointIfDue(final GenomeLoc lastCompleted, final Walker walker) {
+        if ( System.currentTimeMillis() - lastCheckpointTime < checkpointIntervalMillis )
+            return false;
+        checkpoint(lastCompleted, walker);
+        return true;
+    }
+
+    /**
+     * Unconditionally write a new checkpoint
+     *
+     * @param lastCompleted the last genomic position whose results have been reduced
+     * @param walker the walker being run
+     */
+    public synchronized void checkpoint(final GenomeLoc lastCompleted, final Walker walker) {
+        // the walker goes first, as it may still write held back results for lastCompleted while saving its state
+        final Properties walkerState = new Properties();
+        if ( walker instanceof Checkpointable )
+            ((Checkpointable)walker).saveCheckpointState(walkerState);
+
+        final Map<String, Long> outputSizes = new LinkedHashMap<>();
+        for ( final Map.Entry<String, CheckpointedOutput> output : outputs.entrySet() )
+            outputSizes.put(output.getKey(), output.getValue().flushForCheckpoint());
+
+        final TraversalCheckpoint checkpoint = new TraversalCheckpoint(lastCompleted.getContig(), lastCompleted.getStop(), outputSizes, walkerState);
+        checkpoint.write(checkpointFile);
+        lastCheckpointTime = System.currentTimeMillis();
+        logger.debug("Wrote checkpoint at " + checkpoint);
+    }
+
+    /**
+     * Remove the checkpoint once the traversal has finished, so a later --resume doesn't skip anything
+     */
+    public void traversalComplete() {
+        if ( checkpointFile.exists() && ! checkpointFile.delete() )
+            logger.warn("Unable to delete checkpoint " + checkpointFile + " after the traversal completed");
+    }
+}
@@ -0,0 +1,165 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.checkpoint;
+
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A snapshot of how far a traversal has progressed
+ *
+ * Records the last genomic position whose results have been fully handed to the walker's reduce,
+ * the size of each output file at that point, and whatever state the walker needs to carry on
+ * from there.  Stored on disk as a simple properties file, which is rewritten atomically so that
+ * an interrupted write never leaves a truncated checkpoint behind.
+ */
+public final class TraversalCheckpoint {
+    private final static String CONTIG_KEY = "contig";
+    private final static String POSITION_KEY = "position";
+    private final static String OUTPUT_PREFIX = "output.";
+    private final static String WALKER_PREFIX = "walker.";
+
+    private final String contig;
+    private final int position;
+    private final Map<String, Long> outputSizes;
+    private final Properties walkerState;
+
+    /**
+     * Create a new checkpoint
+     *
+     * @param contig the contig of the last completed position
+     * @param position the last completed position on contig
+     * @param outputSizes the size in bytes of each output file, keyed by absolute path
+     * @param walkerState the state saved by the walker
+     */
+    public TraversalCheckpoint(final String contig, final int position, final Map<String, Long> outputSizes, final Properties walkerState) {
+        if ( contig == null ) throw new IllegalArgumentException("contig cannot be null");
+        if ( position < 1 ) throw new IllegalArgumentException("position must be >= 1 but got " + position);
+        if ( outputSizes == null ) throw new IllegalArgumentException("outputSizes cannot be null");
+        if ( walkerState == null ) throw new IllegalArgumentException("walkerState cannot be null");
+
+        this.contig = contig;
+        this.position = position;
+        this.outputSizes = Collections.unmodifiableMap(new LinkedHashMap<>(outputSizes));
+        this.walkerState = walkerState;
+    }
+
+    public String getContig() { return contig; }
+    public int getPosition() { return position; }
+    public Map<String, Long> getOutputSizes() { return outputSizes; }
+
+    /**
+     * Get a copy of the walker state stored in this checkpoint
+     * @return a non-null Properties object that can be modified by the caller
+     */
+    public Properties getWalkerState() {
+        final Properties copy = new Properties();
+        copy.putAll(walkerState);
+        return copy;
+    }
+
+    /**
+     * Write this checkpoint to file, replacing any previous checkpoint there
+     *
+     * The checkpoint is first written to a temporary file next to file and then moved into place.
+     *
+     * @param file the destination file
+     */
+    public void write(final File file) {
+        final Properties properties = new Properties();
+        properties.setProperty(CONTIG_KEY, contig);
+        properties.setProperty(POSITION_KEY, Integer.toString(position));
+        for ( final Map.Entry<String, Long> output : outputSizes.entrySet() )
+            properties.setProperty(OUTPUT_PREFIX + output.getKey(), Long.toString(output.getValue()));
+        for ( final String key : walkerState.stringPropertyNames() )
+            properties.setProperty(WALKER_PREFIX + key, walkerState.getProperty(key));
+
+        final File tmp = new File(file.getAbsolutePath() + ".tmp");
+        try {
+            final FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                properties.store(out, "GATK traversal checkpoint");
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(file, "Unable to write checkpoint", e);
+        }
+    }
+
+    /**
+     * Read a checkpoint previously written with write
+     *
+     * @param file the checkpoint file
+     * @return a non-null checkpoint
+     */
+    public static TraversalCheckpoint read(final File file) {
+        final Properties properties = new Properties();
+        try {
+            final FileInputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, "Unable to read checkpoint", e);
+        }
+
+        final String contig = properties.getProperty(CONTIG_KEY);
+        final String position = properties.getProperty(POSITION_KEY);
+        if ( contig == null || position == null )
+            throw new UserException.CouldNotReadInputFile(file, "it is not a valid checkpoint file");
+
+        final Map<String, Long> outputSizes = new LinkedHashMap<>();
+        final Properties walkerState = new Properties();
+        try {
+            for ( final String key : properties.stringPropertyNames() ) {
+                if ( key.startsWith(OUTPUT_PREFIX) )
+                    outputSizes.put(key.substring(OUTPUT_PREFIX.length()), Long.parseLong(properties.getProperty(key)));
+                else if ( key.startsWith(WALKER_PREFIX) )
+                    walkerState.setProperty(key.substring(WALKER_PREFIX.length()), properties.getProperty(key));
+            }
+            return new TraversalCheckpoint(contig, Integer.parseInt(position), outputSizes, walkerState);
+        } catch ( NumberFormatException e ) {
+            throw new UserException.CouldNotReadInputFile(file, "it is not a valid checkpoint file", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%d", contig, position);
+    }
+}
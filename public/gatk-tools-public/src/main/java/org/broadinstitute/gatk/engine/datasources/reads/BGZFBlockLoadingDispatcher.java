@@ -25,19 +25,39 @@
 
 package org.broadinstitute.gatk.engine.datasources.reads;
 
+import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Preloads BGZF blocks in preparation for unzipping and data processing.
+ *
+ * Two stages are involved: numThreads block loaders service demand loads queued by BlockInputStreams, and
+ * an optional pool of numReadAheadThreads reads and inflates the blocks following each demand load, so that
+ * the next request from a sequentially-reading stream is usually already decompressed.
  * TODO: Right now, the block loader has all threads blocked waiting for a work request.  Ultimately this should
  * TODO: be replaced with a central thread management strategy.
  */
 public class BGZFBlockLoadingDispatcher {
+    private static final Logger logger = Logger.getLogger(BGZFBlockLoadingDispatcher.class);
+
+    /**
+     * How many blocks each stream may have read ahead at once.  At most ~64K of inflated data apiece.
+     */
+    public static final int READ_AHEAD_DEPTH = 4;
+
     /**
      * The file handle cache, used when allocating blocks from the dispatcher.
      */
@@ -45,14 +65,63 @@ public class BGZFBlockLoadingDispatcher {
 
     private final ExecutorService threadPool;
 
-    private final Queue<BAMAccessPlan> inputQueue;
+    private final BlockingQueue<BAMAccessPlan> inputQueue;
+
+    /**
+     * Pool for speculative block loads, or null if read-ahead is disabled.
+     */
+    private final ThreadPoolExecutor readAheadPool;
+
+    /**
+     * Each read-ahead thread stages compressed blocks in its own buffer.
+     */
+    private final ThreadLocal<BGZFBlockReader> readAheadBlockReaders;
+
+    /**
+     * Whether asynchronous decompression should happen.
+     */
+    private final boolean decompress = true;
+
+    // Metrics; see logMetrics().
+    private final AtomicLong blocksLoadedOnDemand = new AtomicLong();
+    private final AtomicLong readAheadHits = new AtomicLong();
+    private final AtomicLong readAheadMisses = new AtomicLong();
+    private final AtomicLong readAheadFailures = new AtomicLong();
+    private final AtomicLong readAheadDiscarded = new AtomicLong();
+    private final AtomicInteger maxInputQueueDepth = new AtomicInteger();
+    private final AtomicInteger maxReadAheadQueueDepth = new AtomicInteger();
 
     public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles) {
-        threadPool = Executors.newFixedThreadPool(numThreads);
+        this(numThreads,0,numFileHandles);
+    }
+
+    public BGZFBlockLoadingDispatcher(final int numThreads, final int numReadAheadThreads, final int numFileHandles) {
+        if(numThreads < 1)
+            throw new ReviewedGATKException("Block loading requires at least one thread, but saw " + numThreads);
+        if(numReadAheadThreads < 0)
+            throw new ReviewedGATKException("Number of read-ahead threads cannot be less than 0, but saw " + numReadAheadThreads);
+
         fileHandleCache = new FileHandleCache(numFileHandles);
-        inputQueue = new LinkedList<BAMAccessPlan>();
+        inputQueue = new LinkedBlockingQueue<BAMAccessPlan>();
+
+        threadPool = Executors.newFixedThreadPool(numThreads,new DaemonThreadFactory("BGZFBlockLoader-%d"));
+        for(int i = 0; i < numThreads; i++)
+            threadPool.execute(new BlockLoader(this,fileHandleCache,decompress));
 
-        threadPool.execute(new BlockLoader(this,fileHandleCache,true));
+        if(numReadAheadThreads > 0) {
+            readAheadPool = new ThreadPoolExecutor(numReadAheadThreads,numReadAheadThreads,0L,TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),new DaemonThreadFactory("BGZFReadAhead-%d"));
+            readAheadBlockReaders = new ThreadLocal<BGZFBlockReader>() {
+                @Override
+                protected BGZFBlockReader initialValue() {
+                    return new BGZFBlockReader(fileHandleCache);
+                }
+            };
+        }
+        else {
+            readAheadPool = null;
+            readAheadBlockReaders = null;
+        }
     }
 
     /**
@@ -60,27 +129,138 @@ public class BGZFBlockLoadingDispatcher {
       * @param readerPosition Position at which to load.
      */
     void queueBlockLoad(final BAMAccessPlan readerPosition) {
-        synchronized(inputQueue) {
-            inputQueue.add(readerPosition);
-            inputQueue.notify();
-        }
+        inputQueue.add(readerPosition);
+        updateMax(maxInputQueueDepth,inputQueue.size());
     }
 
     /**
      * Claims the next work request from the queue.
-     * @return The next work request, or null if none is available.
+     * @return The next work request, or null if the dispatcher has been shut down.
      */
     BAMAccessPlan claimNextWorkRequest() {
-        synchronized(inputQueue) {
-            while(inputQueue.isEmpty()) {
-                try {
-                    inputQueue.wait();
-                }
-                catch(InterruptedException ex) {
-                    throw new ReviewedGATKException("Interrupt occurred waiting for next block reader work item");
-                }
-            }
-            return inputQueue.poll();
+        try {
+            return inputQueue.take();
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Creates a read-ahead window for a new BlockInputStream.
+     * @param reader the reader backing the stream.
+     * @param length the length of the reader's file.
+     * @return a new window, or null if read-ahead is disabled.
+     */
+    BGZFReadAheadWindow createReadAheadWindow(final SAMReaderID reader, final long length) {
+        return readAheadPool != null ? new BGZFReadAheadWindow(this,reader,length,READ_AHEAD_DEPTH) : null;
+    }
+
+    /**
+     * Waits for a block claimed from a read-ahead window.
+     * @param prefetched the pending read-ahead.
+     * @return the block, or null if the read-ahead failed and the block should be loaded on demand.
+     */
+    BGZFReadAheadWindow.PrefetchedBlock awaitReadAhead(final Future<BGZFReadAheadWindow.PrefetchedBlock> prefetched) {
+        try {
+            final BGZFReadAheadWindow.PrefetchedBlock block = prefetched.get();
+            readAheadHits.incrementAndGet();
+            return block;
+        }
+        catch(InterruptedException ex) {
+            throw new ReviewedGATKException("Interrupt occurred waiting for read-ahead block",ex);
+        }
+        catch(ExecutionException ex) {
+            // Fall back to a demand load, which will surface the error if it's real.
+            readAheadFailures.incrementAndGet();
+            return null;
+        }
+    }
+
+    Future<BGZFReadAheadWindow.PrefetchedBlock> submitReadAhead(final Callable<BGZFReadAheadWindow.PrefetchedBlock> task) {
+        final Future<BGZFReadAheadWindow.PrefetchedBlock> future = readAheadPool.submit(task);
+        updateMax(maxReadAheadQueueDepth,readAheadPool.getQueue().size());
+        return future;
+    }
+
+    BGZFBlockReader getReadAheadBlockReader() {
+        return readAheadBlockReaders.get();
+    }
+
+    boolean isDecompressing() {
+        return decompress;
+    }
+
+    void recordDemandLoad(final boolean readAheadEnabled) {
+        blocksLoadedOnDemand.incrementAndGet();
+        if(readAheadEnabled)
+            readAheadMisses.incrementAndGet();
+    }
+
+    void recordReadAheadDiscarded(final int numBlocks) {
+        readAheadDiscarded.addAndGet(numBlocks);
+    }
+
+    public long getBlocksLoadedOnDemand() { return blocksLoadedOnDemand.get(); }
+
+    public long getReadAheadHits() { return readAheadHits.get(); }
+
+    public long getReadAheadMisses() { return readAheadMisses.get(); }
+
+    public long getReadAheadDiscarded() { return readAheadDiscarded.get(); }
+
+    public int getInputQueueDepth() { return inputQueue.size(); }
+
+    public int getMaxInputQueueDepth() { return maxInputQueueDepth.get(); }
+
+    public int getReadAheadQueueDepth() { return readAheadPool != null ? readAheadPool.getQueue().size() : 0; }
+
+    public int getMaxReadAheadQueueDepth() { return maxReadAheadQueueDepth.get(); }
+
+    /**
+     * Summarizes block loading activity to the log.
+     */
+    public void logMetrics() {
+        logger.info(String.format("Asynchronous I/O: %d blocks loaded on demand; max load queue depth %d",
+                getBlocksLoadedOnDemand(),getMaxInputQueueDepth()));
+        if(readAheadPool != null)
+            logger.info(String.format("BGZF read-ahead: %d hits, %d misses, %d failed, %d discarded; max read-ahead queue depth %d",
+                    getReadAheadHits(),getReadAheadMisses(),readAheadFailures.get(),getReadAheadDiscarded(),getMaxReadAheadQueueDepth()));
+    }
+
+    /**
+     * Stops all loading threads and closes idle file handles.
+     */
+    public void close() {
+        threadPool.shutdownNow();
+        if(readAheadPool != null)
+            readAheadPool.shutdownNow();
+        fileHandleCache.close();
+    }
+
+    private static void updateMax(final AtomicInteger max, final int value) {
+        int current;
+        while(value > (current = max.get()) && !max.compareAndSet(current,value))
+            ;
+    }
+
+    /**
+     * Loader threads block forever waiting for work, so they must not hold the JVM open.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String format;
+        private final AtomicInteger id = new AtomicInteger();
+
+        public DaemonThreadFactory(final String format) {
+            this.format = format;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable,String.format(format,id.getAndIncrement()));
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
@@ -0,0 +1,209 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and inflates single BGZF blocks using positional reads against pooled file channels.
+ * Not thread-safe: each loading thread owns its own reader, since the compressed block is staged
+ * in a reusable direct buffer.
+ */
+class BGZFBlockReader {
+    /**
+     * A cache from which to retrieve open file handles.
+     */
+    private final FileHandleCache fileHandleCache;
+
+    /**
+     * An direct input buffer for incoming data from disk.
+     */
+    private final ByteBuffer inputBuffer;
+
+    /**
+     * Reused across blocks; reset before each inflation.
+     */
+    private final Inflater inflater = new Inflater(true);
+
+    /**
+     * Address of the block following the one most recently read.
+     */
+    private long nextBlockAddress = -1;
+
+    public BGZFBlockReader(final FileHandleCache fileHandleCache) {
+        this.fileHandleCache = fileHandleCache;
+        this.inputBuffer = ByteBuffer.allocateDirect(64*1024 + BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length);
+        inputBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads the compressed BGZF block at the given address, skipping over any empty blocks.
+     * @param reader The reader from which to load data.
+     * @param blockAddress Physical address on disk of the BGZF block.
+     * @return The compressed block.  Only valid until the next call to readBGZFBlock.
+     * @throws IOException if the block can't be read.
+     */
+    public ByteBuffer readBGZFBlock(final SAMReaderID reader, final long blockAddress) throws IOException {
+        final FileChannel channel = fileHandleCache.claimFileChannel(reader);
+        try {
+            return readBGZFBlock(channel,blockAddress);
+        }
+        finally {
+            fileHandleCache.releaseFileChannel(reader,channel);
+        }
+    }
+
+    /**
+     * @return The address of the block immediately following the last block read.
+     */
+    public long getNextBlockAddress() {
+        return nextBlockAddress;
+    }
+
+    /**
+     * Inflates a block returned from readBGZFBlock.
+     * @param bgzfBlock the compressed block.
+     * @return a newly allocated buffer containing the uncompressed contents.
+     * @throws DataFormatException if the block is corrupt.
+     */
+    public ByteBuffer decompressBGZFBlock(final ByteBuffer bgzfBlock) throws DataFormatException {
+        final int compressedBufferSize = bgzfBlock.remaining();
+
+        // Determine the uncompressed buffer size (
+        bgzfBlock.position(bgzfBlock.limit()-4);
+        int uncompressedBufferSize = bgzfBlock.getInt();
+        byte[] uncompressedContent = new byte[uncompressedBufferSize];
+
+        // Bound the CDATA section of the buffer.
+        bgzfBlock.limit(compressedBufferSize-BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+        bgzfBlock.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+        byte[] compressedContent = new byte[bgzfBlock.remaining()];
+        ByteBuffer.wrap(compressedContent).put(bgzfBlock);
+
+        // Decompress the buffer.
+        inflater.reset();
+        inflater.setInput(compressedContent);
+        int bytesUncompressed = inflater.inflate(uncompressedContent);
+        if(bytesUncompressed != uncompressedBufferSize)
+            throw new ReviewedGATKException("Error decompressing block");
+
+        return ByteBuffer.wrap(uncompressedContent);
+    }
+
+    /**
+     * Copies a block returned from readBGZFBlock out of the shared staging buffer.
+     * @param bgzfBlock the compressed block.
+     * @return a newly allocated buffer containing the compressed contents.
+     */
+    public ByteBuffer copyBGZFBlock(final ByteBuffer bgzfBlock) {
+        final ByteBuffer copy = ByteBuffer.allocate(bgzfBlock.remaining());
+        copy.order(ByteOrder.LITTLE_ENDIAN);
+        copy.put(bgzfBlock);
+        copy.flip();
+        return copy;
+    }
+
+    private ByteBuffer readBGZFBlock(final FileChannel channel, final long blockAddress) throws IOException {
+        long position = blockAddress;
+        final long channelSize = channel.size();
+
+        int uncompressedDataSize = 0;
+        int bufferSize = 0;
+
+        do {
+            inputBuffer.clear();
+            inputBuffer.limit(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            readFully(channel,position);
+
+            // Read out the size of the full BGZF block into a two bit short container, then 'or' that
+            // value into an int buffer to transfer the bitwise contents into an int.
+            inputBuffer.flip();
+            if(inputBuffer.remaining() != BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH)
+                throw new ReviewedGATKException("BUG: unable to read a the complete block header in one pass.");
+
+            // Verify that the file was read at a valid point.
+            if(unpackUByte8(inputBuffer,0) != BlockCompressedStreamConstants.GZIP_ID1 ||
+                    unpackUByte8(inputBuffer,1) != BlockCompressedStreamConstants.GZIP_ID2 ||
+                    unpackUByte8(inputBuffer,3) != BlockCompressedStreamConstants.GZIP_FLG ||
+                    unpackUInt16(inputBuffer,10) != BlockCompressedStreamConstants.GZIP_XLEN ||
+                    unpackUByte8(inputBuffer,12) != BlockCompressedStreamConstants.BGZF_ID1 ||
+                    unpackUByte8(inputBuffer,13) != BlockCompressedStreamConstants.BGZF_ID2) {
+                throw new ReviewedGATKException("BUG: Started reading compressed block at incorrect position");
+            }
+
+            inputBuffer.position(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET);
+            bufferSize = unpackUInt16(inputBuffer,BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET)+1;
+
+            // Adjust buffer limits and finish reading the block.  If it turns out to be a 0-byte block, move on to the next one.
+            inputBuffer.limit(bufferSize);
+            inputBuffer.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            readFully(channel,position+BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            position += bufferSize;
+
+            // Check the uncompressed length.  If 0 and not at EOF, we'll want to check the next block.
+            uncompressedDataSize = inputBuffer.getInt(inputBuffer.limit()-4);
+        }
+        while(uncompressedDataSize == 0 && position < channelSize);
+
+        nextBlockAddress = position;
+
+        // Prepare the buffer for reading.
+        inputBuffer.flip();
+
+        return inputBuffer;
+    }
+
+    /**
+     * Fills the remainder of the input buffer from the given file position, without touching the channel's own position.
+     */
+    private void readFully(final FileChannel channel, final long position) throws IOException {
+        long readPosition = position;
+        while(inputBuffer.hasRemaining()) {
+            final int bytesRead = channel.read(inputBuffer,readPosition);
+            if(bytesRead < 0)
+                break;
+            readPosition += bytesRead;
+        }
+    }
+
+    private int unpackUByte8(final ByteBuffer buffer,final int position) {
+        return buffer.get(position) & 0xFF;
+    }
+
+    private int unpackUInt16(final ByteBuffer buffer,final int position) {
+        // Read out the size of the full BGZF block into a two bit short container, then 'or' that
+        // value into an int buffer to transfer the bitwise contents into an int.
+        return buffer.getShort(position) & 0xFFFF;
+    }
+}
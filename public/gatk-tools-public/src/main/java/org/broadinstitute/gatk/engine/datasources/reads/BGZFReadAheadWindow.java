@@ -0,0 +1,194 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Speculatively loads and inflates the BGZF blocks physically following the last block consumed by
+ * a single BlockInputStream, so that the next buffer fill usually finds its block already decompressed.
+ *
+ * Block addresses are only discovered by reading the preceding block's header, so reads are chained:
+ * each read-ahead task schedules its successor as soon as its compressed block is off disk, and inflation
+ * of the blocks in the window proceeds in parallel.  If the stream asks for anything other than the oldest
+ * block in the window (a seek to a new chunk), the whole window is discarded.
+ *
+ * Every BlockInputStream has at most one outstanding load, so the consumer side of this class is never
+ * contended; the lock is shared only with the stream's own read-ahead tasks.
+ */
+class BGZFReadAheadWindow {
+    /**
+     * A block that has been read and inflated ahead of its request.
+     */
+    static class PrefetchedBlock {
+        final ByteBuffer data;
+        final long nextBlockAddress;
+
+        PrefetchedBlock(final ByteBuffer data, final long nextBlockAddress) {
+            this.data = data;
+            this.nextBlockAddress = nextBlockAddress;
+        }
+    }
+
+    private final BGZFBlockLoadingDispatcher dispatcher;
+
+    private final SAMReaderID reader;
+
+    /**
+     * Length of the underlying file; no read-ahead past this point.
+     */
+    private final long length;
+
+    /**
+     * Maximum number of blocks held in the window.
+     */
+    private final int depth;
+
+    /**
+     * Blocks in flight or ready, keyed by block address, oldest first.
+     */
+    private final LinkedHashMap<Long,Future<PrefetchedBlock>> pending = new LinkedHashMap<Long,Future<PrefetchedBlock>>();
+
+    /**
+     * Bumped every time the window is discarded, so that stale tasks don't extend the new window.
+     */
+    private int generation = 0;
+
+    /**
+     * Is the newest block in the window still being read from disk?
+     */
+    private boolean tailReadInFlight = false;
+
+    /**
+     * Address following the newest block in the window, or -1 if unknown.
+     */
+    private long tailNextAddress = -1;
+
+    private boolean closed = false;
+
+    BGZFReadAheadWindow(final BGZFBlockLoadingDispatcher dispatcher, final SAMReaderID reader, final long length, final int depth) {
+        this.dispatcher = dispatcher;
+        this.reader = reader;
+        this.length = length;
+        this.depth = depth;
+    }
+
+    /**
+     * Claims the read-ahead for the given block, if it is the next block in the window.
+     * @param blockAddress the address the stream needs next.
+     * @return the pending load, or null if the block was not read ahead.
+     */
+    synchronized Future<PrefetchedBlock> claim(final long blockAddress) {
+        if(!pending.isEmpty()) {
+            final Iterator<Map.Entry<Long,Future<PrefetchedBlock>>> it = pending.entrySet().iterator();
+            final Map.Entry<Long,Future<PrefetchedBlock>> oldest = it.next();
+            if(oldest.getKey() == blockAddress) {
+                it.remove();
+                extend();
+                return oldest.getValue();
+            }
+            discard();
+        }
+        return null;
+    }
+
+    /**
+     * Starts a new window after a block was loaded on demand.
+     * @param nextBlockAddress the address following the block just loaded.
+     */
+    synchronized void startFrom(final long nextBlockAddress) {
+        if(pending.isEmpty() && !tailReadInFlight) {
+            tailNextAddress = nextBlockAddress;
+            extend();
+        }
+    }
+
+    /**
+     * Cancels all outstanding read-ahead and refuses any more.
+     */
+    synchronized void close() {
+        closed = true;
+        discard();
+    }
+
+    /**
+     * Called by a read-ahead task once its compressed block is off disk.
+     */
+    private synchronized void tailRead(final int taskGeneration, final long nextBlockAddress) {
+        if(taskGeneration != generation)
+            return;
+        tailReadInFlight = false;
+        tailNextAddress = nextBlockAddress;
+        extend();
+    }
+
+    private void extend() {
+        if(closed || tailReadInFlight || tailNextAddress < 0 || tailNextAddress >= length || pending.size() >= depth)
+            return;
+
+        final long blockAddress = tailNextAddress;
+        final int taskGeneration = generation;
+        tailReadInFlight = true;
+        tailNextAddress = -1;
+
+        pending.put(blockAddress,dispatcher.submitReadAhead(new Callable<PrefetchedBlock>() {
+            @Override
+            public PrefetchedBlock call() throws Exception {
+                final BGZFBlockReader blockReader = dispatcher.getReadAheadBlockReader();
+                long nextBlockAddress = -1;
+                final ByteBuffer compressedBlock;
+                try {
+                    compressedBlock = blockReader.readBGZFBlock(reader,blockAddress);
+                    nextBlockAddress = blockReader.getNextBlockAddress();
+                }
+                finally {
+                    // Hand the successor off before inflating.  On failure the chain stops here.
+                    tailRead(taskGeneration,nextBlockAddress);
+                }
+                final ByteBuffer data = dispatcher.isDecompressing() ? blockReader.decompressBGZFBlock(compressedBlock) : blockReader.copyBGZFBlock(compressedBlock);
+                return new PrefetchedBlock(data,nextBlockAddress);
+            }
+        }));
+    }
+
+    private void discard() {
+        if(!pending.isEmpty()) {
+            dispatcher.recordReadAheadDiscarded(pending.size());
+            // Don't interrupt: an interrupt mid-read would close the pooled channel.
+            for(final Future<PrefetchedBlock> future: pending.values())
+                future.cancel(false);
+            pending.clear();
+        }
+        generation++;
+        tailReadInFlight = false;
+        tailNextAddress = -1;
+    }
+}
@@ -92,6 +92,11 @@ public class BlockInputStream extends InputStream {
      */
     private final BlockCompressedInputStream validatingInputStream;
 
+    /**
+     * Blocks read ahead of this stream's requests, or null if read-ahead is disabled.
+     */
+    private final BGZFReadAheadWindow readAheadWindow;
+
     /**
      * Create a new block presenting input stream with a dedicated buffer.
      * @param dispatcher the block loading messenger.
@@ -110,6 +115,7 @@ public class BlockInputStream extends InputStream {
         buffer.limit(0);
 
         this.dispatcher = dispatcher;
+        this.readAheadWindow = dispatcher != null ? dispatcher.createReadAheadWindow(reader,length) : null;
         // TODO: Kill the region when all we want to do is start at the beginning of the stream and run to the end of the stream.
         this.accessPlan = new BAMAccessPlan(reader,this,new GATKBAMFileSpan(new GATKChunk(0,Long.MAX_VALUE)));
 
@@ -139,6 +145,13 @@ public class BlockInputStream extends InputStream {
         return length;
     }
 
+    /**
+     * @return the read-ahead window feeding this stream, or null if read-ahead is disabled.
+     */
+    BGZFReadAheadWindow getReadAheadWindow() {
+        return readAheadWindow;
+    }
+
     public long getFilePointer() {
         long filePointer;
         synchronized(lock) {
@@ -409,6 +422,8 @@ public class BlockInputStream extends InputStream {
     }
 
     public void close() {
+        if(readAheadWindow != null)
+            readAheadWindow.close();
         if(validatingInputStream != null) {
             try {
                 validatingInputStream.close();
@@ -25,16 +25,8 @@
 
 package org.broadinstitute.gatk.engine.datasources.reads;
 
-import htsjdk.samtools.util.BlockCompressedStreamConstants;
-import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
-
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.util.concurrent.Future;
 
 /**
  * An engine for loading blocks.
@@ -45,28 +37,20 @@ class BlockLoader implements Runnable {
      */
     private BGZFBlockLoadingDispatcher dispatcher;
 
-    /**
-     * A cache from which to retrieve open file handles.
-     */
-    private final FileHandleCache fileHandleCache;
-
     /**
      * Whether asynchronous decompression should happen.
      */
     private final boolean decompress;
 
     /**
-     * An direct input buffer for incoming data from disk.
+     * Reads blocks positionally from the dispatcher's file handle cache.
      */
-    private final ByteBuffer inputBuffer;
+    private final BGZFBlockReader blockReader;
 
     public BlockLoader(final BGZFBlockLoadingDispatcher dispatcher, final FileHandleCache fileHandleCache, final boolean decompress) {
         this.dispatcher = dispatcher;
-        this.fileHandleCache = fileHandleCache;
         this.decompress = decompress;
-
-        this.inputBuffer = ByteBuffer.allocateDirect(64*1024 + BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length);
-        inputBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.blockReader = new BGZFBlockReader(fileHandleCache);
     }
 
     public void run() {
@@ -74,22 +58,36 @@ class BlockLoader implements Runnable {
             BAMAccessPlan accessPlan = null;
             try {
                 accessPlan = dispatcher.claimNextWorkRequest();
-                FileInputStream inputStream = fileHandleCache.claimFileInputStream(accessPlan.getReader());
+                if(accessPlan == null)
+                    return;
+
+                final BlockInputStream bamInputStream = accessPlan.getInputStream();
+                final BGZFReadAheadWindow readAhead = bamInputStream.getReadAheadWindow();
+                final long blockAddress = accessPlan.getBlockAddress();
+
+                // Prefer a block that's already been read ahead for this stream.
+                final Future<BGZFReadAheadWindow.PrefetchedBlock> pending = readAhead != null ? readAhead.claim(blockAddress) : null;
+                final BGZFReadAheadWindow.PrefetchedBlock prefetched = pending != null ? dispatcher.awaitReadAhead(pending) : null;
+
+                ByteBuffer block;
+                long nextBlockAddress;
+                if(prefetched != null) {
+                    block = prefetched.data;
+                    nextBlockAddress = prefetched.nextBlockAddress;
+                }
+                else {
+                    ByteBuffer compressedBlock = blockReader.readBGZFBlock(accessPlan.getReader(),blockAddress);
+                    nextBlockAddress = blockReader.getNextBlockAddress();
+                    dispatcher.recordDemandLoad(readAhead != null);
+
+                    // Get the read-ahead going before spending time inflating this block.
+                    if(readAhead != null)
+                        readAhead.startFrom(nextBlockAddress);
+
+                    block = decompress ? blockReader.decompressBGZFBlock(compressedBlock) : compressedBlock;
+                }
 
-                //long blockAddress = readerPosition.getBlockAddress();
-                //System.out.printf("Thread %s: BlockLoader: copying bytes from %s at position %d into %s%n",Thread.currentThread().getId(),inputStream,blockAddress,readerPosition.getInputStream());
-
-                ByteBuffer compressedBlock = readBGZFBlock(inputStream,accessPlan.getBlockAddress());
-                long nextBlockAddress = position(inputStream);
-                fileHandleCache.releaseFileInputStream(accessPlan.getReader(),inputStream);
-
-                ByteBuffer block = decompress ? decompressBGZFBlock(compressedBlock) : compressedBlock;
-                int bytesCopied = block.remaining();
-
-                BlockInputStream bamInputStream = accessPlan.getInputStream();
                 bamInputStream.copyIntoBuffer(block,accessPlan,nextBlockAddress);
-
-                //System.out.printf("Thread %s: BlockLoader: copied %d bytes from %s at position %d into %s%n",Thread.currentThread().getId(),bytesCopied,inputStream,blockAddress,readerPosition.getInputStream());
             }
             catch(Throwable error) {
                 if(accessPlan != null && accessPlan.getInputStream() != null)
@@ -98,92 +96,4 @@ class BlockLoader implements Runnable {
         }
 
     }
-
-    private ByteBuffer readBGZFBlock(final FileInputStream inputStream, final long blockAddress) throws IOException {
-        FileChannel channel = inputStream.getChannel();
-
-        // Read the block header
-        channel.position(blockAddress);
-
-        int uncompressedDataSize = 0;
-        int bufferSize = 0;
-
-        do {
-            inputBuffer.clear();
-            inputBuffer.limit(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-            channel.read(inputBuffer);
-
-            // Read out the size of the full BGZF block into a two bit short container, then 'or' that
-            // value into an int buffer to transfer the bitwise contents into an int.
-            inputBuffer.flip();
-            if(inputBuffer.remaining() != BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH)
-                throw new ReviewedGATKException("BUG: unable to read a the complete block header in one pass.");
-
-            // Verify that the file was read at a valid point.
-            if(unpackUByte8(inputBuffer,0) != BlockCompressedStreamConstants.GZIP_ID1 ||
-                    unpackUByte8(inputBuffer,1) != BlockCompressedStreamConstants.GZIP_ID2 ||
-                    unpackUByte8(inputBuffer,3) != BlockCompressedStreamConstants.GZIP_FLG ||
-                    unpackUInt16(inputBuffer,10) != BlockCompressedStreamConstants.GZIP_XLEN ||
-                    unpackUByte8(inputBuffer,12) != BlockCompressedStreamConstants.BGZF_ID1 ||
-                    unpackUByte8(inputBuffer,13) != BlockCompressedStreamConstants.BGZF_ID2) {
-                throw new ReviewedGATKException("BUG: Started reading compressed block at incorrect position");
-            }
-
-            inputBuffer.position(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET);
-            bufferSize = unpackUInt16(inputBuffer,BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET)+1;
-
-            // Adjust buffer limits and finish reading the block.  Also read the next header, just in case there's a 0-byte block.
-            inputBuffer.limit(bufferSize);
-            inputBuffer.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-            channel.read(inputBuffer);
-
-            // Check the uncompressed length.  If 0 and not at EOF, we'll want to check the next block.
-            uncompressedDataSize = inputBuffer.getInt(inputBuffer.limit()-4);
-            //System.out.printf("Uncompressed block size of the current block (at position %d) is %d%n",channel.position()-inputBuffer.limit(),uncompressedDataSize);
-        }
-        while(uncompressedDataSize == 0 && channel.position() < channel.size());
-
-        // Prepare the buffer for reading.
-        inputBuffer.flip();
-
-        return inputBuffer;
-    }
-
-    private ByteBuffer decompressBGZFBlock(final ByteBuffer bgzfBlock) throws DataFormatException {
-        final int compressedBufferSize = bgzfBlock.remaining();
-
-        // Determine the uncompressed buffer size (
-        bgzfBlock.position(bgzfBlock.limit()-4);
-        int uncompressedBufferSize = bgzfBlock.getInt();
-        byte[] uncompressedContent = new byte[uncompressedBufferSize];
-
-        // Bound the CDATA section of the buffer.
-        bgzfBlock.limit(compressedBufferSize-BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
-        bgzfBlock.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-        byte[] compressedContent = new byte[bgzfBlock.remaining()];
-        ByteBuffer.wrap(compressedContent).put(bgzfBlock);
-
-        // Decompress the buffer.
-        final Inflater inflater = new Inflater(true);
-        inflater.setInput(compressedContent);
-        int bytesUncompressed = inflater.inflate(uncompressedContent);
-        if(bytesUncompressed != uncompressedBufferSize)
-            throw new ReviewedGATKException("Error decompressing block");
-
-        return ByteBuffer.wrap(uncompressedContent);
-    }
-
-    private long position(final FileInputStream inputStream) throws IOException {
-        return inputStream.getChannel().position();
-    }
-
-    private int unpackUByte8(final ByteBuffer buffer,final int position) {
-        return buffer.get(position) & 0xFF;
-    }
-
-    private int unpackUInt16(final ByteBuffer buffer,final int position) {
-        // Read out the size of the full BGZF block into a two bit short container, then 'or' that
-        // value into an int buffer to transfer the bitwise contents into an int.
-        return buffer.getShort(position) & 0xFFFF;
-    }
 }
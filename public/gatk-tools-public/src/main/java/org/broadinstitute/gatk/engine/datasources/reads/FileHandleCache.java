@@ -30,23 +30,35 @@ import org.broadinstitute.gatk.utils.exceptions.GATKException;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.nio.channels.FileChannel;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Caches frequently used  file handles.  Right now, caches only a single file handle.
- * TODO: Generalize to support arbitrary file handle caches.
+ * Caches frequently used file handles.  Idle handles are pooled per reader, so that threads loading blocks
+ * from different BAMs never contend with each other; a semaphore bounds the number of handles in use at once.
+ * When more handles sit idle than the cache holds, the least recently released one is closed, whichever
+ * reader it belongs to.  Each idle handle records when it was released, and an eviction compares the
+ * oldest handle of every reader, so claims and releases share no queue across readers.
+ *
+ * Handles are FileChannels read positionally, so a claimed channel carries no seek state between uses.
  */
 public class FileHandleCache {
     /**
-     * The underlying data structure storing file handles.
+     * Idle channels, striped by the reader they belong to.
      */
-    private final FileHandleStorage fileHandleStorage;
+    private final ConcurrentMap<SAMReaderID,Queue<IdleChannel>> idleChannels = new ConcurrentHashMap<SAMReaderID,Queue<IdleChannel>>();
+
+    /**
+     * Orders releases across all readers, so that evictions can find the least recently released channel.
+     */
+    private final AtomicLong releaseSequence = new AtomicLong(0);
 
     /**
      * How many file handles should be kept open at once.
@@ -54,179 +66,178 @@ public class FileHandleCache {
     private final int cacheSize;
 
     /**
-     * A uniquifier: assign a unique ID to every instance of a file handle.
+     * One permit per file handle that may be outstanding at any given time.
      */
-    private final Map<SAMReaderID,Integer> keyCounter = new HashMap<SAMReaderID,Integer>();
+    private final Semaphore outstandingFileHandles;
 
     /**
-     * A shared lock, private so that outside users cannot notify it.
+     * How many channels are currently sitting idle across all readers.
      */
-    private final Object lock = new Object();
+    private final AtomicInteger numIdleFileHandles = new AtomicInteger(0);
 
     /**
-     * Indicates how many file handles are outstanding at this point.
+     * Once closed, released channels are closed rather than pooled.
      */
-    private int numOutstandingFileHandles = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * An idle channel, queued under its reader in release order.  Whoever takes it first -- a thread
+     * claiming a channel for its reader, or an eviction -- owns it.
+     */
+    private static class IdleChannel {
+        private final FileChannel channel;
+        private final long released;
+        private final AtomicBoolean taken = new AtomicBoolean(false);
+
+        private IdleChannel(final FileChannel channel, final long released) {
+            this.channel = channel;
+            this.released = released;
+        }
+
+        private boolean take() {
+            return taken.compareAndSet(false,true);
+        }
+    }
 
     /**
      * Create a new file handle cache of the given cache size.
      * @param cacheSize how many readers to hold open at once.
      */
     public FileHandleCache(final int cacheSize) {
+        if(cacheSize < 1)
+            throw new ReviewedGATKException("File handle cache size must be at least 1, but saw " + cacheSize);
         this.cacheSize = cacheSize;
-        fileHandleStorage = new FileHandleStorage();
+        this.outstandingFileHandles = new Semaphore(cacheSize);
     }
 
     /**
-     * Retrieves or opens a file handle for the given reader ID.
-     * @param key The ke
-     * @return A file input stream from the cache, if available, or otherwise newly opened.
+     * Retrieves or opens a file channel for the given reader ID.  Blocks if the maximum number of
+     * channels is already in use.  Every claimed channel must be handed back via releaseFileChannel.
+     * @param key The reader.
+     * @return A file channel from the cache, if available, or otherwise newly opened.
      */
-    public FileInputStream claimFileInputStream(final SAMReaderID key) {
-        synchronized(lock) {
-            FileInputStream inputStream = findExistingEntry(key);
-            if(inputStream == null) {
-                try {
-                    // If the cache is maxed out, wait for another file handle to emerge.
-                    if(numOutstandingFileHandles >= cacheSize)
-                        lock.wait();
-                }
-                catch(InterruptedException ex) {
-                    throw new ReviewedGATKException("Interrupted while waiting for a file handle");
+    public FileChannel claimFileChannel(final SAMReaderID key) {
+        try {
+            outstandingFileHandles.acquire();
+        }
+        catch(InterruptedException ex) {
+            throw new ReviewedGATKException("Interrupted while waiting for a file handle",ex);
+        }
+
+        try {
+            final Queue<IdleChannel> idle = idleChannels.get(key);
+            if(idle != null) {
+                IdleChannel candidate;
+                while((candidate = idle.poll()) != null) {
+                    // Skip channels an eviction got to first.
+                    if(candidate.take()) {
+                        numIdleFileHandles.decrementAndGet();
+                        return candidate.channel;
+                    }
                 }
-                inputStream = openInputStream(key);
             }
-            numOutstandingFileHandles++;
-
-            //System.out.printf("Handing input stream %s to thread %s%n",inputStream,Thread.currentThread().getId());
-            return inputStream;
+            return openChannel(key);
+        }
+        catch(RuntimeException ex) {
+            outstandingFileHandles.release();
+            throw ex;
         }
     }
 
     /**
-     * Releases the current reader and returns it to the cache.
+     * Returns the given channel to the cache.  Channels that have been closed (for instance, because
+     * the thread using them was interrupted) are dropped rather than pooled.
      * @param key The reader.
-     * @param inputStream The stream being used.
+     * @param channel The channel being returned.
      */
-    public void releaseFileInputStream(final SAMReaderID key, final FileInputStream inputStream) {
-        synchronized(lock) {
-            numOutstandingFileHandles--;
-            UniqueKey newID = allocateKey(key);
-            fileHandleStorage.put(newID,inputStream);
-            // Let any listeners know that another file handle has become available.
-            lock.notify();
+    public void releaseFileChannel(final SAMReaderID key, final FileChannel channel) {
+        try {
+            if(!channel.isOpen())
+                return;
+            if(closed) {
+                closeChannel(channel);
+                return;
+            }
+
+            Queue<IdleChannel> idle = idleChannels.get(key);
+            if(idle == null) {
+                final Queue<IdleChannel> newQueue = new ConcurrentLinkedQueue<IdleChannel>();
+                idle = idleChannels.putIfAbsent(key,newQueue);
+                if(idle == null)
+                    idle = newQueue;
+            }
+            idle.add(new IdleChannel(channel,releaseSequence.getAndIncrement()));
+            numIdleFileHandles.incrementAndGet();
+
+            // Keep no more idle handles around than we'd ever have outstanding at once.
+            evictLeastRecentlyReleased(cacheSize);
+        }
+        finally {
+            // Let any waiting threads know that another file handle has become available.
+            outstandingFileHandles.release();
         }
     }
 
     /**
-     * Finds an existing entry in the storage mechanism.
-     * @param key Reader.
-     * @return a cached stream, if available.  Otherwise,
+     * Closes all idle channels.  Channels currently claimed are closed as they are released.
      */
-    private FileInputStream findExistingEntry(final SAMReaderID key) {
-        int existingHandles = getMostRecentUniquifier(key);
-
-        // See if any of the keys currently exist in the repository.
-        for(int i = 0; i <= existingHandles; i++) {
-            UniqueKey uniqueKey = new UniqueKey(key,i);
-            if(fileHandleStorage.containsKey(uniqueKey))
-                return fileHandleStorage.remove(uniqueKey);
-        }
-
-        return null;
+    public void close() {
+        closed = true;
+        evictLeastRecentlyReleased(0);
     }
 
     /**
-     * Gets the most recent uniquifier used for the given reader.
-     * @param reader Reader for which to determine uniqueness.
-     * @return
+     * How many channels are idle in the cache right now?
+     * @return the number of idle channels.
      */
-    private int getMostRecentUniquifier(final SAMReaderID reader) {
-        if(keyCounter.containsKey(reader))
-            return keyCounter.get(reader);
-        else return -1;
+    public int getNumIdleFileHandles() {
+        return numIdleFileHandles.get();
     }
 
-    private UniqueKey allocateKey(final SAMReaderID reader) {
-        int uniquifier = getMostRecentUniquifier(reader)+1;
-        keyCounter.put(reader,uniquifier);
-        return new UniqueKey(reader,uniquifier);
+    /**
+     * Closes idle channels, least recently released first, until no more than maxIdle remain.  Each reader's
+     * channels are queued in release order, so the eldest channel overall is at the head of one of the queues.
+     * @param maxIdle The number of idle channels to keep.
+     */
+    private void evictLeastRecentlyReleased(final int maxIdle) {
+        while(numIdleFileHandles.get() > maxIdle) {
+            IdleChannel eldest = null;
+            Queue<IdleChannel> eldestQueue = null;
+            for(final Queue<IdleChannel> idle: idleChannels.values()) {
+                final IdleChannel head = idle.peek();
+                if(head != null && (eldest == null || head.released < eldest.released)) {
+                    eldest = head;
+                    eldestQueue = idle;
+                }
+            }
+            if(eldest == null)
+                return;
+
+            // Whether we or a concurrent claim or eviction got to it, it no longer belongs in its queue.
+            final boolean evicted = eldest.take();
+            eldestQueue.remove(eldest);
+            if(!evicted)
+                continue;
+            numIdleFileHandles.decrementAndGet();
+            closeChannel(eldest.channel);
+        }
     }
 
-    private FileInputStream openInputStream(final SAMReaderID reader) {
+    private FileChannel openChannel(final SAMReaderID reader) {
         try {
-            return new FileInputStream(reader.getSamFilePath());
+            return new FileInputStream(reader.getSamFilePath()).getChannel();
         }
         catch(IOException ex) {
-            throw new GATKException("Unable to open input file");
+            throw new GATKException("Unable to open input file",ex);
         }
     }
 
-    private void closeInputStream(final FileInputStream inputStream) {
+    private void closeChannel(final FileChannel channel) {
         try {
-            inputStream.close();
+            channel.close();
         }
         catch(IOException ex) {
-            throw new GATKException("Unable to open input file");
-        }
-    }
-
-    /**
-     * Actually contains the file handles, purging them as they get too old.
-     */
-    private class FileHandleStorage extends LinkedHashMap<UniqueKey,FileInputStream> {
-        /**
-         * Remove the oldest entry
-         * @param entry Entry to consider removing.
-         * @return True if the cache size has been exceeded.  False otherwise.
-         */
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<UniqueKey,FileInputStream> entry) {
-            synchronized (lock) {
-                if(size() > cacheSize) {
-                    keyCounter.put(entry.getKey().key,keyCounter.get(entry.getKey().key)-1);
-                    closeInputStream(entry.getValue());
-
-                    return true;
-                }
-            }
-            return false;
+            throw new GATKException("Unable to close input file",ex);
         }
     }
-
-    /**
-     * Uniquifies a key by adding a numerical uniquifier.
-     */
-    private class UniqueKey {
-        /**
-         * The file handle's key.
-         */
-        private final SAMReaderID key;
-
-        /**
-         * A uniquifier, so that multiple of the same reader can exist in the cache.
-         */
-        private final int uniqueID;
-
-        public UniqueKey(final SAMReaderID reader, final int uniqueID) {
-            this.key = reader;
-            this.uniqueID = uniqueID;
-        }
-
-        @Override
-        public boolean equals(Object other) {
-            if(!(other instanceof UniqueKey))
-                return false;
-            UniqueKey otherUniqueKey = (UniqueKey)other;
-            return key.equals(otherUniqueKey.key) && this.uniqueID == otherUniqueKey.uniqueID;
-        }
-
-        @Override
-        public int hashCode() {
-            return key.hashCode();
-        }
-    }
-
-
-
 }
@@ -263,6 +263,49 @@ public class SAMDataSource {
             final boolean keepReadsInLIBS,
             final Map<String, String> sampleRenameMap,
             final IntervalMergingRule intervalMergingRule) {
+        this(   samFiles,
+                threadAllocation,
+                numFileHandles,
+                genomeLocParser,
+                useOriginalBaseQualities,
+                strictness,
+                readBufferSize,
+                downsamplingMethod,
+                exclusionList,
+                supplementalFilters,
+                readTransformers,
+                includeReadsWithDeletionAtLoci,
+                defaultBaseQualities,
+                removeProgramRecords,
+                keepReadsInLIBS,
+                sampleRenameMap,
+                intervalMergingRule,
+                false);
+    }
+
+    /**
+     * As above, but also
+     * @param reusePileupElements should LIBS recycle the pileup elements of each locus into the next one?
+     */
+    public SAMDataSource(
+            Collection<SAMReaderID> samFiles,
+            ThreadAllocation threadAllocation,
+            Integer numFileHandles,
+            GenomeLocParser genomeLocParser,
+            boolean useOriginalBaseQualities,
+            ValidationStringency strictness,
+            Integer readBufferSize,
+            DownsamplingMethod downsamplingMethod,
+            ValidationExclusion exclusionList,
+            Collection<ReadFilter> supplementalFilters,
+            List<ReadTransformer> readTransformers,
+            boolean includeReadsWithDeletionAtLoci,
+            byte defaultBaseQualities,
+            boolean removeProgramRecords,
+            final boolean keepReadsInLIBS,
+            final Map<String, String> sampleRenameMap,
+            final IntervalMergingRule intervalMergingRule,
+            final boolean reusePileupElements) {
 
         this.readMetrics = new ReadMetrics();
         this.genomeLocParser = genomeLocParser;
@@ -273,8 +316,11 @@ public class SAMDataSource {
         this.threadAllocation = threadAllocation;
         // TODO: Consider a borrowed-thread dispatcher implementation.
         if(this.threadAllocation.getNumIOThreads() > 0) {
-            logger.info("Running in asynchronous I/O mode; number of threads = " + this.threadAllocation.getNumIOThreads());
-            dispatcher = new BGZFBlockLoadingDispatcher(this.threadAllocation.getNumIOThreads(), numFileHandles != null ? numFileHandles : 1);
+            logger.info("Running in asynchronous I/O mode; number of threads = " + this.threadAllocation.getNumIOThreads() +
+                    (this.threadAllocation.getNumReadAheadThreads() > 0 ? ", read-ahead threads = " + this.threadAllocation.getNumReadAheadThreads() : ""));
+            dispatcher = new BGZFBlockLoadingDispatcher(this.threadAllocation.getNumIOThreads(),
+                    this.threadAllocation.getNumReadAheadThreads(),
+                    numFileHandles != null ? numFileHandles : 1);
         }
         else
             dispatcher = null;
@@ -337,7 +383,8 @@ public class SAMDataSource {
                 readTransformers,
                 includeReadsWithDeletionAtLoci,
                 defaultBaseQualities,
-                keepReadsInLIBS);
+                keepReadsInLIBS,
+                reusePileupElements);
 
         // cache the read group id (original) -> read group id (merged)
         // and read group id (merged) -> read group id (original) mappings.
@@ -387,6 +434,16 @@ public class SAMDataSource {
             SAMFileReader reader = readers.getReader(readerID);
             reader.close();
         }
+        if(dispatcher != null)
+            dispatcher.close();
+    }
+
+    /**
+     * Logs block loading statistics if running in asynchronous I/O mode.
+     */
+    public void logAsynchronousIOMetrics() {
+        if(dispatcher != null)
+            dispatcher.logMetrics();
     }
 
     /**
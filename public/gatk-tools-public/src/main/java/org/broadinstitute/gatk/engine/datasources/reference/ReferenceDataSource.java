@@ -56,6 +56,15 @@ public class ReferenceDataSource {
      * @param fastaFile Fasta file to be used as reference
      */
     public ReferenceDataSource(File fastaFile) {
+        this(fastaFile, false);
+    }
+
+    /**
+     * Create reference data source from fasta file
+     * @param fastaFile Fasta file to be used as reference
+     * @param memoryMapped if true, try to read the bases from a memory-mapped, pre-normalized copy of fastaFile
+     */
+    public ReferenceDataSource(File fastaFile, boolean memoryMapped) {
         // does the fasta file exist? check that first...
         if (!fastaFile.exists())
             throw new UserException("The fasta file you specified (" + fastaFile.getAbsolutePath() + ") does not exist.");
@@ -82,7 +91,10 @@ public class ReferenceDataSource {
 
         // Read reference data by creating an IndexedFastaSequenceFile.
         try {
-            reference = new CachingIndexedFastaSequenceFile(fastaFile);
+            final CachingIndexedFastaSequenceFile cachingReference = new CachingIndexedFastaSequenceFile(fastaFile);
+            if ( memoryMapped )
+                cachingReference.enableNormalizedReference();
+            reference = cachingReference;
         }
         catch (IllegalArgumentException e) {
             throw new UserException.CouldNotReadInputFile(fastaFile, "Could not read reference sequence.  The FASTA must have either a .fasta or .fa extension", e);
@@ -177,6 +177,19 @@ public class ReferenceOrderedDataSource {
         iteratorPool.release(iterator);
     }
 
+    /**
+     * Open a new track over this data, independent of the pool, for callers that query the records
+     * themselves rather than walk them position by position.  The caller must close the track.
+     *
+     * @return a new, open track
+     * @throws UserException if the data is streamed and so cannot be opened again
+     */
+    public RMDTrack createTrack() {
+        if ( fileDescriptor.getStorageType() == RMDTriplet.RMDStorageType.STREAM )
+            throw new UserException.CouldNotReadInputFile(fileDescriptor.getFile(), "it is streamed, and can only be read position by position");
+        return builder.createInstanceOfTrack(fileDescriptor);
+    }
+
 }
 
 /**
@@ -28,6 +28,7 @@ package org.broadinstitute.gatk.engine.executive;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.engine.datasources.providers.LocusShardDataProvider;
 import org.broadinstitute.gatk.engine.datasources.providers.ShardDataProvider;
+import org.broadinstitute.gatk.engine.traversals.TraversalEngine;
 import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
@@ -80,6 +81,14 @@ public abstract class Accumulator {
      */
     public abstract void accumulate( ShardDataProvider provider, Object result );
 
+    /**
+     * Lets the traversal engine finish the work it has carried over from one shard to the next,
+     * rolling its result into this accumulator.  Only the standard accumulator feeds the result of
+     * each shard into the next, so by default there's nothing to do.
+     * @param traversalEngine the traversal engine that has been traversing the shards.
+     */
+    public void endTraversal( TraversalEngine traversalEngine ) {}
+
     /**
      * Finishes off the traversal.  Submits accumulated results to
      * the walker and returns them.
@@ -122,6 +131,12 @@ public abstract class Accumulator {
          */
         public void accumulate( ShardDataProvider provider, Object result ) { this.accumulator = result; }
 
+        @Override
+        public void endTraversal( TraversalEngine traversalEngine ) {
+            if ( initialized )
+                this.accumulator = traversalEngine.endTraversal(walker, accumulator);
+        }
+
         /**
          * The result of the traversal is the list of accumulated intervals.
          */
@@ -81,6 +81,8 @@ public class LinearMicroScheduler extends MicroScheduler {
     public Object execute(Walker walker, Iterable<Shard> shardStrategy) {
         super.startingExecution();
         walker.initialize();
+        if ( engine.getCheckpointManager() != null )
+            engine.getCheckpointManager().restoreWalkerState(walker);
         Accumulator accumulator = Accumulator.create(engine,walker);
 
         boolean done = walker.isDone();
@@ -113,6 +115,7 @@ public class LinearMicroScheduler extends MicroScheduler {
             done = walker.isDone();
         }
 
+        accumulator.endTraversal(traversalEngine);
         Object result = accumulator.finishTraversal();
 
         outputTracker.close();
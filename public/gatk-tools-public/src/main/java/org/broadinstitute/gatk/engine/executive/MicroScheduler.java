@@ -36,6 +36,8 @@ import org.broadinstitute.gatk.engine.datasources.rmd.ReferenceOrderedDataSource
 import org.broadinstitute.gatk.engine.io.OutputTracker;
 import org.broadinstitute.gatk.engine.iterators.NullSAMIterator;
 import org.broadinstitute.gatk.engine.iterators.GATKSAMIterator;
+import org.broadinstitute.gatk.engine.report.GATKReport;
+import org.broadinstitute.gatk.engine.report.GATKReportTable;
 import org.broadinstitute.gatk.engine.resourcemanagement.ThreadAllocation;
 import org.broadinstitute.gatk.engine.traversals.*;
 import org.broadinstitute.gatk.engine.walkers.*;
@@ -43,6 +45,10 @@ import org.broadinstitute.gatk.utils.AutoFormattingTime;
 import org.broadinstitute.gatk.utils.MathUtils;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.instrumentation.Counter;
+import org.broadinstitute.gatk.utils.instrumentation.Histogram;
+import org.broadinstitute.gatk.utils.instrumentation.RuntimeMetrics;
+import org.broadinstitute.gatk.utils.instrumentation.StageTimer;
 import org.broadinstitute.gatk.utils.progressmeter.ProgressMeter;
 import org.broadinstitute.gatk.utils.threading.ThreadEfficiencyMonitor;
 
@@ -50,6 +56,8 @@ import javax.management.JMException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
 import java.util.*;
 
@@ -99,6 +107,8 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
      */
     private static int instanceNumber = 0;
 
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
     /**
      * The engine invoking this scheduler.
      */
@@ -111,6 +121,12 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
 
     private final MBeanServer mBeanServer;
     private final ObjectName mBeanName;
+    private final ObjectName runtimeMetricsMBeanName;
+
+    /**
+     * Where to write the per-stage runtime metrics at the end of the run, or null if not requested
+     */
+    private final File runtimeMetricsLog;
 
     /**
      * Threading efficiency monitor for tracking the resource utilization of the GATK
@@ -154,7 +170,7 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
             }
         }
 
-        if ( threadAllocation.getNumCPUThreadsPerDataThread() > 1 && ! (walker instanceof NanoSchedulable) ) {
+        if ( threadAllocation.getNumCPUThreadsPerDataThread() > 1 && ! (walker instanceof NanoSchedulable || walker instanceof ManagesOwnThreads) ) {
             throw badNT("nct", engine, walker);
         }
 
@@ -192,6 +208,11 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         this.rods = rods;
 
         final File progressLogFile = engine.getArguments() == null ? null : engine.getArguments().performanceLog;
+        runtimeMetricsLog = engine.getArguments() == null ? null : engine.getArguments().runtimeMetricsLog;
+        if ( runtimeMetricsLog != null ) {
+            RuntimeMetrics.getInstance().reset();
+            RuntimeMetrics.getInstance().setEnabled(true);
+        }
 
         // Creates uninitialized TraversalEngines appropriate for walker and threadAllocation,
         // and adds it to the list of created engines for later shutdown.
@@ -218,6 +239,8 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         try {
             mBeanName = new ObjectName("org.broadinstitute.gatk.engine.executive:type=MicroScheduler,instanceNumber="+thisInstance);
             mBeanServer.registerMBean(this, mBeanName);
+            runtimeMetricsMBeanName = new ObjectName("org.broadinstitute.gatk.utils.instrumentation:type=RuntimeMetrics,instanceNumber="+thisInstance);
+            mBeanServer.registerMBean(RuntimeMetrics.getInstance(), runtimeMetricsMBeanName);
         }
         catch (JMException ex) {
             throw new ReviewedGATKException("Unable to register microscheduler with JMX", ex);
@@ -232,7 +255,8 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     @Ensures("result != null")
     private TraversalEngine createTraversalEngine(final Walker walker, final ThreadAllocation threadAllocation) {
         if (walker instanceof ReadWalker) {
-            return new TraverseReadsNano(threadAllocation.getNumCPUThreadsPerDataThread());
+            // walkers that manage their own threads still need their map calls made serially
+            return new TraverseReadsNano(walker instanceof NanoSchedulable ? threadAllocation.getNumCPUThreadsPerDataThread() : 1);
         } else if (walker instanceof LocusWalker) {
             return new TraverseLociNano(threadAllocation.getNumCPUThreadsPerDataThread());
         } else if (walker instanceof DuplicateWalker) {
@@ -327,6 +351,8 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     protected void executionIsDone() {
         engine.getProgressMeter().notifyDone(engine.getCumulativeMetrics().getNumIterations());
         printReadFilteringStats();
+        if ( reads != null )
+            reads.logAsynchronousIOMetrics();
         shutdownTraversalEngines();
 
         // Print out the threading efficiency of this HMS, if state monitoring is enabled
@@ -335,6 +361,9 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
             threadEfficiencyMonitor.threadIsDone(Thread.currentThread());
             threadEfficiencyMonitor.printUsageInformation(logger);
         }
+
+        if ( RuntimeMetrics.getInstance().isEnabled() )
+            printRuntimeMetrics();
     }
 
     /**
@@ -380,6 +409,105 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         }
     }
 
+    /**
+     * Logs the time and allocation of each engine stage, and writes the full runtime metrics report
+     * if one was requested
+     *
+     * Looks like:
+     *
+     * INFO  10:40:47,370 MicroScheduler - Runtime of each stage, summed over threads (self time excludes nested stages):
+     * INFO  10:40:47,370 MicroScheduler -   BAMDecoding           1.52 s total     1.52 s self     101 calls    251.33 MB allocated
+     * INFO  10:40:47,370 MicroScheduler -   Assembly             12.71 s total    12.71 s self      33 calls   4012.11 MB allocated
+     */
+    private void printRuntimeMetrics() {
+        final RuntimeMetrics metrics = RuntimeMetrics.getInstance();
+        logger.info("Runtime of each stage, summed over threads (self time excludes nested stages):");
+        for ( final StageTimer timer : metrics.getTimers() ) {
+            if ( timer.getInvocations() == 0 )
+                continue;
+            logger.info(String.format("  %-20s %8.2f s total %8.2f s self %10d calls %10.2f MB allocated",
+                    timer.getName(),
+                    RuntimeMetrics.nanosToSeconds(timer.getTotalNanos()),
+                    RuntimeMetrics.nanosToSeconds(timer.getSelfNanos()),
+                    timer.getInvocations(),
+                    timer.getTotalAllocatedBytes() / BYTES_PER_MB));
+        }
+
+        if ( runtimeMetricsLog != null ) {
+            try ( final PrintStream out = new PrintStream(runtimeMetricsLog) ) {
+                createRuntimeMetricsReport(metrics).print(out);
+            } catch ( FileNotFoundException e ) {
+                throw new UserException.CouldNotCreateOutputFile(runtimeMetricsLog, e);
+            }
+        }
+    }
+
+    /**
+     * Create a GATKReport with one table each for the stage timers, counters and histograms in metrics
+     *
+     * @param metrics the metrics to report
+     * @return a non-null report
+     */
+    @Ensures("result != null")
+    protected static GATKReport createRuntimeMetricsReport(final RuntimeMetrics metrics) {
+        final GATKReport report = new GATKReport();
+
+        final GATKReportTable stages = new GATKReportTable("RuntimeStages",
+                "Time and heap allocation of each engine stage, summed over threads; self excludes nested stages", 8, GATKReportTable.TableSortingWay.DO_NOT_SORT);
+        stages.addColumn("Stage", "%s");
+        stages.addColumn("Invocations", "%d");
+        stages.addColumn("TotalSeconds", "%.3f");
+        stages.addColumn("SelfSeconds", "%.3f");
+        stages.addColumn("MeanMicroseconds", "%.3f");
+        stages.addColumn("AllocatedMB", "%.2f");
+        stages.addColumn("SelfAllocatedMB", "%.2f");
+        stages.addColumn("AllocatedBytesPerCall", "%.1f");
+        for ( final StageTimer timer : metrics.getTimers() ) {
+            final long n = timer.getInvocations();
+            stages.addRowID(timer.getName(), true);
+            stages.set(timer.getName(), "Invocations", n);
+            stages.set(timer.getName(), "TotalSeconds", RuntimeMetrics.nanosToSeconds(timer.getTotalNanos()));
+            stages.set(timer.getName(), "SelfSeconds", RuntimeMetrics.nanosToSeconds(timer.getSelfNanos()));
+            stages.set(timer.getName(), "MeanMicroseconds", n == 0 ? 0.0 : timer.getTotalNanos() / 1e3 / n);
+            stages.set(timer.getName(), "AllocatedMB", timer.getTotalAllocatedBytes() / BYTES_PER_MB);
+            stages.set(timer.getName(), "SelfAllocatedMB", timer.getSelfAllocatedBytes() / BYTES_PER_MB);
+            stages.set(timer.getName(), "AllocatedBytesPerCall", n == 0 ? 0.0 : timer.getTotalAllocatedBytes() / (double)n);
+        }
+        report.addTable(stages);
+
+        final GATKReportTable counters = new GATKReportTable("RuntimeCounters",
+                "Engine event counts", 2, GATKReportTable.TableSortingWay.DO_NOT_SORT);
+        counters.addColumn("Counter", "%s");
+        counters.addColumn("Count", "%d");
+        for ( final Counter counter : metrics.getCounterList() ) {
+            counters.addRowID(counter.getName(), true);
+            counters.set(counter.getName(), "Count", counter.getCount());
+        }
+        report.addTable(counters);
+
+        final GATKReportTable histograms = new GATKReportTable("RuntimeHistograms",
+                "Distributions of engine quantities; quantiles are upper bounds accurate to a factor of two", 7, GATKReportTable.TableSortingWay.DO_NOT_SORT);
+        histograms.addColumn("Histogram", "%s");
+        histograms.addColumn("Count", "%d");
+        histograms.addColumn("Mean", "%.2f");
+        histograms.addColumn("P50", "%d");
+        histograms.addColumn("P90", "%d");
+        histograms.addColumn("P99", "%d");
+        histograms.addColumn("Max", "%d");
+        for ( final Histogram histogram : metrics.getHistograms() ) {
+            histograms.addRowID(histogram.getName(), true);
+            histograms.set(histogram.getName(), "Count", histogram.getCount());
+            histograms.set(histogram.getName(), "Mean", histogram.getMean());
+            histograms.set(histogram.getName(), "P50", histogram.getQuantile(0.5));
+            histograms.set(histogram.getName(), "P90", histogram.getQuantile(0.9));
+            histograms.set(histogram.getName(), "P99", histogram.getQuantile(0.99));
+            histograms.set(histogram.getName(), "Max", histogram.getMax());
+        }
+        report.addTable(histograms);
+
+        return report;
+    }
+
     /**
      * Gets the engine that created this microscheduler.
      * @return The engine owning this microscheduler.
@@ -401,6 +529,7 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     protected void cleanup() {
         try {
             mBeanServer.unregisterMBean(mBeanName);
+            mBeanServer.unregisterMBean(runtimeMetricsMBeanName);
         }
         catch (JMException ex) {
             throw new ReviewedGATKException("Unable to unregister microscheduler with JMX", ex);
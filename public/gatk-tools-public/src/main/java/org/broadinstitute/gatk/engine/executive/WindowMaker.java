@@ -75,7 +75,9 @@ public class WindowMaker implements Iterable<WindowMaker.WindowMakerIterator>, I
     private final GATKSAMRecordIterator readIterator;
 
     /**
-     * The data source for reads.  Will probably come directly from the BAM file.
+     * The data source for reads.  Will probably come directly from the BAM file.  Null when LIBS reuses its
+     * pileup elements, as this iterator always builds the context after the one it last returned; we peek
+     * at LIBS itself instead.
      */
     private final PeekableIterator<AlignmentContext> sourceIterator;
 
@@ -112,7 +114,7 @@ public class WindowMaker implements Iterable<WindowMaker.WindowMakerIterator>, I
         this.readIterator = new GATKSAMRecordIterator(iterator);
 
         this.libs = new LocusIteratorByState(readIterator,sourceInfo,genomeLocParser,sampleNames);
-        this.sourceIterator = new PeekableIterator<AlignmentContext>(libs);
+        this.sourceIterator = sourceInfo.reusePileupElements() ? null : new PeekableIterator<AlignmentContext>(libs);
 
         this.intervalIterator = intervals.size()>0 ? new PeekableIterator<GenomeLoc>(intervals.iterator()) : null;
     }
@@ -142,6 +144,18 @@ public class WindowMaker implements Iterable<WindowMaker.WindowMakerIterator>, I
         this.readIterator.close();
     }
 
+    private boolean sourceHasNext() {
+        return sourceIterator != null ? sourceIterator.hasNext() : libs.hasNext();
+    }
+
+    private AlignmentContext sourcePeek() {
+        return sourceIterator != null ? sourceIterator.peek() : libs.peek();
+    }
+
+    private AlignmentContext sourceNext() {
+        return sourceIterator != null ? sourceIterator.next() : libs.next();
+    }
+
     public class WindowMakerIterator extends LocusIterator {
         /**
          * The locus for which this iterator is currently returning reads.
@@ -184,20 +198,20 @@ public class WindowMaker implements Iterable<WindowMaker.WindowMakerIterator>, I
         private void advance() {
             // Need to find the next element that is not past shard boundaries.  If we travel past the edge of
             // shard boundaries, stop and let the next interval pick it up.
-            while(currentAlignmentContext == null && sourceIterator.hasNext()) {
+            while(currentAlignmentContext == null && sourceHasNext()) {
                 // Advance the iterator and try again.
-                AlignmentContext candidateAlignmentContext = sourceIterator.peek();
+                AlignmentContext candidateAlignmentContext = sourcePeek();
 
                 if(locus == null) {
                     // No filter present.  Return everything that LocusIteratorByState provides us.
-                    currentAlignmentContext = sourceIterator.next();
+                    currentAlignmentContext = sourceNext();
                 }
                 else if(locus.isPast(candidateAlignmentContext.getLocation()))
                     // Found a locus before the current window; claim this alignment context and throw it away.
-                    sourceIterator.next();
+                    sourceNext();
                 else if(locus.containsP(candidateAlignmentContext.getLocation())) {
                     // Found a locus within the current window; claim this alignment context and call it the next entry.
-                    currentAlignmentContext = sourceIterator.next();
+                    currentAlignmentContext = sourceNext();
                 }
                 else if(locus.isBefore(candidateAlignmentContext.getLocation())) {
                     // Whoops.  Skipped passed the end of the region.  Iteration for this window is complete.  Do
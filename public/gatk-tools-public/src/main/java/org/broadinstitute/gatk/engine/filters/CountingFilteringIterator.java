@@ -30,6 +30,7 @@ import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import org.broadinstitute.gatk.engine.ReadMetrics;
+import org.broadinstitute.gatk.utils.instrumentation.RuntimeMetrics;
 
 import java.util.*;
 
@@ -135,11 +136,16 @@ public class CountingFilteringIterator implements CloseableIterator<SAMRecord> {
             privateRuntimeMetrics.incrementNumReadsSeen();
 
             boolean filtered = false;
-            for(SamRecordFilter filter: filters) {
-                if(filter.filterOut(record)) {
-                    filtered = true;
-                    break;
+            RuntimeMetrics.READ_FILTERING.start();
+            try {
+                for(SamRecordFilter filter: filters) {
+                    if(filter.filterOut(record)) {
+                        filtered = true;
+                        break;
+                    }
                 }
+            } finally {
+                RuntimeMetrics.READ_FILTERING.stop();
             }
 
             if(!filtered) return record;
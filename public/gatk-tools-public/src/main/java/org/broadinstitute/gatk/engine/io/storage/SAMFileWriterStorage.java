@@ -26,15 +26,26 @@
 package org.broadinstitute.gatk.engine.io.storage;
 
 import htsjdk.samtools.*;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.ProgressLoggerInterface;
 import htsjdk.samtools.util.RuntimeIOException;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.io.stubs.SAMFileWriterStub;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.io.ParallelBlockCompressedOutputStream;
 import org.broadinstitute.gatk.utils.sam.SimplifyingSAMFileWriter;
 
-import java.io.File;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -48,6 +59,11 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
     private final File file;
     private SAMFileWriter writer;
 
+    /**
+     * The writer underneath any simplification when we are writing BGZF blocks that can be merged as they are; null otherwise
+     */
+    private BlockWriter blockWriter = null;
+
     private static Logger logger = Logger.getLogger(SAMFileWriterStorage.class);
 
     public SAMFileWriterStorage( SAMFileWriterStub stub ) {
@@ -67,7 +83,16 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
         if(stub.getMaxRecordsInRam() != null)
             factory.setMaxRecordsInRam(stub.getMaxRecordsInRam());
 
-        if(stub.getOutputFile() != null) {
+        if(stub.getOutputFile() != null && stub.canMergeBlocks()) {
+            // temporary storage writes records alone, so that its blocks can follow the header of the target as they are
+            this.writer = blockWriter = new BlockWriter(stub.getFileHeader(),stub.isPresorted(),file,stub.getCompressionLevel(),file.equals(stub.getOutputFile()),1,false);
+        }
+        else if(stub.getOutputFile() != null && stub.getCompressionThreads() > 1) {
+            // compress on a pool of threads, indexing the records ourselves as the block addresses become known
+            final boolean createIndex = stub.getFileHeader().getSortOrder().equals(SAMFileHeader.SortOrder.coordinate) && stub.getIndexOnTheFly();
+            this.writer = new BlockWriter(stub.getFileHeader(),stub.isPresorted(),file,stub.getCompressionLevel(),true,stub.getCompressionThreads(),createIndex);
+        }
+        else if(stub.getOutputFile() != null) {
             try {
                 this.writer = createBAMWriter(factory,stub.getFileHeader(),stub.isPresorted(),file,stub.getCompressionLevel());
             }
@@ -104,6 +129,12 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
     }
 
     public void mergeInto( SAMFileWriter targetStream ) {
+        if ( blockWriter != null && targetStream instanceof SAMFileWriterStorage && ((SAMFileWriterStorage)targetStream).blockWriter != null ) {
+            ((SAMFileWriterStorage)targetStream).blockWriter.appendBlocks(file);
+            file.delete();
+            return;
+        }
+
         SAMFileReader reader = new SAMFileReader( file );
         try {
             CloseableIterator<SAMRecord> iterator = reader.iterator();
@@ -154,4 +185,194 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
     public void setProgressLogger(final ProgressLoggerInterface logger) {
         writer.setProgressLogger(logger);
     }
+
+    /**
+     * Writes a BAM as BGZF blocks of its own: the header, if requested, and then the records.  Without a header
+     * the blocks are exactly what appendBlocks needs to add the records to another BlockWriter's BAM.
+     *
+     * With more than one compression thread the blocks are compressed in parallel, and the BAM is the same as
+     * the one htsjdk's BAM writer would write.  Since the address of a block is only known once the blocks before
+     * it are written, records to index are held until the blocks they start and end in have been written.
+     */
+    private final static class BlockWriter extends SAMFileWriterImpl implements ParallelBlockCompressedOutputStream.BlockListener {
+        private final static byte[] BAM_MAGIC = new byte[] { 'B', 'A', 'M', 1 };
+
+        private final File file;
+        private final boolean writeHeader;
+        private final OutputStream fileStream;
+        private final OutputStream blockStream;
+        private final ParallelBlockCompressedOutputStream parallelBlockStream;
+        private BAMRecordCodec recordCodec = null;
+
+        private final BAMIndexer indexer;
+        private final ArrayDeque<UnindexedRecord> unindexedRecords = new ArrayDeque<UnindexedRecord>();
+        private final ArrayDeque<Long> blockAddresses = new ArrayDeque<Long>(); // of the blocks from firstAddressedBlock on
+        private long firstAddressedBlock = 0;
+        private long nextRecordStartBlock = 0;
+
+        private BlockWriter(final SAMFileHeader header, final boolean presorted, final File file, final Integer compressionLevel, final boolean writeHeader,
+                            final int compressionThreads, final boolean createIndex) {
+            this.file = file;
+            this.writeHeader = writeHeader;
+            try {
+                fileStream = new BufferedOutputStream(new FileOutputStream(file));
+            }
+            catch(FileNotFoundException ex) {
+                throw new UserException.CouldNotCreateOutputFile(file,"file could not be created",ex);
+            }
+            if ( compressionThreads > 1 ) {
+                blockStream = parallelBlockStream = new ParallelBlockCompressedOutputStream(fileStream,compressionLevel,compressionThreads);
+                parallelBlockStream.setBlockListener(this);
+                blockAddresses.add(0L);
+            }
+            else {
+                parallelBlockStream = null;
+                blockStream = compressionLevel != null ? new BlockCompressedOutputStream(fileStream,file,compressionLevel) : new BlockCompressedOutputStream(fileStream,file);
+            }
+            if ( createIndex && parallelBlockStream == null )
+                throw new ReviewedGATKException("BlockWriter can only index the BAM it writes when compressing in parallel");
+            // named as htsjdk's BAM writer names the index
+            final String path = file.getAbsolutePath();
+            indexer = createIndex ? new BAMIndexer(new File((path.endsWith(".bam") ? path.substring(0,path.lastIndexOf('.')) : path) + ".bai"),header) : null;
+            setSortOrder(header.getSortOrder(),presorted);
+            setHeader(header);
+        }
+
+        @Override
+        protected void writeHeader(final String textHeader) {
+            recordCodec = new BAMRecordCodec(getFileHeader());
+            recordCodec.setOutputStream(blockStream,getFilename());
+            if ( ! writeHeader )
+                return;
+
+            final BinaryCodec headerCodec = new BinaryCodec(blockStream);
+            headerCodec.writeBytes(BAM_MAGIC);
+            headerCodec.writeString(textHeader,true,false);
+            headerCodec.writeInt(getFileHeader().getSequenceDictionary().size());
+            for ( final SAMSequenceRecord sequence : getFileHeader().getSequenceDictionary().getSequences() ) {
+                headerCodec.writeString(sequence.getSequenceName(),true,true);
+                headerCodec.writeInt(sequence.getSequenceLength());
+            }
+        }
+
+        @Override
+        protected void writeAlignment(final SAMRecord read) {
+            if ( indexer == null ) {
+                recordCodec.encode(read);
+                return;
+            }
+
+            final long startBlock = parallelBlockStream.getBlockNumber();
+            final int startOffset = parallelBlockStream.getBlockOffset();
+            recordCodec.encode(read);
+            nextRecordStartBlock = parallelBlockStream.getBlockNumber();
+            unindexedRecords.add(new UnindexedRecord(read,startBlock,startOffset,nextRecordStartBlock,parallelBlockStream.getBlockOffset()));
+        }
+
+        /**
+         * Now that we know the address of the block after blockNumber, index the records that we can
+         */
+        @Override
+        public void blockWritten(final long blockNumber, final long blockAddress, final int blockSize) {
+            if ( indexer == null )
+                return;
+
+            blockAddresses.add(blockAddress + blockSize);
+            final long lastAddressedBlock = firstAddressedBlock + blockAddresses.size() - 1;
+            while ( ! unindexedRecords.isEmpty() && unindexedRecords.peek().endBlock <= lastAddressedBlock ) {
+                final UnindexedRecord record = unindexedRecords.poll();
+                while ( firstAddressedBlock < record.startBlock ) {
+                    blockAddresses.poll();
+                    firstAddressedBlock++;
+                }
+                final Iterator<Long> addresses = blockAddresses.iterator();
+                final long startAddress = addresses.next();
+                long endAddress = startAddress;
+                for ( long block = record.startBlock; block < record.endBlock; block++ )
+                    endAddress = addresses.next();
+
+                PicardNamespaceUtils.setFileSource(record.read, new SAMFileSource(null,new GATKBAMFileSpan(new Chunk(
+                        makeFilePointer(startAddress,record.startOffset),makeFilePointer(endAddress,record.endOffset)))));
+                indexer.processAlignment(record.read);
+            }
+
+            // the next record will start where the last one added ended, or after it; a record still being encoded
+            // isn't queued yet, so we can't rely on the first unindexed record to tell
+            while ( firstAddressedBlock < nextRecordStartBlock && blockAddresses.size() > 1 ) {
+                blockAddresses.poll();
+                firstAddressedBlock++;
+            }
+        }
+
+        private static long makeFilePointer(final long blockAddress, final int blockOffset) {
+            if ( blockAddress > BlockCompressedFilePointerUtil.MAX_BLOCK_ADDRESS )
+                throw new UserException.ErrorWritingBamFile("The BAM file is too large to index");
+            return blockAddress << 16 | blockOffset;
+        }
+
+        /**
+         * Adds the records in the BGZF blocks of a closed, headerless BlockWriter to our BAM without decompressing them
+         * @param source the file written by that BlockWriter, ending in an empty terminator block which we leave out
+         */
+        private void appendBlocks(final File source) {
+            try {
+                // end our current block so that the copied ones start on a block boundary
+                blockStream.flush();
+                final FileInputStream sourceStream = new FileInputStream(source);
+                try {
+                    final FileChannel sourceChannel = sourceStream.getChannel();
+                    final WritableByteChannel targetChannel = Channels.newChannel(fileStream);
+                    final long length = sourceChannel.size() - BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+                    long position = 0;
+                    while ( position < length )
+                        position += sourceChannel.transferTo(position,length - position,targetChannel);
+                }
+                finally {
+                    sourceStream.close();
+                }
+            }
+            catch(IOException ex) {
+                throw new UserException.CouldNotReadInputFile(source,"Unable to append the BGZF blocks of temporary output",ex);
+            }
+        }
+
+        @Override
+        protected void finish() {
+            try {
+                blockStream.close();
+            }
+            catch(IOException ex) {
+                throw new RuntimeIOException(ex);
+            }
+            if ( indexer != null ) {
+                if ( ! unindexedRecords.isEmpty() )
+                    throw new ReviewedGATKException("Closed the BAM writer with " + unindexedRecords.size() + " records still to be indexed");
+                indexer.finish();
+            }
+        }
+
+        @Override
+        protected String getFilename() {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * A record waiting for the addresses of the blocks it starts and ends in, to be indexed
+     */
+    private final static class UnindexedRecord {
+        private final SAMRecord read;
+        private final long startBlock;
+        private final int startOffset;
+        private final long endBlock;
+        private final int endOffset;
+
+        private UnindexedRecord(final SAMRecord read, final long startBlock, final int startOffset, final long endBlock, final int endOffset) {
+            this.read = read;
+            this.startBlock = startBlock;
+            this.startOffset = startOffset;
+            this.endBlock = endBlock;
+            this.endOffset = endOffset;
+        }
+    }
 }
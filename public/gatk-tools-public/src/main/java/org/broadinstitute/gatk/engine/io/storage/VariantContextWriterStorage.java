@@ -26,12 +26,16 @@
 package org.broadinstitute.gatk.engine.io.storage;
 
 import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.LocationAware;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.log4j.Logger;
-import htsjdk.tribble.AbstractFeatureReader;
-import htsjdk.tribble.Feature;
-import htsjdk.tribble.FeatureCodec;
+import htsjdk.tribble.BasicFeature;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.IndexCreator;
+import org.broadinstitute.gatk.engine.checkpoint.CheckpointManager;
+import org.broadinstitute.gatk.engine.checkpoint.CheckpointedOutput;
 import org.broadinstitute.gatk.engine.io.stubs.VariantContextWriterStub;
-import org.broadinstitute.gatk.engine.refdata.tracks.FeatureManager;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import htsjdk.variant.bcf2.BCF2Utils;
@@ -52,7 +56,7 @@ import java.util.List;
  * @author mhanna
  * @version 0.1
  */
-public class VariantContextWriterStorage implements Storage<VariantContextWriterStorage>, VariantContextWriter {
+public class VariantContextWriterStorage implements Storage<VariantContextWriterStorage>, VariantContextWriter, CheckpointedOutput {
     /**
      * our log, which we want to capture anything from this class
      */
@@ -60,11 +64,36 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
 
     private final static int BUFFER_SIZE = 1048576;
 
+    /**
+     * How many bytes of encoded records temporary storage keeps in memory before spilling to its file
+     */
+    private final static int SPILL_THRESHOLD = 4 * BUFFER_SIZE;
+
     protected final File file;
     protected OutputStream stream;
     protected final VariantContextWriter writer;
     boolean closed = false;
 
+    /**
+     * The uncompressed file stream underneath stream, or null if we aren't writing directly to an uncompressed file
+     */
+    private FileOutputStream fileStream = null;
+
+    /**
+     * When resuming from a checkpoint, swallows the header as it is already in the file; null otherwise
+     */
+    private HeaderSuppressingOutputStream headerSuppressor = null;
+
+    /**
+     * The index creator fed by our writer, or null if we aren't indexing on the fly
+     */
+    private IndexCreator indexCreator = null;
+
+    /**
+     * For temporary storage, the records as encoded by our writer, waiting to be merged into the target; null otherwise
+     */
+    private EncodedRecords encodedRecords = null;
+
     /**
      * Constructs an object which will write directly into the output file provided by the stub.
      * Intentionally delaying the writing of the header -- this should be filled in by the walker.
@@ -77,7 +106,19 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
     public VariantContextWriterStorage(VariantContextWriterStub stub)  {
         if ( stub.getOutputFile() != null ) {
             this.file = stub.getOutputFile();
-            writer = vcfWriterToFile(stub,stub.getOutputFile(),true,true);
+            final CheckpointManager checkpointManager = stub.getCheckpointManager();
+            if ( checkpointManager != null && checkpointManager.isResuming() ) {
+                // we cannot index a file we are appending to, so don't leave a stale index behind
+                final File index = Tribble.indexFile(file);
+                if ( index.exists() && ! index.delete() )
+                    throw new UserException.CouldNotCreateOutputFile(index, "Unable to delete the index of an output we are resuming");
+                logger.warn("Appending to " + file + " from the checkpoint, so it will have to be indexed separately once complete");
+                writer = vcfWriterToFile(stub,stub.getOutputFile(),false,true,checkpointManager.getResumeSize(file));
+            }
+            else
+                writer = vcfWriterToFile(stub,stub.getOutputFile(),true,true,-1);
+            if ( checkpointManager != null )
+                checkpointManager.registerOutput(file, this);
         }
         else if ( stub.getOutputStream() != null ) {
             this.file = null;
@@ -92,17 +133,29 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
     /**
      * Constructs an object which will redirect into a different file.
      *
-     * Note that this function does not respect the isCompressed() request from the stub, in order
-     * to ensure that tmp. files can be read back in by the Tribble system, and merged with the mergeInto function.
+     * Records are encoded exactly as the target will encode them, but held in memory (spilling to tempFile
+     * once they outgrow SPILL_THRESHOLD) so that mergeInto can copy the bytes straight into the target
+     * without parsing them again.  The header is encoded too, as the encoding of records depends on it,
+     * but is dropped when merging.
      *
      * @param stub Stub to use when synthesizing file / header info.
-     * @param tempFile File into which to direct the output data.
+     * @param tempFile File into which to direct the output data once it no longer fits in memory.
      */
     public VariantContextWriterStorage(VariantContextWriterStub stub, File tempFile) {
+        this(stub, tempFile, SPILL_THRESHOLD);
+    }
+
+    /**
+     * As above, but spilling to tempFile past the given number of bytes
+     */
+    VariantContextWriterStorage(VariantContextWriterStub stub, File tempFile, int spillThreshold) {
         //logger.debug("Creating temporary output file " + tempFile.getAbsolutePath() + " for VariantContext output.");
         this.file = tempFile;
-        this.writer = vcfWriterToFile(stub, file, false, false);
+        this.encodedRecords = new EncodedRecords(tempFile, spillThreshold);
+        this.stream = encodedRecords.bytes;
+        this.writer = VariantContextWriterFactory.create(stream, stub.getMasterSequenceDictionary(), stub.getWriterOptions(false));
         writer.writeHeader(stub.getVCFHeader());
+        encodedRecords.headerLength = encodedRecords.bytes.getByteCount();
     }
 
     /**
@@ -110,22 +163,37 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
      * @param stub Stub to use when constructing the output file.
      * @param file Target file into which to write VCF records.
      * @param indexOnTheFly true to index the file on the fly.  NOTE: will be forced to false for compressed files.
-     * @param allowCompressed if false, we won't compress the output, even if the stub requests it.  Critical
-     *                        for creating temp. output files that will be subsequently merged, as these do not
-     *                        support compressed output
+     * @param allowCompressed if false, we won't compress the output, even if the stub requests it
+     * @param resumeSize if >= 0, keep the first resumeSize bytes of an existing uncompressed file and append
+     *                   to them rather than starting a new file; the header will not be written again
      * @return A VCF writer for use with this class
      */
     private VariantContextWriter vcfWriterToFile(final VariantContextWriterStub stub,
                                                  final File file,
                                                  final boolean indexOnTheFly,
-                                                 final boolean allowCompressed) {
+                                                 final boolean allowCompressed,
+                                                 final long resumeSize) {
         try {
-            // we cannot merge compressed outputs, so don't compress if allowCompressed is false,
-            // which is the case when we have a temporary output file for later merging
             if ( allowCompressed && stub.isCompressed() )
                 stream = new BlockCompressedOutputStream(file);
-            else
-                stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            else {
+                if ( resumeSize >= 0 ) {
+                    final RandomAccessFile truncator = new RandomAccessFile(file, "rw");
+                    try {
+                        truncator.setLength(resumeSize);
+                    } finally {
+                        truncator.close();
+                    }
+                }
+                fileStream = new FileOutputStream(file, resumeSize >= 0);
+                stream = new PrintStream(new BufferedOutputStream(fileStream, BUFFER_SIZE));
+                if ( resumeSize >= 0 )
+                    stream = headerSuppressor = new HeaderSuppressingOutputStream(stream);
+                else {
+                    // the writer indexes by the position of this stream, which must also count records merged into us
+                    stream = new PositionalOutputStream(stream);
+                }
+            }
         }
         catch(IOException ex) {
             throw new UserException.CouldNotCreateOutputFile(file, "Unable to open target output stream", ex);
@@ -133,6 +201,8 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
 
         EnumSet<Options> options = stub.getWriterOptions(indexOnTheFly);
         VariantContextWriter writer = VariantContextWriterFactory.create(file, this.stream, stub.getMasterSequenceDictionary(), stub.getIndexCreator(), options);
+        if ( options.contains(Options.INDEX_ON_THE_FLY) && this.stream instanceof LocationAware )
+            indexCreator = stub.getIndexCreator();
 
         // if the stub says to test BCF, create a secondary writer to BCF and an 2 way out writer to send to both
         // TODO -- remove me when argument generateShadowBCF is removed
@@ -180,6 +250,8 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
     public void add(VariantContext vc) {
         if ( closed ) throw new ReviewedGATKException("Attempting to write to a closed VariantContextWriterStorage " + vc.getStart() + " storage=" + this);
         writer.add(vc);
+        if ( encodedRecords != null )
+            encodedRecords.recordAdded(vc);
     }
 
     /**
@@ -188,7 +260,81 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
      * @param header  the header
      */
     public void writeHeader(VCFHeader header) {
-        writer.writeHeader(header);
+        if ( headerSuppressor != null ) {
+            // the header is already at the start of the file we are appending to
+            headerSuppressor.suppressed = true;
+            writer.writeHeader(header);
+            headerSuppressor.suppressed = false;
+        }
+        else
+            writer.writeHeader(header);
+    }
+
+    /**
+     * Flush everything written so far to disk
+     *
+     * @return the size of our file, which only contains complete records after the flush
+     */
+    @Override
+    public long flushForCheckpoint() {
+        if ( fileStream == null )
+            throw new ReviewedGATKException("Only uncompressed output files can be checkpointed but got " + file);
+        try {
+            stream.flush();
+            fileStream.getFD().sync();
+            return fileStream.getChannel().position();
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(file, "Unable to flush output for checkpoint", e);
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, so that the writer and mergeInto agree on where each record starts
+     */
+    private final static class PositionalOutputStream extends FilterOutputStream implements LocationAware {
+        private long position = 0;
+
+        private PositionalOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * Drops everything written while suppressed is true
+     */
+    private final static class HeaderSuppressingOutputStream extends FilterOutputStream {
+        boolean suppressed = false;
+
+        private HeaderSuppressingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if ( ! suppressed ) out.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if ( ! suppressed ) out.write(b, off, len);
+        }
     }
 
     /**
@@ -199,30 +345,100 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
         closed = true;
     }
 
+    /**
+     * Copies our encoded records, in order, onto the end of target without decoding them.  If target is
+     * indexing on the fly, each record is added to its index at the position it lands at.
+     *
+     * @param target the storage of the final output
+     */
     public void mergeInto(VariantContextWriterStorage target) {
+        if ( ! closed )
+            throw new ReviewedGATKException("Writer not closed, but we are merging into the file!");
+        final String targetFilePath = target.file != null ? target.file.getAbsolutePath() : "/dev/stdin";
+        logger.debug(String.format("Merging VariantContextWriterStorage from %s into %s", file.getAbsolutePath(), targetFilePath));
+
         try {
-            if ( ! closed )
-                throw new ReviewedGATKException("Writer not closed, but we are merging into the file!");
-            final String targetFilePath = target.file != null ? target.file.getAbsolutePath() : "/dev/stdin";
-            logger.debug(String.format("Merging VariantContextWriterStorage from %s into %s", file.getAbsolutePath(), targetFilePath));
-
-            // use the feature manager to determine the right codec for the tmp file
-            // that way we don't assume it's a specific type
-            final FeatureManager.FeatureDescriptor fd = new FeatureManager().getByFiletype(file);
-            if ( fd == null )
-                throw new UserException.LocalParallelizationProblem(file);
-
-            final FeatureCodec codec = fd.getCodec();
-            final AbstractFeatureReader<Feature, ?> source = AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), codec, false);
-
-            for ( final Feature vc : source.iterator() ) {
-                target.writer.add((VariantContext) vc);
+            final InputStream source = encodedRecords.openRecords();
+            try {
+                if ( target.indexCreator == null ) {
+                    IOUtils.copyLarge(source, target.stream);
+                }
+                else {
+                    final LocationAware location = (LocationAware)target.stream;
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    long recordStart = encodedRecords.headerLength;
+                    for ( int i = 0; i < encodedRecords.size; i++ ) {
+                        target.indexCreator.addFeature(new BasicFeature(encodedRecords.contigs[i], encodedRecords.starts[i], encodedRecords.ends[i]), location.getPosition());
+                        int remaining = (int)(encodedRecords.recordEnds[i] - recordStart);
+                        while ( remaining > 0 ) {
+                            final int read = source.read(buffer, 0, Math.min(remaining, buffer.length));
+                            if ( read < 0 )
+                                throw new EOFException("Encoded records ended before record " + i);
+                            target.stream.write(buffer, 0, read);
+                            remaining -= read;
+                        }
+                        recordStart = encodedRecords.recordEnds[i];
+                    }
+                }
+            } finally {
+                source.close();
             }
-
-            source.close();
-            file.delete(); // this should be last to aid in debugging when the process fails
         } catch (IOException e) {
-            throw new UserException.CouldNotReadInputFile(file, "Error reading file in VCFWriterStorage: ", e);
+            throw new UserException.CouldNotReadInputFile(file, "Error merging records in VCFWriterStorage: ", e);
+        }
+
+        file.delete(); // this should be last to aid in debugging when the process fails
+    }
+
+    /**
+     * The bytes our writer has encoded, along with the extent and end offset of each record so that the
+     * target's index can be fed without decoding them again.
+     */
+    private final static class EncodedRecords {
+        private final DeferredFileOutputStream bytes;
+        private long headerLength;
+
+        private int size = 0;
+        private String[] contigs = new String[1024];
+        private int[] starts = new int[1024];
+        private int[] ends = new int[1024];
+        private long[] recordEnds = new long[1024];
+
+        private EncodedRecords(final File spillFile, final int spillThreshold) {
+            bytes = new DeferredFileOutputStream(spillThreshold, spillFile);
+        }
+
+        /**
+         * Notes the extent of the record just written, which our writer has already fully passed to bytes
+         */
+        private void recordAdded(final VariantContext vc) {
+            if ( size == starts.length ) {
+                contigs = Arrays.copyOf(contigs, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                recordEnds = Arrays.copyOf(recordEnds, size * 2);
+            }
+            contigs[size] = vc.getChr();
+            starts[size] = vc.getStart();
+            ends[size] = vc.getEnd();
+            recordEnds[size] = bytes.getByteCount();
+            size++;
+        }
+
+        /**
+         * @return the encoded records, positioned after the header; only valid once bytes is closed
+         */
+        private InputStream openRecords() throws IOException {
+            final InputStream in = bytes.isInMemory() ? new ByteArrayInputStream(bytes.getData())
+                    : new BufferedInputStream(new FileInputStream(bytes.getFile()), BUFFER_SIZE);
+            long toSkip = headerLength;
+            while ( toSkip > 0 ) {
+                final long skipped = in.skip(toSkip);
+                if ( skipped <= 0 )
+                    throw new EOFException("Encoded records ended within the header");
+                toSkip -= skipped;
+            }
+            return in;
         }
     }
 }
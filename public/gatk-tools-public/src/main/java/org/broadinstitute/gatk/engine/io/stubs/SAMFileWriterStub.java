@@ -248,6 +248,35 @@ public class SAMFileWriterStub implements Stub<SAMFileWriter>, GATKSAMFileWriter
         this.presorted = presorted;
     }
 
+    /**
+     * Can the output of each -nt thread be merged into the final BAM as raw BGZF blocks?  Only a BAM
+     * file which its writer won't index, checksum or sort can be put together that way.
+     * @return True if the temporary outputs of this stub should be kept as BGZF blocks.
+     */
+    public boolean canMergeBlocks() {
+        final SAMFileHeader.SortOrder sortOrder = getFileHeader().getSortOrder();
+        return engine.getArguments().numberOfDataThreads > 1 &&
+                getOutputFile() != null &&
+                ! (indexOnTheFly && sortOrder == SAMFileHeader.SortOrder.coordinate) &&
+                ! generateMD5 &&
+                (presorted || sortOrder == SAMFileHeader.SortOrder.unsorted);
+    }
+
+    /**
+     * How many threads should compress the BGZF blocks of this BAM?  With -nct, a BAM file written by a single data
+     * thread that its writer won't checksum or sort is compressed by as many threads as there are CPU threads.
+     * @return The number of compression threads, 1 to compress on the thread writing the records.
+     */
+    public int getCompressionThreads() {
+        final SAMFileHeader.SortOrder sortOrder = getFileHeader().getSortOrder();
+        if ( engine.getArguments().numberOfDataThreads > 1 ||
+                getOutputFile() == null ||
+                generateMD5 ||
+                ! (presorted || sortOrder == SAMFileHeader.SortOrder.unsorted) )
+            return 1;
+        return engine.getArguments().numberOfCPUThreadsPerDataThread;
+    }
+
     /**
      * Get the maximum number of reads to hold in RAM when sorting a BAM on-the-fly.
      * @return Max records in RAM, or null if unset.
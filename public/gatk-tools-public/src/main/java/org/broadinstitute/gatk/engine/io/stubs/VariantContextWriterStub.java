@@ -29,7 +29,9 @@ import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.tribble.index.IndexCreator;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.engine.arguments.GATKArgumentCollection;
+import org.broadinstitute.gatk.engine.checkpoint.CheckpointManager;
 import org.broadinstitute.gatk.engine.io.OutputTracker;
+import org.broadinstitute.gatk.utils.instrumentation.RuntimeMetrics;
 import org.broadinstitute.gatk.utils.variant.GATKVCFUtils;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.Options;
@@ -193,6 +195,24 @@ public class VariantContextWriterStub implements Stub<VariantContextWriter>, Var
         return indexCreator;
     }
 
+    /**
+     * Can this output be checkpointed and later resumed?  Only uncompressed VCF files written
+     * straight to disk can be truncated back to a checkpoint and appended to.
+     *
+     * @return true if this output supports checkpointing
+     */
+    public boolean isCheckpointable() {
+        return getOutputFile() != null && ! isCompressed() && ! getWriterOptions().contains(Options.FORCE_BCF) && ! alsoWriteBCFForTest();
+    }
+
+    /**
+     * Gets the checkpoint manager from the engine associated with this stub
+     * @return the CheckpointManager, or null if checkpointing isn't enabled
+     */
+    public CheckpointManager getCheckpointManager() {
+        return engine.getCheckpointManager();
+    }
+
     /**
      * Gets the master sequence dictionary from the engine associated with this stub
      * @link GenomeAnalysisEngine.getMasterSequenceDictionary
@@ -266,7 +286,12 @@ public class VariantContextWriterStub implements Stub<VariantContextWriter>, Var
      * @{inheritDoc}
      */
     public void add(VariantContext vc) {
-        outputTracker.getStorage(this).add(vc);
+        RuntimeMetrics.VCF_WRITING.start();
+        try {
+            outputTracker.getStorage(this).add(vc);
+        } finally {
+            RuntimeMetrics.VCF_WRITING.stop();
+        }
     }
 
     /**
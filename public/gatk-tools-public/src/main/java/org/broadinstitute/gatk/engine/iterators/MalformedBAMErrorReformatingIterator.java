@@ -28,6 +28,7 @@ package org.broadinstitute.gatk.engine.iterators;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.instrumentation.RuntimeMetrics;
 
 import java.io.File;
 import java.util.Iterator;
@@ -53,10 +54,14 @@ public class MalformedBAMErrorReformatingIterator implements CloseableIterator<S
     }
 
     public SAMRecord next() {
+        // this is the lowest point at which every BAM iterator, with or without io threads, decodes its records
+        RuntimeMetrics.BAM_DECODING.start();
         try {
             return it.next();
         } catch ( RuntimeException e ) { // we need to catch RuntimeExceptions here because the Picard code is throwing them (among SAMFormatExceptions) sometimes
             throw new UserException.MalformedBAM(source, e.getMessage());
+        } finally {
+            RuntimeMetrics.BAM_DECODING.stop();
         }
     }
 
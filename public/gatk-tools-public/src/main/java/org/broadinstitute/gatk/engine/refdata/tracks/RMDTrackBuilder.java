@@ -41,6 +41,8 @@ import org.broadinstitute.gatk.engine.io.stubs.VCFWriterArgumentTypeDescriptor;
 import org.broadinstitute.gatk.engine.refdata.utils.RMDTriplet;
 import org.broadinstitute.gatk.engine.refdata.utils.RMDTriplet.RMDStorageType;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.codecs.gvcfstore.GVCFStoreCodec;
+import org.broadinstitute.gatk.utils.codecs.gvcfstore.GVCFStoreReader;
 import org.broadinstitute.gatk.utils.collections.Pair;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
@@ -142,7 +144,10 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
 
         // return a feature reader track
         Pair<AbstractFeatureReader, SAMSequenceDictionary> pair;
-        if (VCFWriterArgumentTypeDescriptor.isCompressed(inputFile.toString()))
+        if (GVCFStoreCodec.class.equals(descriptor.getCodecClass()))
+            // a GVCF store is indexed by its own partition index rather than by Tribble
+            pair = new Pair<AbstractFeatureReader, SAMSequenceDictionary>(new GVCFStoreReader(inputFile, (GVCFStoreCodec)createCodec(descriptor, name, inputFile)), null);
+        else if (VCFWriterArgumentTypeDescriptor.isCompressed(inputFile.toString()))
             pair = createTabixIndexedFeatureSource(descriptor, name, inputFile);
         else
             pair = getFeatureSource(descriptor, name, inputFile, fileDescriptor.getStorageType());
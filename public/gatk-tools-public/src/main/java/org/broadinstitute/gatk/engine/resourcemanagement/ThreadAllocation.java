@@ -46,6 +46,11 @@ public class ThreadAllocation {
      */
     private final int numIOThreads;
 
+    /**
+     * Number of threads to devote to reading BGZF blocks ahead of demand.  Only used when numIOThreads > 0.
+     */
+    private final int numReadAheadThreads;
+
     /**
      * Should we monitor thread efficiency?
      */
@@ -63,6 +68,10 @@ public class ThreadAllocation {
         return numIOThreads;
     }
 
+    public int getNumReadAheadThreads() {
+        return numReadAheadThreads;
+    }
+
     public boolean monitorThreadEfficiency() {
         return monitorEfficiency;
     }
@@ -82,7 +91,7 @@ public class ThreadAllocation {
      * @return the sum of all thread allocations in this object
      */
     public int getTotalNumThreads() {
-        return getNumDataThreads() * getNumCPUThreadsPerDataThread() + getNumIOThreads();
+        return getNumDataThreads() * getNumCPUThreadsPerDataThread() + getNumIOThreads() + getNumReadAheadThreads();
     }
 
     /**
@@ -104,13 +113,32 @@ public class ThreadAllocation {
                             final int numCPUThreadsPerDataThread,
                             final int numIOThreads,
                             final boolean monitorEfficiency) {
+        this(numDataThreads, numCPUThreadsPerDataThread, numIOThreads, 0, monitorEfficiency);
+    }
+
+    /**
+     * Set up the thread allocation, including threads for reading BGZF blocks ahead of demand.
+     * @param numDataThreads Total number of threads allocated to the traversal.
+     * @param numCPUThreadsPerDataThread The number of CPU threads per data thread to allocate
+     * @param numIOThreads Total number of threads allocated exclusively to IO.
+     * @param numReadAheadThreads Number of threads reading BGZF blocks ahead of demand; requires numIOThreads > 0.
+     * @param monitorEfficiency should we monitor threading efficiency in the GATK?
+     */
+    public ThreadAllocation(final int numDataThreads,
+                            final int numCPUThreadsPerDataThread,
+                            final int numIOThreads,
+                            final int numReadAheadThreads,
+                            final boolean monitorEfficiency) {
         if ( numDataThreads < 1 ) throw new ReviewedGATKException("numDataThreads cannot be less than 1, but saw " + numDataThreads);
         if ( numCPUThreadsPerDataThread < 1 ) throw new ReviewedGATKException("numCPUThreadsPerDataThread cannot be less than 1, but saw " + numCPUThreadsPerDataThread);
         if ( numIOThreads < 0 ) throw new ReviewedGATKException("numIOThreads cannot be less than 0, but saw " + numIOThreads);
+        if ( numReadAheadThreads < 0 ) throw new ReviewedGATKException("numReadAheadThreads cannot be less than 0, but saw " + numReadAheadThreads);
+        if ( numReadAheadThreads > 0 && numIOThreads == 0 ) throw new ReviewedGATKException("numReadAheadThreads requires at least one IO thread");
 
         this.numDataThreads = numDataThreads;
         this.numCPUThreadsPerDataThread = numCPUThreadsPerDataThread;
         this.numIOThreads = numIOThreads;
+        this.numReadAheadThreads = numReadAheadThreads;
         this.monitorEfficiency = monitorEfficiency;
     }
 }
@@ -67,6 +67,23 @@ public abstract class TraversalEngine<M,T,WalkerType extends Walker<M,T>,Provide
                                ProviderType dataProvider,
                                T sum);
 
+    /**
+     * Called by the MicroScheduler after the last call to traverse, for traversal engines that carry
+     * work over from one shard to the next to finish it
+     *
+     * Only called when the reduce result of each shard is fed into the traversal of the next one, so
+     * traversal engines must not carry work across shards otherwise.
+     *
+     * @param walker the walker being run
+     * @param sum    the accumulator returned by the last call to traverse
+     *
+     * @return the final accumulator
+     */
+    public T endTraversal(final WalkerType walker, final T sum) {
+        // by default there's no work left
+        return sum;
+    }
+
     /**
      * Initialize the traversal engine.  After this point traversals can be run over the data
      *
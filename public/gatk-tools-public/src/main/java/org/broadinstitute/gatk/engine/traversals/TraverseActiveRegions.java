@@ -29,12 +29,14 @@ import com.google.java.contract.Ensures;
 import com.google.java.contract.Requires;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.engine.checkpoint.CheckpointManager;
 import org.broadinstitute.gatk.engine.contexts.AlignmentContext;
 import org.broadinstitute.gatk.engine.contexts.ReferenceContext;
 import org.broadinstitute.gatk.engine.datasources.providers.*;
 import org.broadinstitute.gatk.engine.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.engine.walkers.ActiveRegionTraversalParameters;
 import org.broadinstitute.gatk.engine.walkers.ActiveRegionWalker;
+import org.broadinstitute.gatk.engine.walkers.NanoSchedulableIsActive;
 import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.SampleUtils;
@@ -43,18 +45,26 @@ import org.broadinstitute.gatk.utils.activeregion.ActiveRegion;
 import org.broadinstitute.gatk.utils.activeregion.ActivityProfile;
 import org.broadinstitute.gatk.utils.activeregion.ActivityProfileState;
 import org.broadinstitute.gatk.utils.activeregion.BandPassActivityProfile;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.instrumentation.RuntimeMetrics;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSMapFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSProgressFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSReduceFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NanoScheduler;
+import org.broadinstitute.gatk.utils.nanoScheduler.NanoSchedulerPipeline;
 import org.broadinstitute.gatk.utils.progressmeter.ProgressMeter;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 
 import java.io.PrintStream;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.Future;
 
 /**
  * Implement active region traversal
@@ -98,6 +108,53 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
     final NanoScheduler<MapData, M, T> nanoScheduler;
 
+    /**
+     * The number of loci we read ahead of the activity profile when evaluating isActive concurrently
+     */
+    protected final static int IS_ACTIVE_BATCH_SIZE = 1000;
+
+    private final int nThreads;
+
+    /**
+     * Executor used to evaluate isActive over batches of loci in parallel, or null if isActive runs serially
+     */
+    private ExecutorService isActiveExecutor = null;
+
+    /**
+     * One permit per -nct thread, taken by each map call and each isActive window while it runs, so that the
+     * isActive workers and the map threads together keep no more than nThreads CPUs busy.  Null when isActive
+     * runs serially.
+     */
+    private Semaphore cpuThreadBudget = null;
+
+    /**
+     * Periodically records how far we've gotten, or null if checkpointing isn't enabled
+     */
+    private CheckpointManager checkpointManager = null;
+
+    /**
+     * When checkpointing, the locations of the regions handed to the NanoScheduler whose map results
+     * haven't yet been reduced, in order.  The reduce of each region polls its location from here.
+     */
+    private final Queue<GenomeLoc> regionsAwaitingReduce = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Should the regions of all the shards go through a single map pipeline, rather than running the
+     * NanoScheduler over each shard?  Only possible when running with multiple threads, and when the
+     * reduce result of each shard is fed into the next one, so that endTraversal gets called.
+     */
+    private boolean pipelineAcrossShards = false;
+
+    /**
+     * The total number of reads the regions waiting for or in their map call may hold when pipelining
+     */
+    private int maxReadsInFlight = -1;
+
+    /**
+     * The map pipeline shared by all shards, created by the first traverse call when pipelining
+     */
+    private NanoSchedulerPipeline<MapData, M, T> pipeline = null;
+
     /**
      * Data to use in the ActiveRegionWalker.map function produced by the NanoScheduler input iterator
      */
@@ -123,6 +180,7 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
      * @param nThreads number of threads
      */
     public TraverseActiveRegions(final int nThreads) {
+        this.nThreads = nThreads;
         nanoScheduler = new NanoScheduler<>(nThreads);
         nanoScheduler.setProgressFunction(new NSProgressFunction<MapData>() {
             @Override
@@ -165,6 +223,32 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         final int maxReadsAcrossSamples = annotation.maxReadsToHoldInMemoryPerSample() * SampleUtils.getSAMFileSamples(engine).size();
         final int maxReadsToHoldInMemory = Math.min(maxReadsAcrossSamples, annotation.maxReadsToHoldTotal());
         myReads = new TAROrderedReadCache(maxReadsToHoldInMemory);
+
+        // each map thread may work on as many reads as we hold waiting to be assigned to regions
+        maxReadsInFlight = nThreads * maxReadsToHoldInMemory;
+        pipelineAcrossShards = nThreads > 1
+                && (engine.getArguments() == null || engine.getArguments().numberOfDataThreads == 1)
+                && ! (walker.isReduceByInterval() && engine.getIntervals() != null);
+
+        checkpointManager = engine.getCheckpointManager();
+
+        if ( nThreads > 1 && walker instanceof NanoSchedulableIsActive ) {
+            logger.info(String.format("Evaluating isActive with %d threads", nThreads));
+            isActiveExecutor = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("TAR-isActive-thread-%d"));
+            cpuThreadBudget = new Semaphore(nThreads);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if ( pipeline != null ) {
+            pipeline.shutdown();
+            pipeline = null;
+        }
+        if ( isActiveExecutor != null ) {
+            isActiveExecutor.shutdownNow();
+            isActiveExecutor = null;
+        }
     }
 
     // -------------------------------------------------------------------------------------
@@ -271,11 +355,56 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         final Iterator<MapData> activeRegionIterator = new ActiveRegionIterator(dataProvider);
         final TraverseActiveRegionMap myMap = new TraverseActiveRegionMap();
         final TraverseActiveRegionReduce myReduce = new TraverseActiveRegionReduce();
+
+        if ( pipelineAcrossShards ) {
+            // hand the regions over to the pipeline, without waiting for their map calls, so that the regions
+            // of the next shard can start while the ones of this shard are still being worked on
+            if ( pipeline == null )
+                pipeline = new NanoSchedulerPipeline<>(nThreads, maxReadsInFlight, myMap, sum, myReduce);
+            while ( activeRegionIterator.hasNext() ) {
+                final MapData mapData = activeRegionIterator.next();
+                pipeline.submit(mapData, mapData.activeRegion.size());
+            }
+            return pipeline.getReduceResult();
+        }
+
         final T result = nanoScheduler.execute(activeRegionIterator, myMap, sum, myReduce);
 
         return result;
     }
 
+    @Override
+    public T endTraversal(final ActiveRegionWalker<M,T> walker, final T sum) {
+        if ( pipeline == null )
+            return sum;
+
+        final T result = pipeline.finish();
+        logger.info(String.format("Active region map pipeline: %d regions, at most %d regions holding %d reads in flight " +
+                        "(limit %d reads), at most %d regions waiting on an earlier one to reduce, stalled %d times for %.2f seconds in total",
+                pipeline.getNumSubmitted(), pipeline.getMaxJobsInFlight(), pipeline.getMaxWeightInFlight(), maxReadsInFlight,
+                pipeline.getMaxResultsAwaitingReduce(), pipeline.getNumStalls(), RuntimeMetrics.nanosToSeconds(pipeline.getStallNanos())));
+        return result;
+    }
+
+    /**
+     * A single locus read off of the LIBS, along with the reads that were first seen at it
+     *
+     * When isActive is evaluated in parallel, the reference context, ROD tracker and isActive
+     * state are filled in ahead of time for loci within the engine intervals.
+     */
+    private static class PendingLocus {
+        public final AlignmentContext locus;
+        public final Collection<GATKSAMRecord> reads;
+        public ReferenceContext refContext = null;
+        public RefMetaDataTracker tracker = null;
+        public ActivityProfileState state = null;
+
+        private PendingLocus(final AlignmentContext locus, final Collection<GATKSAMRecord> reads) {
+            this.locus = locus;
+            this.reads = reads;
+        }
+    }
+
     private class ActiveRegionIterator implements Iterator<MapData> {
         private final LocusShardDataProvider dataProvider;
         private LinkedList<MapData> readyActiveRegions = new LinkedList<>();
@@ -287,6 +416,19 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         private final GenomeLoc currentWindow;
         private final boolean processRemainingActiveRegions;
 
+        /**
+         * Loci read ahead of the activity profile whose isActive results are already known.  Only used
+         * when isActive is evaluated in parallel.
+         */
+        private final LinkedList<PendingLocus> pendingLoci = new LinkedList<>();
+
+        /**
+         * A second ROD view used to fetch the per-locus trackers for the loci we read ahead, as the
+         * referenceOrderedDataView must be queried in increasing order by the active regions themselves.
+         * Null when isActive is evaluated serially.
+         */
+        private final IntervalReferenceOrderedView lookaheadReferenceOrderedDataView;
+
         public ActiveRegionIterator( final LocusShardDataProvider dataProvider ) {
             this.dataProvider = dataProvider;
             locusView = new AllLocusView(dataProvider);
@@ -306,6 +448,7 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
             final GenomeLoc rodSpan = activityProfile.getSpan() == null ? currentWindow : activityProfile.getSpan().endpointSpan(currentWindow);
             if ( ! dataProvider.getShard().getLocation().containsP(rodSpan) ) throw new IllegalStateException("Rod span " + rodSpan + " isn't contained within the data shard " + dataProvider.getShard().getLocation() + ", meaning we wouldn't get all of the data we need");
             referenceOrderedDataView = new IntervalReferenceOrderedView( dataProvider, rodSpan );
+            lookaheadReferenceOrderedDataView = isActiveExecutor == null ? null : new IntervalReferenceOrderedView( dataProvider, currentWindow );
 
             // We keep processing while the next reference location is within the interval
             locOfLastReadAtTraversalStart = spanOfLastSeenRead();
@@ -323,7 +466,10 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
         @Override
         public MapData next() {
-            return readyActiveRegions.pop();
+            final MapData mapData = readyActiveRegions.pop();
+            if ( checkpointManager != null )
+                regionsAwaitingReduce.add(mapData.activeRegion.getLocation());
+            return mapData;
         }
         @Override
         public boolean hasNext() {
@@ -335,16 +481,16 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                 return false;
             else {
 
-                while( locusView.hasNext() ) {
-                    final AlignmentContext locus = locusView.next();
+                while( hasNextLocus() ) {
+                    final PendingLocus pending = nextLocus();
+                    final AlignmentContext locus = pending.locus;
                     final GenomeLoc location = locus.getLocation();
 
                     rememberLastLocusLocation(location);
 
                     // get all of the new reads that appear in the current pileup, and them to our list of reads
                     // provided we haven't seen them before
-                    final Collection<GATKSAMRecord> reads = locusView.getLIBS().transferReadsFromAllPreviousPileups();
-                    for( final GATKSAMRecord read : reads ) {
+                    for( final GATKSAMRecord read : pending.reads ) {
                         // note that ActiveRegionShards span entire contigs, so this check is in some
                         // sense no longer necessary, as any read that appeared in the last shard would now
                         // by definition be on a different contig.  However, the logic here doesn't hurt anything
@@ -368,15 +514,25 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
                     dataProvider.getShard().getReadMetrics().incrementNumIterations();
 
-                    // create reference context. Note that if we have a pileup of "extended events", the context will
-                    // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
-                    final ReferenceContext refContext = referenceView.getReferenceContext(location);
+                    if ( pending.state == null ) {
+                        // create reference context. Note that if we have a pileup of "extended events", the context will
+                        // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
+                        final ReferenceContext refContext = referenceView.getReferenceContext(location);
 
-                    // Iterate forward to get all reference ordered data covering this location
-                    final RefMetaDataTracker tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(locus.getLocation());
+                        // Iterate forward to get all reference ordered data covering this location
+                        final RefMetaDataTracker tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(locus.getLocation());
 
-                    // Call the walkers isActive function for this locus and add them to the list to be integrated later
-                    addIsActiveResult(walker, tracker, refContext, locus);
+                        // Call the walkers isActive function for this locus
+                        RuntimeMetrics.ACTIVITY_PROFILE.start();
+                        try {
+                            pending.state = walker.isActive( tracker, refContext, locus );
+                        } finally {
+                            RuntimeMetrics.ACTIVITY_PROFILE.stop();
+                        }
+                    }
+
+                    // add the isActive result to the list to be integrated later
+                    addIsActiveResult(walker, pending.state);
 
                     maxReadsInMemory = Math.max(myReads.size(), maxReadsInMemory);
                     printProgress(location);
@@ -401,6 +557,92 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                 return ! readyActiveRegions.isEmpty();
             }
         }
+
+        private boolean hasNextLocus() {
+            return ! pendingLoci.isEmpty() || locusView.hasNext();
+        }
+
+        /**
+         * Get the next locus from the LIBS, along with the reads first seen at it
+         *
+         * If isActive is evaluated serially, this just reads the next locus.  Otherwise, when we've run out
+         * of pending loci we read up to IS_ACTIVE_BATCH_SIZE loci ahead and evaluate isActive over all of them
+         * concurrently.  Note that reads are still handed to the read cache one locus at a time by our caller,
+         * so the read cache, the live region and the activity profile evolve exactly as in the serial case.
+         *
+         * @return a non-null PendingLocus
+         */
+        @Requires("hasNextLocus()")
+        @Ensures("result != null")
+        private PendingLocus nextLocus() {
+            if ( isActiveExecutor == null )
+                return readNextLocus();
+
+            if ( pendingLoci.isEmpty() ) {
+                final List<PendingLocus> toEvaluate = new ArrayList<>(IS_ACTIVE_BATCH_SIZE);
+                while ( pendingLoci.size() < IS_ACTIVE_BATCH_SIZE && locusView.hasNext() ) {
+                    final PendingLocus pending = readNextLocus();
+                    final GenomeLoc location = pending.locus.getLocation();
+                    if ( ! outsideEngineIntervals(location) ) {
+                        pending.refContext = referenceView.getReferenceContext(location);
+                        pending.tracker = lookaheadReferenceOrderedDataView.getReferenceOrderedDataAtLocus(location);
+                        toEvaluate.add(pending);
+                    }
+                    pendingLoci.add(pending);
+                }
+                evaluateIsActiveInParallel(toEvaluate);
+            }
+
+            return pendingLoci.pop();
+        }
+
+        private PendingLocus readNextLocus() {
+            final AlignmentContext locus = locusView.next();
+            return new PendingLocus(locus, locusView.getLIBS().transferReadsFromAllPreviousPileups());
+        }
+    }
+
+    /**
+     * Evaluate walker.isActive for each of the loci, splitting them into one contiguous sub-window per thread
+     *
+     * @param loci the loci to evaluate, whose state field will be filled in
+     */
+    @Requires("isActiveExecutor != null")
+    private void evaluateIsActiveInParallel(final List<PendingLocus> loci) {
+        if ( loci.isEmpty() )
+            return;
+
+        final int windowSize = (loci.size() + nThreads - 1) / nThreads;
+        final List<Callable<Object>> windows = new ArrayList<>(nThreads);
+        for ( int start = 0; start < loci.size(); start += windowSize ) {
+            final List<PendingLocus> window = loci.subList(start, Math.min(start + windowSize, loci.size()));
+            windows.add(new Callable<Object>() {
+                @Override
+                public Object call() throws InterruptedException {
+                    cpuThreadBudget.acquire();
+                    RuntimeMetrics.ACTIVITY_PROFILE.start();
+                    try {
+                        for ( final PendingLocus pending : window )
+                            pending.state = walker.isActive(pending.tracker, pending.refContext, pending.locus);
+                    } finally {
+                        RuntimeMetrics.ACTIVITY_PROFILE.stop();
+                        cpuThreadBudget.release();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for ( final Future<Object> result : isActiveExecutor.invokeAll(windows) )
+                result.get();
+        } catch ( InterruptedException e ) {
+            throw new ReviewedGATKException("Interrupted while evaluating isActive", e);
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            throw new ReviewedGATKException("Failed to evaluate isActive", e.getCause());
+        }
     }
 
     // -------------------------------------------------------------------------------------
@@ -605,21 +847,22 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     // -------------------------------------------------------------------------------------
 
     /**
-     * Invoke the walker isActive function, and incorporate its result into the activity profile
+     * Incorporate the result of the walker isActive function into the activity profile
+     *
+     * Note that isActive must be called for every locus, even if we won't use the result, to satisfy walker contract
      *
      * @param walker the walker we're running
-     * @param tracker the ref meta data tracker to pass on to the isActive function of walker
-     * @param refContext the refContext to pass on to the isActive function of walker
-     * @param locus the AlignmentContext to pass on to the isActive function of walker
+     * @param state the result of calling the isActive function of walker
      */
-    private void addIsActiveResult(final ActiveRegionWalker<M, T> walker,
-                                   final RefMetaDataTracker tracker, final ReferenceContext refContext,
-                                   final AlignmentContext locus) {
-        // must be called, even if we won't use the result, to satisfy walker contract
-        final ActivityProfileState state = walker.isActive( tracker, refContext, locus );
+    private void addIsActiveResult(final ActiveRegionWalker<M, T> walker, final ActivityProfileState state) {
         if ( walker.forceActive) state.isActiveProb = 1.0;
         if ( ! walkerHasPresetRegions ) {
-            activityProfile.add(state);
+            RuntimeMetrics.ACTIVITY_PROFILE.start();
+            try {
+                activityProfile.add(state);
+            } finally {
+                RuntimeMetrics.ACTIVITY_PROFILE.stop();
+            }
         }
     }
 
@@ -634,7 +877,13 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                                                               final IntervalReferenceOrderedView referenceOrderedDataView) {
         if ( ! walkerHasPresetRegions ) {
             // We don't have preset regions, so we get our regions from the activity profile
-            final Collection<ActiveRegion> activeRegions = activityProfile.popReadyActiveRegions(getActiveRegionExtension(), getMinRegionSize(), getMaxRegionSize(), flushActivityProfile);
+            final Collection<ActiveRegion> activeRegions;
+            RuntimeMetrics.ACTIVITY_PROFILE.start();
+            try {
+                activeRegions = activityProfile.popReadyActiveRegions(getActiveRegionExtension(), getMinRegionSize(), getMaxRegionSize(), flushActivityProfile);
+            } finally {
+                RuntimeMetrics.ACTIVITY_PROFILE.stop();
+            }
             workQueue.addAll(activeRegions);
             if ( ! activeRegions.isEmpty() && logger.isDebugEnabled() ) logger.debug("Integrated " + activityProfile.size() + " isActive calls into " + activeRegions.size() + " regions." );
         }
@@ -706,14 +955,28 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         @Override
         public M apply(final MapData mapData) {
             if ( DEBUG ) logger.info("Executing walker.map for " + mapData.activeRegion + " in thread " + Thread.currentThread().getName());
-            return walker.map(mapData.activeRegion, mapData.tracker);
+            RuntimeMetrics.ACTIVE_REGION_SIZE.record(mapData.activeRegion.getLocation().size());
+            RuntimeMetrics.ACTIVE_REGION_READS.record(mapData.activeRegion.size());
+            if ( cpuThreadBudget == null )
+                return walker.map(mapData.activeRegion, mapData.tracker);
+
+            cpuThreadBudget.acquireUninterruptibly();
+            try {
+                return walker.map(mapData.activeRegion, mapData.tracker);
+            } finally {
+                cpuThreadBudget.release();
+            }
         }
     }
 
     private class TraverseActiveRegionReduce implements NSReduceFunction<M, T> {
         @Override
         public T apply(M one, T sum) {
-            return walker.reduce(one, sum);
+            final T result = walker.reduce(one, sum);
+            if ( checkpointManager != null )
+                // everything up to and including this region has now been reduced, and nothing after it
+                checkpointManager.checkpointIfDue(regionsAwaitingReduce.poll(), walker);
+            return result;
         }
     }
 }
@@ -0,0 +1,56 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.walkers;
+
+import java.util.Properties;
+
+/**
+ * Interface for walkers that can be interrupted and later resumed from a checkpoint.
+ *
+ * The engine periodically asks the walker to save any state that carries over from the genomic
+ * positions already reduced into the positions still to come (for example a partially accumulated
+ * output block), and hands that state back after walker.initialize() when the run is resumed
+ * with --resume.  State is only requested between reduce calls, so implementations don't need
+ * to be thread-safe.
+ */
+public interface Checkpointable {
+    /**
+     * Save the walker state needed to continue the traversal after the last reduced position
+     *
+     * Called before the outputs are flushed for the checkpoint, so a walker that holds back some of the results
+     * of the positions already reduced must write them out here.
+     *
+     * @param state a non-null set of properties into which the walker should put its state
+     */
+    public void saveCheckpointState(final Properties state);
+
+    /**
+     * Restore the walker state previously saved with saveCheckpointState
+     *
+     * @param state a non-null set of properties, as filled in by saveCheckpointState
+     */
+    public void restoreCheckpointState(final Properties state);
+}
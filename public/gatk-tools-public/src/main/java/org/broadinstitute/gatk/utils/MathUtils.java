@@ -34,6 +34,7 @@ import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * MathUtils is a static class (no instantiation allowed!) with some useful math methods.
@@ -71,34 +72,46 @@ public class MathUtils {
         public static double get(final int n) {
             if (n < 0)
                 throw new ReviewedGATKException(String.format("Can't take the log of a negative number: %d", n));
-            if (n >= cache.length)
-                ensureCacheContains(Math.max(n+10, 2*cache.length));
-            /*
-               Array lookups are not atomic.  It's possible that the reference to cache could be
-               changed between the time the reference is loaded and the data is fetched from the correct
-               offset.  However, the value retrieved can't change, and it's guaranteed to be present in the
-               old reference by the conditional above.
-             */
-            return cache[n];
+            final double[] values = cache.get();
+            if (n < values.length)
+                return values[n];
+            ensureCacheContains(Math.max(n+10, 2*values.length));
+            return cache.get()[n];
         }
 
         /**
          * Ensures that the cache contains a value for n.  After completion of ensureCacheContains(n),
          * #get(n) is guaranteed to return without causing a cache expansion
+         *
+         * The cache is never locked: a larger copy is published in place of the current one, and as
+         * it only ever grows, readers can use whichever version they loaded.
          * @param n desired value to be precomputed
          */
-        public static synchronized void ensureCacheContains(final int n) {
-            if (n < cache.length)
-                return;
-            final double[] newCache = new double[n + 1];
-            System.arraycopy(cache, 0, newCache, 0, cache.length);
-            for (int i=cache.length; i < newCache.length; i++)
-                newCache[i] = Math.log10(i);
-            cache = newCache;
+        public static void ensureCacheContains(final int n) {
+            double[] values = cache.get();
+            while (n >= values.length) {
+                if (cache.compareAndSet(values, extend(values, n + 1)))
+                    return;
+                values = cache.get();
+            }
         }
 
+        private static double[] extend(final double[] values, final int size) {
+            final double[] newValues = new double[size];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            for (int i=values.length; i < newValues.length; i++)
+                newValues[i] = Math.log10(i);
+            return newValues;
+        }
+
+        /**
+         * The initial size of the cache, large enough for the log10Factorial table
+         */
+        private static final int INITIAL_SIZE = 10_001;
+
         //initialize with the special case: log10(0) = NEGATIVE_INFINITY
-        private static double[] cache = new double[] { Double.NEGATIVE_INFINITY };
+        private static final AtomicReference<double[]> cache =
+                new AtomicReference<>(extend(new double[] { Double.NEGATIVE_INFINITY }, INITIAL_SIZE));
     }
 
     /**
@@ -120,24 +133,19 @@ public class MathUtils {
         public static final double MAX_TOLERANCE = 8.0;
 
         public static double get(final double difference) {
-            if (cache == null)
-                initialize();
             final int index = fastRound(difference * INV_STEP);
             return cache[index];
         }
 
-        private static synchronized void initialize() {
-            if (cache == null) {
-                final int tableSize = (int) (MAX_TOLERANCE / TABLE_STEP) + 1;
-                cache = new double[tableSize];
-                for (int k = 0; k < cache.length; k++)
-                    cache[k] = Math.log10(1.0 + Math.pow(10.0, -((double) k) * TABLE_STEP));
-            }
-        }
-
         private static final double TABLE_STEP = 0.0001;
         private static final double INV_STEP = 1.0 / TABLE_STEP;
-        private static double[] cache = null;
+
+        // computed when the table is first used, as the JVM initializes this class
+        private static final double[] cache = new double[(int) (MAX_TOLERANCE / TABLE_STEP) + 1];
+        static {
+            for (int k = 0; k < cache.length; k++)
+                cache[k] = Math.log10(1.0 + Math.pow(10.0, -((double) k) * TABLE_STEP));
+        }
     }
 
     // A fast implementation of the Math.round() method.  This method does not perform
@@ -491,18 +499,25 @@ public class MathUtils {
         return log10BinomialCoefficient(n, k) + (n * FAIR_BINOMIAL_PROB_LOG10_0_5);
     }
 
-    /** A memoization container for {@link #binomialCumulativeProbability(int, int, int)}.  Synchronized to accomodate multithreading. */
-    private static final Map<Long, Double> BINOMIAL_CUMULATIVE_PROBABILITY_MEMOIZATION_CACHE = 
-            Collections.synchronizedMap(new LRUCache<Long, Double>(10_000)); 
-    
+    /** A memoization container for {@link #binomialCumulativeProbability(int, int, int)}.  Lock-free to accomodate multithreading. */
+    private static final LongToDoubleCache BINOMIAL_CUMULATIVE_PROBABILITY_MEMOIZATION_CACHE = new LongToDoubleCache(1 << 14);
+
     /**
      * Primitive integer-triplet bijection into long.  Returns null when the bijection function fails (in lieu of an exception), which will
      * happen when: any value is negative or larger than a short.  This method is optimized for speed; it is not intended to serve as a 
      * utility function.
      */
     static Long fastGenerateUniqueHashFromThreeIntegers(final int one, final int two, final int three) {
+        final long result = uniqueKeyFromThreeIntegers(one, two, three);
+        return result < 0 ? null : result;
+    }
+
+    /**
+     * As fastGenerateUniqueHashFromThreeIntegers, but returning -1 rather than null so that the key needn't be boxed.
+     */
+    private static long uniqueKeyFromThreeIntegers(final int one, final int two, final int three) {
         if (one < 0 || two < 0 || three < 0 || Short.MAX_VALUE < one || Short.MAX_VALUE < two || Short.MAX_VALUE < three) {
-            return null;
+            return -1;
         } else {
             long result = 0;
             result += (short) one;
@@ -513,7 +528,50 @@ public class MathUtils {
             return result;
         }
     }
-    
+
+    /**
+     * A fixed-size cache of doubles keyed by non-negative longs, which never locks.  Each key has one slot, where a
+     * newer key replaces it.  Entries are immutable, so a thread reading a slot sees either a whole entry or none.
+     */
+    private static final class LongToDoubleCache {
+        private static final class Entry {
+            private final long key;
+            private final double value;
+
+            private Entry(final long key, final double value) {
+                this.key = key;
+                this.value = value;
+            }
+        }
+
+        private final Entry[] slots;
+        private final int shift;
+
+        /**
+         * @param size number of slots, a power of 2
+         */
+        private LongToDoubleCache(final int size) {
+            slots = new Entry[size];
+            shift = Long.SIZE - Integer.numberOfTrailingZeros(size);
+        }
+
+        private int slot(final long key) {
+            return (int)((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        /**
+         * @return the value cached for key, or NaN if there is none
+         */
+        private double get(final long key) {
+            final Entry entry = slots[slot(key)];
+            return entry != null && entry.key == key ? entry.value : Double.NaN;
+        }
+
+        private void put(final long key, final double value) {
+            slots[slot(key)] = new Entry(key, value);
+        }
+    }
+
     /**
      * Performs the cumulative sum of binomial probabilities, where the probability calculation is done in log space.
      * Assumes that the probability of a successful hit is fair (i.e. 0.5).
@@ -530,16 +588,16 @@ public class MathUtils {
             throw new IllegalArgumentException(String.format("Value for k_end (%d) is greater than n (%d)", k_end, n));
 
         // Fetch cached value, if applicable.
-        final Long memoizationKey = fastGenerateUniqueHashFromThreeIntegers(n, k_start, k_end);
-        final Double memoizationCacheResult;
-        if (memoizationKey != null) {
+        final long memoizationKey = uniqueKeyFromThreeIntegers(n, k_start, k_end);
+        final double memoizationCacheResult;
+        if (memoizationKey >= 0) {
             memoizationCacheResult = BINOMIAL_CUMULATIVE_PROBABILITY_MEMOIZATION_CACHE.get(memoizationKey);
         } else {
-            memoizationCacheResult = null;
+            memoizationCacheResult = Double.NaN;
         }
 
         final double result;
-        if (memoizationCacheResult != null) {
+        if (!Double.isNaN(memoizationCacheResult)) {
             result = memoizationCacheResult;
         } else {
             double cumProb = 0.0;
@@ -559,7 +617,7 @@ public class MathUtils {
             }
 
             result = probCache.add(new BigDecimal(cumProb)).doubleValue();
-            if (memoizationKey != null) {
+            if (memoizationKey >= 0) {
                 BINOMIAL_CUMULATIVE_PROBABILITY_MEMOIZATION_CACHE.put(memoizationKey, result);
             }
         }
@@ -1507,22 +1565,16 @@ public class MathUtils {
         public static int size() { return CACHE_SIZE; }
 
         public static double get(final int n) {
-            if (cache == null)
-                initialize();
             return cache[n];
         }
 
-        private static synchronized void initialize() {
-            if (cache == null) {
-                Log10Cache.ensureCacheContains(CACHE_SIZE);
-                cache = new double[CACHE_SIZE];
-                cache[0] = 0.0;
-                for (int k = 1; k < cache.length; k++)
-                    cache[k] = cache[k-1] + Log10Cache.get(k);
-            }
+        // computed when the cache is first used, as the JVM initializes this class
+        private static final double[] cache = new double[CACHE_SIZE];
+        static {
+            cache[0] = 0.0;
+            for (int k = 1; k < cache.length; k++)
+                cache[k] = cache[k-1] + Log10Cache.get(k);
         }
-
-        private static double[] cache = null;
     }
 
     /**
@@ -63,14 +63,15 @@ public class QualityUtils {
     public static final int MAX_QUAL = 254;
 
     /**
-     * Cached values for qual as byte calculations so they are very fast
+     * Cached values for qual as byte calculations so they are very fast.  They cover every value of
+     * (qual & 0xff), and never change once the class is initialized, so any thread can read them without locking.
      */
-    private static double qualToErrorProbCache[] = new double[MAX_QUAL + 1];
-    private static double qualToProbLog10Cache[] = new double[MAX_QUAL + 1];
+    private static final double qualToErrorProbCache[] = new double[256];
+    private static final double qualToProbLog10Cache[] = new double[256];
 
 
     static {
-        for (int i = 0; i <= MAX_QUAL; i++) {
+        for (int i = 0; i < qualToErrorProbCache.length; i++) {
             qualToErrorProbCache[i] = qualToErrorProb((double) i);
             qualToProbLog10Cache[i] = Math.log10(1.0 - qualToErrorProbCache[i]);
         }
@@ -30,6 +30,7 @@ import com.google.java.contract.Requires;
 import htsjdk.samtools.SAMRecord;
 import org.broadinstitute.gatk.engine.iterators.ReadTransformer;
 import org.broadinstitute.gatk.engine.iterators.GATKSAMIterator;
+import org.broadinstitute.gatk.utils.instrumentation.RuntimeMetrics;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
 import java.util.Iterator;
@@ -59,7 +60,12 @@ public class ReadTransformingIterator implements GATKSAMIterator {
     @Ensures("result != null")
     public SAMRecord next()     {
         final GATKSAMRecord read = (GATKSAMRecord)it.next();
-        return transformer.apply(read);
+        RuntimeMetrics.READ_TRANSFORMERS.start();
+        try {
+            return transformer.apply(read);
+        } finally {
+            RuntimeMetrics.READ_TRANSFORMERS.stop();
+        }
     }
 
     public boolean hasNext()    { return this.it.hasNext(); }
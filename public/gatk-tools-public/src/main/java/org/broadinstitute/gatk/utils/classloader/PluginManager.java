@@ -36,10 +36,8 @@ import org.reflections.Reflections;
 import org.reflections.scanners.SubTypesScanner;
 import org.reflections.util.ConfigurationBuilder;
 
-import java.io.File;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
@@ -59,26 +57,8 @@ public class PluginManager<PluginType> {
         // turn off logging in the reflections library - they talk too much
         Reflections.log = null;
 
-        Set<URL> classPathUrls = new LinkedHashSet<URL>();
-
-        URL cwd;
-        try {
-            cwd = new File(".").getAbsoluteFile().toURI().toURL();
-        } catch (MalformedURLException e) {
-            throw new RuntimeException(e);
-        }
-
-        // NOTE: Reflections also scans directories for classes.
-        // Meanwhile some of the jar MANIFEST.MF Bundle-ClassPath properties contain "."
-        // Do NOT let reflections scan the CWD where it often picks up test classes when
-        // they weren't explicitly in the classpath, for example the UninstantiableWalker
-        for (URL url: JVMUtils.getClasspathURLs())
-            if (!url.equals(cwd))
-                classPathUrls.add(url);
-
-        defaultReflections = new Reflections( new ConfigurationBuilder()
-            .setUrls(classPathUrls)
-            .setScanners(new SubTypesScanner()));
+        // read the subtypes of the packaged classes from the plugin registry, only scanning the rest of the classpath
+        defaultReflections = PluginRegistry.createReflections(PluginRegistry.getClasspathURLs());
     }
 
     /**
@@ -0,0 +1,222 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package org.broadinstitute.gatk.utils.classloader;
+
+import com.google.common.collect.Multimap;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ConfigurationBuilder;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * A list of the subtypes of every type on a classpath, written when the GATK is packaged so that the PluginManager
+ * doesn't need to scan the classes in the package every time it starts.
+ *
+ * Each line of the registry names a type and one of its direct subtypes, separated by a tab, just as the
+ * Reflections SubTypesScanner records them.  Parts of the classpath without a registry, such as the jars of
+ * external plugins, are still scanned.
+ */
+public class PluginRegistry {
+    /**
+     * Where the registry is found relative to the root of the jar or directory whose classes it lists.
+     */
+    public static final String REGISTRY_PATH = "GATKPlugins.txt";
+
+    private static final String SUBTYPES_INDEX = SubTypesScanner.class.getSimpleName();
+
+    /**
+     * Returns the classpath to search for plugins, which is the classpath of the JVM without the working directory.
+     * @return the classpath urls to search for plugins.
+     */
+    public static Set<URL> getClasspathURLs() {
+        final Set<URL> classPathUrls = new LinkedHashSet<URL>();
+
+        URL cwd;
+        try {
+            cwd = new File(".").getAbsoluteFile().toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+
+        // NOTE: Reflections also scans directories for classes.
+        // Meanwhile some of the jar MANIFEST.MF Bundle-ClassPath properties contain "."
+        // Do NOT let reflections scan the CWD where it often picks up test classes when
+        // they weren't explicitly in the classpath, for example the UninstantiableWalker
+        for (URL url: JVMUtils.getClasspathURLs())
+            if (!url.equals(cwd))
+                classPathUrls.add(url);
+
+        return classPathUrls;
+    }
+
+    /**
+     * Creates a Reflections instance knowing the subtypes of every type on the classpath, reading them from the
+     * registries found on the classpath and scanning the classes of the rest of it.
+     * @param classPathUrls classpath urls to search for plugins.
+     * @return the reflections instance for the classpath.
+     */
+    public static Reflections createReflections(final Set<URL> classPathUrls) {
+        try {
+            return createReflections(classPathUrls, Collections.list(PluginRegistry.class.getClassLoader().getResources(REGISTRY_PATH)));
+        } catch (IOException e) {
+            throw new ReviewedGATKException("Unable to find the plugin registries on the classpath", e);
+        }
+    }
+
+    /**
+     * Creates a Reflections instance knowing the subtypes of every type on the classpath, reading them from the
+     * given registries and scanning the classes of the classpath urls that none of the registries lists.
+     * @param classPathUrls classpath urls to search for plugins.
+     * @param registries urls of the registries, each found at REGISTRY_PATH in the jar or directory it lists.
+     * @return the reflections instance for the classpath.
+     */
+    static Reflections createReflections(final Set<URL> classPathUrls, final List<URL> registries) {
+        final Reflections reflections = new Reflections(new ConfigurationBuilder().setScanners(new SubTypesScanner()));
+        final Multimap<String, String> subTypes = reflections.getStore().getOrCreate(SUBTYPES_INDEX);
+
+        final Set<File> registeredLocations = new HashSet<File>();
+        for (URL registry : registries) {
+            readRegistry(registry, subTypes);
+            registeredLocations.add(getRegisteredLocation(registry));
+        }
+
+        final Set<URL> unregisteredUrls = new LinkedHashSet<URL>();
+        for (URL url : classPathUrls)
+            if (!registeredLocations.contains(toFile(url)))
+                unregisteredUrls.add(url);
+
+        if (!unregisteredUrls.isEmpty())
+            reflections.merge(new Reflections( new ConfigurationBuilder()
+                .setUrls(unregisteredUrls)
+                .setScanners(new SubTypesScanner())));
+
+        return reflections;
+    }
+
+    /**
+     * Writes the registry for the given classpath urls.
+     * @param classPathUrls classpath urls to list the types of.
+     * @param writer where to write the registry.
+     */
+    public static void writeRegistry(final Set<URL> classPathUrls, final Writer writer) {
+        final Reflections reflections = new Reflections( new ConfigurationBuilder()
+            .setUrls(classPathUrls)
+            .setScanners(new SubTypesScanner()));
+
+        // sort the lines so the registry is the same from one build to the next
+        final SortedSet<String> lines = new TreeSet<String>();
+        for (Map.Entry<String, String> subType : reflections.getStore().getOrCreate(SUBTYPES_INDEX).entries())
+            lines.add(subType.getKey() + "\t" + subType.getValue());
+
+        final PrintWriter out = new PrintWriter(writer);
+        for (String line : lines)
+            out.println(line);
+        out.flush();
+    }
+
+    private static void readRegistry(final URL registry, final Multimap<String, String> subTypes) {
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(registry.openStream(), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty())
+                        continue;
+                    final int tab = line.indexOf('\t');
+                    if (tab < 0)
+                        throw new ReviewedGATKException("Plugin registry " + registry + " has a line that is not a type and its subtype: " + line);
+                    subTypes.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new ReviewedGATKException("Unable to read plugin registry " + registry, e);
+        }
+    }
+
+    /**
+     * Returns the jar or directory listed by a registry, from a url such as jar:file:/path/GenomeAnalysisTK.jar!/GATKPlugins.txt
+     */
+    private static File getRegisteredLocation(final URL registry) {
+        String location = registry.toString();
+        if (!location.endsWith(REGISTRY_PATH))
+            throw new ReviewedGATKException("Plugin registry is not at " + REGISTRY_PATH + ": " + location);
+        location = location.substring(0, location.length() - REGISTRY_PATH.length());
+        if (location.startsWith("jar:") && location.endsWith("!/"))
+            location = location.substring("jar:".length(), location.length() - "!/".length());
+        try {
+            return toFile(new URL(location));
+        } catch (MalformedURLException e) {
+            throw new ReviewedGATKException("Unable to find the location of plugin registry " + registry, e);
+        }
+    }
+
+    private static File toFile(final URL url) {
+        try {
+            return new File(url.toURI()).getAbsoluteFile();
+        } catch (URISyntaxException e) {
+            return new File(url.getPath()).getAbsoluteFile();
+        } catch (IllegalArgumentException e) {
+            // not a file url, so never the location of a registry
+            return null;
+        }
+    }
+
+    /**
+     * Writes the registry for the classpath this is run with.
+     * @param argv The registry file to write.
+     * @throws IOException if the registry can't be written.
+     */
+    public static void main(String argv[]) throws IOException {
+        if (argv.length != 1) {
+            System.out.println("USAGE: PluginRegistry <output registry>");
+            return;
+        }
+
+        // turn off logging in the reflections library - they talk too much
+        Reflections.log = null;
+
+        final File registryFile = new File(argv[0]);
+        final File registryDir = registryFile.getAbsoluteFile().getParentFile();
+        if (!registryDir.isDirectory() && !registryDir.mkdirs())
+            throw new UserException.CouldNotCreateOutputFile(registryFile, "its directory could not be created");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(registryFile), "UTF-8");
+        try {
+            writeRegistry(getClasspathURLs(), writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
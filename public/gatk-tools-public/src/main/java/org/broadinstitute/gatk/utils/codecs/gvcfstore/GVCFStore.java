@@ -0,0 +1,273 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.codecs.gvcfstore;
+
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.*;
+
+/**
+ * The on-disk layout of a GVCF store
+ *
+ * <p>A GVCF store holds the records of many gVCFs, imported one sample block at a time (see ImportGVCFs).
+ * The store is addressed by its manifest, a small text file whose name ends in {@value #MANIFEST_EXTENSION}
+ * and which lists the sample blocks in import order.  The data of the blocks live in the directory next to it
+ * with the same name plus {@value #DATA_DIRECTORY_SUFFIX}:</p>
+ *
+ * <pre>
+ *     cohort.gvcfstore                      the manifest
+ *     cohort.gvcfstore.data/
+ *         block1/header.vcf                 VCF header of the block, with its samples
+ *         block1/partitions.tsv             the partition index of the block
+ *         block1/p0_0.bcf                   the block's records on the first contig starting in [1, partitionSize]
+ *         block1/p0_1.bcf                   ... starting in [partitionSize + 1, 2 * partitionSize]
+ *         block2/...
+ * </pre>
+ *
+ * <p>Within a block the records are already merged across the block's samples, so each partition is a sorted,
+ * column-per-sample BCF2 file.  The partition index records for each partition the span of the records in it,
+ * so that range queries only open the partitions of each block that can overlap the queried interval.</p>
+ */
+public final class GVCFStore {
+    public static final String MANIFEST_EXTENSION = ".gvcfstore";
+    public static final String DATA_DIRECTORY_SUFFIX = ".data";
+
+    static final String MANIFEST_MAGIC = "##gvcfstore=1";
+    static final String BLOCK_LINE_PREFIX = "block\t";
+    static final String HEADER_FILE_NAME = "header.vcf";
+    static final String PARTITIONS_FILE_NAME = "partitions.tsv";
+
+    private final File manifest;
+    private final List<SampleBlock> sampleBlocks;
+
+    /**
+     * One partition of a sample block: the records of the block on one contig starting in one interval
+     */
+    public static final class Partition {
+        public final String contig;
+        public final int index;
+        public final File file;
+        public final int firstStart;
+        public final int maxEnd;
+        public final long nRecords;
+
+        public Partition(final String contig, final int index, final File file, final int firstStart, final int maxEnd, final long nRecords) {
+            this.contig = contig;
+            this.index = index;
+            this.file = file;
+            this.firstStart = firstStart;
+            this.maxEnd = maxEnd;
+            this.nRecords = nRecords;
+        }
+
+        /**
+         * @return true if any record of this partition may overlap contig:start-end
+         */
+        public boolean mayOverlap(final String contig, final int start, final int end) {
+            return this.contig.equals(contig) && firstStart <= end && maxEnd >= start;
+        }
+    }
+
+    /**
+     * A set of samples imported together, whose records are merged across its samples
+     */
+    public static final class SampleBlock {
+        public final String name;
+        public final File directory;
+        private VCFHeader header = null;
+        private List<Partition> partitions = null;
+
+        SampleBlock(final String name, final File directory) {
+            this.name = name;
+            this.directory = directory;
+        }
+
+        /**
+         * @return the VCF header of this block, read on first use
+         */
+        public synchronized VCFHeader getHeader() {
+            if ( header == null )
+                header = readHeader(new File(directory, HEADER_FILE_NAME));
+            return header;
+        }
+
+        /**
+         * @return the partitions of this block in the order they were written, read on first use
+         */
+        public synchronized List<Partition> getPartitions() {
+            if ( partitions == null )
+                partitions = readPartitions(directory);
+            return partitions;
+        }
+    }
+
+    private GVCFStore(final File manifest, final List<SampleBlock> sampleBlocks) {
+        this.manifest = manifest;
+        this.sampleBlocks = Collections.unmodifiableList(sampleBlocks);
+    }
+
+    /**
+     * Open the store with the given manifest
+     *
+     * @param manifest the manifest of the store
+     * @return a non-null GVCFStore
+     */
+    public static GVCFStore open(final File manifest) {
+        try {
+            return new GVCFStore(manifest, readBlocks(manifest));
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(manifest, e);
+        }
+    }
+
+    public File getManifest() {
+        return manifest;
+    }
+
+    public List<SampleBlock> getSampleBlocks() {
+        return sampleBlocks;
+    }
+
+    /**
+     * @return the directory holding the data of the store with the given manifest
+     */
+    public static File getDataDirectory(final File manifest) {
+        return new File(manifest.getPath() + DATA_DIRECTORY_SUFFIX);
+    }
+
+    /**
+     * @return true if path looks like the manifest of a GVCF store
+     */
+    public static boolean isManifest(final String path) {
+        if ( ! path.endsWith(MANIFEST_EXTENSION) )
+            return false;
+        try ( final BufferedReader reader = new BufferedReader(new FileReader(path)) ) {
+            return MANIFEST_MAGIC.equals(reader.readLine());
+        } catch ( IOException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Add a sample block to the manifest of a store, creating the manifest if needed
+     *
+     * The manifest is locked while it is updated, so several imports can add blocks to the same store concurrently.
+     *
+     * @param manifest the manifest of the store
+     * @param blockName the name of the new block
+     * @param samples the samples of the new block, which must not be in any other block of the store
+     */
+    static void addSampleBlock(final File manifest, final String blockName, final Collection<String> samples) {
+        try ( final RandomAccessFile file = new RandomAccessFile(manifest, "rw");
+              final FileChannel channel = file.getChannel();
+              final FileLock lock = channel.lock() ) {
+            if ( file.length() == 0 )
+                file.write((MANIFEST_MAGIC + "\n").getBytes());
+
+            checkNewSampleBlock(manifest, readBlocks(manifest), blockName, samples);
+            file.seek(file.length());
+            file.write((BLOCK_LINE_PREFIX + blockName + "\n").getBytes());
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(manifest, e);
+        }
+    }
+
+    /**
+     * Check that a new sample block would clash neither by name nor by samples with the existing blocks of a store
+     *
+     * @throws UserException.BadInput if it would
+     */
+    static void checkNewSampleBlock(final File manifest, final List<SampleBlock> blocks, final String blockName, final Collection<String> samples) {
+        for ( final SampleBlock block : blocks ) {
+            if ( block.name.equals(blockName) )
+                throw new UserException.BadInput("GVCF store " + manifest + " already contains a sample block named " + blockName);
+            final Set<String> duplicates = new LinkedHashSet<>(block.getHeader().getGenotypeSamples());
+            duplicates.retainAll(samples);
+            if ( ! duplicates.isEmpty() )
+                throw new UserException.BadInput("Samples " + duplicates + " are already in sample block " + block.name + " of GVCF store " + manifest);
+        }
+    }
+
+    private static List<SampleBlock> readBlocks(final File manifest) throws IOException {
+        final File dataDirectory = getDataDirectory(manifest);
+        final List<SampleBlock> blocks = new ArrayList<>();
+        try ( final BufferedReader reader = new BufferedReader(new FileReader(manifest)) ) {
+            final String magic = reader.readLine();
+            if ( magic != null && ! MANIFEST_MAGIC.equals(magic) )
+                throw new UserException.MalformedFile(manifest, "not a GVCF store manifest");
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                if ( line.startsWith(BLOCK_LINE_PREFIX) ) {
+                    final String name = line.substring(BLOCK_LINE_PREFIX.length());
+                    blocks.add(new SampleBlock(name, new File(dataDirectory, name)));
+                }
+            }
+        }
+        return blocks;
+    }
+
+    private static VCFHeader readHeader(final File headerFile) {
+        try ( final AbstractFeatureReader reader = AbstractFeatureReader.getFeatureReader(headerFile.getAbsolutePath(), new VCFCodec(), false) ) {
+            return (VCFHeader)reader.getHeader();
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(headerFile, e);
+        }
+    }
+
+    private static List<Partition> readPartitions(final File directory) {
+        final File partitionsFile = new File(directory, PARTITIONS_FILE_NAME);
+        final List<Partition> partitions = new ArrayList<>();
+        try ( final BufferedReader reader = new BufferedReader(new FileReader(partitionsFile)) ) {
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                final String[] parts = line.split("\t");
+                if ( parts.length != 6 )
+                    throw new UserException.MalformedFile(partitionsFile, "expected 6 columns but found " + parts.length + " in line " + line);
+                partitions.add(new Partition(parts[0], Integer.parseInt(parts[1]), new File(directory, parts[2]),
+                        Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), Long.parseLong(parts[5])));
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(partitionsFile, e);
+        }
+        return partitions;
+    }
+
+    static void writePartitions(final File directory, final List<Partition> partitions) {
+        final File partitionsFile = new File(directory, PARTITIONS_FILE_NAME);
+        try ( final PrintStream out = new PrintStream(partitionsFile) ) {
+            for ( final Partition p : partitions )
+                out.printf("%s\t%d\t%s\t%d\t%d\t%d%n", p.contig, p.index, p.file.getName(), p.firstStart, p.maxEnd, p.nRecords);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(partitionsFile, e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.codecs.gvcfstore;
+
+import htsjdk.tribble.AsciiFeatureCodec;
+import htsjdk.tribble.NameAwareCodec;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import org.broadinstitute.gatk.utils.commandline.RodBinding;
+
+/**
+ * Binds a GVCF store as a source of VariantContexts
+ *
+ * <p>
+ * A GVCF store is not a single stream of records that can be decoded line by line: the engine reads it with a
+ * GVCFStoreReader, which provides the header, the queries and the iteration.  This codec only identifies the
+ * store's manifest, so that it can be given anywhere a VCF is expected, e.g. to GenotypeGVCFs:
+ * </p>
+ *
+ * <pre>
+ *     -V cohort.gvcfstore
+ * </pre>
+ *
+ * @see GVCFStore
+ */
+public class GVCFStoreCodec extends AsciiFeatureCodec<VariantContext> implements NameAwareCodec {
+    /**
+     * The tribble type of RodBindings to a GVCF store
+     */
+    public static final String TRIBBLE_TYPE = "GVCFSTORE";
+
+    private String name = TRIBBLE_TYPE;
+
+    public GVCFStoreCodec() {
+        super(VariantContext.class);
+    }
+
+    /**
+     * @return true if binding reads a GVCF store, whose records come from several sample blocks
+     */
+    public static boolean isStoreBinding(final RodBinding<?> binding) {
+        return TRIBBLE_TYPE.equalsIgnoreCase(binding.getTribbleType());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    @Override
+    public boolean canDecode(final String path) {
+        return GVCFStore.isManifest(path);
+    }
+
+    @Override
+    public VariantContext decode(final String line) {
+        throw new UnsupportedOperationException("GVCF stores must be read with a " + GVCFStoreReader.class.getSimpleName());
+    }
+
+    @Override
+    public Object readActualHeader(final LineIterator reader) {
+        throw new UnsupportedOperationException("GVCF stores must be read with a " + GVCFStoreReader.class.getSimpleName());
+    }
+}
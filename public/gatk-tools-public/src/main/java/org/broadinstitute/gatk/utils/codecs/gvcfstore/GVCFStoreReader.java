@@ -0,0 +1,315 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.codecs.gvcfstore;
+
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.CloseableTribbleIterator;
+import htsjdk.tribble.FeatureCodec;
+import htsjdk.tribble.FeatureCodecHeader;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.bcf2.BCF2Codec;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFContigHeaderLine;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFUtils;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reads a GVCF store as a single stream of VariantContexts
+ *
+ * The header is the merge of the headers of all sample blocks.  Queries return, sorted by start, the records
+ * of every sample block overlapping the query interval; the records of each block are already merged across
+ * its samples, so at any one position there is at most one record per block starting there.  The source of
+ * each record is the name of the sample block it comes from.  Only the partitions of each block whose span
+ * overlaps the query are opened.
+ */
+public final class GVCFStoreReader extends AbstractFeatureReader<VariantContext, LineIterator> {
+    private final GVCFStore store;
+    private final List<String> sequenceNames;
+    private final Set<CloseableTribbleIterator<VariantContext>> openIterators = new LinkedHashSet<>();
+
+    public GVCFStoreReader(final File manifest, final FeatureCodec<VariantContext, LineIterator> codec) {
+        super(manifest.getAbsolutePath(), codec);
+        store = GVCFStore.open(manifest);
+        if ( store.getSampleBlocks().isEmpty() )
+            throw new UserException.MalformedFile(manifest, "the GVCF store does not contain any sample blocks");
+
+        final VCFHeader mergedHeader = mergeHeaders(store);
+        header = new FeatureCodecHeader(mergedHeader, FeatureCodecHeader.NO_HEADER_END);
+        sequenceNames = findSequenceNames(store, mergedHeader);
+    }
+
+    public GVCFStore getStore() {
+        return store;
+    }
+
+    private static VCFHeader mergeHeaders(final GVCFStore store) {
+        final List<VCFHeader> headers = new ArrayList<>();
+        final Set<String> samples = new LinkedHashSet<>();
+        for ( final GVCFStore.SampleBlock block : store.getSampleBlocks() ) {
+            final VCFHeader blockHeader = block.getHeader();
+            headers.add(blockHeader);
+            for ( final String sample : blockHeader.getGenotypeSamples() )
+                if ( ! samples.add(sample) )
+                    throw new UserException.MalformedFile(store.getManifest(), "sample " + sample + " is present in more than one sample block");
+        }
+
+        final Set<VCFHeaderLine> headerLines = VCFUtils.smartMergeHeaders(headers, false);
+        return new VCFHeader(headerLines, samples);
+    }
+
+    private static List<String> findSequenceNames(final GVCFStore store, final VCFHeader header) {
+        final Set<String> names = new LinkedHashSet<>();
+        for ( final VCFContigHeaderLine contig : header.getContigLines() )
+            names.add(contig.getID());
+        for ( final GVCFStore.SampleBlock block : store.getSampleBlocks() )
+            for ( final GVCFStore.Partition partition : block.getPartitions() )
+                names.add(partition.contig);
+        return Collections.unmodifiableList(new ArrayList<>(names));
+    }
+
+    @Override
+    public List<String> getSequenceNames() {
+        return sequenceNames;
+    }
+
+    @Override
+    public CloseableTribbleIterator<VariantContext> query(final String chr, final int start, final int end) throws IOException {
+        return track(new MergingIterator(chr, start, end));
+    }
+
+    @Override
+    public CloseableTribbleIterator<VariantContext> iterator() throws IOException {
+        return track(new WholeStoreIterator());
+    }
+
+    private CloseableTribbleIterator<VariantContext> track(final CloseableTribbleIterator<VariantContext> iterator) {
+        synchronized ( openIterators ) {
+            openIterators.add(iterator);
+        }
+        return iterator;
+    }
+
+    private void untrack(final CloseableTribbleIterator<VariantContext> iterator) {
+        synchronized ( openIterators ) {
+            openIterators.remove(iterator);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        final List<CloseableTribbleIterator<VariantContext>> toClose;
+        synchronized ( openIterators ) {
+            toClose = new ArrayList<>(openIterators);
+        }
+        for ( final CloseableTribbleIterator<VariantContext> iterator : toClose )
+            iterator.close();
+    }
+
+    /**
+     * Iterates over the records of one sample block overlapping an interval, opening its partitions one at a time
+     */
+    private static final class BlockIterator {
+        private final GVCFStore.SampleBlock block;
+        private final int blockIndex;
+        private final String chr;
+        private final int start, end;
+        private final Iterator<GVCFStore.Partition> partitions;
+
+        private AbstractFeatureReader<VariantContext, ?> reader = null;
+        private Iterator<VariantContext> records = null;
+        private VariantContext next = null;
+
+        private BlockIterator(final GVCFStore.SampleBlock block, final int blockIndex, final String chr, final int start, final int end) {
+            this.block = block;
+            this.blockIndex = blockIndex;
+            this.chr = chr;
+            this.start = start;
+            this.end = end;
+
+            final List<GVCFStore.Partition> overlapping = new ArrayList<>();
+            for ( final GVCFStore.Partition partition : block.getPartitions() )
+                if ( partition.mayOverlap(chr, start, end) )
+                    overlapping.add(partition);
+            partitions = overlapping.iterator();
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while ( next == null ) {
+                if ( records == null || ! records.hasNext() ) {
+                    closeReader();
+                    if ( ! partitions.hasNext() )
+                        return;
+                    openReader(partitions.next().file);
+                    continue;
+                }
+
+                final VariantContext vc = records.next();
+                if ( vc.getStart() > end ) {
+                    // partitions are sorted, so nothing else in this block can overlap the interval
+                    closeReader();
+                    while ( partitions.hasNext() ) partitions.next();
+                    return;
+                }
+                if ( vc.getEnd() >= start )
+                    next = new VariantContextBuilder(vc).source(block.name).make();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void openReader(final File file) {
+            try {
+                reader = AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), new BCF2Codec(), false);
+                records = reader.iterator();
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+        }
+
+        private void closeReader() {
+            if ( reader != null ) {
+                try {
+                    reader.close();
+                } catch ( IOException e ) {
+                    throw new UserException.CouldNotReadInputFile("Could not close GVCF store partition reader", e);
+                }
+            }
+            reader = null;
+            records = null;
+        }
+    }
+
+    /**
+     * Merges the records of all sample blocks overlapping an interval by start position
+     */
+    private final class MergingIterator implements CloseableTribbleIterator<VariantContext> {
+        private final PriorityQueue<BlockIterator> queue = new PriorityQueue<>(Math.max(1, store.getSampleBlocks().size()), new Comparator<BlockIterator>() {
+            @Override
+            public int compare(final BlockIterator a, final BlockIterator b) {
+                final int byStart = Integer.compare(a.next.getStart(), b.next.getStart());
+                return byStart != 0 ? byStart : Integer.compare(a.blockIndex, b.blockIndex);
+            }
+        });
+
+        private MergingIterator(final String chr, final int start, final int end) {
+            final List<GVCFStore.SampleBlock> blocks = store.getSampleBlocks();
+            for ( int i = 0; i < blocks.size(); i++ ) {
+                final BlockIterator blockIterator = new BlockIterator(blocks.get(i), i, chr, start, end);
+                if ( blockIterator.next != null )
+                    queue.add(blockIterator);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return ! queue.isEmpty();
+        }
+
+        @Override
+        public VariantContext next() {
+            final BlockIterator blockIterator = queue.poll();
+            if ( blockIterator == null )
+                throw new NoSuchElementException();
+            final VariantContext vc = blockIterator.next;
+            blockIterator.advance();
+            if ( blockIterator.next != null )
+                queue.add(blockIterator);
+            return vc;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<VariantContext> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            for ( final BlockIterator blockIterator : queue )
+                blockIterator.closeReader();
+            queue.clear();
+            untrack(this);
+        }
+    }
+
+    /**
+     * Iterates over all records of the store, one sequence at a time
+     */
+    private final class WholeStoreIterator implements CloseableTribbleIterator<VariantContext> {
+        private final Iterator<String> sequences = sequenceNames.iterator();
+        private MergingIterator current = null;
+
+        @Override
+        public boolean hasNext() {
+            while ( current == null || ! current.hasNext() ) {
+                if ( current != null )
+                    current.close();
+                current = null;
+                if ( ! sequences.hasNext() )
+                    return false;
+                current = new MergingIterator(sequences.next(), 1, Integer.MAX_VALUE);
+            }
+            return true;
+        }
+
+        @Override
+        public VariantContext next() {
+            if ( ! hasNext() )
+                throw new NoSuchElementException();
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<VariantContext> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if ( current != null )
+                current.close();
+            current = null;
+            untrack(this);
+        }
+    }
+}
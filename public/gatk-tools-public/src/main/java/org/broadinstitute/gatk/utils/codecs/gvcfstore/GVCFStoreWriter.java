@@ -0,0 +1,169 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.codecs.gvcfstore;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFUtils;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Writes the sorted, merged records of one sample block into a GVCF store
+ *
+ * The records are split into one BCF2 file per partitionSize bases of each contig.  The block only becomes
+ * visible in the store when the writer is closed, at which point the partition index is written and the
+ * block is added to the manifest.
+ */
+public final class GVCFStoreWriter implements VariantContextWriter {
+    private final File manifest;
+    private final String blockName;
+    private final File blockDirectory;
+    private final int partitionSize;
+    private final SAMSequenceDictionary dictionary;
+
+    private VCFHeader header = null;
+    private final List<GVCFStore.Partition> partitions = new ArrayList<>();
+    private final List<String> contigs = new ArrayList<>();
+
+    // the partition currently being written
+    private VariantContextWriter partitionWriter = null;
+    private String currentContig = null;
+    private int currentIndex = -1;
+    private File currentFile = null;
+    private int currentFirstStart;
+    private int currentMaxEnd;
+    private long currentNRecords;
+
+    /**
+     * @param manifest the manifest of the store, which is created if it does not exist
+     * @param blockName the name of the sample block to write, which must be new to the store
+     * @param partitionSize the number of bases of each contig covered by one partition
+     * @param dictionary the sequence dictionary of the reference
+     */
+    public GVCFStoreWriter(final File manifest, final String blockName, final int partitionSize, final SAMSequenceDictionary dictionary) {
+        if ( ! manifest.getName().endsWith(GVCFStore.MANIFEST_EXTENSION) )
+            throw new UserException.BadArgumentValue("store", "the name of a GVCF store must end in " + GVCFStore.MANIFEST_EXTENSION + " but got " + manifest);
+        if ( blockName.isEmpty() || blockName.contains("/") || blockName.contains("\t") || blockName.startsWith(".") )
+            throw new UserException.BadArgumentValue("blockName", "sample block names cannot be empty, start with a '.' or contain '/' or tabs, but got " + blockName);
+        if ( partitionSize < 1 )
+            throw new IllegalArgumentException("partitionSize must be >= 1 but got " + partitionSize);
+
+        this.manifest = manifest;
+        this.blockName = blockName;
+        this.blockDirectory = new File(GVCFStore.getDataDirectory(manifest), blockName);
+        this.partitionSize = partitionSize;
+        this.dictionary = dictionary;
+
+        if ( blockDirectory.exists() )
+            throw new UserException.CouldNotCreateOutputFile(blockDirectory, "sample block " + blockName + " already exists in the GVCF store");
+    }
+
+    public File getBlockDirectory() {
+        return blockDirectory;
+    }
+
+    @Override
+    public void writeHeader(final VCFHeader header) {
+        // fail before doing any work if the block clashes with the store; the check is repeated under lock on close
+        if ( manifest.exists() && manifest.length() > 0 )
+            GVCFStore.checkNewSampleBlock(manifest, GVCFStore.open(manifest).getSampleBlocks(), blockName, header.getGenotypeSamples());
+        if ( ! blockDirectory.mkdirs() )
+            throw new UserException.CouldNotCreateOutputFile(blockDirectory, "could not create the sample block directory");
+
+        // BCF2 encodes contigs as offsets into the header's contig lines, so make sure they are all there
+        this.header = header.getContigLines().isEmpty() && dictionary != null ? VCFUtils.withUpdatedContigs(header, null, dictionary) : header;
+        final VariantContextWriter headerWriter = VariantContextWriterFactory.create(new File(blockDirectory, GVCFStore.HEADER_FILE_NAME), dictionary, EnumSet.noneOf(Options.class));
+        headerWriter.writeHeader(this.header);
+        headerWriter.close();
+    }
+
+    @Override
+    public void add(final VariantContext vc) {
+        if ( header == null )
+            throw new IllegalStateException("The header must be written before any records");
+
+        final int index = (vc.getStart() - 1) / partitionSize;
+        if ( ! vc.getChr().equals(currentContig) || index != currentIndex ) {
+            if ( vc.getChr().equals(currentContig) && index < currentIndex )
+                throw new UserException.BadInput("Records must be sorted to be added to a GVCF store, but " + vc.getChr() + ":" + vc.getStart() + " comes after partition " + currentIndex);
+            startPartition(vc.getChr(), index);
+        }
+
+        partitionWriter.add(vc);
+        if ( currentNRecords == 0 )
+            currentFirstStart = vc.getStart();
+        currentMaxEnd = Math.max(currentMaxEnd, vc.getEnd());
+        currentNRecords++;
+    }
+
+    private void startPartition(final String contig, final int index) {
+        finishPartition();
+
+        if ( ! contig.equals(currentContig) ) {
+            if ( contigs.contains(contig) )
+                throw new UserException.BadInput("Records must be sorted to be added to a GVCF store, but contig " + contig + " appears twice");
+            contigs.add(contig);
+        }
+        currentContig = contig;
+        currentIndex = index;
+        currentFile = new File(blockDirectory, String.format("p%d_%d.bcf", contigs.size() - 1, index));
+        currentFirstStart = 0;
+        currentMaxEnd = 0;
+        currentNRecords = 0;
+        partitionWriter = VariantContextWriterFactory.create(currentFile, dictionary, EnumSet.noneOf(Options.class));
+        partitionWriter.writeHeader(header);
+    }
+
+    private void finishPartition() {
+        if ( partitionWriter == null )
+            return;
+        partitionWriter.close();
+        partitionWriter = null;
+        if ( currentNRecords > 0 )
+            partitions.add(new GVCFStore.Partition(currentContig, currentIndex, currentFile, currentFirstStart, currentMaxEnd, currentNRecords));
+    }
+
+    /**
+     * Finish the last partition, write the partition index and add the block to the store's manifest
+     */
+    @Override
+    public void close() {
+        if ( header == null )
+            throw new IllegalStateException("Cannot close a GVCFStoreWriter that was never given a header");
+        finishPartition();
+        GVCFStore.writePartitions(blockDirectory, partitions);
+        GVCFStore.addSampleBlock(manifest, blockName, header.getGenotypeSamples());
+    }
+}
@@ -37,7 +37,10 @@ import org.broadinstitute.gatk.utils.BaseUtils;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A caching version of the IndexedFastaSequenceFile that avoids going to disk as often as the raw indexer.
@@ -75,16 +78,25 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      */
     private final boolean preserveIUPAC;
 
-    // information about checking efficiency
-    long cacheHits = 0;
-    long cacheMisses = 0;
+    /**
+     * If not null, a memory-mapped copy of the fasta with normalized bases from which all requests are served
+     */
+    private volatile NormalizedReferenceFile normalizedReference = null;
 
     /** Represents a specific cached sequence, with a specific start and stop, as well as the bases */
     private static class Cache {
         long start = -1, stop = -1;
         ReferenceSequence seq = null;
+
+        // information about checking efficiency, counted by the thread owning this cache only
+        long hits = 0, misses = 0;
     }
 
+    /**
+     * The caches of all threads, so their efficiency counts can be added up
+     */
+    private final Queue<Cache> allCaches = new ConcurrentLinkedQueue<Cache>();
+
     /**
      * Thread local cache to allow multi-threaded use of this class
      */
@@ -92,7 +104,9 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     {
         cache = new ThreadLocal<Cache> () {
             @Override protected Cache initialValue() {
-                return new Cache();
+                final Cache threadCache = new Cache();
+                allCaches.add(threadCache);
+                return threadCache;
             }
         };
     }
@@ -188,7 +202,7 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      * Print the efficiency (hits / queries) to logger with priority
      */
     public void printEfficiency(final Priority priority) {
-        logger.log(priority, String.format("### CachingIndexedFastaReader: hits=%d misses=%d efficiency %.6f%%", cacheHits, cacheMisses, calcEfficiency()));
+        logger.log(priority, String.format("### CachingIndexedFastaReader: hits=%d misses=%d efficiency %.6f%%", getCacheHits(), getCacheMisses(), calcEfficiency()));
     }
 
     /**
@@ -196,21 +210,30 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      * @return
      */
     public double calcEfficiency() {
-        return 100.0 * cacheHits / (cacheMisses + cacheHits * 1.0);
+        final long hits = getCacheHits();
+        return 100.0 * hits / (getCacheMisses() + hits * 1.0);
     }
 
     /**
-     * @return the number of cache hits that have occurred
+     * @return the number of cache hits that have occurred, not counting queries served from the normalized reference.
+     *         Counts from other threads may lag behind while they are running.
      */
     public long getCacheHits() {
-        return cacheHits;
+        long hits = 0;
+        for ( final Cache threadCache : allCaches )
+            hits += threadCache.hits;
+        return hits;
     }
 
     /**
-     * @return the number of cache misses that have occurred
+     * @return the number of cache misses that have occurred, not counting queries served from the normalized reference.
+     *         Counts from other threads may lag behind while they are running.
      */
     public long getCacheMisses() {
-        return cacheMisses;
+        long misses = 0;
+        for ( final Cache threadCache : allCaches )
+            misses += threadCache.misses;
+        return misses;
     }
 
     /**
@@ -248,6 +271,37 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
         return preserveIUPAC;
     }
 
+    /**
+     * Serve all further requests from a memory-mapped copy of the fasta whose bases are already upper cased
+     * with IUPAC bases converted to Ns, creating the copy next to the fasta if necessary
+     *
+     * The copy is shared by all threads, so they no longer need their own cache, and no bases are
+     * converted at query time.  Can only be used when neither case nor IUPAC bases are preserved.
+     *
+     * @return true if the memory-mapped copy is now in use, false if it couldn't be created, in which
+     *         case we keep reading from the fasta
+     */
+    public boolean enableNormalizedReference() {
+        if ( preserveCase || preserveIUPAC )
+            throw new IllegalStateException("The normalized reference cannot be used when preserving case or IUPAC bases");
+
+        try {
+            normalizedReference = NormalizedReferenceFile.openOrCreate(file, getSequenceDictionary());
+            logger.info("Reading reference bases from memory-mapped " + normalizedReference.getFile());
+            return true;
+        } catch ( IOException e ) {
+            logger.warn("Unable to use a normalized copy of " + file + ", so reading the fasta directly: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return true if requests are served from the memory-mapped normalized copy of the fasta
+     */
+    public boolean isUsingNormalizedReference() {
+        return normalizedReference != null;
+    }
+
     /**
      * Gets the subsequence of the contig in the range [start,stop]
      *
@@ -263,14 +317,25 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     @Override
     public ReferenceSequence getSubsequenceAt( final String contig, long start, final long stop ) {
         final ReferenceSequence result;
-        final Cache myCache = cache.get();
+        final NormalizedReferenceFile normalized = normalizedReference;
 
-        if ( (stop - start) >= cacheSize ) {
-            cacheMisses++;
+        if ( normalized != null && start >= 1 ) {
+            final SAMSequenceRecord contigInfo = super.getSequenceDictionary().getSequence(contig);
+            if ( contigInfo == null )
+                throw new PicardException("Unable to find entry for contig: " + contig);
+            if ( stop > contigInfo.getSequenceLength() )
+                throw new PicardException("Query asks for data past end of contig");
+
+            // there is no cache to hit or miss with the mapped file, so these queries aren't counted
+            result = new ReferenceSequence(contigInfo.getSequenceName(), contigInfo.getSequenceIndex(), normalized.getBases(contigInfo.getSequenceIndex(), start, stop));
+        } else if ( (stop - start) >= cacheSize ) {
+            cache.get().misses++;
             result = super.getSubsequenceAt(contig, start, stop);
             if ( ! preserveCase ) StringUtil.toUpperCase(result.getBases());
             if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(result.getBases(), true, start < 1);
         } else {
+            final Cache myCache = cache.get();
+
             // todo -- potential optimization is to check if contig.name == contig, as this in general will be true
             SAMSequenceRecord contigInfo = super.getSequenceDictionary().getSequence(contig);
 
@@ -278,7 +343,7 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
                 throw new PicardException("Query asks for data past end of contig");
 
             if ( start < myCache.start || stop > myCache.stop || myCache.seq == null || myCache.seq.getContigIndex() != contigInfo.getSequenceIndex() ) {
-                cacheMisses++;
+                myCache.misses++;
                 myCache.start = Math.max(start - cacheMissBackup, 0);
                 myCache.stop  = Math.min(start + cacheSize + cacheMissBackup, contigInfo.getSequenceLength());
                 myCache.seq   = super.getSubsequenceAt(contig, myCache.start, myCache.stop);
@@ -287,7 +352,7 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
                 if ( ! preserveCase ) StringUtil.toUpperCase(myCache.seq.getBases());
                 if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(myCache.seq.getBases(), true, myCache.start == 0);
             } else {
-                cacheHits++;
+                myCache.hits++;
             }
 
             // at this point we determine where in the cache we want to extract the requested subsequence
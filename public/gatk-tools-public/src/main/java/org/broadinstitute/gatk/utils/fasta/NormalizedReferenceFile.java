@@ -0,0 +1,253 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.fasta;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.StringUtil;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.BaseUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * A memory-mapped copy of a FASTA file whose bases have already been normalized
+ *
+ * The file holds the bases of every contig in the FASTA back to back, without line breaks or headers,
+ * upper cased and with IUPAC codes converted to N, exactly as CachingIndexedFastaSequenceFile returns
+ * them by default.  Each contig starts on an 8 byte boundary.  It's created once next to the FASTA and
+ * mapped read-only, so all threads (and all GATK processes on the machine) share a single copy of the
+ * reference in the page cache, and fetching a subsequence is a single copy out of the mapping.
+ *
+ * The header records the size and modification time of the FASTA it was created from, along with the
+ * length of each contig, and the file is recreated whenever these no longer match.
+ */
+public final class NormalizedReferenceFile {
+    private final static Logger logger = Logger.getLogger(NormalizedReferenceFile.class);
+
+    /** Extension appended to the FASTA file name to get the name of its normalized version */
+    public final static String EXTENSION = ".normalized";
+
+    private final static long MAGIC = 0x4741544b4e524546L; // "GATKNREF"
+    private final static int VERSION = 1;
+    private final static int ALIGNMENT = 8;
+
+    /** Number of bases we read from the FASTA at a time when creating the file */
+    private final static int CONVERSION_CHUNK_SIZE = 1 << 20;
+
+    /** Size of each mapped segment of the file, as a single mapping is limited to 2Gb */
+    private final static long SEGMENT_SIZE = 1L << 30;
+
+    private final File file;
+    private final long[] contigOffsets;
+    private final long[] contigLengths;
+    private final MappedByteBuffer[] segments;
+
+    private NormalizedReferenceFile(final File file, final long[] contigOffsets, final long[] contigLengths, final MappedByteBuffer[] segments) {
+        this.file = file;
+        this.contigOffsets = contigOffsets;
+        this.contigLengths = contigLengths;
+        this.segments = segments;
+    }
+
+    /**
+     * Get the normalized version of fasta, creating it first if it doesn't exist or is out of date
+     *
+     * @param fasta the FASTA file, which must be indexed
+     * @param dictionary the sequence dictionary of fasta, which determines the contig indices used by getBases
+     * @return a non-null NormalizedReferenceFile
+     * @throws IOException if the normalized file cannot be created or mapped
+     */
+    public static NormalizedReferenceFile openOrCreate(final File fasta, final SAMSequenceDictionary dictionary) throws IOException {
+        final File file = new File(fasta.getAbsolutePath() + EXTENSION);
+        final List<SAMSequenceRecord> contigs = dictionary.getSequences();
+
+        if ( ! isUpToDate(file, fasta, contigs) ) {
+            logger.info("Creating normalized reference " + file + " from " + fasta);
+            create(file, fasta, contigs);
+        }
+
+        return map(file, contigs);
+    }
+
+    /**
+     * Get the normalized bases of a contig in the range [start,stop]
+     *
+     * @param contigIndex the index of the contig in the sequence dictionary
+     * @param start inclusive, 1-based start of region
+     * @param stop inclusive, 1-based stop of region
+     * @return a newly allocated array of stop - start + 1 bases
+     */
+    public byte[] getBases(final int contigIndex, final long start, final long stop) {
+        if ( contigIndex < 0 || contigIndex >= contigLengths.length ) throw new IllegalArgumentException("Bad contig index " + contigIndex);
+        if ( start < 1 || stop > contigLengths[contigIndex] || stop < start - 1 )
+            throw new IllegalArgumentException("Bad range " + start + "-" + stop + " on contig of length " + contigLengths[contigIndex]);
+
+        final byte[] bases = new byte[(int)(stop - start + 1)];
+        long offset = contigOffsets[contigIndex] + start - 1;
+        int copied = 0;
+        while ( copied < bases.length ) {
+            // duplicate the segment so that concurrent readers don't share a position
+            final ByteBuffer segment = segments[(int)(offset / SEGMENT_SIZE)].duplicate();
+            segment.position((int)(offset % SEGMENT_SIZE));
+            final int n = Math.min(bases.length - copied, segment.remaining());
+            segment.get(bases, copied, n);
+            copied += n;
+            offset += n;
+        }
+        return bases;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static int headerSize(final int nContigs) {
+        return align(8 + 4 + 4 + 8 + 8 + 8 * nContigs);
+    }
+
+    private static int align(final int size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static long align(final long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static boolean isUpToDate(final File file, final File fasta, final List<SAMSequenceRecord> contigs) {
+        if ( ! file.exists() || file.lastModified() < fasta.lastModified() )
+            return false;
+
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if ( in.readLong() != MAGIC || in.readInt() != VERSION || in.readInt() != contigs.size() )
+                    return false;
+                if ( in.readLong() != fasta.length() || in.readLong() != fasta.lastModified() )
+                    return false;
+                for ( final SAMSequenceRecord contig : contigs )
+                    if ( in.readLong() != contig.getSequenceLength() )
+                        return false;
+            } finally {
+                in.close();
+            }
+        } catch ( IOException e ) {
+            return false;
+        }
+
+        // a truncated file, say from a copy that ran out of space, has a good header but not all the bases
+        return file.length() == expectedLength(contigs);
+    }
+
+    private static long expectedLength(final List<SAMSequenceRecord> contigs) {
+        long length = headerSize(contigs.size());
+        for ( final SAMSequenceRecord contig : contigs )
+            length += align((long)contig.getSequenceLength());
+        return length;
+    }
+
+    private static void create(final File file, final File fasta, final List<SAMSequenceRecord> contigs) throws IOException {
+        // write into a temporary file in the same directory, and move it into place once complete, so
+        // that concurrent GATK runs never see a partially written file
+        final File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            final IndexedFastaSequenceFile reader = new IndexedFastaSequenceFile(fasta);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), CONVERSION_CHUNK_SIZE));
+            try {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(contigs.size());
+                out.writeLong(fasta.length());
+                out.writeLong(fasta.lastModified());
+                for ( final SAMSequenceRecord contig : contigs )
+                    out.writeLong(contig.getSequenceLength());
+                pad(out, headerSize(contigs.size()) - out.size());
+
+                for ( final SAMSequenceRecord contig : contigs ) {
+                    final long length = contig.getSequenceLength();
+                    for ( long start = 1; start <= length; start += CONVERSION_CHUNK_SIZE ) {
+                        final long stop = Math.min(start + CONVERSION_CHUNK_SIZE - 1, length);
+                        final byte[] bases = reader.getSubsequenceAt(contig.getSequenceName(), start, stop).getBases();
+                        StringUtil.toUpperCase(bases);
+                        BaseUtils.convertIUPACtoN(bases, true, false);
+                        out.write(bases);
+                    }
+                    pad(out, (int)(align(length) - length));
+                }
+            } finally {
+                out.close();
+                reader.close();
+            }
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if ( tmp.exists() && ! tmp.delete() )
+                logger.warn("Unable to delete temporary file " + tmp);
+        }
+    }
+
+    private static void pad(final DataOutputStream out, final int n) throws IOException {
+        for ( int i = 0; i < n; i++ )
+            out.write(0);
+    }
+
+    private static NormalizedReferenceFile map(final File file, final List<SAMSequenceRecord> contigs) throws IOException {
+        final long[] contigOffsets = new long[contigs.size()];
+        final long[] contigLengths = new long[contigs.size()];
+        long offset = 0;
+        for ( int i = 0; i < contigs.size(); i++ ) {
+            contigOffsets[i] = offset;
+            contigLengths[i] = contigs.get(i).getSequenceLength();
+            offset += align(contigLengths[i]);
+        }
+
+        final long dataStart = headerSize(contigs.size());
+        if ( file.length() != dataStart + offset )
+            throw new IOException(file + " is " + file.length() + " bytes long but should be " + (dataStart + offset));
+
+        final MappedByteBuffer[] segments = new MappedByteBuffer[(int)((offset + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            for ( int i = 0; i < segments.length; i++ ) {
+                final long segmentStart = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + segmentStart, Math.min(SEGMENT_SIZE, offset - segmentStart));
+            }
+        } finally {
+            // the mappings stay valid after the channel is closed
+            raf.close();
+        }
+
+        return new NormalizedReferenceFile(file, contigOffsets, contigLengths, segments);
+    }
+}
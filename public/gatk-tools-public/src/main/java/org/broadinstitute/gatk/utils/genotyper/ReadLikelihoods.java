@@ -53,12 +53,98 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
     private GATKSAMRecord[][] readsBySampleIndex;
 
     /**
-     * Indexed per sample, allele and finally read (within sample).
+     * Maximum total size (in bytes) of the released likelihood slabs kept for reuse by each thread.
+     */
+    private static final long MAX_POOLED_BYTES_PER_THREAD = 16L << 20;
+
+    /**
+     * A pooled slab is only reused for a request of at least this fraction of its length, so that small
+     * collections do not hold on to large slabs.
+     */
+    private static final int MAX_SLAB_OVERSIZE_FACTOR = 2;
+
+    /**
+     * Shared storage of collections without any likelihood.
+     */
+    private static final double[] EMPTY_SLAB = new double[0];
+
+    /**
+     * Released likelihood slabs available for reuse by the current thread.
+     */
+    private static final ThreadLocal<SlabPool> slabPool = new ThreadLocal<SlabPool>() {
+        @Override
+        protected SlabPool initialValue() {
+            return new SlabPool();
+        }
+    };
+
+    /**
+     * Per-thread pool of released slabs, most recently released first, bounded by the total number of likelihoods held.
+     *
+     * <p>Slabs only ever come out of the pool of the current thread, but they go back to the pool they were taken
+     * for, which may be released from another thread (e.g. when a collection is finished with in reduce).</p>
+     */
+    private static final class SlabPool {
+        private final ArrayDeque<double[]> slabs = new ArrayDeque<>();
+        private long pooledLength = 0;
+
+        // Removes and returns the smallest slab that can hold the requested length without being oversized, if any.
+        private synchronized double[] takeBestFit(final int length) {
+            final long maxLength = (long) length * MAX_SLAB_OVERSIZE_FACTOR;
+            double[] best = null;
+            for (final double[] slab : slabs)
+                if (slab.length >= length && slab.length <= maxLength && (best == null || slab.length < best.length))
+                    best = slab;
+            if (best != null) {
+                slabs.removeFirstOccurrence(best);
+                pooledLength -= best.length;
+            }
+            return best;
+        }
+
+        // Adds a slab, evicting the least recently released ones to keep within the byte budget.
+        private synchronized void add(final double[] slab) {
+            if ((long) slab.length * Double.SIZE / Byte.SIZE > MAX_POOLED_BYTES_PER_THREAD)
+                return;
+            slabs.addFirst(slab);
+            pooledLength += slab.length;
+            while (pooledLength * Double.SIZE / Byte.SIZE > MAX_POOLED_BYTES_PER_THREAD)
+                pooledLength -= slabs.removeLast().length;
+        }
+    }
+
+    /**
+     * Likelihoods of all samples, alleles and reads in a single contiguous slab.
      * <p>
-     *     valuesBySampleIndex[s][a][r] == lnLk(R_r | A_a) where R_r comes from Sample s.
+     *     values[sampleValueOffsets[s] + a * sampleReadCapacities[s] + r] == lnLk(R_r | A_a) where R_r comes from Sample s.
      * </p>
+     * <p>
+     *     Each sample owns a block of {@link #alleleCapacity} rows with {@code sampleReadCapacities[s]} entries each,
+     *     so that read removal and the addition of alleles or reads within those capacities are done in place.
+     * </p>
+     * <p>It is {@code null} once the collection has been {@link #release() released}.</p>
      */
-    private double[][][] valuesBySampleIndex;
+    private double[] values;
+
+    /**
+     * Pool of the thread that created {@link #values}, to which it is returned once no longer needed.
+     */
+    private SlabPool valuesPool;
+
+    /**
+     * Offset of each sample block in {@link #values}.
+     */
+    private int[] sampleValueOffsets;
+
+    /**
+     * Length of each allele row within each sample block; always equal or greater than the number of reads in that sample.
+     */
+    private int[] sampleReadCapacities;
+
+    /**
+     * Number of allele rows in each sample block; always equal or greater than the number of alleles.
+     */
+    private int alleleCapacity;
 
     /**
      * Sample list
@@ -137,35 +223,121 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         readsBySampleIndex = new GATKSAMRecord[sampleCount][];
         readListBySampleIndex = new List[sampleCount];
-        valuesBySampleIndex = new double[sampleCount][][];
         referenceAlleleIndex = findReferenceAllele(alleles);
 
         readIndexBySampleIndex = new Object2IntMap[sampleCount];
 
-        setupIndexes(reads, sampleCount, alleleCount);
+        setupIndexes(reads, sampleCount);
+        layoutValues(alleleCount, sampleReadCounts(), 0);
+        Arrays.fill(values, 0, valuesLength(), 0.0);
 
         sampleMatrices = (Matrix<A>[]) new Matrix[sampleCount];
     }
 
     // Add all the indices to alleles, sample and reads in the look-up maps.
-    private void setupIndexes(final Map<String, List<GATKSAMRecord>> reads, final int sampleCount, final int alleleCount) {
+    private void setupIndexes(final Map<String, List<GATKSAMRecord>> reads, final int sampleCount) {
         for (int i = 0; i < sampleCount; i++)
-            setupSampleData(i, reads, alleleCount);
+            setupSampleData(i, reads);
     }
 
     // Assumes that {@link #samples} has been initialized with the sample names.
-    private void setupSampleData(final int sampleIndex, final Map<String, List<GATKSAMRecord>> readsBySample,
-                                 final int alleleCount) {
+    private void setupSampleData(final int sampleIndex, final Map<String, List<GATKSAMRecord>> readsBySample) {
         final String sample = samples.sampleAt(sampleIndex);
 
         final List<GATKSAMRecord> reads = readsBySample.get(sample);
         readsBySampleIndex[sampleIndex] = reads == null
                 ? new GATKSAMRecord[0]
                 : reads.toArray(new GATKSAMRecord[reads.size()]);
-        final int sampleReadCount = readsBySampleIndex[sampleIndex].length;
+    }
+
+    // Returns the current number of reads of each sample.
+    private int[] sampleReadCounts() {
+        final int sampleCount = readsBySampleIndex.length;
+        final int[] result = new int[sampleCount];
+        for (int s = 0; s < sampleCount; s++)
+            result[s] = readsBySampleIndex[s].length;
+        return result;
+    }
+
+    // Number of entries of the slab in use given the current layout.
+    private int valuesLength() {
+        final int sampleCount = sampleValueOffsets.length;
+        return sampleCount == 0 ? 0 : sampleValueOffsets[sampleCount - 1] + alleleCapacity * sampleReadCapacities[sampleCount - 1];
+    }
+
+    /**
+     * Lays out a new likelihood slab with the requested capacities.
+     *
+     * <p>The likelihoods of the first {@code copyAlleleCount} alleles and all current reads are copied over into the new slab,
+     * any other entry is left undefined. The old slab, if any, is returned to the pool.</p>
+     *
+     * @param newAlleleCapacity number of allele rows per sample.
+     * @param newSampleReadCapacities number of reads per allele row for each sample.
+     * @param copyAlleleCount number of alleles to copy from the old slab.
+     */
+    private void layoutValues(final int newAlleleCapacity, final int[] newSampleReadCapacities, final int copyAlleleCount) {
+        final int sampleCount = newSampleReadCapacities.length;
+        final int[] newSampleValueOffsets = new int[sampleCount];
+        long length = 0;
+        for (int s = 0; s < sampleCount; s++) {
+            newSampleValueOffsets[s] = (int) length;
+            length += (long) newAlleleCapacity * newSampleReadCapacities[s];
+        }
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("too many read-allele likelihoods in a single collection: " + length);
+
+        final double[] newValues = acquireSlab((int) length);
+        if (values != null) {
+            for (int s = 0; s < sampleCount; s++) {
+                final int sampleReadCount = readsBySampleIndex[s].length;
+                for (int a = 0; a < copyAlleleCount; a++)
+                    System.arraycopy(values, valueIndex(s, a, 0), newValues,
+                            newSampleValueOffsets[s] + a * newSampleReadCapacities[s], sampleReadCount);
+            }
+            releaseSlab(values, valuesPool);
+        }
+        values = newValues;
+        valuesPool = slabPool.get();
+        sampleValueOffsets = newSampleValueOffsets;
+        sampleReadCapacities = newSampleReadCapacities;
+        alleleCapacity = newAlleleCapacity;
+    }
+
+    // Position of a likelihood in the slab.
+    private int valueIndex(final int sampleIndex, final int alleleIndex, final int readIndex) {
+        return sampleValueOffsets[sampleIndex] + alleleIndex * sampleReadCapacities[sampleIndex] + readIndex;
+    }
 
-        final double[][] sampleValues = new double[alleleCount][sampleReadCount];
-        valuesBySampleIndex[sampleIndex] = sampleValues;
+    // Takes the best-fitting slab with at least the requested length from the thread pool or allocates a new one; its content is undefined.
+    private static double[] acquireSlab(final int length) {
+        if (length == 0)
+            return EMPTY_SLAB;
+        final double[] pooled = slabPool.get().takeBestFit(length);
+        return pooled != null ? pooled : new double[length];
+    }
+
+    // Returns a slab to the pool of the thread that took it.
+    private static void releaseSlab(final double[] slab, final SlabPool pool) {
+        if (slab.length == 0)
+            return;
+        pool.add(slab);
+    }
+
+    /**
+     * Returns the likelihood storage of this collection to the pool of the thread that created it, so that it can be
+     * reused by the next read-likelihoods collection created in that thread. It may be called from any thread.
+     *
+     * <p>
+     *     Neither this collection nor any of its matrices can be used after this call. Releasing a collection
+     *     is optional; those that are never released are simply garbage collected.
+     * </p>
+     */
+    public void release() {
+        if (values == null)
+            return;
+        releaseSlab(values, valuesPool);
+        values = null;
+        valuesPool = null;
     }
 
     /**
@@ -174,35 +346,38 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
     public ReadLikelihoods<A> clone() {
 
         final int sampleCount = samples.sampleCount();
-        final int alleleCount = alleles.alleleCount();
-
-        final double[][][] newLikelihoodValues = new double[sampleCount][alleleCount][];
 
         @SuppressWarnings("unchecked")
         final Object2IntMap<GATKSAMRecord>[] newReadIndexBySampleIndex = new Object2IntMap[sampleCount];
         final GATKSAMRecord[][] newReadsBySampleIndex = new GATKSAMRecord[sampleCount][];
 
-        for (int s = 0; s < sampleCount; s++) {
+        for (int s = 0; s < sampleCount; s++)
             newReadsBySampleIndex[s] = readsBySampleIndex[s].clone();
-            for (int a = 0; a < alleleCount; a++)
-                newLikelihoodValues[s][a] = valuesBySampleIndex[s][a].clone();
-        }
+
+        // The copy shares the layout of this collection so that its slab is copied with a single array copy.
+        final double[] newValues = acquireSlab(valuesLength());
+        System.arraycopy(values, 0, newValues, 0, valuesLength());
 
         // Finally we create the new read-likelihood
         return new ReadLikelihoods<>(alleles, samples,
                 newReadsBySampleIndex,
-                newReadIndexBySampleIndex, newLikelihoodValues);
+                newReadIndexBySampleIndex, newValues, sampleValueOffsets.clone(), sampleReadCapacities.clone(), alleleCapacity);
     }
 
     // Internally used constructor.
     @SuppressWarnings("unchecked")
     private ReadLikelihoods(final AlleleList alleles, final SampleList samples,
                             final GATKSAMRecord[][] readsBySampleIndex, final Object2IntMap<GATKSAMRecord>[] readIndex,
-                            final double[][][] values) {
+                            final double[] values, final int[] sampleValueOffsets, final int[] sampleReadCapacities,
+                            final int alleleCapacity) {
         this.samples = samples;
         this.alleles = alleles;
         this.readsBySampleIndex = readsBySampleIndex;
-        this.valuesBySampleIndex = values;
+        this.values = values;
+        this.valuesPool = slabPool.get();
+        this.sampleValueOffsets = sampleValueOffsets;
+        this.sampleReadCapacities = sampleReadCapacities;
+        this.alleleCapacity = alleleCapacity;
         this.readIndexBySampleIndex = readIndex;
         final int sampleCount = samples.sampleCount();
         this.readListBySampleIndex = new List[sampleCount];
@@ -345,44 +520,46 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         else if (alleleCount == 1 && !bestToZero)
             return;
 
-        for (int s = 0; s < valuesBySampleIndex.length; s++) {
-            final double[][] sampleValues = valuesBySampleIndex[s];
+        for (int s = 0; s < readsBySampleIndex.length; s++) {
             final int readCount = readsBySampleIndex[s].length;
             for (int r = 0; r < readCount; r++)
-                normalizeLikelihoodsPerRead(bestToZero, maximumLikelihoodDifferenceCap, sampleValues, s, r);
+                normalizeLikelihoodsPerRead(bestToZero, maximumLikelihoodDifferenceCap, s, r);
         }
     }
 
     // Does the normalizeLikelihoods job for each read.
     private void normalizeLikelihoodsPerRead(final boolean bestToZero, final double maximumBestAltLikelihoodDifference,
-                                             final double[][] sampleValues, final int sampleIndex, final int readIndex) {
+                                             final int sampleIndex, final int readIndex) {
 
         final BestAllele bestAlternativeAllele = searchBestAllele(sampleIndex,readIndex,false);
 
         final double worstLikelihoodCap = bestAlternativeAllele.likelihood + maximumBestAltLikelihoodDifference;
 
+        final int firstIndex = valueIndex(sampleIndex, 0, readIndex);
+        final int alleleStride = sampleReadCapacities[sampleIndex];
+
         final double referenceLikelihood = referenceAlleleIndex == -1 ? Double.NEGATIVE_INFINITY :
-                sampleValues[referenceAlleleIndex][readIndex];
+                values[firstIndex + referenceAlleleIndex * alleleStride];
 
 
         final double bestAbsoluteLikelihood = Math.max(bestAlternativeAllele.likelihood,referenceLikelihood);
 
-        final int alleleCount = alleles.alleleCount();
+        final int endIndex = firstIndex + alleles.alleleCount() * alleleStride;
         if (bestToZero) {
             if (bestAbsoluteLikelihood == Double.NEGATIVE_INFINITY)
-                for (int a = 0; a < alleleCount; a++)
-                    sampleValues[a][readIndex] = 0;
+                for (int i = firstIndex; i < endIndex; i += alleleStride)
+                    values[i] = 0;
             else if (worstLikelihoodCap != Double.NEGATIVE_INFINITY)
-                for (int a = 0; a < alleleCount; a++)
-                    sampleValues[a][readIndex] = (sampleValues[a][readIndex] < worstLikelihoodCap ? worstLikelihoodCap : sampleValues[a][readIndex]) - bestAbsoluteLikelihood;
+                for (int i = firstIndex; i < endIndex; i += alleleStride)
+                    values[i] = (values[i] < worstLikelihoodCap ? worstLikelihoodCap : values[i]) - bestAbsoluteLikelihood;
             else
-                for (int a = 0; a < alleleCount; a++)
-                    sampleValues[a][readIndex] -= bestAbsoluteLikelihood;
+                for (int i = firstIndex; i < endIndex; i += alleleStride)
+                    values[i] -= bestAbsoluteLikelihood;
         } else  // else if (maximumReferenceLikelihoodFall != Double.NEGATIVE_INFINITY ) { //
             // Guarantee to be the case by enclosing code.
-            for (int a = 0; a < alleleCount; a++)
-                if (sampleValues[a][readIndex] < worstLikelihoodCap)
-                    sampleValues[a][readIndex] = worstLikelihoodCap;
+            for (int i = firstIndex; i < endIndex; i += alleleStride)
+                if (values[i] < worstLikelihoodCap)
+                    values[i] = worstLikelihoodCap;
     }
 
     /**
@@ -434,15 +611,16 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         if (alleleCount == 0 || (alleleCount == 1 && referenceAlleleIndex == 0 && !canBeReference))
             return new BestAllele(sampleIndex,readIndex,-1,Double.NEGATIVE_INFINITY,Double.NEGATIVE_INFINITY);
 
-        final double[][] sampleValues = valuesBySampleIndex[sampleIndex];
+        final int firstIndex = valueIndex(sampleIndex, 0, readIndex);
+        final int alleleStride = sampleReadCapacities[sampleIndex];
         int bestAlleleIndex = canBeReference || referenceAlleleIndex != 0 ? 0 : 1;
 
-        double bestLikelihood = sampleValues[bestAlleleIndex][readIndex];
+        double bestLikelihood = values[firstIndex + bestAlleleIndex * alleleStride];
         double secondBestLikelihood = Double.NEGATIVE_INFINITY;
         for (int a = bestAlleleIndex + 1; a < alleleCount; a++) {
             if (!canBeReference && referenceAlleleIndex == a)
                 continue;
-            final double candidateLikelihood = sampleValues[a][readIndex];
+            final double candidateLikelihood = values[firstIndex + a * alleleStride];
             if (candidateLikelihood > bestLikelihood) {
                 bestAlleleIndex = a;
                 secondBestLikelihood = bestLikelihood;
@@ -521,19 +699,23 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         if (referenceIndex != -1)
             referenceAlleleIndex = referenceIndex;
 
+        ensureAlleleCapacity(oldAlleleCount, newAlleleCount);
         final int sampleCount = samples.sampleCount();
         for (int s = 0; s < sampleCount; s++) {
             final int sampleReadCount = readsBySampleIndex[s].length;
-            final double[][] newValuesBySampleIndex = Arrays.copyOf(valuesBySampleIndex[s],newAlleleCount);
             for (int a = oldAlleleCount; a < newAlleleCount; a++) {
-                newValuesBySampleIndex[a] = new double[sampleReadCount];
-                if (defaultLikelihood != 0.0)
-                    Arrays.fill(newValuesBySampleIndex[a],defaultLikelihood);
+                final int rowIndex = valueIndex(s, a, 0);
+                Arrays.fill(values, rowIndex, rowIndex + sampleReadCount, defaultLikelihood);
             }
-            valuesBySampleIndex[s] = newValuesBySampleIndex;
         }
     }
 
+    // Makes room for new alleles, only reallocating the slab if they do not fit in the current allele capacity.
+    private void ensureAlleleCapacity(final int alleleCount, final int newAlleleCount) {
+        if (newAlleleCount > alleleCapacity)
+            layoutValues(newAlleleCount, sampleReadCapacities, alleleCount);
+    }
+
     /**
      * Likelihood matrix between a set of alleles and reads.
      * @param <A> the allele-type.
@@ -671,10 +853,6 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         // allele does not map to any new; supported but typically not the case.
         final int[] oldToNewAlleleIndexMap = oldToNewAlleleIndexMap(newToOldAlleleMap, newAlleles, oldAlleleCount, newAlleleCount);
 
-        // We calculate the marginal likelihoods.
-
-        final double[][][] newLikelihoodValues = marginalLikelihoods(oldAlleleCount, newAlleleCount, oldToNewAlleleIndexMap, null);
-
         final int sampleCount = samples.sampleCount();
 
         @SuppressWarnings("unchecked")
@@ -685,10 +863,9 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
             newReadsBySampleIndex[s] = readsBySampleIndex[s].clone();
         }
 
-        // Finally we create the new read-likelihood
-        return new ReadLikelihoods<>(new IndexedAlleleList(newAlleles), samples,
-                newReadsBySampleIndex,
-                newReadIndexBySampleIndex, newLikelihoodValues);
+        // We calculate the marginal likelihoods.
+        return marginalLikelihoods(new IndexedAlleleList(newAlleles), oldAlleleCount, oldToNewAlleleIndexMap, null,
+                newReadsBySampleIndex, newReadIndexBySampleIndex);
     }
 
 
@@ -726,9 +903,6 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final int[] oldToNewAlleleIndexMap = oldToNewAlleleIndexMap(newToOldAlleleMap, newAlleles, oldAlleleCount, newAlleleCount);
 
         final int[][] readsToKeep = overlappingReadIndicesBySampleIndex(overlap);
-        // We calculate the marginal likelihoods.
-
-        final double[][][] newLikelihoodValues = marginalLikelihoods(oldAlleleCount, newAlleleCount, oldToNewAlleleIndexMap, readsToKeep);
 
         final int sampleCount = samples.sampleCount();
 
@@ -750,10 +924,9 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
             }
         }
 
-        // Finally we create the new read-likelihood
-        return new ReadLikelihoods<>(new IndexedAlleleList(newAlleles), samples,
-                newReadsBySampleIndex,
-                newReadIndexBySampleIndex, newLikelihoodValues);
+        // We calculate the marginal likelihoods.
+        return marginalLikelihoods(new IndexedAlleleList(newAlleles), oldAlleleCount, oldToNewAlleleIndexMap, readsToKeep,
+                newReadsBySampleIndex, newReadIndexBySampleIndex);
     }
 
     private int[][] overlappingReadIndicesBySampleIndex(final GenomeLoc overlap) {
@@ -796,35 +969,55 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         return readEnd >= start;
     }
 
-    // Calculate the marginal likelihoods considering the old -> new allele index mapping.
-    private double[][][] marginalLikelihoods(final int oldAlleleCount, final int newAlleleCount, final int[] oldToNewAlleleIndexMap, final int[][] readsToKeep) {
+    /**
+     * Calculate the marginal likelihoods considering the old -> new allele index mapping.
+     *
+     * <p>The result is written directly into the slab of the new collection. One spare allele row is reserved
+     * per sample so that the {@link #addNonReferenceAllele} that typically follows does not need to reallocate it.</p>
+     */
+    private <B extends Allele> ReadLikelihoods<B> marginalLikelihoods(final AlleleList<B> newAlleles, final int oldAlleleCount,
+                                                                      final int[] oldToNewAlleleIndexMap, final int[][] readsToKeep,
+                                                                      final GATKSAMRecord[][] newReadsBySampleIndex,
+                                                                      final Object2IntMap<GATKSAMRecord>[] newReadIndexBySampleIndex) {
 
         final int sampleCount = samples.sampleCount();
-        final double[][][] result = new double[sampleCount][][];
+        final int newAlleleCount = newAlleles.alleleCount();
+        final int newAlleleCapacity = newAlleleCount + 1;
+        final int[] newSampleReadCapacities = new int[sampleCount];
+        final int[] newSampleValueOffsets = new int[sampleCount];
+        int newValuesLength = 0;
+        for (int s = 0; s < sampleCount; s++) {
+            newSampleValueOffsets[s] = newValuesLength;
+            newSampleReadCapacities[s] = newReadsBySampleIndex[s].length;
+            newValuesLength += newAlleleCapacity * newSampleReadCapacities[s];
+        }
+        final double[] newValues = acquireSlab(newValuesLength);
 
         for (int s = 0; s < sampleCount; s++) {
             final int sampleReadCount = readsBySampleIndex[s].length;
-            final double[][] oldSampleValues = valuesBySampleIndex[s];
             final int[] sampleReadToKeep = readsToKeep == null || readsToKeep[s].length == sampleReadCount ? null : readsToKeep[s];
-            final int newSampleReadCount = sampleReadToKeep == null ? sampleReadCount : sampleReadToKeep.length;
-            final double[][] newSampleValues = result[s] = new double[newAlleleCount][newSampleReadCount];
+            final int newSampleReadCount = newSampleReadCapacities[s];
+            final int newSampleOffset = newSampleValueOffsets[s];
             // We initiate all likelihoods to -Inf.
-            for (int a = 0; a < newAlleleCount; a++)
-                Arrays.fill(newSampleValues[a], Double.NEGATIVE_INFINITY);
+            Arrays.fill(newValues, newSampleOffset, newSampleOffset + newAlleleCount * newSampleReadCount, Double.NEGATIVE_INFINITY);
             // For each old allele and read we update the new table keeping the maximum likelihood.
-            for (int r = 0; r < newSampleReadCount; r++) {
-                for (int a = 0; a < oldAlleleCount; a++) {
-                    final int oldReadIndex = newSampleReadCount == sampleReadCount ? r : sampleReadToKeep[r];
-                    final int newAlleleIndex = oldToNewAlleleIndexMap[a];
-                    if (newAlleleIndex == -1)
-                        continue;
-                    final double likelihood = oldSampleValues[a][oldReadIndex];
-                    if (likelihood > newSampleValues[newAlleleIndex][r])
-                        newSampleValues[newAlleleIndex][r] = likelihood;
+            for (int a = 0; a < oldAlleleCount; a++) {
+                final int newAlleleIndex = oldToNewAlleleIndexMap[a];
+                if (newAlleleIndex == -1)
+                    continue;
+                final int oldRowIndex = valueIndex(s, a, 0);
+                final int newRowIndex = newSampleOffset + newAlleleIndex * newSampleReadCount;
+                for (int r = 0; r < newSampleReadCount; r++) {
+                    final double likelihood = values[oldRowIndex + (sampleReadToKeep == null ? r : sampleReadToKeep[r])];
+                    if (likelihood > newValues[newRowIndex + r])
+                        newValues[newRowIndex + r] = likelihood;
                 }
             }
         }
-        return result;
+
+        // Finally we create the new read-likelihood
+        return new ReadLikelihoods<>(newAlleles, samples, newReadsBySampleIndex, newReadIndexBySampleIndex,
+                newValues, newSampleValueOffsets, newSampleReadCapacities, newAlleleCapacity);
     }
 
     /**
@@ -997,10 +1190,11 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final double log10QualPerBase = -4.0;
         final double log10MaxLikelihoodForTrueAllele = maxErrorsForRead * log10QualPerBase;
 
-        final int alleleCount = alleles.alleleCount();
-        final double[][] sampleValues = valuesBySampleIndex[sampleIndex];
-        for (int a = 0; a < alleleCount; a++)
-            if (sampleValues[a][readIndex] >= log10MaxLikelihoodForTrueAllele)
+        final int alleleStride = sampleReadCapacities[sampleIndex];
+        final int firstIndex = valueIndex(sampleIndex, 0, readIndex);
+        final int endIndex = firstIndex + alleles.alleleCount() * alleleStride;
+        for (int i = firstIndex; i < endIndex; i += alleleStride)
+            if (values[i] >= log10MaxLikelihoodForTrueAllele)
                 return false;
         return true;
     }
@@ -1034,20 +1228,23 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
             final int sampleReadCount = readsBySampleIndex[sampleIndex].length;
             final int newSampleReadCount = sampleReadCount + newSampleReads.size();
 
-            appendReads(newSampleReads, sampleIndex, sampleReadCount, newSampleReadCount);
             extendsLikelihoodArrays(initialLikelihood, sampleIndex, sampleReadCount, newSampleReadCount);
+            appendReads(newSampleReads, sampleIndex, sampleReadCount, newSampleReadCount);
         }
     }
 
-    // Extends the likelihood arrays-matrices.
+    // Extends the likelihood arrays-matrices; the slab is only reallocated if the new reads do not fit in the sample block.
     private void extendsLikelihoodArrays(double initialLikelihood, int sampleIndex, int sampleReadCount, int newSampleReadCount) {
-        final double[][] sampleValues = valuesBySampleIndex[sampleIndex];
         final int alleleCount = alleles.alleleCount();
-        for (int a = 0; a < alleleCount; a++)
-            sampleValues[a] = Arrays.copyOf(sampleValues[a], newSampleReadCount);
-        if (initialLikelihood != 0.0) // the default array new value.
-            for (int a = 0; a < alleleCount; a++)
-                Arrays.fill(sampleValues[a],sampleReadCount,newSampleReadCount,initialLikelihood);
+        if (newSampleReadCount > sampleReadCapacities[sampleIndex]) {
+            final int[] newSampleReadCapacities = sampleReadCapacities.clone();
+            newSampleReadCapacities[sampleIndex] = newSampleReadCount;
+            layoutValues(alleleCapacity, newSampleReadCapacities, alleleCount);
+        }
+        for (int a = 0; a < alleleCount; a++) {
+            final int rowIndex = valueIndex(sampleIndex, a, 0);
+            Arrays.fill(values, rowIndex + sampleReadCount, rowIndex + newSampleReadCount, initialLikelihood);
+        }
     }
 
     // Append the new read reference into the structure per-sample.
@@ -1101,6 +1298,7 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         for (int a = 0; a < oldAlleleCount; a++)
             newAlleles[a] = alleles.alleleAt(a);
         newAlleles[oldAlleleCount] = nonRefAllele;
+        ensureAlleleCapacity(oldAlleleCount, newAlleleCount);
         alleles = new IndexedAlleleList<>(newAlleles);
         alleleList = null; // remove the cached alleleList.
 
@@ -1111,16 +1309,15 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
     // Updates per-sample structures according to the addition of the NON_REF allele.
     private void addNonReferenceAlleleLikelihoodsPerSample(final int alleleCount, final int newAlleleCount, final int sampleIndex) {
-        final double[][] sampleValues = valuesBySampleIndex[sampleIndex] = Arrays.copyOf(valuesBySampleIndex[sampleIndex], newAlleleCount);
         final int sampleReadCount = readsBySampleIndex[sampleIndex].length;
 
-        final double[] nonRefAlleleLikelihoods = sampleValues[alleleCount] = new double [sampleReadCount];
-        Arrays.fill(nonRefAlleleLikelihoods,Double.NEGATIVE_INFINITY);
+        final int nonRefRowIndex = valueIndex(sampleIndex, alleleCount, 0);
+        Arrays.fill(values, nonRefRowIndex, nonRefRowIndex + sampleReadCount, Double.NEGATIVE_INFINITY);
         for (int r = 0; r < sampleReadCount; r++) {
             final BestAllele bestAllele = searchBestAllele(sampleIndex,r,true);
             final double secondBestLikelihood = Double.isInfinite(bestAllele.confidence) ? bestAllele.likelihood
                     : bestAllele.likelihood - bestAllele.confidence;
-            nonRefAlleleLikelihoods[r] = secondBestLikelihood;
+            values[nonRefRowIndex + r] = secondBestLikelihood;
         }
     }
 
@@ -1381,14 +1578,8 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         System.arraycopy(oldSampleReads,0,newSampleReads,0,firstDeleted);
         Utils.skimArray(oldSampleReads,firstDeleted, newSampleReads, firstDeleted, removeIndex, firstDeleted);
 
-        // Then we skim out the likelihoods of the removed reads.
-        final double[][] oldSampleValues = valuesBySampleIndex[sampleIndex];
-        final double[][] newSampleValues = new double[alleleCount][newSampleReadCount];
-        for (int a = 0; a < alleleCount; a++) {
-            System.arraycopy(oldSampleValues[a],0,newSampleValues[a],0,firstDeleted);
-            Utils.skimArray(oldSampleValues[a], firstDeleted, newSampleValues[a], firstDeleted, removeIndex, firstDeleted);
-        }
-        valuesBySampleIndex[sampleIndex] = newSampleValues;
+        // Then we skim out the likelihoods of the removed reads in place.
+        compactSampleValues(sampleIndex, alleleCount, removeIndex, firstDeleted);
         readsBySampleIndex[sampleIndex] = newSampleReads;
         readListBySampleIndex[sampleIndex] = null; // reset the unmodifiable list.
     }
@@ -1437,18 +1628,24 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
             indexByRead.put(newSampleReads[r], r);
         }
 
-        // Then we skim out the likelihoods of the removed reads.
-        final double[][] oldSampleValues = valuesBySampleIndex[sampleIndex];
-        final double[][] newSampleValues = new double[alleleCount][newSampleReadCount];
-        for (int a = 0; a < alleleCount; a++) {
-            System.arraycopy(oldSampleValues[a],0,newSampleValues[a],0,firstDeleted);
-            Utils.skimArray(oldSampleValues[a], firstDeleted, newSampleValues[a], firstDeleted, removeIndex, firstDeleted);
-        }
-        valuesBySampleIndex[sampleIndex] = newSampleValues;
+        // Then we skim out the likelihoods of the removed reads in place.
+        compactSampleValues(sampleIndex, alleleCount, removeIndex, firstDeleted);
         readsBySampleIndex[sampleIndex] = newSampleReads;
         readListBySampleIndex[sampleIndex] = null; // reset the unmodifiable list.
     }
 
+    // Shifts the likelihoods of the remaining reads to the front of each allele row of a sample block.
+    private void compactSampleValues(final int sampleIndex, final int alleleCount, final boolean[] removeIndex, final int firstDeleted) {
+        final int sampleReadCount = removeIndex.length;
+        for (int a = 0; a < alleleCount; a++) {
+            final int rowIndex = valueIndex(sampleIndex, a, 0);
+            int to = rowIndex + firstDeleted;
+            for (int r = firstDeleted; r < sampleReadCount; r++)
+                if (!removeIndex[r])
+                    values[to++] = values[rowIndex + r];
+        }
+    }
+
     private Object2IntMap<GATKSAMRecord> readIndexBySampleIndex(final int sampleIndex) {
         if (readIndexBySampleIndex[sampleIndex] == null) {
             final GATKSAMRecord[] sampleReads = readsBySampleIndex[sampleIndex];
@@ -1492,9 +1689,9 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final int sampleReadCount = sampleReads.length;
         for (int a = 0; a < alleleCount; a++) {
             final A allele = alleles.alleleAt(a);
-            final double[] readLikelihoods = valuesBySampleIndex[sampleIndex][a];
+            final int rowIndex = valueIndex(sampleIndex, a, 0);
             for (int r = 0; r < sampleReadCount; r++)
-                result.add(sampleReads[r], allele, readLikelihoods[r]);
+                result.add(sampleReads[r], allele, values[rowIndex + r]);
         }
         return result;
     }
@@ -1522,12 +1719,23 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         @Override
         public void set(final int alleleIndex, final int readIndex, final double value) {
-            valuesBySampleIndex[sampleIndex][alleleIndex][readIndex] = value;
+            checkAlleleAndReadIndex(alleleIndex, readIndex);
+            values[valueIndex(sampleIndex, alleleIndex, readIndex)] = value;
         }
 
         @Override
         public double get(final int alleleIndex, final int readIndex) {
-            return valuesBySampleIndex[sampleIndex][alleleIndex][readIndex];
+            checkAlleleAndReadIndex(alleleIndex, readIndex);
+            return values[valueIndex(sampleIndex, alleleIndex, readIndex)];
+        }
+
+        // Rows are padded up to their capacity, so an index past the read or allele count would otherwise land
+        // in the padding or in the next row rather than fail.
+        private void checkAlleleAndReadIndex(final int alleleIndex, final int readIndex) {
+            if (readIndex < 0 || readIndex >= readsBySampleIndex[sampleIndex].length)
+                throw new ArrayIndexOutOfBoundsException("invalid read index: " + readIndex);
+            if (alleleIndex < 0 || alleleIndex >= alleles.alleleCount())
+                throw new ArrayIndexOutOfBoundsException("invalid allele index: " + alleleIndex);
         }
 
         @Override
@@ -1567,7 +1775,7 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         @Override
         public void copyAlleleLikelihoods(final int alleleIndex, final double[] dest, final int offset) {
-            System.arraycopy(valuesBySampleIndex[sampleIndex][alleleIndex],0,dest,offset,readCount());
+            System.arraycopy(values,valueIndex(sampleIndex, alleleIndex, 0),dest,offset,readCount());
         }
     }
 
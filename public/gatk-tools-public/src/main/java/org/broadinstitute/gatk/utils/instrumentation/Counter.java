@@ -0,0 +1,63 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe count of events, which only advances while metrics are enabled
+ */
+public final class Counter {
+    private final String name;
+    private final RuntimeMetrics registry;
+    private final AtomicLong count = new AtomicLong();
+
+    Counter(final String name, final RuntimeMetrics registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(final long n) {
+        if ( registry.isEnabled() )
+            count.addAndGet(n);
+    }
+
+    public String getName() { return name; }
+    public long getCount() { return count.get(); }
+
+    void reset() {
+        count.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "Counter{" + name + ": " + getCount() + "}";
+    }
+}
@@ -0,0 +1,122 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of non-negative long values, bucketed by powers of two
+ *
+ * Bucket 0 holds the value 0 and bucket i > 0 holds values in [2^(i-1), 2^i).  Quantiles are therefore only
+ * accurate to within a factor of two, which is plenty to see the shape of things like active region sizes
+ * or the number of haplotypes per region, and recording a value costs a couple of atomic adds.
+ */
+public final class Histogram {
+    private static final int NUM_BUCKETS = 65;
+
+    private final String name;
+    private final RuntimeMetrics registry;
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(final String name, final RuntimeMetrics registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    /**
+     * Record a value, if metrics are enabled
+     *
+     * @param value a value >= 0
+     */
+    public void record(final long value) {
+        if ( ! registry.isEnabled() )
+            return;
+        if ( value < 0 )
+            throw new IllegalArgumentException("Histogram " + name + " only accepts non-negative values but got " + value);
+
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while ( value > currentMax && ! max.compareAndSet(currentMax, value) )
+            currentMax = max.get();
+    }
+
+    static int bucketOf(final long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    public String getName() { return name; }
+    public long getCount() { return count.get(); }
+    public long getMax() { return max.get(); }
+
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0.0 : sum.get() / (double)n;
+    }
+
+    /**
+     * Get an upper bound on the q-th quantile of the recorded values
+     *
+     * @param q a quantile in [0, 1]
+     * @return the largest value in the bucket containing the q-th quantile, capped at the maximum value seen
+     */
+    public long getQuantile(final double q) {
+        if ( q < 0.0 || q > 1.0 )
+            throw new IllegalArgumentException("Quantile must be between 0 and 1 but got " + q);
+
+        final long n = count.get();
+        if ( n == 0 )
+            return 0;
+
+        final long rank = Math.max(1, (long)Math.ceil(q * n));
+        long seen = 0;
+        for ( int i = 0; i < NUM_BUCKETS; i++ ) {
+            seen += buckets.get(i);
+            if ( seen >= rank )
+                return Math.min(i == 0 ? 0 : (i == 64 ? Long.MAX_VALUE : (1L << i) - 1), getMax());
+        }
+        return getMax();
+    }
+
+    void reset() {
+        for ( int i = 0; i < NUM_BUCKETS; i++ )
+            buckets.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Histogram{%s: n=%d, mean=%.2f, max=%d}", name, getCount(), getMean(), getMax());
+    }
+}
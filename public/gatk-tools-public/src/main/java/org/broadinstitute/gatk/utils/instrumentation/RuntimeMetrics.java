@@ -0,0 +1,288 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.instrumentation;
+
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the timers, counters and histograms describing where the engine spends its time
+ *
+ * There is a single registry per JVM, because the instrumented code (BAM decoding, read filters, LIBS,
+ * assembly, the PairHMM, ...) is spread across many layers that have no common object to hang it on.
+ * The standard engine stages are available as constants so that instrumenting a hot path doesn't need a
+ * map lookup; tools can register additional metrics by name, which returns the existing metric if one
+ * of that name and kind is already registered.
+ *
+ * Collection is off by default.  The engine turns it on when a runtime metrics log is requested, and it
+ * can be toggled at any time over JMX, where the MicroScheduler registers this registry.
+ */
+public final class RuntimeMetrics implements RuntimeMetricsMXBean {
+    private final static Logger logger = Logger.getLogger(RuntimeMetrics.class);
+
+    private static final RuntimeMetrics INSTANCE = new RuntimeMetrics();
+
+    // the standard engine stages, in the order in which data flows through them
+    public static final StageTimer BAM_DECODING = INSTANCE.timer("BAMDecoding");
+    public static final StageTimer READ_FILTERING = INSTANCE.timer("ReadFiltering");
+    public static final StageTimer READ_TRANSFORMERS = INSTANCE.timer("ReadTransformers");
+    public static final StageTimer LOCUS_ITERATION = INSTANCE.timer("LocusIteratorByState");
+    public static final StageTimer ACTIVITY_PROFILE = INSTANCE.timer("ActivityProfile");
+    public static final StageTimer ASSEMBLY = INSTANCE.timer("Assembly");
+    public static final StageTimer PAIRHMM = INSTANCE.timer("PairHMM");
+    public static final StageTimer GENOTYPING = INSTANCE.timer("Genotyping");
+    public static final StageTimer VCF_WRITING = INSTANCE.timer("VCFWriting");
+
+    public static final Histogram ACTIVE_REGION_SIZE = INSTANCE.histogram("ActiveRegionSize");
+    public static final Histogram ACTIVE_REGION_READS = INSTANCE.histogram("ActiveRegionReads");
+    public static final Histogram HAPLOTYPES_PER_REGION = INSTANCE.histogram("HaplotypesPerRegion");
+
+    private final Map<String, StageTimer> timers = new LinkedHashMap<>();
+    private final Map<String, Counter> counters = new LinkedHashMap<>();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    private volatile boolean enabled = false;
+
+    /**
+     * The innermost stage running on each thread, used to charge nested stages to their parents
+     */
+    private final ThreadLocal<StageTimer.Frame> currentFrame = new ThreadLocal<>();
+
+    /**
+     * The HotSpot thread bean, if it can measure per-thread allocation, otherwise null
+     */
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    // package-private so that tests can use a registry of their own
+    RuntimeMetrics() {
+        allocationBean = findAllocationBean();
+    }
+
+    private static com.sun.management.ThreadMXBean findAllocationBean() {
+        try {
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if ( bean instanceof com.sun.management.ThreadMXBean ) {
+                final com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean)bean;
+                if ( hotspotBean.isThreadAllocatedMemorySupported() ) {
+                    if ( ! hotspotBean.isThreadAllocatedMemoryEnabled() )
+                        hotspotBean.setThreadAllocatedMemoryEnabled(true);
+                    return hotspotBean;
+                }
+            }
+        } catch ( UnsupportedOperationException | SecurityException e ) {
+            logger.debug("Per-thread allocation accounting is unavailable", e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the registry for this JVM
+     */
+    public static RuntimeMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the stage timer with the given name, registering it if necessary
+     */
+    public synchronized StageTimer timer(final String name) {
+        StageTimer timer = timers.get(name);
+        if ( timer == null ) {
+            timer = new StageTimer(name, this);
+            timers.put(name, timer);
+        }
+        return timer;
+    }
+
+    /**
+     * Get the counter with the given name, registering it if necessary
+     */
+    public synchronized Counter counter(final String name) {
+        Counter counter = counters.get(name);
+        if ( counter == null ) {
+            counter = new Counter(name, this);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Get the histogram with the given name, registering it if necessary
+     */
+    public synchronized Histogram histogram(final String name) {
+        Histogram histogram = histograms.get(name);
+        if ( histogram == null ) {
+            histogram = new Histogram(name, this);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    public synchronized List<StageTimer> getTimers() {
+        return new ArrayList<>(timers.values());
+    }
+
+    public synchronized List<Counter> getCounterList() {
+        return new ArrayList<>(counters.values());
+    }
+
+    public synchronized List<Histogram> getHistograms() {
+        return new ArrayList<>(histograms.values());
+    }
+
+    /**
+     * @return true if this JVM can attribute heap allocation to stages
+     */
+    public boolean isAllocationTrackingSupported() {
+        return allocationBean != null;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public synchronized void reset() {
+        for ( final StageTimer timer : timers.values() )
+            timer.reset();
+        for ( final Counter counter : counters.values() )
+            counter.reset();
+        for ( final Histogram histogram : histograms.values() )
+            histogram.reset();
+    }
+
+    /**
+     * Make frame the innermost running stage of the current thread
+     *
+     * @return the previously innermost frame, or null if there was none
+     */
+    StageTimer.Frame enterFrame(final StageTimer.Frame frame) {
+        final StageTimer.Frame parent = currentFrame.get();
+        currentFrame.set(frame);
+        return parent;
+    }
+
+    /**
+     * Pop frame, charging its elapsed time and allocation to its parent, if any
+     */
+    void exitFrame(final StageTimer.Frame frame, final long elapsedNanos, final long allocatedBytes) {
+        currentFrame.set(frame.parent);
+        if ( frame.parent != null ) {
+            frame.parent.childNanos += elapsedNanos;
+            frame.parent.childAllocatedBytes += allocatedBytes;
+        }
+    }
+
+    long currentThreadAllocatedBytes() {
+        return allocationBean == null ? 0 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // --------------------------------------------------------------------------------------------------------------
+    //
+    // JMX attributes
+    //
+    // --------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public Map<String, Long> getStageInvocations() {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        for ( final StageTimer timer : getTimers() )
+            values.put(timer.getName(), timer.getInvocations());
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getStageSeconds() {
+        final Map<String, Double> values = new LinkedHashMap<>();
+        for ( final StageTimer timer : getTimers() )
+            values.put(timer.getName(), nanosToSeconds(timer.getTotalNanos()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getStageSelfSeconds() {
+        final Map<String, Double> values = new LinkedHashMap<>();
+        for ( final StageTimer timer : getTimers() )
+            values.put(timer.getName(), nanosToSeconds(timer.getSelfNanos()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getStageAllocatedBytes() {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        for ( final StageTimer timer : getTimers() )
+            values.put(timer.getName(), timer.getTotalAllocatedBytes());
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getStageSelfAllocatedBytes() {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        for ( final StageTimer timer : getTimers() )
+            values.put(timer.getName(), timer.getSelfAllocatedBytes());
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        for ( final Counter counter : getCounterList() )
+            values.put(counter.getName(), counter.getCount());
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getHistogramCounts() {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        for ( final Histogram histogram : getHistograms() )
+            values.put(histogram.getName(), histogram.getCount());
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getHistogramMeans() {
+        final Map<String, Double> values = new LinkedHashMap<>();
+        for ( final Histogram histogram : getHistograms() )
+            values.put(histogram.getName(), histogram.getMean());
+        return values;
+    }
+
+    public static double nanosToSeconds(final long nanos) {
+        return nanos / 1e9;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.instrumentation;
+
+import java.util.Map;
+
+/**
+ * JMX view of the engine's runtime metrics
+ *
+ * Stage times are summed over all threads and reported in seconds; allocation is reported in bytes.
+ */
+public interface RuntimeMetricsMXBean {
+    boolean isEnabled();
+
+    /**
+     * Turn metrics collection on or off for the remainder of the run
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Zero all timers, counters and histograms
+     */
+    void reset();
+
+    Map<String, Long> getStageInvocations();
+    Map<String, Double> getStageSeconds();
+    Map<String, Double> getStageSelfSeconds();
+    Map<String, Long> getStageAllocatedBytes();
+    Map<String, Long> getStageSelfAllocatedBytes();
+    Map<String, Long> getCounters();
+    Map<String, Long> getHistogramCounts();
+    Map<String, Double> getHistogramMeans();
+}
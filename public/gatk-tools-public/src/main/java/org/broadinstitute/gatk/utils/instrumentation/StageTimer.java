@@ -0,0 +1,175 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates the wall-clock time and heap allocation spent in one stage of the engine
+ *
+ * Usage is always bracketed:
+ *
+ *     timer.start();
+ *     try {
+ *         ... work ...
+ *     } finally {
+ *         timer.stop();
+ *     }
+ *
+ * Timers are thread safe; each thread keeps its own in-flight state, and completed intervals are added
+ * to shared atomic totals, so times are summed over all threads and can exceed the wall time of the run
+ * under -nt / -nct.  Stages nest: when a stage starts while another is running on the same thread, the
+ * inner stage's time and allocation are charged to the outer stage's total but not to its self time.
+ * Re-entering a stage that is already running on the current thread is counted once.
+ *
+ * When the owning registry is disabled start() returns immediately, and stop() returns immediately as
+ * long as no interval of this stage has ever been timed, so instrumented code pays only a volatile read
+ * in each.  Neither touches the per-thread state in that case.
+ */
+public final class StageTimer {
+    private final String name;
+    private final RuntimeMetrics registry;
+
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong selfNanos = new AtomicLong();
+    private final AtomicLong totalAllocatedBytes = new AtomicLong();
+    private final AtomicLong selfAllocatedBytes = new AtomicLong();
+
+    /**
+     * Has start() ever timed this stage on any thread?  Until it has, stop() has no per-thread state to look at.
+     */
+    private volatile boolean everStarted = false;
+
+    /**
+     * The per-thread state of this stage
+     */
+    private final ThreadLocal<Frame> frames = new ThreadLocal<Frame>() {
+        @Override
+        protected Frame initialValue() {
+            return new Frame(StageTimer.this);
+        }
+    };
+
+    /**
+     * One in-flight interval of a stage on one thread
+     */
+    static final class Frame {
+        final StageTimer timer;
+        int depth = 0;
+        long startNanos;
+        long startAllocatedBytes;
+        long childNanos;
+        long childAllocatedBytes;
+        Frame parent;
+
+        private Frame(final StageTimer timer) {
+            this.timer = timer;
+        }
+    }
+
+    StageTimer(final String name, final RuntimeMetrics registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    /**
+     * Start timing this stage on the current thread
+     */
+    public void start() {
+        if ( ! registry.isEnabled() )
+            return;
+
+        if ( ! everStarted )
+            everStarted = true;
+
+        final Frame frame = frames.get();
+        if ( frame.depth++ > 0 )
+            return;
+
+        frame.parent = registry.enterFrame(frame);
+        frame.childNanos = 0;
+        frame.childAllocatedBytes = 0;
+        frame.startAllocatedBytes = registry.currentThreadAllocatedBytes();
+        frame.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stop timing this stage on the current thread, adding the elapsed interval to the totals
+     *
+     * Does nothing if the matching start() happened while the registry was disabled.
+     */
+    public void stop() {
+        if ( ! everStarted )
+            return;
+
+        final Frame frame = frames.get();
+        if ( frame.depth == 0 || --frame.depth > 0 )
+            return;
+
+        final long elapsed = System.nanoTime() - frame.startNanos;
+        final long allocated = registry.currentThreadAllocatedBytes() - frame.startAllocatedBytes;
+        registry.exitFrame(frame, elapsed, allocated);
+        frame.parent = null;
+
+        invocations.incrementAndGet();
+        totalNanos.addAndGet(elapsed);
+        selfNanos.addAndGet(elapsed - frame.childNanos);
+        totalAllocatedBytes.addAndGet(allocated);
+        selfAllocatedBytes.addAndGet(allocated - frame.childAllocatedBytes);
+    }
+
+    public String getName() { return name; }
+    public long getInvocations() { return invocations.get(); }
+    public long getTotalNanos() { return totalNanos.get(); }
+    public long getSelfNanos() { return selfNanos.get(); }
+
+    /**
+     * @return bytes allocated by all threads while in this stage, or 0 if the JVM can't measure allocation
+     */
+    public long getTotalAllocatedBytes() { return totalAllocatedBytes.get(); }
+    public long getSelfAllocatedBytes() { return selfAllocatedBytes.get(); }
+
+    /**
+     * @return true if start() has timed this stage on some thread, so that threads may have state for it
+     */
+    boolean hasBeenStarted() {
+        return everStarted;
+    }
+
+    void reset() {
+        invocations.set(0);
+        totalNanos.set(0);
+        selfNanos.set(0);
+        totalAllocatedBytes.set(0);
+        selfAllocatedBytes.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StageTimer{%s: %d invocations, %d ns}", name, getInvocations(), getTotalNanos());
+    }
+}
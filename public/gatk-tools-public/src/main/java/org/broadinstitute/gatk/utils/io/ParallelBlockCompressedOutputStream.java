@@ -0,0 +1,294 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package org.broadinstitute.gatk.utils.io;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.zip.DeflaterFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A BGZF output stream that compresses its blocks on a pool of threads.
+ *
+ * The data is cut into blocks and each block is compressed exactly as BlockCompressedOutputStream does, so
+ * both write the same bytes.  Here, though, a full block is handed to the pool, and compressed blocks are
+ * written out in order by the thread calling write(), flush() or close().  At most maxBlocksInFlight blocks
+ * are being compressed or waiting to be written at a time, after which writing blocks until the oldest is done.
+ *
+ * The address of a block is only known once all the blocks before it are written, so there is no
+ * getFilePointer().  A position in the stream is instead given by the number of the block being filled and the
+ * offset in it, and a BlockListener is told where each block went as it is written.
+ *
+ * Like any other OutputStream this class is not thread-safe.
+ */
+public final class ParallelBlockCompressedOutputStream extends OutputStream {
+    /**
+     * Told, on the writing thread, about each compressed block as it is written
+     */
+    public interface BlockListener {
+        /**
+         * @param blockNumber the number of the block, counting from 0 in the order the data was written
+         * @param blockAddress the offset of the block in the output
+         * @param blockSize the compressed size of the block
+         */
+        void blockWritten(final long blockNumber, final long blockAddress, final int blockSize);
+    }
+
+    private final OutputStream out;
+    private final int compressionLevel;
+    private final int maxBlocksInFlight;
+    private final ExecutorService executor;
+
+    private final ArrayDeque<Future<Block>> blocksInFlight = new ArrayDeque<>();
+    private final ArrayDeque<Block> freeBlocks = new ArrayDeque<>();
+    private Block currentBlock;
+    private long currentBlockNumber = 0;
+    private long nextBlockAddress = 0;
+    private BlockListener listener = null;
+    private boolean closed = false;
+
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param out the stream to write the compressed blocks to, closed when this stream is
+     * @param compressionLevel the deflate level, or null for the BlockCompressedOutputStream default
+     * @param numberOfThreads how many threads compress blocks
+     */
+    public ParallelBlockCompressedOutputStream(final OutputStream out, final Integer compressionLevel, final int numberOfThreads) {
+        if ( out == null ) throw new IllegalArgumentException("out cannot be null");
+        if ( numberOfThreads < 1 ) throw new IllegalArgumentException("numberOfThreads must be at least 1 but got " + numberOfThreads);
+
+        this.out = out;
+        this.compressionLevel = compressionLevel != null ? compressionLevel : BlockCompressedOutputStream.getDefaultCompressionLevel();
+        this.maxBlocksInFlight = 2 * numberOfThreads;
+        this.executor = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+            private final AtomicInteger id = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "BGZFCompressor-" + id.getAndIncrement());
+                thread.setDaemon(true); // so that a stream left open by an error doesn't hold the JVM open
+                return thread;
+            }
+        });
+        currentBlock = new Block(this.compressionLevel);
+    }
+
+    public void setBlockListener(final BlockListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of the block the next byte written will go to
+     */
+    public long getBlockNumber() {
+        return currentBlockNumber;
+    }
+
+    /**
+     * @return the offset in its uncompressed block of the next byte written
+     */
+    public int getBlockOffset() {
+        return currentBlock.uncompressedLength;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        singleByte[0] = (byte)b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] bytes, int offset, int length) throws IOException {
+        while ( length > 0 ) {
+            final int count = Math.min(length, currentBlock.uncompressed.length - currentBlock.uncompressedLength);
+            System.arraycopy(bytes, offset, currentBlock.uncompressed, currentBlock.uncompressedLength, count);
+            currentBlock.uncompressedLength += count;
+            offset += count;
+            length -= count;
+            if ( currentBlock.uncompressedLength == currentBlock.uncompressed.length )
+                submitCurrentBlock();
+        }
+    }
+
+    /**
+     * Ends the current block, even if it is not full, and writes out all of the blocks
+     */
+    @Override
+    public void flush() throws IOException {
+        submitCurrentBlock();
+        while ( ! blocksInFlight.isEmpty() )
+            writeOldestBlock();
+        out.flush();
+    }
+
+    /**
+     * Writes out all of the blocks and the empty terminator block, and closes the output
+     */
+    @Override
+    public void close() throws IOException {
+        if ( closed )
+            return;
+        closed = true;
+        try {
+            flush();
+            out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            out.close();
+        }
+        finally {
+            executor.shutdownNow();
+            currentBlock.end();
+            for ( final Block block : freeBlocks )
+                block.end();
+        }
+    }
+
+    private void submitCurrentBlock() throws IOException {
+        if ( currentBlock.uncompressedLength == 0 )
+            return;
+
+        currentBlock.number = currentBlockNumber++;
+        blocksInFlight.add(executor.submit(currentBlock));
+
+        while ( ! blocksInFlight.isEmpty() && (blocksInFlight.size() >= maxBlocksInFlight || blocksInFlight.peek().isDone()) )
+            writeOldestBlock();
+        currentBlock = freeBlocks.isEmpty() ? new Block(compressionLevel) : freeBlocks.poll();
+    }
+
+    private void writeOldestBlock() throws IOException {
+        final Block block;
+        try {
+            block = blocksInFlight.poll().get();
+        }
+        catch ( InterruptedException e ) {
+            throw new InterruptedIOException("Interrupted while waiting for a BGZF block to be compressed");
+        }
+        catch ( ExecutionException e ) {
+            throw new IOException("Unable to compress a BGZF block", e.getCause());
+        }
+
+        out.write(block.compressed, 0, block.compressedLength);
+        if ( listener != null )
+            listener.blockWritten(block.number, nextBlockAddress, block.compressedLength);
+        nextBlockAddress += block.compressedLength;
+
+        block.uncompressedLength = 0;
+        freeBlocks.add(block);
+    }
+
+    /**
+     * The data of one BGZF block, and the means to compress it into a complete gzip block
+     */
+    private static final class Block implements Callable<Block> {
+        // as in BlockCompressedOutputStream, data that doesn't deflate into this many bytes is stored instead
+        private static final int MAX_DEFLATED_SIZE = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+
+        private final byte[] uncompressed = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+        private int uncompressedLength = 0;
+        private final byte[] compressed = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + MAX_DEFLATED_SIZE + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH];
+        private int compressedLength = 0;
+        private long number;
+
+        private final Deflater deflater;
+        private final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+        private final CRC32 crc32 = new CRC32();
+
+        private Block(final int compressionLevel) {
+            deflater = DeflaterFactory.makeDeflater(compressionLevel, true);
+        }
+
+        @Override
+        public Block call() {
+            int deflatedSize = deflate(deflater);
+            if ( deflatedSize < 0 ) {
+                deflatedSize = deflate(noCompressionDeflater);
+                if ( deflatedSize < 0 )
+                    throw new IllegalStateException("A BGZF block could not be stored without compression");
+            }
+            crc32.reset();
+            crc32.update(uncompressed, 0, uncompressedLength);
+
+            compressedLength = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + deflatedSize + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+            int position = 0;
+            compressed[position++] = BlockCompressedStreamConstants.GZIP_ID1;
+            compressed[position++] = (byte)BlockCompressedStreamConstants.GZIP_ID2;
+            compressed[position++] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+            compressed[position++] = (byte)BlockCompressedStreamConstants.GZIP_FLG;
+            position = putInt(position, 0); // modification time
+            compressed[position++] = (byte)BlockCompressedStreamConstants.GZIP_XFL;
+            compressed[position++] = (byte)BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+            position = putShort(position, BlockCompressedStreamConstants.GZIP_XLEN);
+            compressed[position++] = BlockCompressedStreamConstants.BGZF_ID1;
+            compressed[position++] = BlockCompressedStreamConstants.BGZF_ID2;
+            position = putShort(position, BlockCompressedStreamConstants.BGZF_LEN);
+            putShort(position, compressedLength - 1);
+
+            position = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + deflatedSize;
+            position = putInt(position, (int)crc32.getValue());
+            putInt(position, uncompressedLength);
+            return this;
+        }
+
+        /**
+         * @return the size of the deflated data, written after the block header, or -1 if it doesn't fit in a block
+         */
+        private int deflate(final Deflater deflater) {
+            deflater.reset();
+            deflater.setInput(uncompressed, 0, uncompressedLength);
+            deflater.finish();
+            final int size = deflater.deflate(compressed, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, MAX_DEFLATED_SIZE);
+            return deflater.finished() ? size : -1;
+        }
+
+        private int putShort(final int position, final int value) {
+            compressed[position] = (byte)value;
+            compressed[position + 1] = (byte)(value >>> 8);
+            return position + 2;
+        }
+
+        private int putInt(final int position, final int value) {
+            compressed[position] = (byte)value;
+            compressed[position + 1] = (byte)(value >>> 8);
+            compressed[position + 2] = (byte)(value >>> 16);
+            compressed[position + 3] = (byte)(value >>> 24);
+            return position + 4;
+        }
+
+        private void end() {
+            deflater.end();
+            noCompressionDeflater.end();
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.pileup.PileupElement;
+import org.broadinstitute.gatk.utils.pileup.PileupElementPool;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
 /**
@@ -366,5 +367,24 @@ public class AlignmentStateMachine {
                 getCurrentCigarElementOffset(),
                 getOffsetIntoCurrentCigarElement());
     }
+
+    /**
+     * Get a PileupElement from pool based on the current state of this element
+     *
+     * Must not be a left or right edge
+     *
+     * @param pool the pool to get the element from
+     * @return a pileup element, valid until pool is next reset
+     */
+    @Ensures("result != null")
+    public final PileupElement makePileupElement(final PileupElementPool pool) {
+        if ( isLeftEdge() || isRightEdge() )
+            throw new IllegalStateException("Cannot make a pileup element from an edge alignment state");
+        return pool.getElement(read,
+                getReadOffset(),
+                getCurrentCigarElement(),
+                getCurrentCigarElementOffset(),
+                getOffsetIntoCurrentCigarElement());
+    }
 }
 
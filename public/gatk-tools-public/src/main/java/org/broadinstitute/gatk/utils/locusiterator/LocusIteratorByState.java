@@ -39,7 +39,9 @@ import org.broadinstitute.gatk.engine.iterators.GATKSAMRecordIterator;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.SampleUtils;
+import org.broadinstitute.gatk.utils.instrumentation.RuntimeMetrics;
 import org.broadinstitute.gatk.utils.pileup.PileupElement;
+import org.broadinstitute.gatk.utils.pileup.PileupElementPool;
 import org.broadinstitute.gatk.utils.pileup.ReadBackedPileupImpl;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
@@ -107,6 +109,12 @@ public final class LocusIteratorByState extends LocusIterator {
      */
     private final boolean includeReadsWithDeletionAtLoci;
 
+    /**
+     * Recycles the pileup elements of each alignment context into the next one, or null if every context
+     * gets its own elements
+     */
+    private final PileupElementPool pileupElementPool;
+
     /**
      * The next alignment context.  A non-null value means that a
      * context is waiting from hasNext() for sending off to the next next() call.  A null
@@ -142,7 +150,8 @@ public final class LocusIteratorByState extends LocusIterator {
                 readInformation.includeReadsWithDeletionAtLoci(),
                 genomeLocParser,
                 samples,
-                readInformation.keepUniqueReadListInLIBS());
+                readInformation.keepUniqueReadListInLIBS(),
+                readInformation.reusePileupElements());
     }
 
     /**
@@ -184,6 +193,33 @@ public final class LocusIteratorByState extends LocusIterator {
                                 final GenomeLocParser genomeLocParser,
                                 final Collection<String> samples,
                                 final boolean maintainUniqueReadsList) {
+        this(samIterator, downsamplingInfo, includeReadsWithDeletionAtLoci, genomeLocParser, samples, maintainUniqueReadsList, false);
+    }
+
+    /**
+     * Create a new LocusIteratorByState
+     *
+     * @param samIterator the iterator of reads to process into pileups.  Reads must be ordered
+     *                    according to standard coordinate-sorted BAM conventions
+     * @param downsamplingInfo meta-information about how to downsampling the reads
+     * @param genomeLocParser used to create genome locs
+     * @param samples a complete list of samples present in the read groups for the reads coming from samIterator.
+     *                This is generally just the set of read group sample fields in the SAMFileHeader.  This
+     *                list of samples may contain a null element, and all reads without read groups will
+     *                be mapped to this null sample
+     * @param maintainUniqueReadsList if true, we will keep the unique reads from off the samIterator and make them
+     *                                available via the transferReadsFromAllPreviousPileups interface
+     * @param reusePileupElements if true, the pileup elements of each alignment context are recycled into the
+     *                            next one, so a context is only valid until the next call to hasNext() or next().
+     *                            Use ReadBackedPileup.copy() to keep a pileup for longer
+     */
+    public LocusIteratorByState(final Iterator<GATKSAMRecord> samIterator,
+                                final LIBSDownsamplingInfo downsamplingInfo,
+                                final boolean includeReadsWithDeletionAtLoci,
+                                final GenomeLocParser genomeLocParser,
+                                final Collection<String> samples,
+                                final boolean maintainUniqueReadsList,
+                                final boolean reusePileupElements) {
         if ( samIterator == null ) throw new IllegalArgumentException("samIterator cannot be null");
         if ( downsamplingInfo == null ) throw new IllegalArgumentException("downsamplingInfo cannot be null");
         if ( genomeLocParser == null ) throw new IllegalArgumentException("genomeLocParser cannot be null");
@@ -199,6 +235,7 @@ public final class LocusIteratorByState extends LocusIterator {
         this.includeReadsWithDeletionAtLoci = includeReadsWithDeletionAtLoci;
         this.samples = new ArrayList<String>(samples);
         this.readStates = new ReadStateManager(samIterator, this.samples, downsamplingInfo, maintainUniqueReadsList);
+        this.pileupElementPool = reusePileupElements ? new PileupElementPool() : null;
     }
 
     @Override
@@ -234,6 +271,20 @@ public final class LocusIteratorByState extends LocusIterator {
         return nextAlignmentContext != null;
     }
 
+    /**
+     * Get the AlignmentContext the next call to next() will return, without consuming it
+     *
+     * Unlike wrapping this iterator in a PeekableIterator, doesn't build the context after the one returned, so
+     * the context returned by the previous call to next() remains valid even when reusing pileup elements.
+     *
+     * @return a non-null AlignmentContext
+     */
+    public AlignmentContext peek() {
+        if (!hasNext())
+            throw new NoSuchElementException("LocusIteratorByState: out of elements.");
+        return nextAlignmentContext;
+    }
+
     /**
      * Get the next AlignmentContext available from the reads.
      *
@@ -288,43 +339,55 @@ public final class LocusIteratorByState extends LocusIterator {
      * next entry.
      */
     private void lazyLoadNextAlignmentContext() {
-        while (nextAlignmentContext == null && readStates.hasNext()) {
-            readStates.collectPendingReads();
-
-            final GenomeLoc location = getLocation();
-            final Map<String, ReadBackedPileupImpl> fullPileup = new HashMap<String, ReadBackedPileupImpl>();
-
-            for (final Map.Entry<String, PerSampleReadStateManager> sampleStatePair : readStates ) {
-                final String sample = sampleStatePair.getKey();
-                final PerSampleReadStateManager readState = sampleStatePair.getValue();
-                final Iterator<AlignmentStateMachine> iterator = readState.iterator();
-                final List<PileupElement> pile = new ArrayList<PileupElement>(readState.size());
-
-                while (iterator.hasNext()) {
-                    // state object with the read/offset information
-                    final AlignmentStateMachine state = iterator.next();
-                    final GATKSAMRecord read = state.getRead();
-                    final CigarOperator op = state.getCigarOperator();
+        if ( nextAlignmentContext != null )
+            return;
+
+        RuntimeMetrics.LOCUS_ITERATION.start();
+        try {
+            while (nextAlignmentContext == null && readStates.hasNext()) {
+                readStates.collectPendingReads();
+
+                final GenomeLoc location = getLocation();
+                final Map<String, ReadBackedPileupImpl> fullPileup = new HashMap<String, ReadBackedPileupImpl>();
+                if ( pileupElementPool != null )
+                    pileupElementPool.reset(); // the previous context, if any, has been handed out and is now stale
+
+                for (final Map.Entry<String, PerSampleReadStateManager> sampleStatePair : readStates ) {
+                    final String sample = sampleStatePair.getKey();
+                    final PerSampleReadStateManager readState = sampleStatePair.getValue();
+                    final Iterator<AlignmentStateMachine> iterator = readState.iterator();
+                    final List<PileupElement> pile = pileupElementPool == null
+                            ? new ArrayList<PileupElement>(readState.size())
+                            : pileupElementPool.getList();
+
+                    while (iterator.hasNext()) {
+                        // state object with the read/offset information
+                        final AlignmentStateMachine state = iterator.next();
+                        final GATKSAMRecord read = state.getRead();
+                        final CigarOperator op = state.getCigarOperator();
+
+                        if (op == CigarOperator.N) // N's are never added to any pileup
+                            continue;
 
-                    if (op == CigarOperator.N) // N's are never added to any pileup
-                        continue;
+                        if (!dontIncludeReadInPileup(read, location.getStart())) {
+                            if ( ! includeReadsWithDeletionAtLoci && op == CigarOperator.D ) {
+                                continue;
+                            }
 
-                    if (!dontIncludeReadInPileup(read, location.getStart())) {
-                        if ( ! includeReadsWithDeletionAtLoci && op == CigarOperator.D ) {
-                            continue;
+                            pile.add(pileupElementPool == null ? state.makePileupElement() : state.makePileupElement(pileupElementPool));
                         }
-
-                        pile.add(state.makePileupElement());
                     }
+
+                    if (! pile.isEmpty() ) // if this pileup added at least one base, add it to the full pileup
+                        fullPileup.put(sample, new ReadBackedPileupImpl(location, pile));
                 }
 
-                if (! pile.isEmpty() ) // if this pileup added at least one base, add it to the full pileup
-                    fullPileup.put(sample, new ReadBackedPileupImpl(location, pile));
+                readStates.updateReadStates(); // critical - must be called after we get the current state offsets and location
+                if (!fullPileup.isEmpty()) // if we got reads with non-D/N over the current position, we are done
+                    nextAlignmentContext = new AlignmentContext(location, new ReadBackedPileupImpl(location, fullPileup), false);
             }
-
-            readStates.updateReadStates(); // critical - must be called after we get the current state offsets and location
-            if (!fullPileup.isEmpty()) // if we got reads with non-D/N over the current position, we are done
-                nextAlignmentContext = new AlignmentContext(location, new ReadBackedPileupImpl(location, fullPileup), false);
+        } finally {
+            RuntimeMetrics.LOCUS_ITERATION.stop();
         }
     }
 
@@ -0,0 +1,353 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package org.broadinstitute.gatk.utils.nanoScheduler;
+
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.MultiThreadedErrorTracker;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A long-lived map/reduce pipeline, for clients that produce their input in several batches that
+ * shouldn't each wait for all of the map calls of the batch before them to finish
+ *
+ * Where NanoScheduler.execute runs over a single input iterator and returns once everything in it has
+ * been reduced, the client pushes inputs into this pipeline one at a time with submit, from a single
+ * thread, and calls finish once it has no more.  map is applied in parallel by nThreads worker threads,
+ * and reduce is applied in submission order by whichever thread finds the next result ready.
+ *
+ * Rather than holding a fixed number of inputs, the pipeline limits the total weight of the inputs that are
+ * queued or being mapped, where the weight of an input is given by the client (the number of reads in an
+ * active region, say).  An input's weight is released as soon as its map call returns, even when the result
+ * has to wait for an earlier, slower input before it can be reduced, so a single expensive input doesn't stop
+ * the pipeline from accepting more work.  An input heavier than the limit is accepted when nothing else is in
+ * flight.
+ *
+ * The pipeline keeps track of how deep its queues get and how long submit has been stalled waiting for room.
+ */
+public class NanoSchedulerPipeline<InputType, MapType, ReduceType> {
+    private final static Logger logger = Logger.getLogger(NanoSchedulerPipeline.class);
+
+    private final NSMapFunction<InputType, MapType> map;
+    private final NSReduceFunction<MapType, ReduceType> reduce;
+    private final long maxWeightInFlight;
+    private final ExecutorService mapExecutor;
+    private final MultiThreadedErrorTracker errorTracker = new MultiThreadedErrorTracker();
+
+    /**
+     * Lock making sure a single thread reduces at a time, in order
+     */
+    private final Lock reduceLock = new ReentrantLock();
+    private volatile ReduceType sum;
+
+    // the following are guarded by this
+    private int nextJobID = 0;
+    private int nextJobIDToReduce = 0;
+    private final Map<Integer, MapResult<MapType>> resultsAwaitingReduce = new HashMap<>();
+    private int jobsInFlight = 0;
+    private long weightInFlight = 0;
+
+    // statistics, guarded by this
+    private long nSubmitted = 0;
+    private int maxJobsInFlight = 0;
+    private long maxWeightInFlightSeen = 0;
+    private int maxResultsAwaitingReduce = 0;
+    private long nStalls = 0;
+    private long stallNanos = 0;
+
+    private boolean shutdown = false;
+
+    /**
+     * Create a new pipeline, starting its map threads
+     *
+     * @param nThreads the number of threads to run map in, >= 1
+     * @param maxWeightInFlight the total weight of the inputs that may be queued or being mapped at any time, >= 1
+     * @param map the map function
+     * @param initialValue the initial reduce value
+     * @param reduce the reduce function
+     */
+    public NanoSchedulerPipeline(final int nThreads,
+                                 final long maxWeightInFlight,
+                                 final NSMapFunction<InputType, MapType> map,
+                                 final ReduceType initialValue,
+                                 final NSReduceFunction<MapType, ReduceType> reduce) {
+        if ( nThreads < 1 ) throw new IllegalArgumentException("nThreads must be >= 1, got " + nThreads);
+        if ( maxWeightInFlight < 1 ) throw new IllegalArgumentException("maxWeightInFlight must be >= 1, got " + maxWeightInFlight);
+        if ( map == null ) throw new IllegalArgumentException("map function cannot be null");
+        if ( reduce == null ) throw new IllegalArgumentException("reduce function cannot be null");
+
+        this.map = map;
+        this.reduce = reduce;
+        this.sum = initialValue;
+        this.maxWeightInFlight = maxWeightInFlight;
+        this.mapExecutor = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("NS-pipeline-map-thread-%d"));
+    }
+
+    /**
+     * Queue input to be mapped, blocking while the inputs in flight are too heavy to make room for it
+     *
+     * Must always be called from the same thread, as the order of the submit calls is the order of the reduce calls.
+     *
+     * @param input the input to map
+     * @param weight the weight of input, >= 0
+     */
+    public void submit(final InputType input, final long weight) {
+        if ( shutdown ) throw new IllegalStateException("submit called on an already shutdown pipeline");
+        if ( weight < 0 ) throw new IllegalArgumentException("weight must be >= 0, got " + weight);
+
+        final int jobID;
+        synchronized (this) {
+            if ( ! hasRoomFor(weight) ) {
+                nStalls++;
+                final long stallStart = System.nanoTime();
+                while ( ! hasRoomFor(weight) ) {
+                    waitForAMapCall();
+                    handleErrors();
+                }
+                stallNanos += System.nanoTime() - stallStart;
+            }
+
+            jobID = nextJobID++;
+            jobsInFlight++;
+            weightInFlight += weight;
+
+            nSubmitted++;
+            maxJobsInFlight = Math.max(maxJobsInFlight, jobsInFlight);
+            maxWeightInFlightSeen = Math.max(maxWeightInFlightSeen, weightInFlight);
+        }
+
+        handleErrors();
+        mapExecutor.submit(new MapJob(jobID, input, weight));
+    }
+
+    /**
+     * Wait until all of the submitted inputs have been mapped and reduced
+     *
+     * The pipeline can still be used afterwards.
+     *
+     * @return the reduce result of all the inputs submitted so far
+     */
+    public ReduceType finish() {
+        synchronized (this) {
+            while ( jobsInFlight > 0 ) {
+                waitForAMapCall();
+                handleErrors();
+            }
+        }
+
+        reduceAsMuchAsPossible(true);
+        handleErrors();
+        return sum;
+    }
+
+    /**
+     * Get the current reduce result, which doesn't include the inputs that are still in flight
+     *
+     * @return the result of reducing the map results of the inputs submitted so far, in order, up to the first
+     *         one still in flight
+     */
+    public ReduceType getReduceResult() {
+        return sum;
+    }
+
+    /**
+     * Stop the map threads, after which the pipeline can't be used anymore
+     *
+     * Normally called once finish has returned.  When it isn't, say from a finally block while another exception
+     * is on its way up, the map jobs still queued are dropped and those running are interrupted, with a warning
+     * rather than an exception so that the original failure is the one reported.
+     */
+    public void shutdown() {
+        if ( ! shutdown ) {
+            final List<Runnable> remaining = mapExecutor.shutdownNow();
+            shutdown = true;
+            final int unfinished;
+            synchronized (this) {
+                unfinished = jobsInFlight;
+            }
+            if ( unfinished > 0 && ! errorTracker.hasAnErrorOccurred() )
+                logger.warn(String.format("Cancelled %d map jobs (%d not yet started) when shutting down the pipeline before they finished",
+                        unfinished, remaining.size()));
+        }
+    }
+
+    /**
+     * @return true if this pipeline is shutdown, or false if it's still open for business
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * @return the number of inputs submitted so far
+     */
+    public synchronized long getNumSubmitted() {
+        return nSubmitted;
+    }
+
+    /**
+     * @return the largest number of inputs that have been queued or being mapped at once
+     */
+    public synchronized int getMaxJobsInFlight() {
+        return maxJobsInFlight;
+    }
+
+    /**
+     * @return the largest total weight of the inputs that have been queued or being mapped at once
+     */
+    public synchronized long getMaxWeightInFlight() {
+        return maxWeightInFlightSeen;
+    }
+
+    /**
+     * @return the largest number of map results that have been waiting at once for an earlier input to be mapped
+     */
+    public synchronized int getMaxResultsAwaitingReduce() {
+        return maxResultsAwaitingReduce;
+    }
+
+    /**
+     * @return the number of submit calls that had to wait for room
+     */
+    public synchronized long getNumStalls() {
+        return nStalls;
+    }
+
+    /**
+     * @return the total time submit has spent waiting for room, in nanoseconds
+     */
+    public synchronized long getStallNanos() {
+        return stallNanos;
+    }
+
+    private boolean hasRoomFor(final long weight) {
+        return jobsInFlight == 0 || weightInFlight + weight <= maxWeightInFlight;
+    }
+
+    /**
+     * Wait for a map call to return, or for a while, whichever comes first.  Must be called holding this.
+     */
+    private void waitForAMapCall() {
+        try {
+            wait(100);
+        } catch (InterruptedException e) {
+            throw new ReviewedGATKException("Interrupted while waiting for the map calls of the pipeline", e);
+        }
+    }
+
+    private void handleErrors() {
+        if ( errorTracker.hasAnErrorOccurred() ) {
+            mapExecutor.shutdownNow();
+            shutdown = true;
+            errorTracker.throwErrorIfPending();
+        }
+    }
+
+    /**
+     * Reduce the map results that are ready, in order, up to the first one still being mapped
+     *
+     * @param waitForLock if true, wait for another thread that is reducing to finish and then reduce, otherwise
+     *                    leave it to that thread
+     */
+    private void reduceAsMuchAsPossible(final boolean waitForLock) {
+        while ( true ) {
+            if ( waitForLock )
+                reduceLock.lock();
+            else if ( ! reduceLock.tryLock() )
+                return;
+
+            try {
+                while ( true ) {
+                    final MapResult<MapType> result;
+                    synchronized (this) {
+                        result = resultsAwaitingReduce.remove(nextJobIDToReduce);
+                        if ( result == null ) break;
+                        nextJobIDToReduce++;
+                    }
+                    sum = reduce.apply(result.getValue(), sum);
+                }
+            } catch (Throwable ex) {
+                errorTracker.notifyOfError(ex);
+                return;
+            } finally {
+                reduceLock.unlock();
+            }
+
+            // a result we need may have been added after we looked for it but before we unlocked, by a
+            // thread that then failed to get the lock, so make sure we leave nothing behind
+            synchronized (this) {
+                if ( ! resultsAwaitingReduce.containsKey(nextJobIDToReduce) )
+                    return;
+            }
+        }
+    }
+
+    private class MapJob implements Runnable {
+        final int jobID;
+        final InputType input;
+        final long weight;
+
+        private MapJob(final int jobID, final InputType input, final long weight) {
+            this.jobID = jobID;
+            this.input = input;
+            this.weight = weight;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final MapType mapValue = map.apply(input);
+                synchronized (NanoSchedulerPipeline.this) {
+                    resultsAwaitingReduce.put(jobID, new MapResult<>(mapValue, jobID));
+                    maxResultsAwaitingReduce = Math.max(maxResultsAwaitingReduce, resultsAwaitingReduce.size());
+                    release();
+                }
+                reduceAsMuchAsPossible(false);
+            } catch (Throwable ex) {
+                errorTracker.notifyOfError(ex);
+                synchronized (NanoSchedulerPipeline.this) {
+                    release();
+                }
+            }
+        }
+
+        private void release() {
+            jobsInFlight--;
+            weightInFlight -= weight;
+            NanoSchedulerPipeline.this.notifyAll();
+        }
+    }
+}
@@ -63,7 +63,9 @@ public abstract class PairHMM {
         /* Debugging for vector implementation of LOGLESS_CACHING */
         DEBUG_VECTOR_LOGLESS_CACHING,
         /* Logless caching PairHMM that stores computations in 1D arrays instead of matrices, and which proceeds diagonally over the (read x haplotype) intersection matrix */
-        ARRAY_LOGLESS
+        ARRAY_LOGLESS,
+        /* LOGLESS_CACHING that splits the (read x haplotype) matrix of a region in tiles evaluated by a pool of work-stealing threads */
+        PARALLEL_LOGLESS
     }
 
     protected int maxHaplotypeLength, maxReadLength;
@@ -228,6 +230,49 @@ public abstract class PairHMM {
         }
     }
 
+    /**
+     *  Batch version of {@link #computeLikelihoods(ReadLikelihoods.Matrix, List, Map)} that evaluates the reads of
+     *  several read-likelihood matrices in a single submission.
+     *
+     *  All matrices must share the haplotypes given to the last call to
+     *  {@link #initialize(List, Map, int, int)}, as is the case for the per-sample matrices of a region.  This
+     *  default implementation simply evaluates one matrix after the other.  Implementations with a high per-call
+     *  overhead, like the JNI and FPGA ones, override this method to submit all the read x haplotype pairs at once
+     *  and scatter the results back into each matrix.
+     *
+     * @param likelihoods the destination matrices, in the same order as {@code processedReads}.
+     * @param processedReads for each matrix, the reads to analyze instead of the ones present in the matrix.
+     * @param gcp penalty for gap continuations base array map for all processed reads.
+     *
+     * @throws IllegalArgumentException if {@code likelihoods} and {@code processedReads} differ in size.
+     */
+    public void batchComputeLikelihoods(final List<? extends ReadLikelihoods.Matrix<Haplotype>> likelihoods,
+                                        final List<List<GATKSAMRecord>> processedReads,
+                                        final Map<GATKSAMRecord,byte[]> gcp) {
+        if (likelihoods.size() != processedReads.size())
+            throw new IllegalArgumentException("there must be one list of processed reads per likelihood matrix");
+        for (int m = 0; m < likelihoods.size(); m++)
+            computeLikelihoods(likelihoods.get(m), processedReads.get(m), gcp);
+    }
+
+    /**
+     *  Evaluates the read x haplotype jobs of several active regions, each one against its own haplotypes.
+     *
+     *  This default implementation goes through the regions one at a time, initializing this PairHMM for each with
+     *  {@link #initialize(List, Map, int, int)}, evaluating it with
+     *  {@link #batchComputeLikelihoods(List, List, Map)} and finishing it with {@link #finalizeRegion()}.
+     *  Implementations with a high per-call overhead override it to submit the jobs of all the regions at once.
+     *
+     * @param regions the regions to evaluate, whose likelihood matrices get filled in.
+     */
+    public void computeLikelihoodsAcrossRegions(final List<PairHMMRegion> regions) {
+        for (final PairHMMRegion region : regions) {
+            initialize(region.getHaplotypes(), region.getPerSampleReadList(), region.getReadMaxLength(), region.getHaplotypeMaxLength());
+            batchComputeLikelihoods(region.getLikelihoods(), region.getProcessedReads(), region.getGapContinuationPenalties());
+            finalizeRegion();
+        }
+    }
+
     /**
      * Compute the total probability of read arising from haplotypeBases given base substitution, insertion, and deletion
      * probabilities.
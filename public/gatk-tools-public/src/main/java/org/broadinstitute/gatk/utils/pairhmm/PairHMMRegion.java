@@ -0,0 +1,113 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The read x haplotype jobs of one active region, as submitted to {@link PairHMM#computeLikelihoodsAcrossRegions(List)}.
+ *
+ * The reads of a region are only ever evaluated against the haplotypes of that same region, and their likelihoods
+ * are stored into the region's own per-sample matrices.
+ */
+public final class PairHMMRegion {
+    private final List<Haplotype> haplotypes;
+    private final Map<String, List<GATKSAMRecord>> perSampleReadList;
+    private final List<? extends ReadLikelihoods.Matrix<Haplotype>> likelihoods;
+    private final List<List<GATKSAMRecord>> processedReads;
+    private final Map<GATKSAMRecord, byte[]> gcp;
+    private final int readMaxLength;
+    private final int haplotypeMaxLength;
+    private final int readCount;
+
+    /**
+     * Creates the jobs of a region
+     *
+     * @param haplotypes the haplotypes of the region, in the order given to {@link PairHMM#initialize(List, Map, int, int)}.
+     * @param perSampleReadList the original reads of the region, by sample.
+     * @param likelihoods the destination matrices, all of them over {@code haplotypes}.
+     * @param processedReads for each matrix, the reads to analyze instead of the ones present in the matrix.
+     * @param gcp penalty for gap continuations base array map for all processed reads.
+     *
+     * @throws IllegalArgumentException if {@code likelihoods} and {@code processedReads} differ in size.
+     */
+    public PairHMMRegion(final List<Haplotype> haplotypes, final Map<String, List<GATKSAMRecord>> perSampleReadList,
+                         final List<? extends ReadLikelihoods.Matrix<Haplotype>> likelihoods,
+                         final List<List<GATKSAMRecord>> processedReads, final Map<GATKSAMRecord, byte[]> gcp) {
+        if ( likelihoods.size() != processedReads.size() )
+            throw new IllegalArgumentException("there must be one list of processed reads per likelihood matrix");
+        this.haplotypes = haplotypes;
+        this.perSampleReadList = perSampleReadList;
+        this.likelihoods = likelihoods;
+        this.processedReads = processedReads;
+        this.gcp = gcp;
+
+        int maxReadLength = 0;
+        int reads = 0;
+        for ( final List<GATKSAMRecord> sampleReads : perSampleReadList.values() ) {
+            for ( final GATKSAMRecord read : sampleReads )
+                maxReadLength = Math.max(maxReadLength, read.getReadLength());
+        }
+        for ( final List<GATKSAMRecord> matrixReads : processedReads )
+            reads += matrixReads.size();
+        int maxHaplotypeLength = 0;
+        for ( final Haplotype haplotype : haplotypes )
+            maxHaplotypeLength = Math.max(maxHaplotypeLength, haplotype.getBases().length);
+
+        this.readMaxLength = maxReadLength;
+        this.haplotypeMaxLength = maxHaplotypeLength;
+        this.readCount = reads;
+    }
+
+    public List<Haplotype> getHaplotypes() { return haplotypes; }
+
+    public Map<String, List<GATKSAMRecord>> getPerSampleReadList() { return perSampleReadList; }
+
+    public List<? extends ReadLikelihoods.Matrix<Haplotype>> getLikelihoods() { return likelihoods; }
+
+    public List<List<GATKSAMRecord>> getProcessedReads() { return processedReads; }
+
+    public Map<GATKSAMRecord, byte[]> getGapContinuationPenalties() { return gcp; }
+
+    public int getReadMaxLength() { return readMaxLength; }
+
+    public int getHaplotypeMaxLength() { return haplotypeMaxLength; }
+
+    /**
+     * @return the number of processed reads over all the matrices of the region.
+     */
+    public int getReadCount() { return readCount; }
+
+    /**
+     * @return the number of read x haplotype likelihoods to compute for the region.
+     */
+    public long getPairCount() { return (long) readCount * haplotypes.size(); }
+}
@@ -56,12 +56,13 @@ public class PileupElement implements Comparable<PileupElement> {
     public static final byte T_FOLLOWED_BY_INSERTION_BASE = (byte) 89;
     public static final byte G_FOLLOWED_BY_INSERTION_BASE = (byte) 90;
 
-    protected final GATKSAMRecord read;         // the read this base belongs to
-    protected final int offset;                 // the offset in the bases array for this base
+    // not final only so that a PileupElementPool can recycle its elements; otherwise never changed
+    protected GATKSAMRecord read;         // the read this base belongs to
+    protected int offset;                 // the offset in the bases array for this base
 
-    private final CigarElement currentCigarElement;
-    private final int currentCigarOffset;
-    private final int offsetInCurrentCigar;
+    private CigarElement currentCigarElement;
+    private int currentCigarOffset;
+    private int offsetInCurrentCigar;
 
     /**
      * Create a new pileup element
@@ -76,6 +77,25 @@ public class PileupElement implements Comparable<PileupElement> {
     public PileupElement(final GATKSAMRecord read, final int baseOffset,
                          final CigarElement currentElement, final int currentCigarOffset,
                          final int offsetInCurrentCigar) {
+        set(read, baseOffset, currentElement, currentCigarOffset, offsetInCurrentCigar);
+    }
+
+    /**
+     * Create a new PileupElement that's a copy of toCopy
+     * @param toCopy the element we want to copy
+     */
+    public PileupElement(final PileupElement toCopy) {
+        this(toCopy.read, toCopy.offset, toCopy.currentCigarElement, toCopy.currentCigarOffset, toCopy.offsetInCurrentCigar);
+    }
+
+    /**
+     * Point this element at a base, with the same arguments as the constructor
+     *
+     * Only the constructor and PileupElementPool, when it recycles an element, may call this
+     */
+    void set(final GATKSAMRecord read, final int baseOffset,
+             final CigarElement currentElement, final int currentCigarOffset,
+             final int offsetInCurrentCigar) {
         assert currentElement != null;
 
         this.read = read;
@@ -93,14 +113,6 @@ public class PileupElement implements Comparable<PileupElement> {
         assert this.offsetInCurrentCigar < currentElement.getLength();
     }
 
-    /**
-     * Create a new PileupElement that's a copy of toCopy
-     * @param toCopy the element we want to copy
-     */
-    public PileupElement(final PileupElement toCopy) {
-        this(toCopy.read, toCopy.offset, toCopy.currentCigarElement, toCopy.currentCigarOffset, toCopy.offsetInCurrentCigar);
-    }
-
     /**
      * Is this element a deletion w.r.t. the reference genome?
      *
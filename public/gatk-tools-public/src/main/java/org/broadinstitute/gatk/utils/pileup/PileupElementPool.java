@@ -0,0 +1,105 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pileup;
+
+import htsjdk.samtools.CigarElement;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recycles the PileupElements, and the lists holding them, that make up the pileup at one locus
+ *
+ * Between two calls to reset() the pool hands out elements and lists as if they were new.  After reset()
+ * it hands the same objects out again, so a pileup built from the pool is only valid until then.  Use
+ * ReadBackedPileup.copy() to keep such a pileup for longer.
+ *
+ * Not thread-safe.
+ */
+public final class PileupElementPool {
+    private final static int INITIAL_CAPACITY = 256;
+
+    private PooledPileupElement[] elements = new PooledPileupElement[INITIAL_CAPACITY];
+    private int nElementsInUse = 0;
+
+    private final List<List<PileupElement>> lists = new ArrayList<>();
+    private int nListsInUse = 0;
+
+    /**
+     * Take back all of the elements and lists handed out since the last call to reset()
+     */
+    public void reset() {
+        nElementsInUse = 0;
+        nListsInUse = 0;
+    }
+
+    /**
+     * Get a pileup element, as if by new PileupElement(read, baseOffset, currentElement, currentCigarOffset, offsetInCurrentCigar)
+     *
+     * @return a non-null PileupElement, valid until the next call to reset()
+     */
+    public PileupElement getElement(final GATKSAMRecord read, final int baseOffset,
+                                    final CigarElement currentElement, final int currentCigarOffset,
+                                    final int offsetInCurrentCigar) {
+        if ( nElementsInUse == elements.length )
+            elements = Arrays.copyOf(elements, elements.length * 2);
+
+        PooledPileupElement element = elements[nElementsInUse];
+        if ( element == null )
+            elements[nElementsInUse] = element = new PooledPileupElement(read, baseOffset, currentElement, currentCigarOffset, offsetInCurrentCigar);
+        else
+            element.set(read, baseOffset, currentElement, currentCigarOffset, offsetInCurrentCigar);
+        nElementsInUse++;
+        return element;
+    }
+
+    /**
+     * Get an empty list to hold pileup elements
+     *
+     * @return a non-null, empty, modifiable list, valid until the next call to reset()
+     */
+    public List<PileupElement> getList() {
+        if ( nListsInUse == lists.size() )
+            lists.add(new ArrayList<PileupElement>());
+
+        final List<PileupElement> list = lists.get(nListsInUse++);
+        list.clear();
+        return list;
+    }
+
+    /**
+     * The type of the elements this pool recycles, so copies of a pileup know which of its elements to copy
+     */
+    static final class PooledPileupElement extends PileupElement {
+        private PooledPileupElement(final GATKSAMRecord read, final int baseOffset,
+                                    final CigarElement currentElement, final int currentCigarOffset,
+                                    final int offsetInCurrentCigar) {
+            super(read, baseOffset, currentElement, currentCigarOffset, offsetInCurrentCigar);
+        }
+    }
+}
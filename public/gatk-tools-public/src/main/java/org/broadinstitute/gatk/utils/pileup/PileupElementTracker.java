@@ -57,11 +57,16 @@ abstract class PileupElementTracker<PE extends PileupElement> implements Iterabl
 class UnifiedPileupElementTracker<PE extends PileupElement> extends PileupElementTracker<PE> {
     private final List<PE> pileup;
 
+    /**
+     * Elements recycled by a PileupElementPool are replaced by plain copies, so the copy stays valid
+     * after the pool moves on to the next locus
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public UnifiedPileupElementTracker<PE> copy() {
         UnifiedPileupElementTracker<PE> result = new UnifiedPileupElementTracker<PE>();
         for(PE element : pileup)
-            result.add(element);
+            result.add(element instanceof PileupElementPool.PooledPileupElement ? (PE)new PileupElement(element) : element);
         return result;
     }
 
@@ -95,7 +100,7 @@ class PerSamplePileupElementTracker<PE extends PileupElement> extends PileupElem
     public PerSamplePileupElementTracker<PE> copy() {
         PerSamplePileupElementTracker<PE> result = new PerSamplePileupElementTracker<PE>();
         for (Map.Entry<String, PileupElementTracker<PE>> entry : pileup.entrySet())
-            result.addElements(entry.getKey(), entry.getValue());
+            result.addElements(entry.getKey(), entry.getValue().copy());
 
         return result;
     }
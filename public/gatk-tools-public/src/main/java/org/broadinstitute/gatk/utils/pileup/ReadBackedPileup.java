@@ -288,6 +288,9 @@ public interface ReadBackedPileup extends Iterable<PileupElement>, HasGenomeLoca
     /**
      * Creates a full copy (not shallow) of the ReadBacked Pileup
      *
+     * Pileups made by a LocusIteratorByState that reuses its pileup elements (--reuse_pileup_elements) are only
+     * valid until the iterator moves to the next locus; a copy of such a pileup stays valid after that.
+     *
      * @return
      */
     public ReadBackedPileup copy();
@@ -121,29 +121,24 @@ public final class GlobalEdgeGreedySWPairwiseAlignment extends SWPairwiseAlignme
         final byte[] refToAlign = Utils.trimArray(reference, forwardEdgeMatch, reverseEdgeMatch);
         final byte[] altToAlign = Utils.trimArray(alternate, forwardEdgeMatch, reverseEdgeMatch);
 
-        final int[][] sw = new int[(sizeOfRefToAlign+1)][(sizeOfAltToAlign+1)];
-        if ( keepScoringMatrix ) SW = sw;
-        final int[][] btrack = new int[(sizeOfRefToAlign+1)][(sizeOfAltToAlign+1)];
+        final Matrices matrices = Matrices.get(sizeOfRefToAlign+1, sizeOfAltToAlign+1);
 
-        calculateMatrix(refToAlign, altToAlign, sw, btrack, OVERHANG_STRATEGY.INDEL);
+        calculateMatrix(refToAlign, altToAlign, matrices, OVERHANG_STRATEGY.INDEL);
 
         if ( DEBUG_MODE ) {
             System.out.println(new String(refToAlign) + " vs. " + new String(altToAlign));
-            debugMatrix(sw);
-            System.out.println("----");
-            debugMatrix(btrack);
+            debugBackTrack(matrices);
             System.out.println();
         }
 
-        alignmentResult = calculateCigar(forwardEdgeMatch, reverseEdgeMatch, sw, btrack);
+        alignmentResult = calculateCigar(forwardEdgeMatch, reverseEdgeMatch, matrices);
     }
 
 
-    private void debugMatrix(final int[][] matrix) {
-        for ( int i = 0; i < matrix.length; i++ ) {
-            int [] cur = matrix[i];
-            for ( int j = 0; j < cur.length; j++ )
-                System.out.print(cur[j] + " ");
+    private void debugBackTrack(final Matrices matrices) {
+        for ( int i = 0; i < matrices.getNumRows(); i++ ) {
+            for ( int j = 0; j < matrices.getNumColumns(); j++ )
+                System.out.print(matrices.getBackTrack(i, j) + " ");
             System.out.println();
         }
     }
@@ -188,14 +183,13 @@ public final class GlobalEdgeGreedySWPairwiseAlignment extends SWPairwiseAlignme
      *
      * @param matchingPrefix       the prefix match size
      * @param matchingSuffix       the suffix match size
-     * @param sw                   the Smith-Waterman matrix to use
-     * @param btrack               the back track matrix to use
+     * @param matrices             the Smith-Waterman matrices to use
      * @return non-null SWPairwiseAlignmentResult object
      */
     protected SWPairwiseAlignmentResult calculateCigar(final int matchingPrefix, final int matchingSuffix,
-                                                       final int[][] sw, final int[][] btrack) {
+                                                       final Matrices matrices) {
 
-        final SWPairwiseAlignmentResult SW_result = calculateCigar(sw, btrack, OVERHANG_STRATEGY.INDEL);
+        final SWPairwiseAlignmentResult SW_result = calculateCigar(matrices, OVERHANG_STRATEGY.INDEL);
 
         final LinkedList<CigarElement> lce = new LinkedList<CigarElement>(SW_result.cigar.getCigarElements());
         if ( matchingPrefix > 0 )
@@ -189,14 +189,9 @@ public class SWPairwiseAlignment implements SmithWaterman {
         if ( reference == null || reference.length == 0 || alternate == null || alternate.length == 0 )
             throw new IllegalArgumentException("Non-null, non-empty sequences are required for the Smith-Waterman calculation");
 
-        final int n = reference.length+1;
-        final int m = alternate.length+1;
-        int[][] sw = new int[n][m];
-        if ( keepScoringMatrix ) SW = sw;
-        int[][] btrack=new int[n][m];
-
-        calculateMatrix(reference, alternate, sw, btrack);
-        alignmentResult = calculateCigar(sw, btrack, overhang_strategy); // length of the segment (continuous matches, insertions or deletions)
+        final Matrices matrices = Matrices.get(reference.length+1, alternate.length+1);
+        calculateMatrix(reference, alternate, matrices);
+        alignmentResult = calculateCigar(matrices, overhang_strategy); // length of the segment (continuous matches, insertions or deletions)
     }
 
     /**
@@ -204,11 +199,10 @@ public class SWPairwiseAlignment implements SmithWaterman {
      *
      * @param reference  ref sequence
      * @param alternate  alt sequence
-     * @param sw         the Smith-Waterman matrix to populate
-     * @param btrack     the back track matrix to populate
+     * @param matrices   the matrices to populate, sized for reference and alternate
      */
-    protected void calculateMatrix(final byte[] reference, final byte[] alternate, final int[][] sw, final int[][] btrack) {
-        calculateMatrix(reference, alternate, sw, btrack, overhang_strategy);
+    protected void calculateMatrix(final byte[] reference, final byte[] alternate, final Matrices matrices) {
+        calculateMatrix(reference, alternate, matrices, overhang_strategy);
     }
 
     /**
@@ -216,55 +210,64 @@ public class SWPairwiseAlignment implements SmithWaterman {
      *
      * @param reference  ref sequence
      * @param alternate  alt sequence
-     * @param sw         the Smith-Waterman matrix to populate
-     * @param btrack     the back track matrix to populate
+     * @param matrices   the matrices to populate, sized for reference and alternate
      * @param overhang_strategy    the strategy to use for dealing with overhangs
      */
-    protected void calculateMatrix(final byte[] reference, final byte[] alternate, final int[][] sw, final int[][] btrack, final OVERHANG_STRATEGY overhang_strategy) {
+    protected void calculateMatrix(final byte[] reference, final byte[] alternate, final Matrices matrices, final OVERHANG_STRATEGY overhang_strategy) {
         if ( reference.length == 0 || alternate.length == 0 )
             throw new IllegalArgumentException("Non-null, non-empty sequences are required for the Smith-Waterman calculation");
 
-        final int ncol = sw[0].length;//alternate.length+1; formerly m
-        final int nrow = sw.length;// reference.length+1; formerly n
+        final int ncol = matrices.ncol;//alternate.length+1; formerly m
+        final int nrow = matrices.nrow;// reference.length+1; formerly n
 
         final int MATRIX_MIN_CUTOFF;   // never let matrix elements drop below this cutoff
         if ( cutoff ) MATRIX_MIN_CUTOFF = 0;
         else MATRIX_MIN_CUTOFF = (int) -1e8;
 
         int lowInitValue=Integer.MIN_VALUE/2;
-        final int[] best_gap_v = new int[ncol+1];
-        Arrays.fill(best_gap_v, lowInitValue);
-        final int[] gap_size_v = new int[ncol+1];
-        final int[] best_gap_h = new int[nrow+1];
-        Arrays.fill(best_gap_h,lowInitValue);
-        final int[] gap_size_h = new int[nrow+1];
+        final int[] best_gap_v = matrices.best_gap_v;
+        Arrays.fill(best_gap_v, 0, ncol, lowInitValue);
+        final int[] gap_size_v = matrices.gap_size_v;
+        Arrays.fill(gap_size_v, 0, ncol, 0);
+
+        final int[] btrack = matrices.btrack;
+        final int[] lastColumn = matrices.lastColumn;
+        final int[][] sw = keepScoringMatrix ? new int[nrow][ncol] : null;
+        if ( keepScoringMatrix ) SW = sw;
 
         // we need to initialize the SW matrix with gap penalties if we want to keep track of indels at the edges of alignments
-        if ( overhang_strategy == OVERHANG_STRATEGY.INDEL || overhang_strategy == OVERHANG_STRATEGY.LEADING_INDEL ) {
-            // initialize the first row
-            int[] topRow=sw[0];
-            topRow[1]=parameters.w_open;
+        final boolean initializeWithGapPenalties = overhang_strategy == OVERHANG_STRATEGY.INDEL || overhang_strategy == OVERHANG_STRATEGY.LEADING_INDEL;
+
+        // initialize the first row
+        int[] curRow=matrices.rowA;
+        Arrays.fill(curRow, 0, ncol, 0);
+        if ( initializeWithGapPenalties ) {
+            curRow[1]=parameters.w_open;
             int currentValue = parameters.w_open;
-            for ( int i = 2; i < topRow.length; i++ ) {
+            for ( int i = 2; i < ncol; i++ ) {
                 currentValue += parameters.w_extend;
-                topRow[i]=currentValue;
-            }
-            // initialize the first column
-            sw[1][0]=parameters.w_open;
-            currentValue = parameters.w_open;
-            for ( int i = 2; i < sw.length; i++ ) {
-                currentValue += parameters.w_extend;
-                sw[i][0]=currentValue;
+                curRow[i]=currentValue;
             }
         }
-        // build smith-waterman matrix and keep backtrack info:
-        int[] curRow=sw[0];
-        for ( int i = 1; i <sw.length ; i++ ) {
+        if ( sw != null ) System.arraycopy(curRow, 0, sw[0], 0, ncol);
+
+        // build smith-waterman matrix and keep backtrack info, one row at a time:
+        int[] lastRow=matrices.rowB;
+        int firstColumnValue = 0;
+        for ( int i = 1; i < nrow ; i++ ) {
             final byte a_base = reference[i-1]; // letter in a at the current pos
-            final int[] lastRow=curRow;
-            curRow=sw[i];
-            final int[] curBackTrackRow=btrack[i];
-            for ( int j = 1; j < curRow.length; j++) {
+            final int[] previousRow = lastRow;
+            lastRow=curRow;
+            curRow=previousRow;
+            // initialize the first column
+            if ( initializeWithGapPenalties )
+                firstColumnValue = i == 1 ? parameters.w_open : firstColumnValue + parameters.w_extend;
+            curRow[0]=firstColumnValue;
+            final int curBackTrackRow=i*ncol;
+            // the best horizontal gap only carries along the current row
+            int best_gap_h = lowInitValue;
+            int gap_size_h = 0;
+            for ( int j = 1; j < ncol; j++) {
                 final byte b_base = alternate[j-1]; // letter in b at the current pos
                 // in other words, step_diag = sw[i-1][j-1] + wd(a_base,b_base);
                 final int step_diag = lastRow[j-1] + wd(a_base,b_base);
@@ -298,18 +301,18 @@ public class SWPairwiseAlignment implements SmithWaterman {
                 // the optimization works ONLY for linear w(k)=wopen+(k-1)*wextend!!!!
 
                 prev_gap =curRow[j-1]  + parameters.w_open; // what would it cost us to open length 1 gap just to the left from current cell
-                best_gap_h[i] += parameters.w_extend; // previous best gap would cost us that much if extended by another base
-                if ( prev_gap > best_gap_h[i] ) {
+                best_gap_h += parameters.w_extend; // previous best gap would cost us that much if extended by another base
+                if ( prev_gap > best_gap_h ) {
                     // newly opened gap is better (score-wise) than any previous gap with the same row index i; since
                     // gap penalty is linear with k, this new gap location is going to remain better than any previous ones
-                    best_gap_h[i] = prev_gap;
-                    gap_size_h[i] = 1;
+                    best_gap_h = prev_gap;
+                    gap_size_h = 1;
                 } else {
-                    gap_size_h[i]++;
+                    gap_size_h++;
                 }
 
-                final int step_right = best_gap_h[i];
-                final int ki = gap_size_h[i];
+                final int step_right = best_gap_h;
+                final int ki = gap_size_h;
 
                 //priority here will be step diagonal, step right, step down
                 final boolean diagHighestOrEqual = (step_diag >= step_down)
@@ -317,18 +320,86 @@ public class SWPairwiseAlignment implements SmithWaterman {
 
                 if ( diagHighestOrEqual ) {
                     curRow[j]=Math.max(MATRIX_MIN_CUTOFF,step_diag);
-                    curBackTrackRow[j]=0;
+                    btrack[curBackTrackRow+j]=0;
                 }
                 else if(step_right>=step_down) { //moving right is the highest
                     curRow[j]=Math.max(MATRIX_MIN_CUTOFF,step_right);
-                    curBackTrackRow[j]=-ki; // negative = horizontal
+                    btrack[curBackTrackRow+j]=-ki; // negative = horizontal
                 }
                 else  {
                     curRow[j]=Math.max(MATRIX_MIN_CUTOFF,step_down);
-                    curBackTrackRow[j]= kd; // positive=vertical
+                    btrack[curBackTrackRow+j]= kd; // positive=vertical
                 }
             }
+            lastColumn[i] = curRow[ncol-1];
+            if ( sw != null ) System.arraycopy(curRow, 0, sw[i], 0, ncol);
+        }
+        matrices.bottomRow = curRow;
+    }
+
+    /**
+     * The Smith-Waterman matrices of one alignment, or rather the parts of them that calculateCigar() looks at:
+     * the whole back track matrix, but only the last column and the last row of the scoring matrix.  So we only
+     * keep two rows of the scoring matrix as we fill it in, and the back track matrix goes row after row into a
+     * single array.  Each thread reuses one instance for all of its alignments, growing it as needed.
+     */
+    protected static final class Matrices {
+        /**
+         * Alignments with more cells than this get matrices of their own, so that no thread holds on to a huge back
+         * track matrix after aligning two unusually long sequences
+         */
+        private final static int MAX_REUSED_CELLS = 4 * 1024 * 1024;
+
+        private final static ThreadLocal<Matrices> threadMatrices = new ThreadLocal<Matrices>() {
+            @Override
+            protected Matrices initialValue() {
+                return new Matrices();
+            }
+        };
+
+        private int nrow, ncol;
+        private int[] btrack = new int[0];
+        private int[] rowA = new int[0];
+        private int[] rowB = new int[0];
+        private int[] best_gap_v = new int[0];
+        private int[] gap_size_v = new int[0];
+        private int[] lastColumn = new int[0];
+        private int[] bottomRow = null;
+
+        private Matrices() {}
+
+        /**
+         * Get the matrices for an alignment, which stay valid until the calling thread starts another alignment
+         *
+         * @param nrow the number of rows, the length of the reference plus one
+         * @param ncol the number of columns, the length of the alternate plus one
+         * @return non-null matrices
+         */
+        protected static Matrices get(final int nrow, final int ncol) {
+            final Matrices matrices = (long)nrow * ncol <= MAX_REUSED_CELLS ? threadMatrices.get() : new Matrices();
+            matrices.resize(nrow, ncol);
+            return matrices;
         }
+
+        private void resize(final int nrow, final int ncol) {
+            this.nrow = nrow;
+            this.ncol = ncol;
+            if ( btrack.length < nrow * ncol )
+                btrack = new int[nrow * ncol];
+            if ( rowA.length < ncol ) {
+                rowA = new int[ncol];
+                rowB = new int[ncol];
+                best_gap_v = new int[ncol];
+                gap_size_v = new int[ncol];
+            }
+            if ( lastColumn.length < nrow )
+                lastColumn = new int[nrow];
+            bottomRow = null;
+        }
+
+        int getNumRows() { return nrow; }
+        int getNumColumns() { return ncol; }
+        int getBackTrack(final int i, final int j) { return btrack[i*ncol+j]; }
     }
 
     /*
@@ -346,17 +417,16 @@ public class SWPairwiseAlignment implements SmithWaterman {
     /**
      * Calculates the CIGAR for the alignment from the back track matrix
      *
-     * @param sw                   the Smith-Waterman matrix to use
-     * @param btrack               the back track matrix to use
+     * @param matrices             the Smith-Waterman matrices to use
      * @param overhang_strategy    the strategy to use for dealing with overhangs
      * @return non-null SWPairwiseAlignmentResult object
      */
-    protected SWPairwiseAlignmentResult calculateCigar(final int[][] sw, final int[][] btrack, final OVERHANG_STRATEGY overhang_strategy) {
+    protected SWPairwiseAlignmentResult calculateCigar(final Matrices matrices, final OVERHANG_STRATEGY overhang_strategy) {
         // p holds the position we start backtracking from; we will be assembling a cigar in the backwards order
         int p1 = 0, p2 = 0;
 
-        int refLength = sw.length-1;
-        int altLength = sw[0].length-1;
+        int refLength = matrices.nrow-1;
+        int altLength = matrices.ncol-1;
 
         int maxscore = Integer.MIN_VALUE; // sw scores are allowed to be negative
         int segment_length = 0; // length of the segment (continuous matches, insertions or deletions)
@@ -372,8 +442,9 @@ public class SWPairwiseAlignment implements SmithWaterman {
             //excluding high scoring local alignments
             p2=altLength;
 
-            for(int i=1;i<sw.length;i++)  {
-               final int curScore = sw[i][altLength];
+            final int[] rightmostColumn=matrices.lastColumn;
+            for(int i=1;i<matrices.nrow;i++)  {
+               final int curScore = rightmostColumn[i];
                if (curScore >= maxscore ) {
                     p1 = i;
                     maxscore = curScore;
@@ -381,8 +452,8 @@ public class SWPairwiseAlignment implements SmithWaterman {
             }
             // now look for a larger score on the bottom-most row
             if ( overhang_strategy != OVERHANG_STRATEGY.LEADING_INDEL ) {
-                final int[] bottomRow=sw[refLength];
-                for ( int j = 1 ; j < bottomRow.length; j++) {
+                final int[] bottomRow=matrices.bottomRow;
+                for ( int j = 1 ; j < matrices.ncol; j++) {
                     int curScore=bottomRow[j];
                     // data_offset is the offset of [n][j]
                     if ( curScore > maxscore ||
@@ -406,7 +477,7 @@ public class SWPairwiseAlignment implements SmithWaterman {
 
         State state = State.MATCH;
         do {
-            int btr = btrack[p1][p2];
+            int btr = matrices.getBackTrack(p1, p2);
             State new_state;
             int step_length = 1;
             if ( btr > 0 ) {
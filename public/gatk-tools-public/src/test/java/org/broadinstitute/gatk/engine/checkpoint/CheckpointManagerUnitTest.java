@@ -0,0 +1,209 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.checkpoint;
+
+import org.broadinstitute.gatk.engine.contexts.AlignmentContext;
+import org.broadinstitute.gatk.engine.contexts.ReferenceContext;
+import org.broadinstitute.gatk.engine.refdata.RefMetaDataTracker;
+import org.broadinstitute.gatk.engine.walkers.Checkpointable;
+import org.broadinstitute.gatk.engine.walkers.LocusWalker;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.*;
+
+public class CheckpointManagerUnitTest extends BaseTest {
+    private GenomeLocParser parser;
+
+    @BeforeClass
+    public void setup() {
+        parser = new GenomeLocParser(ArtificialSAMUtils.createArtificialSamHeader(3, 1, 1000).getSequenceDictionary());
+    }
+
+    private File writeCheckpoint(final String contig, final int position, final Map<String, Long> outputSizes) {
+        final File file = createTempFile("checkpoint", ".properties");
+        final Properties walkerState = new Properties();
+        walkerState.setProperty("key", "value");
+        new TraversalCheckpoint(contig, position, outputSizes, walkerState).write(file);
+        return file;
+    }
+
+    @Test
+    public void testReadWriteCheckpoint() {
+        final Map<String, Long> outputSizes = new LinkedHashMap<>();
+        outputSizes.put("/path/to/out.vcf", 12345L);
+        final File file = writeCheckpoint("chr2", 500, outputSizes);
+
+        final TraversalCheckpoint checkpoint = TraversalCheckpoint.read(file);
+        Assert.assertEquals(checkpoint.getContig(), "chr2");
+        Assert.assertEquals(checkpoint.getPosition(), 500);
+        Assert.assertEquals(checkpoint.getOutputSizes(), outputSizes);
+        Assert.assertEquals(checkpoint.getWalkerState().getProperty("key"), "value");
+    }
+
+    @Test
+    public void testNotResumingWithoutCheckpoint() {
+        final File file = createTempFile("checkpoint", ".properties");
+        Assert.assertTrue(file.delete());
+
+        final CheckpointManager manager = new CheckpointManager(file, 1, true);
+        Assert.assertFalse(manager.isResuming());
+        Assert.assertNull(manager.trimIntervals(null, parser));
+    }
+
+    @DataProvider(name = "TrimIntervalsData")
+    public Object[][] makeTrimIntervalsData() {
+        final List<Object[]> tests = new ArrayList<>();
+
+        // the whole genome
+        tests.add(new Object[]{null, "chr2", 500, Arrays.asList("chr2:501-1000", "chr3:1-1000")});
+        tests.add(new Object[]{null, "chr3", 1000, Collections.<String>emptyList()});
+        // explicit intervals, with the checkpoint inside, before, between and after them
+        tests.add(new Object[]{Arrays.asList("chr1:100-200", "chr2:100-200", "chr2:300-400"), "chr2", 150, Arrays.asList("chr2:151-200", "chr2:300-400")});
+        tests.add(new Object[]{Arrays.asList("chr1:100-200", "chr2:100-200", "chr2:300-400"), "chr2", 200, Arrays.asList("chr2:300-400")});
+        tests.add(new Object[]{Arrays.asList("chr1:100-200", "chr2:100-200", "chr2:300-400"), "chr1", 50, Arrays.asList("chr1:100-200", "chr2:100-200", "chr2:300-400")});
+        tests.add(new Object[]{Arrays.asList("chr1:100-200", "chr2:100-200"), "chr3", 1, Collections.<String>emptyList()});
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "TrimIntervalsData")
+    public void testTrimIntervals(final List<String> intervals, final String contig, final int position, final List<String> expected) {
+        final File file = writeCheckpoint(contig, position, Collections.<String, Long>emptyMap());
+        final CheckpointManager manager = new CheckpointManager(file, 1, true);
+        Assert.assertTrue(manager.isResuming());
+
+        GenomeLocSortedSet requested = null;
+        if ( intervals != null ) {
+            requested = new GenomeLocSortedSet(parser);
+            for ( final String interval : intervals )
+                requested.add(parser.parseGenomeLoc(interval));
+        }
+
+        final List<String> remaining = new ArrayList<>();
+        for ( final GenomeLoc loc : manager.trimIntervals(requested, parser) )
+            remaining.add(loc.toString());
+        Assert.assertEquals(remaining, expected);
+    }
+
+    @Test
+    public void testCheckpointRecordsOutputSizes() {
+        final File file = createTempFile("checkpoint", ".properties");
+        final File output = new File("/path/to/out.vcf");
+        final CheckpointManager manager = new CheckpointManager(file, 1, false);
+        manager.registerOutput(output, new CheckpointedOutput() {
+            @Override
+            public long flushForCheckpoint() {
+                return 42;
+            }
+        });
+
+        // not enough time has passed since the manager was created
+        Assert.assertFalse(manager.checkpointIfDue(parser.createGenomeLoc("chr1", 10, 20), null));
+        manager.checkpoint(parser.createGenomeLoc("chr1", 10, 20), null);
+
+        final TraversalCheckpoint checkpoint = TraversalCheckpoint.read(file);
+        Assert.assertEquals(checkpoint.getContig(), "chr1");
+        Assert.assertEquals(checkpoint.getPosition(), 20);
+        Assert.assertEquals(checkpoint.getOutputSizes(), Collections.singletonMap(output.getAbsolutePath(), 42L));
+
+        manager.traversalComplete();
+        Assert.assertFalse(file.exists());
+    }
+
+    /**
+     * A walker that, like a walker batching work across positions, holds back some of the results it has reduced
+     */
+    private static class HoldingBackWalker extends LocusWalker<Integer, Integer> implements Checkpointable {
+        private final List<Integer> output;
+        private final List<Integer> heldBack = new ArrayList<>();
+        private int nReduced = 0;
+
+        private HoldingBackWalker(final List<Integer> output) {
+            this.output = output;
+        }
+
+        @Override public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) { return 1; }
+        @Override public Integer reduceInit() { return 0; }
+
+        @Override
+        public Integer reduce(final Integer value, final Integer sum) {
+            heldBack.add(value);
+            nReduced++;
+            return sum + value;
+        }
+
+        @Override
+        public void saveCheckpointState(final Properties state) {
+            output.addAll(heldBack);
+            heldBack.clear();
+            state.setProperty("nReduced", Integer.toString(nReduced));
+        }
+
+        @Override
+        public void restoreCheckpointState(final Properties state) {
+            nReduced = Integer.parseInt(state.getProperty("nReduced"));
+        }
+    }
+
+    @Test
+    public void testHeldBackResultsSurviveCheckpoint() {
+        final File file = createTempFile("checkpoint", ".properties");
+        final File outputFile = new File("/path/to/out.vcf");
+        final List<Integer> output = new ArrayList<>();
+        final CheckpointManager manager = new CheckpointManager(file, 1, false);
+        manager.registerOutput(outputFile, new CheckpointedOutput() {
+            @Override
+            public long flushForCheckpoint() {
+                return output.size();
+            }
+        });
+
+        final HoldingBackWalker walker = new HoldingBackWalker(output);
+        for ( int i = 0; i < 5; i++ )
+            walker.reduce(1, 0);
+        Assert.assertTrue(output.isEmpty());
+        manager.checkpoint(parser.createGenomeLoc("chr1", 10, 20), walker);
+
+        // everything reduced before the checkpoint is in the output, and its recorded size counts it
+        Assert.assertEquals(output.size(), 5);
+        final CheckpointManager resumed = new CheckpointManager(file, 1, true);
+        Assert.assertTrue(resumed.isResuming());
+        Assert.assertEquals(TraversalCheckpoint.read(file).getOutputSizes(), Collections.singletonMap(outputFile.getAbsolutePath(), 5L));
+
+        final HoldingBackWalker resumedWalker = new HoldingBackWalker(new ArrayList<Integer>());
+        resumed.restoreWalkerState(resumedWalker);
+        Assert.assertEquals(resumedWalker.nReduced, 5);
+    }
+}
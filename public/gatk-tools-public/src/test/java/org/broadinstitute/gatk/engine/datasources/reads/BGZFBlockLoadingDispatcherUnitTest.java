@@ -0,0 +1,153 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests asynchronous BGZF block loading, with and without read-ahead.
+ */
+public class BGZFBlockLoadingDispatcherUnitTest extends BaseTest {
+    private File bgzfFile;
+    private byte[] contents;
+
+    @BeforeClass
+    public void createBGZFFile() throws IOException {
+        // Mildly compressible data spanning a few dozen BGZF blocks.
+        final Random random = new Random(42);
+        contents = new byte[2*1024*1024 + 12345];
+        for(int i = 0; i < contents.length; i++)
+            contents[i] = (byte)('A' + random.nextInt(4));
+
+        bgzfFile = createTempFile("blockLoading", ".bam");
+        final BlockCompressedOutputStream out = new BlockCompressedOutputStream(bgzfFile);
+        out.write(contents);
+        out.close();
+    }
+
+    @DataProvider(name = "DispatcherConfigurations")
+    public Object[][] makeDispatcherConfigurations() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for(final int numThreads: new int[]{1, 3})
+            for(final int numReadAheadThreads: new int[]{0, 1, 4})
+                for(final int numFileHandles: new int[]{1, 4})
+                    tests.add(new Object[]{numThreads, numReadAheadThreads, numFileHandles});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "DispatcherConfigurations")
+    public void testReadEntireFile(final int numThreads, final int numReadAheadThreads, final int numFileHandles) {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(numThreads,numReadAheadThreads,numFileHandles);
+        try {
+            final BlockInputStream inputStream = new BlockInputStream(dispatcher,new SAMReaderID(bgzfFile,new Tags()),false);
+
+            final byte[] observed = new byte[contents.length];
+            int totalRead = 0;
+            int bytesRead;
+            // Read in odd-sized pieces so that reads straddle block boundaries.
+            while(totalRead < observed.length && (bytesRead = inputStream.read(observed,totalRead,Math.min(7919,observed.length-totalRead))) > 0)
+                totalRead += bytesRead;
+            inputStream.close();
+
+            Assert.assertEquals(totalRead,contents.length);
+            Assert.assertEquals(observed,contents);
+
+            if(numReadAheadThreads > 0) {
+                Assert.assertTrue(dispatcher.getReadAheadHits() > 0, "Sequential reads should be served by read-ahead");
+                Assert.assertTrue(dispatcher.getBlocksLoadedOnDemand() < dispatcher.getReadAheadHits());
+            }
+            else
+                Assert.assertEquals(dispatcher.getReadAheadHits(),0);
+        }
+        finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testFileHandleCacheReusesChannels() throws IOException {
+        final SAMReaderID reader = new SAMReaderID(bgzfFile,new Tags());
+        final FileHandleCache cache = new FileHandleCache(2);
+
+        final FileChannel first = cache.claimFileChannel(reader);
+        final FileChannel second = cache.claimFileChannel(reader);
+        Assert.assertNotSame(first,second);
+        cache.releaseFileChannel(reader,first);
+        Assert.assertEquals(cache.getNumIdleFileHandles(),1);
+        Assert.assertSame(cache.claimFileChannel(reader),first);
+
+        cache.releaseFileChannel(reader,first);
+        cache.releaseFileChannel(reader,second);
+        Assert.assertEquals(cache.getNumIdleFileHandles(),2);
+
+        cache.close();
+        Assert.assertEquals(cache.getNumIdleFileHandles(),0);
+        Assert.assertFalse(first.isOpen());
+        Assert.assertFalse(second.isOpen());
+    }
+
+    @Test
+    public void testFileHandleCacheEvictsLeastRecentlyReleased() throws IOException {
+        final SAMReaderID firstReader = new SAMReaderID(bgzfFile,new Tags());
+        final SAMReaderID secondReader = new SAMReaderID(createTempFile("blockLoadingSecond", ".bam"),new Tags());
+        final FileHandleCache cache = new FileHandleCache(2);
+
+        final FileChannel first = cache.claimFileChannel(firstReader);
+        final FileChannel second = cache.claimFileChannel(firstReader);
+        cache.releaseFileChannel(firstReader,first);
+        cache.releaseFileChannel(firstReader,second);
+
+        // A third idle handle, from another reader, pushes out the handle released longest ago.
+        final FileChannel third = cache.claimFileChannel(secondReader);
+        cache.releaseFileChannel(secondReader,third);
+        Assert.assertEquals(cache.getNumIdleFileHandles(),2);
+        Assert.assertFalse(first.isOpen());
+        Assert.assertTrue(second.isOpen());
+        Assert.assertTrue(third.isOpen());
+
+        Assert.assertSame(cache.claimFileChannel(secondReader),third);
+        Assert.assertSame(cache.claimFileChannel(firstReader),second);
+
+        cache.releaseFileChannel(firstReader,second);
+        cache.releaseFileChannel(secondReader,third);
+        cache.close();
+        Assert.assertFalse(second.isOpen());
+        Assert.assertFalse(third.isOpen());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileReader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.ValidationStringency;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.engine.arguments.GATKArgumentCollection;
+import org.broadinstitute.gatk.engine.io.stubs.SAMFileWriterStub;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that a BAM compressed on several threads is the same as one compressed on the writing thread.
+ */
+public class SAMFileWriterStorageUnitTest extends BaseTest {
+
+    private GenomeAnalysisEngine makeEngine(final int numberOfCPUThreads) {
+        final GATKArgumentCollection arguments = new GATKArgumentCollection();
+        arguments.numberOfCPUThreadsPerDataThread = numberOfCPUThreads;
+        final GenomeAnalysisEngine engine = new GenomeAnalysisEngine();
+        engine.setArguments(arguments);
+        engine.setReferenceDataSource(new File(exampleFASTA));
+        return engine;
+    }
+
+    private File createTempBAM() throws IOException {
+        final File file = File.createTempFile("SAMFileWriterStorageUnitTest", ".bam");
+        file.deleteOnExit();
+        new File(indexFileName(file)).deleteOnExit();
+        return file;
+    }
+
+    private static String indexFileName(final File bam) {
+        final String path = bam.getAbsolutePath();
+        return path.substring(0, path.length() - ".bam".length()) + ".bai";
+    }
+
+    private void writeReads(final GenomeAnalysisEngine engine, final File file, final SAMFileHeader header, final boolean index, final List<SAMRecord> reads) {
+        final SAMFileWriterStub stub = new SAMFileWriterStub(engine, file);
+        stub.writeHeader(header);
+        stub.setIndexOnTheFly(index);
+        final SAMFileWriterStorage storage = new SAMFileWriterStorage(stub);
+        for ( final SAMRecord read : reads )
+            storage.addAlignment(read);
+        storage.close();
+    }
+
+    @DataProvider(name = "ParallelCompression")
+    public Object[][] makeParallelCompression() {
+        return new Object[][] {
+                // number of reads, whether to index
+                {0, true},
+                {1, true},
+                {30000, true},
+                {30000, false},
+        };
+    }
+
+    @Test(dataProvider = "ParallelCompression")
+    public void testParallelCompressionMatchesSerial(final int nReads, final boolean index) throws IOException {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(2, 1, 100000);
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        final List<SAMRecord> reads = new ArrayList<>(nReads);
+        final int readsPerContig = Math.max(1, (nReads + 1) / 2);
+        for ( int i = 0; i < nReads; i++ )
+            reads.add(ArtificialSAMUtils.createArtificialRead(header, "read" + i, i / readsPerContig, 1 + 5 * (i % readsPerContig), 50 + i % 30));
+
+        final GenomeAnalysisEngine parallelEngine = makeEngine(4);
+        final File parallel = createTempBAM();
+        final SAMFileWriterStub parallelStub = new SAMFileWriterStub(parallelEngine, parallel);
+        parallelStub.writeHeader(header);
+        Assert.assertEquals(parallelStub.getCompressionThreads(), 4);
+        writeReads(parallelEngine, parallel, header, index, reads);
+
+        final File serial = createTempBAM();
+        writeReads(makeEngine(1), serial, header, index, reads);
+
+        Assert.assertEquals(Files.readAllBytes(parallel.toPath()), Files.readAllBytes(serial.toPath()));
+        Assert.assertEquals(new File(indexFileName(parallel)).exists(), index);
+        if ( index )
+            Assert.assertEquals(Files.readAllBytes(new File(indexFileName(parallel)).toPath()), Files.readAllBytes(new File(indexFileName(serial)).toPath()));
+
+        final SAMFileReader reader = new SAMFileReader(parallel);
+        reader.setValidationStringency(ValidationStringency.STRICT);
+        int nRead = 0;
+        final SAMRecordIterator iterator = reader.iterator();
+        while ( iterator.hasNext() )
+            Assert.assertEquals(iterator.next().getSAMString(), reads.get(nRead++).getSAMString());
+        iterator.close();
+        Assert.assertEquals(nRead, nReads);
+        if ( index && nReads > 1 ) {
+            final SAMRecordIterator query = reader.queryOverlapping(header.getSequence(1).getSequenceName(), 1000, 2000);
+            int nOverlapping = 0;
+            while ( query.hasNext() ) {
+                Assert.assertEquals(query.next().getReferenceIndex(), Integer.valueOf(1));
+                nOverlapping++;
+            }
+            query.close();
+            Assert.assertTrue(nOverlapping > 0);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileReader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.variantcontext.*;
+import htsjdk.variant.vcf.*;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.engine.arguments.GATKArgumentCollection;
+import org.broadinstitute.gatk.engine.io.DirectOutputTracker;
+import org.broadinstitute.gatk.engine.io.stubs.SAMFileWriterStub;
+import org.broadinstitute.gatk.engine.io.stubs.VariantContextWriterStub;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Tests that the temporary storage of each -nt thread merges into the final output exactly as if
+ * everything had been written there directly.
+ */
+public class StorageMergeUnitTest extends BaseTest {
+    private GenomeAnalysisEngine engine;
+
+    @BeforeClass
+    public void init() {
+        final GATKArgumentCollection arguments = new GATKArgumentCollection();
+        arguments.numberOfDataThreads = 3;
+        engine = new GenomeAnalysisEngine();
+        engine.setArguments(arguments);
+        engine.setReferenceDataSource(new File(exampleFASTA));
+    }
+
+    private VCFHeader makeVCFHeader() {
+        final Set<VCFHeaderLine> lines = new LinkedHashSet<>();
+        lines.add(new VCFInfoHeaderLine("DP", 1, VCFHeaderLineType.Integer, "depth"));
+        lines.add(new VCFFormatHeaderLine("GT", 1, VCFHeaderLineType.String, "genotype"));
+        lines.add(new VCFContigHeaderLine("<ID=chr1,length=100000>", VCFHeaderVersion.VCF4_1, VCFHeader.CONTIG_KEY, 0));
+        final VCFHeader header = new VCFHeader(lines, Arrays.asList("s1", "s2"));
+        header.setWriteEngineHeaders(false);
+        return header;
+    }
+
+    private List<VariantContext> makeVariants(final int n) {
+        final List<VariantContext> variants = new ArrayList<>(n);
+        final Allele ref = Allele.create("A", true);
+        final Allele alt = Allele.create("C");
+        for ( int i = 0; i < n; i++ ) {
+            final int start = 1 + i * 7;
+            final List<Genotype> genotypes = Arrays.asList(
+                    GenotypeBuilder.create("s1", Arrays.asList(ref, alt)),
+                    GenotypeBuilder.create("s2", Arrays.asList(alt, alt)));
+            variants.add(new VariantContextBuilder("test", "chr1", start, start, Arrays.asList(ref, alt))
+                    .attribute("DP", i).genotypes(genotypes).make());
+        }
+        return variants;
+    }
+
+    private File createTempFile(final String suffix) throws IOException {
+        final File file = File.createTempFile("StorageMergeUnitTest", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    @DataProvider(name = "VariantMerges")
+    public Object[][] makeVariantMerges() {
+        return new Object[][] {
+                // extension, spill threshold, records per thread
+                {".vcf", 1 << 20, new int[] {100, 0, 250}},
+                {".vcf", 1000, new int[] {100, 0, 250}},
+                {".vcf.gz", 1000, new int[] {300, 1, 20}},
+                {".bcf", 1000, new int[] {50, 60, 70}},
+        };
+    }
+
+    @Test(dataProvider = "VariantMerges")
+    public void testVariantContextWriterStorageMerge(final String extension, final int spillThreshold, final int[] recordsPerThread) throws IOException {
+        int total = 0;
+        for ( final int n : recordsPerThread ) total += n;
+        final List<VariantContext> variants = makeVariants(total);
+
+        final File direct = createTempFile(extension);
+        final VariantContextWriterStub directStub = createVariantStub(direct, new DirectOutputTracker());
+        directStub.writeHeader(makeVCFHeader());
+        for ( final VariantContext vc : variants )
+            directStub.add(vc);
+        directStub.close();
+
+        final File merged = createTempFile(extension);
+        final DirectOutputTracker tracker = new DirectOutputTracker();
+        final VariantContextWriterStub mergedStub = createVariantStub(merged, tracker);
+        mergedStub.writeHeader(makeVCFHeader());
+        final VariantContextWriterStorage target = (VariantContextWriterStorage)tracker.getStorage(mergedStub);
+        int next = 0;
+        for ( final int n : recordsPerThread ) {
+            final File tempFile = createTempFile(".tmp");
+            final VariantContextWriterStorage storage = new VariantContextWriterStorage(mergedStub, tempFile, spillThreshold);
+            for ( int i = 0; i < n; i++ )
+                storage.add(variants.get(next++));
+            storage.close();
+            storage.mergeInto(target);
+            Assert.assertFalse(tempFile.exists(), "temporary storage wasn't cleaned up");
+        }
+        target.close();
+
+        if ( extension.equals(".vcf.gz") )
+            Assert.assertEquals(readLines(merged), readLines(direct));
+        else
+            Assert.assertEquals(Files.readAllBytes(merged.toPath()), Files.readAllBytes(direct.toPath()));
+
+        if ( ! extension.equals(".vcf.gz") ) {
+            // the index fed during the merge must find the same records as the one built directly
+            Assert.assertEquals(queryStarts(merged, 500, 1200), queryStarts(direct, 500, 1200));
+            Assert.assertEquals(queryStarts(merged, 1, 100000).size(), total);
+        }
+    }
+
+    private VariantContextWriterStub createVariantStub(final File file, final DirectOutputTracker tracker) {
+        final VariantContextWriterStub stub = new VariantContextWriterStub(engine, file, Collections.emptyList());
+        stub.setCompressed(file.getName().endsWith(".gz"));
+        tracker.addOutput(stub);
+        return stub;
+    }
+
+    private List<String> readLines(final File file) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final AbstractFeatureReader<VariantContext, LineIterator> reader = AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), new VCFCodec(), false);
+        for ( final VariantContext vc : reader.iterator() )
+            lines.add(vc.toStringDecodeGenotypes());
+        reader.close();
+        return lines;
+    }
+
+    private List<Integer> queryStarts(final File file, final int start, final int end) throws IOException {
+        final List<Integer> starts = new ArrayList<>();
+        final AbstractFeatureReader<VariantContext, ?> reader = file.getName().endsWith(".bcf")
+                ? AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), new htsjdk.variant.bcf2.BCF2Codec(), true)
+                : AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), new VCFCodec(), true);
+        for ( final VariantContext vc : reader.query("chr1", start, end) )
+            starts.add(vc.getStart());
+        reader.close();
+        return starts;
+    }
+
+    @Test
+    public void testSAMFileWriterStorageMergesBlocks() throws IOException {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 100000);
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        final File merged = createTempFile(".bam");
+        final SAMFileWriterStub stub = new SAMFileWriterStub(engine, merged);
+        stub.writeHeader(header);
+        Assert.assertTrue(stub.canMergeBlocks());
+
+        final SAMFileWriterStorage target = new SAMFileWriterStorage(stub);
+        final List<String> expected = new ArrayList<>();
+        int start = 1;
+        for ( final int n : new int[] {2000, 0, 1, 5000} ) {
+            final File tempFile = createTempFile(".tmp");
+            final SAMFileWriterStorage storage = new SAMFileWriterStorage(stub, tempFile);
+            for ( int i = 0; i < n; i++, start += 3 ) {
+                final SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + start, 0, start, 50);
+                storage.addAlignment(read);
+                expected.add(read.getSAMString());
+            }
+            storage.close();
+            storage.mergeInto(target);
+            Assert.assertFalse(tempFile.exists(), "temporary storage wasn't cleaned up");
+        }
+        target.close();
+
+        final SAMFileReader reader = new SAMFileReader(merged);
+        reader.setValidationStringency(ValidationStringency.STRICT);
+        Assert.assertEquals(reader.getFileHeader().getSortOrder(), SAMFileHeader.SortOrder.coordinate);
+        final List<String> actual = new ArrayList<>();
+        for ( final SAMRecord read : reader )
+            actual.add(read.getSAMString());
+        reader.close();
+        Assert.assertEquals(actual, expected);
+    }
+}
@@ -33,10 +33,15 @@ import org.broadinstitute.gatk.engine.datasources.reads.*;
 import org.broadinstitute.gatk.engine.filters.ReadFilter;
 import org.broadinstitute.gatk.engine.iterators.ReadTransformer;
 import org.broadinstitute.gatk.engine.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.gatk.engine.contexts.AlignmentContext;
+import org.broadinstitute.gatk.engine.contexts.ReferenceContext;
+import org.broadinstitute.gatk.engine.refdata.RefMetaDataTracker;
+import org.broadinstitute.gatk.engine.walkers.NanoSchedulableIsActive;
 import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
 import org.broadinstitute.gatk.utils.SampleUtils;
 import org.broadinstitute.gatk.utils.activeregion.ActiveRegionReadState;
+import org.broadinstitute.gatk.utils.activeregion.ActivityProfileState;
 import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
 import org.broadinstitute.gatk.utils.interval.IntervalUtils;
 import org.broadinstitute.gatk.utils.sam.*;
@@ -59,6 +64,9 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created with IntelliJ IDEA.
@@ -241,6 +249,91 @@ public class TraverseActiveRegionsUnitTest extends BaseTest {
         }
     }
 
+    /**
+     * Walker whose isActive may be evaluated concurrently, with a position dependent activity so that
+     * the band pass filter produces a non-trivial set of active and inactive regions.  Neither isActive nor
+     * map is synchronized: calls are recorded in thread-safe state, along with how many run at once.
+     */
+    private static class ParallelIsActiveDummyWalker extends DummyActiveRegionWalker implements NanoSchedulableIsActive {
+        private final ConcurrentMap<GenomeLoc, AtomicInteger> isActiveCallCounts = new ConcurrentHashMap<>();
+        private final ConcurrentMap<GenomeLoc, ActiveRegion> regions = new ConcurrentHashMap<>();
+        private final AtomicInteger runningCalls = new AtomicInteger(0);
+        private final AtomicInteger maxRunningCalls = new AtomicInteger(0);
+
+        @Override
+        public ActivityProfileState isActive(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+            enterCall();
+            try {
+                final AtomicInteger previous = isActiveCallCounts.putIfAbsent(ref.getLocus(), new AtomicInteger(1));
+                if ( previous != null )
+                    previous.incrementAndGet();
+                return new ActivityProfileState(ref.getLocus(), ref.getLocus().getStart() % 97 < 7 ? 1.0 : 0.0);
+            } finally {
+                runningCalls.decrementAndGet();
+            }
+        }
+
+        @Override
+        public Integer map(ActiveRegion activeRegion, RefMetaDataTracker metaDataTracker) {
+            enterCall();
+            try {
+                Assert.assertNull(regions.put(activeRegion.getLocation(), activeRegion), "Region mapped twice: " + activeRegion.getLocation());
+                return 0;
+            } finally {
+                runningCalls.decrementAndGet();
+            }
+        }
+
+        private void enterCall() {
+            final int running = runningCalls.incrementAndGet();
+            int max;
+            while ( (max = maxRunningCalls.get()) < running && ! maxRunningCalls.compareAndSet(max, running) ) ;
+        }
+
+        /**
+         * @return the regions passed to map, in genomic order
+         */
+        private TreeMap<GenomeLoc, ActiveRegion> getRegions() {
+            return new TreeMap<>(regions);
+        }
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testParallelIsActiveMatchesSerial() {
+        final int nThreads = 4;
+        final ParallelIsActiveDummyWalker serialWalker = new ParallelIsActiveDummyWalker();
+        getActiveRegions(new TraverseActiveRegions<>(), serialWalker, intervals);
+
+        final ParallelIsActiveDummyWalker parallelWalker = new ParallelIsActiveDummyWalker();
+        final TraverseActiveRegions<Integer, Integer> parallelTraversal = new TraverseActiveRegions<>(nThreads);
+        getActiveRegions(parallelTraversal, parallelWalker, intervals);
+        parallelTraversal.shutdown();
+
+        // Contract: isActive is called exactly once per locus, over the same loci as the serial run
+        Assert.assertEquals(new TreeSet<>(parallelWalker.isActiveCallCounts.keySet()), new TreeSet<>(serialWalker.isActiveCallCounts.keySet()));
+        for ( final Map.Entry<GenomeLoc, AtomicInteger> calls : parallelWalker.isActiveCallCounts.entrySet() )
+            Assert.assertEquals(calls.getValue().get(), 1, "isActive called more than once at " + calls.getKey());
+
+        // Contract: the isActive and map calls together stay within the -nct budget
+        Assert.assertTrue(parallelWalker.maxRunningCalls.get() <= nThreads, "Up to " + parallelWalker.maxRunningCalls.get() + " isActive and map calls ran at once");
+
+        // Contract: the profile yields the serial run's regions, in the same order, without gaps or overlaps between them
+        final TreeMap<GenomeLoc, ActiveRegion> serialRegions = serialWalker.getRegions();
+        final TreeMap<GenomeLoc, ActiveRegion> parallelRegions = parallelWalker.getRegions();
+        Assert.assertEquals(new ArrayList<>(parallelRegions.keySet()), new ArrayList<>(serialRegions.keySet()));
+        GenomeLoc previous = null;
+        for ( final GenomeLoc region : parallelRegions.keySet() ) {
+            if ( previous != null && previous.onSameContig(region) )
+                Assert.assertTrue(previous.getStop() < region.getStart(), "Regions " + previous + " and " + region + " overlap");
+            previous = region;
+        }
+        for ( final Map.Entry<GenomeLoc, ActiveRegion> serial : serialRegions.entrySet() ) {
+            final ActiveRegion parallel = parallelRegions.get(serial.getKey());
+            Assert.assertEquals(parallel.isActive(), serial.getValue().isActive(), "Activity differs for region " + serial.getKey());
+            Assert.assertEquals(readNamesInRegion(parallel), readNamesInRegion(serial.getValue()), "Reads differ for region " + serial.getKey());
+        }
+    }
+
     @Test(enabled = true && !DEBUG, dataProvider = "TraversalEngineProvider")
     public void testPrimaryReadMapping(TraverseActiveRegions t) {
         DummyActiveRegionWalker walker = new DummyActiveRegionWalker(new GenomeLocSortedSet(genomeLocParser, intervals),
@@ -400,8 +493,10 @@ public class TraverseActiveRegionsUnitTest extends BaseTest {
     }
 
     private Map<GenomeLoc, ActiveRegion> getActiveRegions(TraverseActiveRegions t, DummyActiveRegionWalker walker, List<GenomeLoc> intervals, final File bam) {
+        Integer sum = 0;
         for (LocusShardDataProvider dataProvider : createDataProviders(t, walker, intervals, bam))
-            t.traverse(walker, dataProvider, 0);
+            sum = (Integer)t.traverse(walker, dataProvider, sum);
+        t.endTraversal(walker, sum);
 
         return walker.mappedActiveRegions;
     }
@@ -34,6 +34,10 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Basic unit test for MathUtils
@@ -181,6 +185,83 @@ public class MathUtilsUnitTest extends BaseTest {
         }
     }
 
+    /**
+     * Tests that memoized cumulative binomial probabilities are the ones computed, even when several threads fill the
+     * cache at once and keys share slots
+     */
+    @Test
+    public void testCumulativeBinomialProbabilityConcurrentMemoization() throws Exception {
+        final int maxTrials = 60;
+        final double[][] expected = new double[maxTrials + 1][];
+        for ( int n = 0; n <= maxTrials; n++ ) {
+            expected[n] = new double[n + 1];
+            for ( int k = 0; k <= n; k++ )
+                expected[n][k] = MathUtils.binomialCumulativeProbability(n, 0, k);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for ( int t = 0; t < 4; t++ ) {
+                final boolean reversed = t % 2 == 1;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for ( int round = 0; round < 20; round++ )
+                            for ( int n = 0; n <= maxTrials; n++ )
+                                for ( int i = 0; i <= n; i++ ) {
+                                    final int k = reversed ? n - i : i;
+                                    if ( MathUtils.binomialCumulativeProbability(n, 0, k) != expected[n][k] )
+                                        return false;
+                                }
+                        return true;
+                    }
+                }));
+            }
+            for ( final Future<Boolean> result : results )
+                Assert.assertTrue(result.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        // keys too large to memoize are still computed
+        Assert.assertEquals(MathUtils.binomialCumulativeProbability(Short.MAX_VALUE + 1, 0, Short.MAX_VALUE + 1), 1.0, 1e-7);
+    }
+
+    /**
+     * Tests that the log10 cache gives exact values while several threads read and extend it
+     */
+    @Test
+    public void testLog10CacheConcurrentGrowth() throws Exception {
+        final int maxN = 200000;
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for ( int t = 0; t < 4; t++ ) {
+                final long stride = 997 * (t + 1);
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for ( int i = 0; i <= maxN; i++ ) {
+                            final int n = (int)(i * stride % (maxN + 1));
+                            if ( MathUtils.Log10Cache.get(n) != Math.log10(n) )
+                                return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for ( final Future<Boolean> result : results )
+                Assert.assertTrue(result.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        MathUtils.Log10Cache.ensureCacheContains(maxN + 1000);
+        Assert.assertEquals(MathUtils.Log10Cache.get(maxN + 1000), Math.log10(maxN + 1000));
+        Assert.assertEquals(MathUtils.Log10Cache.get(0), Double.NEGATIVE_INFINITY);
+    }
+
     /**
      * Tests that we get the right values from the multinomial distribution
      */
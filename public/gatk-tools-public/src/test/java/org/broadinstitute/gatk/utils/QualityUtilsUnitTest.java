@@ -102,6 +102,13 @@ public class QualityUtilsUnitTest extends BaseTest {
         }
     }
 
+    @Test
+    public void testCachesCoverEveryByte() {
+        final byte qual = (byte)0xFF;
+        Assert.assertEquals(QualityUtils.qualToErrorProb(qual), QualityUtils.qualToErrorProb(255.0));
+        Assert.assertEquals(QualityUtils.qualToProbLog10(qual), Math.log10(1.0 - QualityUtils.qualToErrorProb(255.0)));
+    }
+
     @Test
     public void testTrueProbWithMinDouble() {
         final byte actual = QualityUtils.trueProbToQual(Double.MIN_VALUE);
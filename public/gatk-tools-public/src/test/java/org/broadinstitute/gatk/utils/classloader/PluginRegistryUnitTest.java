@@ -0,0 +1,137 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package org.broadinstitute.gatk.utils.classloader;
+
+import htsjdk.tribble.FeatureCodec;
+import htsjdk.variant.vcf.VCFCodec;
+import org.broadinstitute.gatk.engine.walkers.Walker;
+import org.broadinstitute.gatk.tools.walkers.qc.CountReads;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.codecs.beagle.BeagleCodec;
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ConfigurationBuilder;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+public class PluginRegistryUnitTest extends BaseTest {
+    private URL gatkClasses;
+    private URL htsjdkClasses;
+
+    @BeforeClass
+    public void init() throws IOException {
+        Reflections.log = null;
+        gatkClasses = JVMUtils.getLocationFor(CountReads.class).toURI().toURL();
+        htsjdkClasses = JVMUtils.getLocationFor(FeatureCodec.class).toURI().toURL();
+    }
+
+    private static Set<URL> urls(final URL... urls) {
+        return new LinkedHashSet<URL>(Arrays.asList(urls));
+    }
+
+    /**
+     * Writes the registry for the given classpath urls into a new directory, returning the registry's url
+     */
+    private static URL writeRegistry(final Set<URL> registeredUrls) throws IOException {
+        final File registryDir = createTempFile("PluginRegistryUnitTest", ".dir");
+        Assert.assertTrue(registryDir.delete() && registryDir.mkdir());
+        final File registryFile = new File(registryDir, PluginRegistry.REGISTRY_PATH);
+        registryFile.deleteOnExit();
+        final Writer writer = new FileWriter(registryFile);
+        PluginRegistry.writeRegistry(registeredUrls, writer);
+        writer.close();
+        return registryFile.toURI().toURL();
+    }
+
+    private static URL getRegistryDir(final URL registry) throws IOException {
+        return new File(registry.getPath()).getParentFile().toURI().toURL();
+    }
+
+    private static <T> Set<Class<? extends T>> scanSubTypes(final Set<URL> urls, final Class<T> type) {
+        return new Reflections(new ConfigurationBuilder().setUrls(urls).setScanners(new SubTypesScanner())).getSubTypesOf(type);
+    }
+
+    @Test
+    public void testRegistryMatchesScan() throws IOException {
+        final Set<URL> classPath = urls(gatkClasses, htsjdkClasses);
+        final URL registry = writeRegistry(classPath);
+
+        // the registry's directory stands in for the jar whose classes it lists, so nothing is scanned
+        final Reflections reflections = PluginRegistry.createReflections(urls(getRegistryDir(registry)), Arrays.asList(registry));
+        final Set<Class<? extends Walker>> walkers = reflections.getSubTypesOf(Walker.class);
+        Assert.assertTrue(walkers.contains(CountReads.class));
+        Assert.assertEquals(walkers, scanSubTypes(classPath, Walker.class));
+        final Set<Class<? extends FeatureCodec>> codecs = reflections.getSubTypesOf(FeatureCodec.class);
+        Assert.assertTrue(codecs.contains(VCFCodec.class));
+        Assert.assertTrue(codecs.contains(BeagleCodec.class));
+        Assert.assertEquals(codecs, scanSubTypes(classPath, FeatureCodec.class));
+    }
+
+    @Test
+    public void testRegisteredClassesAreNotScanned() throws IOException {
+        final URL registry = writeRegistry(urls(htsjdkClasses));
+        final Reflections reflections = PluginRegistry.createReflections(urls(getRegistryDir(registry)), Arrays.asList(registry));
+        Assert.assertTrue(reflections.getSubTypesOf(Walker.class).isEmpty());
+        Assert.assertTrue(reflections.getSubTypesOf(FeatureCodec.class).contains(VCFCodec.class));
+        Assert.assertFalse(reflections.getSubTypesOf(FeatureCodec.class).contains(BeagleCodec.class));
+    }
+
+    @Test
+    public void testUnregisteredClassesAreScanned() throws IOException {
+        // BeagleCodec is only found by way of AsciiFeatureCodec, whose supertypes are in the registry
+        final URL registry = writeRegistry(urls(htsjdkClasses));
+        final Reflections reflections = PluginRegistry.createReflections(urls(getRegistryDir(registry), gatkClasses), Arrays.asList(registry));
+        Assert.assertTrue(reflections.getSubTypesOf(Walker.class).contains(CountReads.class));
+        Assert.assertEquals(reflections.getSubTypesOf(FeatureCodec.class), scanSubTypes(urls(gatkClasses, htsjdkClasses), FeatureCodec.class));
+    }
+
+    @Test
+    public void testWithoutRegistries() {
+        final Reflections reflections = PluginRegistry.createReflections(urls(gatkClasses, htsjdkClasses), Collections.<URL>emptyList());
+        Assert.assertEquals(reflections.getSubTypesOf(FeatureCodec.class), scanSubTypes(urls(gatkClasses, htsjdkClasses), FeatureCodec.class));
+    }
+
+    @Test
+    public void testRegistryIsSorted() throws IOException {
+        final StringWriter first = new StringWriter();
+        PluginRegistry.writeRegistry(urls(htsjdkClasses), first);
+        final List<String> lines = Arrays.asList(first.toString().split("\n"));
+        final List<String> sortedLines = new ArrayList<String>(lines);
+        Collections.sort(sortedLines);
+        Assert.assertEquals(lines, sortedLines);
+        Assert.assertTrue(lines.contains(FeatureCodec.class.getName() + "\t" + htsjdk.tribble.AbstractFeatureCodec.class.getName()));
+
+        final StringWriter second = new StringWriter();
+        PluginRegistry.writeRegistry(urls(htsjdkClasses), second);
+        Assert.assertEquals(second.toString(), first.toString());
+    }
+}
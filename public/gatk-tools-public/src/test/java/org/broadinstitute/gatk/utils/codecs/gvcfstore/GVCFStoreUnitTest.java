@@ -0,0 +1,153 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.codecs.gvcfstore;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.tribble.CloseableTribbleIterator;
+import htsjdk.variant.variantcontext.*;
+import htsjdk.variant.vcf.*;
+import org.apache.commons.io.FileUtils;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.io.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class GVCFStoreUnitTest extends BaseTest {
+    private static final int PARTITION_SIZE = 100;
+
+    private SAMSequenceDictionary dictionary;
+    private File directory;
+    private File manifest;
+
+    @BeforeMethod
+    public void setup() {
+        dictionary = new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("1", 1000), new SAMSequenceRecord("2", 1000)));
+        directory = IOUtils.tempDir("GVCFStoreUnitTest.", "");
+        manifest = new File(directory, "cohort" + GVCFStore.MANIFEST_EXTENSION);
+    }
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static VCFHeader makeHeader(final String... samples) {
+        final Set<VCFHeaderLine> lines = new LinkedHashSet<>();
+        lines.add(VCFStandardHeaderLines.getFormatLine(VCFConstants.GENOTYPE_KEY));
+        lines.add(VCFStandardHeaderLines.getInfoLine(VCFConstants.END_KEY));
+        return new VCFHeader(lines, Arrays.asList(samples));
+    }
+
+    private static VariantContext makeVC(final String contig, final int start, final int stop, final String... samples) {
+        final List<Allele> alleles = Arrays.asList(Allele.create("A", true), Allele.create("C"));
+        final List<Genotype> genotypes = new ArrayList<>();
+        for ( final String sample : samples )
+            genotypes.add(new GenotypeBuilder(sample, Arrays.asList(alleles.get(0), alleles.get(1))).make());
+        final VariantContextBuilder builder = new VariantContextBuilder("test", contig, start, stop, alleles).genotypes(genotypes);
+        if ( stop > start ) builder.attribute(VCFConstants.END_KEY, stop);
+        return builder.make();
+    }
+
+    private void writeBlock(final String blockName, final List<VariantContext> vcs, final String... samples) {
+        final GVCFStoreWriter writer = new GVCFStoreWriter(manifest, blockName, PARTITION_SIZE, dictionary);
+        writer.writeHeader(makeHeader(samples));
+        for ( final VariantContext vc : vcs )
+            writer.add(vc);
+        writer.close();
+    }
+
+    private static List<String> describe(final Iterator<VariantContext> it) {
+        final List<String> result = new ArrayList<>();
+        while ( it.hasNext() ) {
+            final VariantContext vc = it.next();
+            result.add(vc.getSource() + ":" + vc.getChr() + ":" + vc.getStart() + "-" + vc.getEnd());
+        }
+        return result;
+    }
+
+    private GVCFStoreReader writeTwoBlocks() {
+        writeBlock("a", Arrays.asList(makeVC("1", 1, 150, "s1"), makeVC("1", 151, 151, "s1"), makeVC("1", 152, 420, "s1"), makeVC("2", 10, 10, "s1")), "s1");
+        writeBlock("b", Arrays.asList(makeVC("1", 1, 99, "s2"), makeVC("1", 100, 400, "s2"), makeVC("2", 5, 20, "s2")), "s2");
+        return new GVCFStoreReader(manifest, new GVCFStoreCodec());
+    }
+
+    @Test
+    public void testWriteAndReadBack() throws IOException {
+        final GVCFStoreReader reader = writeTwoBlocks();
+        Assert.assertTrue(GVCFStore.isManifest(manifest.getPath()));
+        Assert.assertEquals(reader.getStore().getSampleBlocks().size(), 2);
+        Assert.assertEquals(((VCFHeader) reader.getHeader()).getGenotypeSamples(), Arrays.asList("s1", "s2"));
+        Assert.assertEquals(reader.getSequenceNames(), Arrays.asList("1", "2"));
+
+        // records spanning several partitions are stored once, in the partition of their start
+        Assert.assertEquals(reader.getStore().getSampleBlocks().get(0).getPartitions().size(), 3);
+
+        Assert.assertEquals(describe(reader.iterator()), Arrays.asList(
+                "a:1:1-150", "b:1:1-99", "b:1:100-400", "a:1:151-151", "a:1:152-420", "b:2:5-20", "a:2:10-10"));
+        reader.close();
+    }
+
+    @Test
+    public void testQueryFindsRecordsStartingInEarlierPartitions() throws IOException {
+        final GVCFStoreReader reader = writeTwoBlocks();
+        final CloseableTribbleIterator<VariantContext> it = reader.query("1", 350, 360);
+        Assert.assertEquals(describe(it), Arrays.asList("b:1:100-400", "a:1:152-420"));
+        it.close();
+        Assert.assertEquals(describe(reader.query("1", 421, 1000)), Collections.<String>emptyList());
+        Assert.assertEquals(describe(reader.query("2", 1, 10)), Arrays.asList("b:2:5-20", "a:2:10-10"));
+        reader.close();
+    }
+
+    @Test
+    public void testHeaderGetsContigsFromDictionary() throws IOException {
+        final GVCFStoreReader reader = writeTwoBlocks();
+        Assert.assertEquals(((VCFHeader) reader.getHeader()).getContigLines().size(), 2);
+        reader.close();
+    }
+
+    @Test(expectedExceptions = UserException.BadInput.class)
+    public void testDuplicateSamplesAreRejected() {
+        writeBlock("a", Arrays.asList(makeVC("1", 1, 1, "s1")), "s1");
+        try {
+            writeBlock("b", Arrays.asList(makeVC("1", 1, 1, "s1")), "s1");
+        } finally {
+            Assert.assertFalse(new File(GVCFStore.getDataDirectory(manifest), "b").exists());
+        }
+    }
+
+    @Test(expectedExceptions = UserException.BadInput.class)
+    public void testUnsortedRecordsAreRejected() {
+        writeBlock("a", Arrays.asList(makeVC("1", 500, 500, "s1"), makeVC("1", 10, 10, "s1")), "s1");
+    }
+}
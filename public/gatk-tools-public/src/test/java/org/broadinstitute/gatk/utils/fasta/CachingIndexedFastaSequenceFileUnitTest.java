@@ -42,6 +42,9 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -252,6 +255,92 @@ public class CachingIndexedFastaSequenceFileUnitTest extends BaseTest {
         Assert.assertEquals(changingNs, preservingNs + 4);
     }
 
+    /**
+     * Copy simpleFasta along with its index and dictionary into a fresh directory, so the normalized
+     * reference isn't created in the source tree
+     */
+    private File copySimpleFasta() throws IOException {
+        final File dir = Files.createTempDirectory("normalizedReference").toFile();
+        dir.deleteOnExit();
+        final File fasta = new File(dir, simpleFasta.getName());
+        for ( final String suffix : Arrays.asList("", ".fai") ) {
+            final File copy = new File(fasta.getAbsolutePath() + suffix);
+            Files.copy(new File(simpleFasta.getAbsolutePath() + suffix).toPath(), copy.toPath());
+            copy.deleteOnExit();
+        }
+        final File dict = new File(dir, simpleFasta.getName().replace(".fasta", ".dict"));
+        Files.copy(new File(simpleFasta.getAbsolutePath().replace(".fasta", ".dict")).toPath(), dict.toPath());
+        dict.deleteOnExit();
+        new File(fasta.getAbsolutePath() + NormalizedReferenceFile.EXTENSION).deleteOnExit();
+        return fasta;
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testNormalizedReferenceMatchesCachedReader() throws IOException {
+        final File fasta = copySimpleFasta();
+        final CachingIndexedFastaSequenceFile cached = new CachingIndexedFastaSequenceFile(fasta);
+        final CachingIndexedFastaSequenceFile normalized = new CachingIndexedFastaSequenceFile(fasta);
+        Assert.assertTrue(normalized.enableNormalizedReference());
+        Assert.assertTrue(normalized.isUsingNormalizedReference());
+
+        for ( final SAMSequenceRecord contig : cached.getSequenceDictionary().getSequences() ) {
+            Assert.assertEquals(fetchBaseString(normalized, contig.getSequenceName(), -1, -1), fetchBaseString(cached, contig.getSequenceName(), -1, -1));
+
+            for ( final int querySize : QUERY_SIZES ) {
+                for ( int start = 1; start + querySize <= contig.getSequenceLength(); start += 7 ) {
+                    final ReferenceSequence cachedVal = cached.getSubsequenceAt(contig.getSequenceName(), start, start + querySize);
+                    final ReferenceSequence normalizedVal = normalized.getSubsequenceAt(contig.getSequenceName(), start, start + querySize);
+
+                    Assert.assertEquals(normalizedVal.getName(), cachedVal.getName());
+                    Assert.assertEquals(normalizedVal.getContigIndex(), cachedVal.getContigIndex());
+                    Assert.assertEquals(normalizedVal.getBases(), cachedVal.getBases());
+                }
+            }
+        }
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testNormalizedReferenceIsReused() throws IOException {
+        final File fasta = copySimpleFasta();
+        final CachingIndexedFastaSequenceFile first = new CachingIndexedFastaSequenceFile(fasta);
+        Assert.assertTrue(first.enableNormalizedReference());
+
+        final File normalizedFile = new File(fasta.getAbsolutePath() + NormalizedReferenceFile.EXTENSION);
+        Assert.assertTrue(normalizedFile.exists());
+        Assert.assertTrue(normalizedFile.setLastModified(fasta.lastModified() + 10000));
+        final long created = normalizedFile.lastModified();
+
+        final CachingIndexedFastaSequenceFile second = new CachingIndexedFastaSequenceFile(fasta);
+        Assert.assertTrue(second.enableNormalizedReference());
+        Assert.assertEquals(normalizedFile.lastModified(), created, "Normalized reference was recreated even though the fasta hasn't changed");
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testTruncatedNormalizedReferenceIsRecreated() throws IOException {
+        final File fasta = copySimpleFasta();
+        Assert.assertTrue(new CachingIndexedFastaSequenceFile(fasta).enableNormalizedReference());
+
+        // keep the header, and a modification time newer than the fasta's, but drop the last bases
+        final File normalizedFile = new File(fasta.getAbsolutePath() + NormalizedReferenceFile.EXTENSION);
+        final long length = normalizedFile.length();
+        final RandomAccessFile truncated = new RandomAccessFile(normalizedFile, "rw");
+        truncated.setLength(length - 8);
+        truncated.close();
+        Assert.assertTrue(normalizedFile.setLastModified(fasta.lastModified() + 10000));
+
+        final CachingIndexedFastaSequenceFile normalized = new CachingIndexedFastaSequenceFile(fasta);
+        Assert.assertTrue(normalized.enableNormalizedReference());
+        Assert.assertEquals(normalizedFile.length(), length);
+        final CachingIndexedFastaSequenceFile cached = new CachingIndexedFastaSequenceFile(fasta);
+        for ( final SAMSequenceRecord contig : cached.getSequenceDictionary().getSequences() )
+            Assert.assertEquals(fetchBaseString(normalized, contig.getSequenceName(), -1, -1), fetchBaseString(cached, contig.getSequenceName(), -1, -1));
+    }
+
+    @Test(enabled = true && ! DEBUG, expectedExceptions = IllegalStateException.class)
+    public void testNormalizedReferenceRequiresNormalization() throws IOException {
+        new CachingIndexedFastaSequenceFile(copySimpleFasta(), true).enableNormalizedReference();
+    }
+
     @Test(enabled = true, expectedExceptions = {UserException.class})
     public void testFailOnBadBase() throws FileNotFoundException, InterruptedException {
         final String testFasta = privateTestDir + "problematicFASTA.fasta";
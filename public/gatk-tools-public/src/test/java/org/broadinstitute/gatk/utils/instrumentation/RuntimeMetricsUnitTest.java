@@ -0,0 +1,250 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.instrumentation;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RuntimeMetricsUnitTest extends BaseTest {
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch ( InterruptedException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testDisabledMetricsDoNothing() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        final StageTimer timer = metrics.timer("stage");
+        final Counter counter = metrics.counter("counter");
+        final Histogram histogram = metrics.histogram("histogram");
+
+        timer.start();
+        timer.stop();
+        counter.increment();
+        histogram.record(10);
+
+        Assert.assertEquals(timer.getInvocations(), 0);
+        Assert.assertEquals(timer.getTotalNanos(), 0);
+        Assert.assertFalse(timer.hasBeenStarted(), "A timer that never ran while enabled set up per-thread state");
+        Assert.assertEquals(counter.getCount(), 0);
+        Assert.assertEquals(histogram.getCount(), 0);
+    }
+
+    @Test
+    public void testStopWithoutStartWhileEnabled() {
+        // a stage started while metrics were off must not be counted if metrics are turned on before it stops
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        final StageTimer timer = metrics.timer("stage");
+        timer.start();
+        metrics.setEnabled(true);
+        timer.stop();
+        Assert.assertEquals(timer.getInvocations(), 0);
+    }
+
+    @Test
+    public void testRegistrationReturnsExistingMetric() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        Assert.assertSame(metrics.timer("a"), metrics.timer("a"));
+        Assert.assertSame(metrics.counter("a"), metrics.counter("a"));
+        Assert.assertSame(metrics.histogram("a"), metrics.histogram("a"));
+        Assert.assertEquals(metrics.getTimers().size(), 1);
+    }
+
+    @Test
+    public void testNestedStagesAreExcludedFromSelfTime() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        metrics.setEnabled(true);
+        final StageTimer outer = metrics.timer("outer");
+        final StageTimer inner = metrics.timer("inner");
+
+        outer.start();
+        sleep(20);
+        inner.start();
+        sleep(50);
+        inner.stop();
+        outer.stop();
+
+        Assert.assertEquals(outer.getInvocations(), 1);
+        Assert.assertEquals(inner.getInvocations(), 1);
+        Assert.assertTrue(inner.getTotalNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(inner.getSelfNanos(), inner.getTotalNanos(), "a stage with no nested stages is all self time");
+        Assert.assertTrue(outer.getTotalNanos() >= inner.getTotalNanos() + TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertEquals(outer.getSelfNanos(), outer.getTotalNanos() - inner.getTotalNanos());
+    }
+
+    @Test
+    public void testReentrantStageIsCountedOnce() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        metrics.setEnabled(true);
+        final StageTimer timer = metrics.timer("stage");
+
+        timer.start();
+        timer.start();
+        timer.stop();
+        Assert.assertEquals(timer.getInvocations(), 0, "stage is still running");
+        timer.stop();
+        Assert.assertEquals(timer.getInvocations(), 1);
+        Assert.assertEquals(timer.getSelfNanos(), timer.getTotalNanos());
+    }
+
+    @Test
+    public void testAllocationIsAttributedToStage() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        if ( ! metrics.isAllocationTrackingSupported() )
+            return;
+
+        metrics.setEnabled(true);
+        final StageTimer timer = metrics.timer("stage");
+        timer.start();
+        final byte[][] garbage = new byte[16][];
+        for ( int i = 0; i < garbage.length; i++ )
+            garbage[i] = new byte[1 << 16];
+        timer.stop();
+
+        Assert.assertTrue(timer.getTotalAllocatedBytes() >= garbage.length * (1 << 16), "allocated " + timer.getTotalAllocatedBytes());
+    }
+
+    @Test
+    public void testStagesAreSummedOverThreads() throws InterruptedException {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        metrics.setEnabled(true);
+        final StageTimer timer = metrics.timer("stage");
+        final int nThreads = 4;
+        final int nPerThread = 1000;
+
+        final Thread[] threads = new Thread[nThreads];
+        for ( int t = 0; t < nThreads; t++ ) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for ( int i = 0; i < nPerThread; i++ ) {
+                        timer.start();
+                        timer.stop();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for ( final Thread thread : threads )
+            thread.join();
+
+        Assert.assertEquals(timer.getInvocations(), nThreads * nPerThread);
+    }
+
+    @Test
+    public void testReset() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        metrics.setEnabled(true);
+        final StageTimer timer = metrics.timer("stage");
+        final Counter counter = metrics.counter("counter");
+        final Histogram histogram = metrics.histogram("histogram");
+        timer.start();
+        timer.stop();
+        counter.add(5);
+        histogram.record(3);
+
+        metrics.reset();
+        Assert.assertEquals(timer.getInvocations(), 0);
+        Assert.assertEquals(timer.getTotalNanos(), 0);
+        Assert.assertEquals(counter.getCount(), 0);
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertEquals(histogram.getMax(), 0);
+    }
+
+    @DataProvider(name = "BucketData")
+    public Object[][] makeBucketData() {
+        return new Object[][]{
+                {0L, 0},
+                {1L, 1},
+                {2L, 2},
+                {3L, 2},
+                {4L, 3},
+                {1023L, 10},
+                {1024L, 11},
+                {Long.MAX_VALUE, 63},
+        };
+    }
+
+    @Test(dataProvider = "BucketData")
+    public void testHistogramBuckets(final long value, final int expectedBucket) {
+        Assert.assertEquals(Histogram.bucketOf(value), expectedBucket);
+    }
+
+    @Test
+    public void testHistogramStatistics() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        metrics.setEnabled(true);
+        final Histogram histogram = metrics.histogram("histogram");
+        for ( int i = 1; i <= 100; i++ )
+            histogram.record(i);
+
+        Assert.assertEquals(histogram.getCount(), 100);
+        Assert.assertEquals(histogram.getMax(), 100);
+        Assert.assertEquals(histogram.getMean(), 50.5, 1e-9);
+        Assert.assertEquals(histogram.getQuantile(0.0), 1);
+        // the median 50 is in the bucket [32, 64)
+        Assert.assertEquals(histogram.getQuantile(0.5), 63);
+        // but quantiles never exceed the largest value seen
+        Assert.assertEquals(histogram.getQuantile(0.99), 100);
+        Assert.assertEquals(histogram.getQuantile(1.0), 100);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testHistogramRejectsNegativeValues() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        metrics.setEnabled(true);
+        metrics.histogram("histogram").record(-1);
+    }
+
+    @Test
+    public void testJMXViews() {
+        final RuntimeMetrics metrics = new RuntimeMetrics();
+        metrics.setEnabled(true);
+        final StageTimer timer = metrics.timer("stage");
+        timer.start();
+        timer.stop();
+        metrics.counter("counter").add(7);
+
+        Assert.assertEquals(metrics.getStageInvocations().get("stage").longValue(), 1L);
+        Assert.assertEquals(metrics.getStageSeconds().get("stage"), RuntimeMetrics.nanosToSeconds(timer.getTotalNanos()));
+        Assert.assertEquals(metrics.getCounters().get("counter").longValue(), 7L);
+    }
+
+    @Test
+    public void testStandardStagesAreRegistered() {
+        Assert.assertTrue(RuntimeMetrics.getInstance().getTimers().contains(RuntimeMetrics.BAM_DECODING));
+        Assert.assertTrue(RuntimeMetrics.getInstance().getTimers().contains(RuntimeMetrics.VCF_WRITING));
+        Assert.assertTrue(RuntimeMetrics.getInstance().getHistograms().contains(RuntimeMetrics.ACTIVE_REGION_SIZE));
+    }
+}
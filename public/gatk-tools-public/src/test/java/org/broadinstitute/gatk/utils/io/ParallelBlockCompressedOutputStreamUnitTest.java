@@ -0,0 +1,149 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package org.broadinstitute.gatk.utils.io;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ParallelBlockCompressedOutputStreamUnitTest extends BaseTest {
+
+    private static byte[] makeData(final Random random, final int size) {
+        // half random, half repetitive, so that some blocks compress and some don't
+        final byte[] data = new byte[size];
+        for ( int i = 0; i < size; i++ )
+            data[i] = (i / 100000) % 2 == 0 ? (byte)random.nextInt() : (byte)"ACGT".charAt(i % 7 % 4);
+        return data;
+    }
+
+    @DataProvider(name = "Writes")
+    public Object[][] makeWrites() {
+        return new Object[][] {
+                // data size, max write size, number of threads, compression level
+                {0, 1, 2, null},
+                {10, 1, 2, null},
+                {65498, 65498, 2, null},
+                {1000000, 1, 3, null},
+                {1000000, 100000, 4, 1},
+                {3000000, 70000, 8, 9},
+        };
+    }
+
+    @Test(dataProvider = "Writes")
+    public void testMatchesBlockCompressedOutputStream(final int size, final int maxWrite, final int nThreads, final Integer compressionLevel) throws IOException {
+        final Random random = new Random(size);
+        final byte[] data = makeData(random, size);
+
+        final ByteArrayOutputStream serialBytes = new ByteArrayOutputStream();
+        final BlockCompressedOutputStream serial = compressionLevel == null
+                ? new BlockCompressedOutputStream(serialBytes, null)
+                : new BlockCompressedOutputStream(serialBytes, null, compressionLevel);
+        final ByteArrayOutputStream parallelBytes = new ByteArrayOutputStream();
+        final ParallelBlockCompressedOutputStream parallel = new ParallelBlockCompressedOutputStream(parallelBytes, compressionLevel, nThreads);
+
+        final List<Long> blockAddresses = new ArrayList<>();
+        blockAddresses.add(0L);
+        parallel.setBlockListener(new ParallelBlockCompressedOutputStream.BlockListener() {
+            @Override
+            public void blockWritten(final long blockNumber, final long blockAddress, final int blockSize) {
+                Assert.assertEquals(blockNumber, blockAddresses.size() - 1);
+                Assert.assertEquals(blockAddress, (long)blockAddresses.get(blockAddresses.size() - 1));
+                blockAddresses.add(blockAddress + blockSize);
+            }
+        });
+
+        // the position of the parallel stream must give the file pointer of the serial one
+        final List<long[]> positions = new ArrayList<>();
+        final List<Long> filePointers = new ArrayList<>();
+        int offset = 0;
+        while ( offset < size ) {
+            final int length = Math.min(size - offset, 1 + random.nextInt(maxWrite));
+            if ( length == 1 ) {
+                serial.write(data[offset]);
+                parallel.write(data[offset]);
+            } else {
+                serial.write(data, offset, length);
+                parallel.write(data, offset, length);
+            }
+            offset += length;
+            positions.add(new long[] {parallel.getBlockNumber(), parallel.getBlockOffset()});
+            filePointers.add(serial.getFilePointer());
+        }
+        serial.close();
+        parallel.close();
+
+        Assert.assertEquals(parallelBytes.toByteArray(), serialBytes.toByteArray());
+        for ( int i = 0; i < positions.size(); i++ ) {
+            final long[] position = positions.get(i);
+            Assert.assertEquals(blockAddresses.get((int)position[0]).longValue(), BlockCompressedFilePointerUtil.getBlockAddress(filePointers.get(i)));
+            Assert.assertEquals(position[1], BlockCompressedFilePointerUtil.getBlockOffset(filePointers.get(i)));
+        }
+
+        final BlockCompressedInputStream input = new BlockCompressedInputStream(new ByteArrayInputStream(parallelBytes.toByteArray()));
+        final byte[] decompressed = new byte[size];
+        int nRead = 0;
+        while ( nRead < size ) {
+            final int n = input.read(decompressed, nRead, size - nRead);
+            Assert.assertTrue(n > 0);
+            nRead += n;
+        }
+        Assert.assertEquals(input.read(), -1);
+        Assert.assertEquals(decompressed, data);
+    }
+
+    @Test
+    public void testFlushEndsBlock() throws IOException {
+        final ByteArrayOutputStream serialBytes = new ByteArrayOutputStream();
+        final BlockCompressedOutputStream serial = new BlockCompressedOutputStream(serialBytes, null);
+        final ByteArrayOutputStream parallelBytes = new ByteArrayOutputStream();
+        final ParallelBlockCompressedOutputStream parallel = new ParallelBlockCompressedOutputStream(parallelBytes, null, 2);
+
+        final byte[] data = makeData(new Random(1), 200000);
+        for ( int i = 0; i < 4; i++ ) {
+            serial.write(data, i * 50000, 50000);
+            parallel.write(data, i * 50000, 50000);
+            serial.flush();
+            parallel.flush();
+            Assert.assertEquals(parallelBytes.toByteArray(), serialBytes.toByteArray());
+            Assert.assertEquals(parallel.getBlockOffset(), 0);
+        }
+        serial.close();
+        parallel.close();
+        Assert.assertEquals(parallelBytes.toByteArray(), serialBytes.toByteArray());
+    }
+}
@@ -597,6 +597,73 @@ public class LocusIteratorByStateUnitTest extends LocusIteratorByStateBaseTest {
         }
     }
 
+    // ---------------------------------------------------------------------------
+    // make sure that reusing pileup elements gives the same pileups as new ones
+    //
+    // ---------------------------------------------------------------------------
+
+    @DataProvider(name = "LIBS_ReusePileupElementsTest")
+    public Object[][] makeLIBS_ReusePileupElementsTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int nReadsPerLocus : Arrays.asList(1, 10, 60) ) {
+            for ( final int nLoci : Arrays.asList(1, 10, 25) ) {
+                for ( final int nSamples : Arrays.asList(1, 2, 10) ) {
+                    tests.add(new Object[]{nReadsPerLocus, nLoci, nSamples});
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(enabled = true && ! DEBUG, dataProvider = "LIBS_ReusePileupElementsTest")
+    public void testLIBS_ReusePileupElements(final int nReadsPerLocus, final int nLoci, final int nSamples) {
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(header.getSequenceDictionary(), nReadsPerLocus, nLoci);
+        bamBuilder.createAndSetHeader(nSamples).setReadLength(10).setAlignmentStart(1);
+        final List<GATKSAMRecord> reads = bamBuilder.makeReads();
+
+        final LocusIteratorByState expectedLIBS = new LocusIteratorByState(reads.iterator(),
+                new LIBSDownsamplingInfo(false, 0), true, genomeLocParser, bamBuilder.getSamples(), false, false);
+        final LocusIteratorByState reusingLIBS = new LocusIteratorByState(reads.iterator(),
+                new LIBSDownsamplingInfo(false, 0), true, genomeLocParser, bamBuilder.getSamples(), false, true);
+
+        final List<ReadBackedPileup> expectedPileups = new LinkedList<ReadBackedPileup>();
+        final List<ReadBackedPileup> copiedPileups = new LinkedList<ReadBackedPileup>();
+        while ( expectedLIBS.hasNext() ) {
+            Assert.assertTrue(reusingLIBS.hasNext());
+            final AlignmentContext expected = expectedLIBS.next();
+            final AlignmentContext actual = reusingLIBS.next();
+
+            Assert.assertEquals(actual.getLocation(), expected.getLocation());
+            assertSamePileups(actual.getBasePileup(), expected.getBasePileup());
+            for ( final String sample : expected.getBasePileup().getSamples() )
+                assertSamePileups(actual.getBasePileup().getPileupForSample(sample), expected.getBasePileup().getPileupForSample(sample));
+
+            expectedPileups.add(expected.getBasePileup());
+            copiedPileups.add(actual.getBasePileup().copy());
+        }
+        Assert.assertFalse(reusingLIBS.hasNext());
+
+        // the copies must have survived the iterator moving on
+        Assert.assertEquals(copiedPileups.size(), expectedPileups.size());
+        for ( int i = 0; i < expectedPileups.size(); i++ )
+            assertSamePileups(copiedPileups.get(i), expectedPileups.get(i));
+    }
+
+    private void assertSamePileups(final ReadBackedPileup actual, final ReadBackedPileup expected) {
+        Assert.assertEquals(actual.getNumberOfElements(), expected.getNumberOfElements());
+        final Iterator<PileupElement> actualElements = actual.iterator();
+        for ( final PileupElement expectedElement : expected ) {
+            final PileupElement actualElement = actualElements.next();
+            Assert.assertSame(actualElement.getRead(), expectedElement.getRead());
+            Assert.assertEquals(actualElement.getOffset(), expectedElement.getOffset());
+            Assert.assertEquals(actualElement.getCurrentCigarElement(), expectedElement.getCurrentCigarElement());
+            Assert.assertEquals(actualElement.getCurrentCigarOffset(), expectedElement.getCurrentCigarOffset());
+            Assert.assertEquals(actualElement.getOffsetInCurrentCigar(), expectedElement.getOffsetInCurrentCigar());
+        }
+    }
+
     // ---------------------------------------------------------------------------
     // make sure that downsampling isn't holding onto a bazillion reads
     //
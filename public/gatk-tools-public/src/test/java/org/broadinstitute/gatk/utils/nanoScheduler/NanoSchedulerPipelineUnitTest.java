@@ -0,0 +1,173 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package org.broadinstitute.gatk.utils.nanoScheduler;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UnitTests for the NanoSchedulerPipeline
+ */
+public class NanoSchedulerPipelineUnitTest extends BaseTest {
+    public static final int PIPELINE_TEST_TIMEOUT = 30000;
+
+    private static class Map2xWithDelays implements NSMapFunction<Integer, Integer> {
+        @Override public Integer apply(final Integer input) {
+            try {
+                if ( input % 7 == 0 )
+                    Thread.sleep(input % 10);
+            } catch ( InterruptedException ex ) {
+                throw new RuntimeException(ex);
+            }
+            return input * 2;
+        }
+    }
+
+    private static class OrderCheckingReduce implements NSReduceFunction<Integer, List<Integer>> {
+        @Override public List<Integer> apply(final Integer one, final List<Integer> sum) {
+            sum.add(one);
+            return sum;
+        }
+    }
+
+    @DataProvider(name = "PipelineTest")
+    public Object[][] makePipelineTest() {
+        final List<Object[]> tests = new ArrayList<>();
+        for ( final int nThreads : new int[]{1, 2, 4} )
+            for ( final int maxWeight : new int[]{1, 10, 1000} )
+                for ( final int nBatches : new int[]{1, 5} )
+                    tests.add(new Object[]{nThreads, maxWeight, nBatches});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "PipelineTest", timeOut = PIPELINE_TEST_TIMEOUT)
+    public void testReducesInSubmissionOrder(final int nThreads, final int maxWeight, final int nBatches) {
+        final NanoSchedulerPipeline<Integer, Integer, List<Integer>> pipeline =
+                new NanoSchedulerPipeline<>(nThreads, maxWeight, new Map2xWithDelays(), new ArrayList<Integer>(), new OrderCheckingReduce());
+
+        // like the shards of a traversal, submit several batches and only wait for them all at the end
+        final List<Integer> expected = new ArrayList<>();
+        int next = 0;
+        for ( int batch = 0; batch < nBatches; batch++ ) {
+            for ( int i = 0; i < 100; i++, next++ ) {
+                pipeline.submit(next, next % 5);
+                expected.add(next * 2);
+            }
+        }
+
+        Assert.assertEquals(pipeline.finish(), expected);
+        Assert.assertEquals(pipeline.getNumSubmitted(), expected.size());
+        Assert.assertTrue(pipeline.getMaxJobsInFlight() >= 1);
+        // an input heavier than the limit is only let in on its own
+        Assert.assertTrue(pipeline.getMaxWeightInFlight() <= Math.max(maxWeight, 4));
+        pipeline.shutdown();
+    }
+
+    @Test(timeOut = PIPELINE_TEST_TIMEOUT)
+    public void testSlowInputDoesNotBlockSubmission() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final NSMapFunction<Integer, Integer> map = new NSMapFunction<Integer, Integer>() {
+            @Override public Integer apply(final Integer input) {
+                try {
+                    if ( input == 0 ) release.await();
+                } catch ( InterruptedException ex ) {
+                    throw new RuntimeException(ex);
+                }
+                return input;
+            }
+        };
+        final NanoSchedulerPipeline<Integer, Integer, List<Integer>> pipeline =
+                new NanoSchedulerPipeline<>(2, 10, map, new ArrayList<Integer>(), new OrderCheckingReduce());
+
+        // input 0 holds one thread until we let it go, but the inputs behind it keep flowing through the other one
+        for ( int i = 0; i < 50; i++ )
+            pipeline.submit(i, 5);
+        Assert.assertTrue(pipeline.getReduceResult().isEmpty());
+
+        release.countDown();
+        final List<Integer> result = pipeline.finish();
+        Assert.assertEquals(result.size(), 50);
+        for ( int i = 0; i < 50; i++ )
+            Assert.assertEquals(result.get(i).intValue(), i);
+        Assert.assertTrue(pipeline.getMaxResultsAwaitingReduce() > 1);
+        Assert.assertTrue(pipeline.getNumStalls() > 0);
+        Assert.assertTrue(pipeline.getMaxWeightInFlight() <= 10);
+        pipeline.shutdown();
+    }
+
+    @Test(timeOut = PIPELINE_TEST_TIMEOUT, expectedExceptions = NullPointerException.class)
+    public void testMapErrorIsRethrown() {
+        final NSMapFunction<Integer, Integer> map = new NSMapFunction<Integer, Integer>() {
+            @Override public Integer apply(final Integer input) {
+                if ( input == 10 ) throw new NullPointerException("map failure");
+                return input;
+            }
+        };
+        final NanoSchedulerPipeline<Integer, Integer, List<Integer>> pipeline =
+                new NanoSchedulerPipeline<>(2, 10, map, new ArrayList<Integer>(), new OrderCheckingReduce());
+        try {
+            for ( int i = 0; i < 20; i++ )
+                pipeline.submit(i, 1);
+            pipeline.finish();
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test(timeOut = PIPELINE_TEST_TIMEOUT, expectedExceptions = IllegalArgumentException.class)
+    public void testShutdownWithPendingJobsKeepsOriginalError() {
+        final CountDownLatch never = new CountDownLatch(1);
+        final NSMapFunction<Integer, Integer> map = new NSMapFunction<Integer, Integer>() {
+            @Override public Integer apply(final Integer input) {
+                try {
+                    never.await();
+                } catch ( InterruptedException ex ) {
+                    throw new RuntimeException(ex);
+                }
+                return input;
+            }
+        };
+        final NanoSchedulerPipeline<Integer, Integer, List<Integer>> pipeline =
+                new NanoSchedulerPipeline<>(2, 10, map, new ArrayList<Integer>(), new OrderCheckingReduce());
+        try {
+            for ( int i = 0; i < 5; i++ )
+                pipeline.submit(i, 1);
+            // a failure in the client while map jobs are still queued and running
+            throw new IllegalArgumentException("client failure");
+        } finally {
+            pipeline.shutdown();
+            Assert.assertTrue(pipeline.isShutdown());
+        }
+    }
+}